@@ -0,0 +1,171 @@
+package uk.co.travelai_public.io;
+
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.travel.PagedLocationSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link PagedLocationSource} streaming waypoints through a server-side database cursor.
+ * <p>
+ * The query must return columns timestamp, lat and lon; accuracy, speed and timezone_offset are read when present.
+ * Rows are fetched pageSize at a time and the cursor is closed once the last row is read. Every iteration
+ * re-executes the query, so iterate the source once per processing pass.
+ * <p>
+ * Cursors require auto-commit to be off on most drivers (e.g. PostgreSQL); it is switched off for the duration of
+ * the query and restored afterwards. A source built on a {@link DataSource} takes a connection of its own for each
+ * iteration and closes it with the cursor, so it stays usable after the load that created it, e.g. as lazy waypoints
+ * of {@link JdbcUserDataLoader}.
+ */
+
+public class JdbcLocationSource extends PagedLocationSource {
+
+    private final Connection conn;
+    private final DataSource dataSource;
+    private final String sql;
+    private final Object[] params;
+    private final int size;
+
+    /**
+     * @param conn   database connection
+     * @param sql    query returning waypoints ordered by timestamp
+     * @param params query parameters
+     */
+    public JdbcLocationSource(Connection conn, String sql, Object... params) {
+        this(conn, sql, params, -1, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param size number of rows returned by the query if known, -1 otherwise
+     */
+    public JdbcLocationSource(Connection conn, String sql, Object[] params, int size, int pageSize) {
+        this(conn, null, sql, params, size, pageSize);
+    }
+
+    /**
+     * @param dataSource source of a connection per iteration
+     * @param size       number of rows returned by the query if known, -1 otherwise
+     */
+    public JdbcLocationSource(DataSource dataSource, String sql, Object[] params, int size, int pageSize) {
+        this(null, dataSource, sql, params, size, pageSize);
+    }
+
+    private JdbcLocationSource(Connection conn, DataSource dataSource, String sql, Object[] params, int size,
+                               int pageSize) {
+        super(pageSize);
+        this.conn = conn;
+        this.dataSource = dataSource;
+        this.sql = sql;
+        this.params = params != null ? params : new Object[0];
+        this.size = size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    protected PageReader openReader() {
+        try {
+            return new CursorReader();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to query waypoints: " + sql, e);
+        }
+    }
+
+    private class CursorReader implements PageReader {
+
+        // Connection of the iteration; closed with the cursor if taken from the data source
+        private final Connection conn;
+        private final boolean autoCommit;
+        private final PreparedStatement stmt;
+        private final ResultSet rs;
+
+        private final int iTimestamp;
+        private final int iLat;
+        private final int iLon;
+        private final int iAccuracy;
+        private final int iSpeed;
+        private final int iTzOffset;
+
+        CursorReader() throws SQLException {
+            conn = dataSource != null ? dataSource.getConnection() : JdbcLocationSource.this.conn;
+            try {
+                autoCommit = conn.getAutoCommit();
+                if (autoCommit)
+                    conn.setAutoCommit(false);
+
+                stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                stmt.setFetchSize(getPageSize());
+                for (int i = 0; i < params.length; i++)
+                    stmt.setObject(i + 1, params[i]);
+                rs = stmt.executeQuery();
+            } catch (SQLException | RuntimeException e) {
+                if (dataSource != null)
+                    conn.close();
+                throw e;
+            }
+
+            ResultSetMetaData md = rs.getMetaData();
+            Set<String> columns = new HashSet<>();
+            for (int i = 1; i <= md.getColumnCount(); i++)
+                columns.add(md.getColumnLabel(i).toLowerCase());
+
+            iTimestamp = rs.findColumn("timestamp");
+            iLat = rs.findColumn("lat");
+            iLon = rs.findColumn("lon");
+            iAccuracy = columns.contains("accuracy") ? rs.findColumn("accuracy") : -1;
+            iSpeed = columns.contains("speed") ? rs.findColumn("speed") : -1;
+            iTzOffset = columns.contains("timezone_offset") ? rs.findColumn("timezone_offset") : -1;
+        }
+
+        @Override
+        public int read(List<Location> page, int limit) {
+            int n = 0;
+            try {
+                while (n < limit && rs.next()) {
+                    Location l = new Location();
+                    l.setTimestamp(rs.getDouble(iTimestamp));
+                    l.setLatitude(rs.getDouble(iLat));
+                    l.setLongitude(rs.getDouble(iLon));
+                    if (iAccuracy > 0)
+                        l.setAccuracy(rs.getDouble(iAccuracy));
+                    if (iSpeed > 0)
+                        l.setSpeed(rs.getDouble(iSpeed));
+                    if (iTzOffset > 0)
+                        l.setTzOffset_ms(rs.getDouble(iTzOffset));
+                    page.add(l);
+                    n++;
+                }
+            } catch (SQLException e) {
+                throw new IllegalStateException("Failed to read waypoints: " + sql, e);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            try {
+                rs.close();
+                stmt.close();
+                if (autoCommit) {
+                    conn.commit();
+                    conn.setAutoCommit(true);
+                }
+                if (dataSource != null)
+                    conn.close();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Failed to close waypoint cursor", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,641 @@
+package uk.co.travelai_public.io;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import uk.co.travelai_public.model.IdAllocator;
+import uk.co.travelai_public.model.Ids;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.TransportMode;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.POI;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+import uk.co.travelai_public.model.travel.PagedLocationSource;
+import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.model.travel.WaypointArena;
+import uk.co.travelai_public.obfuscation.PrivacyCategory;
+import uk.co.travelai_public.pipeline.IncrementalUserDataLoader;
+import uk.co.travelai_public.pipeline.UserData;
+import uk.co.travelai_public.pipeline.UserDataLoader;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link UserDataLoader} streaming the data of a user from the input database through server-side cursors.
+ * <p>
+ * Each table is read with one query, fetchSize rows per round trip (waypointFetchSize for waypoints), and rows are
+ * turned into model objects as they are read: places, dwells onto their places, routes, legs onto their routes, and
+ * waypoints into a {@link LocationBlock} per leg, or per route for routes without legs. Waypoints are ordered by
+ * timestamp, so the waypoints of a leg are consecutive and only those of the leg being read are buffered. Reverse
+ * geocodes are attached to their places as nearby POIs with their scores. With offHeap set, the blocks are allocated
+ * in a {@link WaypointArena} of the loaded {@link UserData}, freed by {@link UserData#releaseWaypoints()}.
+ * <p>
+ * With lazyWaypoints set, waypoints are not read by the load: each leg, and each route without legs, gets a
+ * {@link JdbcLocationSource} running the leg or route waypoints query, with the installation id and the leg or route
+ * id as parameters, each time it is iterated, one page at a time over a connection of its own. Legs then keep the first
+ * and last locations of the legs query. Lazy sources read the database as it is when iterated, so use them where the
+ * waypoints of loaded legs are not rewritten during processing.
+ * <p>
+ * Queries can be replaced, e.g. for an embedded database; queries of dwells, routes, legs and waypoints take the
+ * installation id, window start and window end as parameters, queries of places and reverse geocodes the installation
+ * id only. Dwells and routes are selected by their start time; legs and waypoints are queried up to the end of the last
+ * route, and kept if their route is. Columns are matched by label:
+ * <ul>
+ *     <li>places: id, lat, lon</li>
+ *     <li>dwells: id, place_id, start_ts, end_ts, and optionally duration, lat, lon and timezone_offset</li>
+ *     <li>routes: id, start_ts, end_ts, and optionally duration, distance, start_place_id and end_place_id</li>
+ *     <li>legs: id, route_id, start_ts, end_ts, and optionally transport_mode (id or name), duration, distance,
+ *     firstloc_lat, firstloc_lon, lastloc_lat and lastloc_lon</li>
+ *     <li>waypoints: timestamp, lat, lon, leg_id or route_id, and optionally accuracy, speed and timezone_offset</li>
+ *     <li>reverse geocodes: place_id, and optionally id, title, category_sensitivity, score, lat, lon and
+ *     distance</li>
+ * </ul>
+ * Each load takes its own connection from the data source, so loads can run on several threads, e.g. when prefetched
+ * by {@link uk.co.travelai_public.pipeline.PrefetchingUserDataLoader}.
+ * <p>
+ * As {@link IncrementalUserDataLoader}, earlier routes of places are read with the routes query over the history
+ * before the window end, keeping those starting or ending at the places, and their legs and waypoints are queried over
+ * the span of each run of overlapping routes only. Dwells and routes are open while their end_ts is null; the open
+ * dwells and routes queries take the same parameters as the dwells query and return the start_ts of the earliest
+ * open one, or no row or null if there is none.
+ */
+
+@Getter
+@Setter
+public class JdbcUserDataLoader implements IncrementalUserDataLoader {
+
+    public static final String PLACES_SQL = "SELECT id, st_y(location) AS lat, st_x(location) AS lon FROM places "
+            + "WHERE installation_id = ?";
+    public static final String DWELLS_SQL = "SELECT id, place_id, start_ts, end_ts, duration, "
+            + "st_y(location) AS lat, st_x(location) AS lon FROM dwells "
+            + "WHERE obsolete = false AND installation_id = ? AND start_ts >= ? AND start_ts < ? ORDER BY start_ts";
+    public static final String ROUTES_SQL = "SELECT id, start_ts, end_ts, duration, distance, start_place_id, "
+            + "end_place_id FROM routes "
+            + "WHERE obsolete = false AND installation_id = ? AND start_ts >= ? AND start_ts < ? ORDER BY start_ts";
+    public static final String LEGS_SQL = "SELECT id, route_id, start_ts, end_ts, transport_mode, duration, distance, "
+            + "st_y(first_location) AS firstloc_lat, st_x(first_location) AS firstloc_lon, "
+            + "st_y(last_location) AS lastloc_lat, st_x(last_location) AS lastloc_lon FROM legs "
+            + "WHERE obsolete = false AND installation_id = ? AND start_ts >= ? AND start_ts < ? ORDER BY start_ts";
+    public static final String WAYPOINTS_SQL = "SELECT timestamp, st_y(location) AS lat, st_x(location) AS lon, "
+            + "accuracy, speed, timezone_offset, leg_id, route_id FROM waypoints "
+            + "WHERE installation_id = ? AND timestamp >= ? AND timestamp < ? ORDER BY timestamp";
+    public static final String LEG_WAYPOINTS_SQL = "SELECT timestamp, st_y(location) AS lat, st_x(location) AS lon, "
+            + "accuracy, speed, timezone_offset FROM waypoints "
+            + "WHERE installation_id = ? AND leg_id = ? ORDER BY timestamp";
+    public static final String ROUTE_WAYPOINTS_SQL = "SELECT timestamp, st_y(location) AS lat, st_x(location) AS lon, "
+            + "accuracy, speed, timezone_offset FROM waypoints "
+            + "WHERE installation_id = ? AND route_id = ? ORDER BY timestamp";
+    public static final String OPEN_DWELLS_SQL = "SELECT min(start_ts) AS start_ts FROM dwells "
+            + "WHERE obsolete = false AND installation_id = ? AND start_ts >= ? AND start_ts < ? AND end_ts IS NULL";
+    public static final String OPEN_ROUTES_SQL = "SELECT min(start_ts) AS start_ts FROM routes "
+            + "WHERE obsolete = false AND installation_id = ? AND start_ts >= ? AND start_ts < ? AND end_ts IS NULL";
+    public static final String REVERSE_GEOCODES_SQL = "SELECT * FROM reverse_geocode WHERE installation_id = ?";
+
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) private final DataSource dataSource;
+
+    private String placesSql = PLACES_SQL;
+    private String dwellsSql = DWELLS_SQL;
+    private String routesSql = ROUTES_SQL;
+    private String legsSql = LEGS_SQL;
+    private String waypointsSql = WAYPOINTS_SQL;
+    private String legWaypointsSql = LEG_WAYPOINTS_SQL;
+    private String routeWaypointsSql = ROUTE_WAYPOINTS_SQL;
+    private String reverseGeocodesSql = REVERSE_GEOCODES_SQL;  // null to skip
+    private String openDwellsSql = OPEN_DWELLS_SQL;            // null to skip
+    private String openRoutesSql = OPEN_ROUTES_SQL;            // null to skip
+
+    // Rows per round trip
+    private int fetchSize = 1000;
+    private int waypointFetchSize = 10000;
+
+    // Keep waypoints off the Java heap, in a WaypointArena per load
+    private boolean offHeap = false;
+
+    // Read waypoints when legs and routes are iterated rather than by the load; offHeap is then ignored
+    private boolean lazyWaypoints = false;
+    private int waypointPageSize = PagedLocationSource.DEFAULT_PAGE_SIZE;
+
+    public JdbcUserDataLoader(@NonNull DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public UserData load(String installationId, double startTs, double endTs) throws IOException {
+        return read(installationId, startTs, endTs, offHeap && !lazyWaypoints, UserReader::read);
+    }
+
+    @Override
+    public List<Route> loadRoutesOfPlaces(String installationId, @NonNull Collection<Long> placeUids, double endTs)
+            throws IOException {
+        // The routes are not released with a UserData, so their waypoints are kept on the heap
+        return read(installationId, Double.NEGATIVE_INFINITY, endTs, false,
+                r -> r.readRoutesOfPlaces(new HashSet<>(placeUids)));
+    }
+
+    @Override
+    public double completeUntil(String installationId, double untilTs) throws IOException {
+        return read(installationId, Double.NEGATIVE_INFINITY, untilTs, false, UserReader::readCompleteUntil);
+    }
+
+    // Read of a UserReader
+    private interface ReaderTask<T> {
+        T run(UserReader reader) throws SQLException;
+    }
+
+    @SuppressWarnings("try")
+    private <T> T read(String installationId, double startTs, double endTs, boolean offHeap, ReaderTask<T> task)
+            throws IOException {
+        try (Connection conn = dataSource.getConnection()) {
+            // Cursors require auto-commit to be off on most drivers
+            boolean autoCommit = conn.getAutoCommit();
+            if (autoCommit)
+                conn.setAutoCommit(false);
+            try (Ids.Scope ids = Ids.use(IdAllocator.UNASSIGNED)) {
+                return task.run(new UserReader(conn, installationId, startTs, endTs, offHeap));
+            } finally {
+                conn.rollback();
+                if (autoCommit)
+                    conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to load " + installationId + " from the input database", e);
+        }
+    }
+
+    // Columns of a result set by label; -1 if absent
+    private static class Columns {
+        private final Map<String, Integer> indices = new HashMap<>();
+
+        Columns(ResultSet rs) throws SQLException {
+            ResultSetMetaData md = rs.getMetaData();
+            for (int i = 1; i <= md.getColumnCount(); i++)
+                indices.putIfAbsent(md.getColumnLabel(i).toLowerCase(), i);
+        }
+
+        int optional(String label) {
+            return indices.getOrDefault(label, -1);
+        }
+
+        int required(String label) throws SQLException {
+            int i = optional(label);
+            if (i < 0)
+                throw new SQLException("Missing column " + label);
+            return i;
+        }
+    }
+
+    // Value of input column, def if absent or null
+    private static double getDouble(ResultSet rs, int i, double def) throws SQLException {
+        if (i < 0)
+            return def;
+        double v = rs.getDouble(i);
+        return rs.wasNull() ? def : v;
+    }
+
+    private static long getLong(ResultSet rs, int i, long def) throws SQLException {
+        if (i < 0)
+            return def;
+        long v = rs.getLong(i);
+        return rs.wasNull() ? def : v;
+    }
+
+    private static Location location(double ts, double lat, double lon) {
+        Location l = new Location();
+        l.setTimestamp(ts);
+        l.setLatitude(lat);
+        l.setLongitude(lon);
+        return l;
+    }
+
+    // Reader of the data of one user over one connection
+    private class UserReader {
+        private final Connection conn;
+        private final String installationId;
+        private final double startTs;
+        private final double endTs;
+        // End of the window of legs and waypoints: after the end of every route read
+        private double routesEndTs;
+
+        private final UserData data = new UserData();
+        private final Map<Long, Place> places = new HashMap<>();
+        private final Map<Long, Route> routes = new HashMap<>();
+        private final Map<Long, Leg> legs = new HashMap<>();
+        private final WaypointArena arena;
+
+        // Places of the routes to read; null for all routes
+        private Set<Long> routePlaces;
+
+        // Waypoints of the leg, or route without legs, being read
+        private Leg bufferLeg;
+        private Route bufferRoute;
+        private int nBuffered;
+        private double[] ts = new double[256];
+        private double[] lat = new double[256];
+        private double[] lon = new double[256];
+        private double[] acc = new double[256];
+        private double[] spd = new double[256];
+        private double[] tz = new double[256];
+
+        UserReader(Connection conn, String installationId, double startTs, double endTs, boolean offHeap) {
+            this.conn = conn;
+            this.installationId = installationId;
+            this.startTs = startTs;
+            this.endTs = endTs;
+            this.routesEndTs = endTs;
+            this.arena = offHeap ? new WaypointArena() : null;
+        }
+
+        UserData read() throws SQLException {
+            data.setInstallationId(installationId);
+            data.setStartTs(startTs);
+            data.setEndTs(endTs);
+            try {
+                readPlaces();
+                readDwells();
+                readRoutes();
+                readLegs(startTs, routesEndTs);
+                if (lazyWaypoints)
+                    attachWaypointSources();
+                else
+                    readWaypoints(startTs, routesEndTs);
+                if (reverseGeocodesSql != null)
+                    readReverseGeocodes();
+            } catch (SQLException | RuntimeException e) {
+                if (arena != null)
+                    arena.close();
+                throw e;
+            }
+
+            if (arena != null) {
+                for (Leg l : legs.values())
+                    if (l.getLocationSource() instanceof LocationBlock)
+                        arena.attach(l);
+                for (Route r : routes.values())
+                    if (r.getLocationSource() instanceof LocationBlock)
+                        arena.attach(r);
+                data.setWaypointArena(arena);
+            }
+
+            // Places are included if any of their dwells is
+            for (Place p : places.values())
+                if (!p.getDwells().isEmpty())
+                    data.getPlaces().add(p);
+            data.getPlaces().sort((a, b) -> Long.compare(a.getUid(), b.getUid()));
+            return data;
+        }
+
+        // Routes of the window starting or ending at input places, with their legs and waypoints
+        List<Route> readRoutesOfPlaces(Set<Long> placeUids) throws SQLException {
+            routePlaces = placeUids;
+            readPlaces();
+            readRoutes();
+
+            // Legs and waypoints over the span of each run of overlapping routes, in start order
+            List<Route> rs = data.getRoutes();
+            int i = 0;
+            while (i < rs.size()) {
+                double from = rs.get(i).getStartTime();
+                double until = Math.floor(rs.get(i).getEndTime()) + 1;
+                int j = i + 1;
+                while (j < rs.size() && rs.get(j).getStartTime() < until)
+                    until = Math.max(until, Math.floor(rs.get(j++).getEndTime()) + 1);
+                readLegs(from, until);
+                if (!lazyWaypoints)
+                    readWaypoints(from, until);
+                i = j;
+            }
+            if (lazyWaypoints)
+                attachWaypointSources();
+            return rs;
+        }
+
+        // Start of the earliest open dwell or route of the window, or the window end if there is none
+        double readCompleteUntil() throws SQLException {
+            double until = endTs;
+            for (String sql : Arrays.asList(openDwellsSql, openRoutesSql)) {
+                if (sql == null)
+                    continue;
+                try (ResultSet rs = query(sql, fetchSize, startTs, endTs)) {
+                    int iStart = new Columns(rs).required("start_ts");
+                    while (rs.next())
+                        until = Math.min(until, getDouble(rs, iStart, until));
+                }
+            }
+            return until;
+        }
+
+        private ResultSet query(String sql, int rows) throws SQLException {
+            return query(sql, rows, Double.NaN, Double.NaN);
+        }
+
+        // Query with window [from, until) as parameters, unless NaN
+        private ResultSet query(String sql, int rows, double from, double until) throws SQLException {
+            PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY);
+            stmt.closeOnCompletion();
+            stmt.setFetchSize(rows);
+            stmt.setString(1, installationId);
+            if (!Double.isNaN(from)) {
+                // Integer milliseconds: ts >= start and ts < end hold for the rounded-up bounds as well
+                stmt.setLong(2, (long) Math.ceil(from));
+                stmt.setLong(3, (long) Math.ceil(until));
+            }
+            return stmt.executeQuery();
+        }
+
+        private void readPlaces() throws SQLException {
+            try (ResultSet rs = query(placesSql, fetchSize)) {
+                Columns c = new Columns(rs);
+                int iId = c.required("id");
+                int iLat = c.required("lat");
+                int iLon = c.required("lon");
+                while (rs.next()) {
+                    Place p = new Place();
+                    p.setUid(rs.getLong(iId));
+                    p.setLatitude(rs.getDouble(iLat));
+                    p.setLongitude(rs.getDouble(iLon));
+                    p.setDwells(new ArrayList<>());
+                    p.setDepartingRoutes(new ArrayList<>());
+                    p.setArrivingRoutes(new ArrayList<>());
+                    p.setNearbyPOIs(new ArrayList<>());
+                    places.put(p.getUid(), p);
+                }
+            }
+        }
+
+        private void readDwells() throws SQLException {
+            try (ResultSet rs = query(dwellsSql, fetchSize, startTs, endTs)) {
+                Columns c = new Columns(rs);
+                int iId = c.required("id");
+                int iPlace = c.required("place_id");
+                int iStart = c.required("start_ts");
+                int iEnd = c.required("end_ts");
+                int iDuration = c.optional("duration");
+                int iLat = c.optional("lat");
+                int iLon = c.optional("lon");
+                int iTz = c.optional("timezone_offset");
+                while (rs.next()) {
+                    Place p = places.get(rs.getLong(iPlace));
+                    if (p == null)
+                        continue;
+                    Dwell d = new Dwell();
+                    d.setUid(rs.getLong(iId));
+                    d.setParentPlaceID(p.getUid());
+                    d.setStartTime(rs.getDouble(iStart));
+                    d.setEndTime(rs.getDouble(iEnd));
+                    d.setDuration(getDouble(rs, iDuration, d.getEndTime() - d.getStartTime()));
+                    Location l = location(d.getStartTime(), getDouble(rs, iLat, p.getLatitude()),
+                            getDouble(rs, iLon, p.getLongitude()));
+                    l.setTzOffset_ms(getDouble(rs, iTz, 0));
+                    d.setDwellLocation(l);
+                    p.getDwells().add(d);
+                    data.getDwells().add(d);
+                }
+            }
+        }
+
+        private void readRoutes() throws SQLException {
+            try (ResultSet rs = query(routesSql, fetchSize, startTs, endTs)) {
+                Columns c = new Columns(rs);
+                int iId = c.required("id");
+                int iStart = c.required("start_ts");
+                int iEnd = c.required("end_ts");
+                int iDuration = c.optional("duration");
+                int iDistance = c.optional("distance");
+                int iStartPlace = c.optional("start_place_id");
+                int iEndPlace = c.optional("end_place_id");
+                while (rs.next()) {
+                    long startId = getLong(rs, iStartPlace, -1);
+                    long endId = getLong(rs, iEndPlace, -1);
+                    if (routePlaces != null && !routePlaces.contains(startId) && !routePlaces.contains(endId))
+                        continue;
+                    Route r = new Route();
+                    r.setUid(rs.getLong(iId));
+                    r.setStartTime(rs.getDouble(iStart));
+                    r.setEndTime(rs.getDouble(iEnd));
+                    r.setDuration(getDouble(rs, iDuration, r.getEndTime() - r.getStartTime()));
+                    r.setDistance(getDouble(rs, iDistance, -1));
+                    Place start = places.get(startId);
+                    Place end = places.get(endId);
+                    r.setStartPlace(start);
+                    r.setEndPlace(end);
+                    if (start != null)
+                        start.getDepartingRoutes().add(r);
+                    if (end != null)
+                        end.getArrivingRoutes().add(r);
+                    routes.put(r.getUid(), r);
+                    data.getRoutes().add(r);
+                    routesEndTs = Math.max(routesEndTs, Math.floor(r.getEndTime()) + 1);
+                }
+            }
+        }
+
+        private void readLegs(double from, double until) throws SQLException {
+            try (ResultSet rs = query(legsSql, fetchSize, from, until)) {
+                Columns c = new Columns(rs);
+                int iId = c.required("id");
+                int iRoute = c.required("route_id");
+                int iStart = c.required("start_ts");
+                int iEnd = c.required("end_ts");
+                int iMode = c.optional("transport_mode");
+                int iDuration = c.optional("duration");
+                int iDistance = c.optional("distance");
+                int iFirstLat = c.optional("firstloc_lat");
+                int iFirstLon = c.optional("firstloc_lon");
+                int iLastLat = c.optional("lastloc_lat");
+                int iLastLon = c.optional("lastloc_lon");
+                while (rs.next()) {
+                    Route r = routes.get(rs.getLong(iRoute));
+                    if (r == null)
+                        continue;
+                    Leg l = new Leg();
+                    l.setUid(rs.getLong(iId));
+                    l.setStartTime(rs.getDouble(iStart));
+                    l.setEndTime(rs.getDouble(iEnd));
+                    l.setDuration(getDouble(rs, iDuration, l.getEndTime() - l.getStartTime()));
+                    l.setDistance(getDouble(rs, iDistance, -1));
+                    if (iMode > 0) {
+                        Object mode = rs.getObject(iMode);
+                        if (mode instanceof Number)
+                            l.setMode(TransportMode.fromID(((Number) mode).intValue()));
+                        else if (mode != null)
+                            l.setMode(TransportMode.fromString(mode.toString()));
+                    }
+                    double firstLat = getDouble(rs, iFirstLat, Double.NaN);
+                    double firstLon = getDouble(rs, iFirstLon, Double.NaN);
+                    double lastLat = getDouble(rs, iLastLat, Double.NaN);
+                    double lastLon = getDouble(rs, iLastLon, Double.NaN);
+                    if (!Double.isNaN(firstLat) && !Double.isNaN(firstLon))
+                        l.setStartLoc(location(l.getStartTime(), firstLat, firstLon));
+                    if (!Double.isNaN(lastLat) && !Double.isNaN(lastLon))
+                        l.setEndLoc(location(l.getEndTime(), lastLat, lastLon));
+                    r.getMatchedLegs().add(l);
+                    legs.put(l.getUid(), l);
+                    data.getLegs().add(l);
+                }
+            }
+        }
+
+        private void readWaypoints(double from, double until) throws SQLException {
+            try (ResultSet rs = query(waypointsSql, waypointFetchSize, from, until)) {
+                Columns c = new Columns(rs);
+                int iTs = c.required("timestamp");
+                int iLat = c.required("lat");
+                int iLon = c.required("lon");
+                int iAcc = c.optional("accuracy");
+                int iSpeed = c.optional("speed");
+                int iTz = c.optional("timezone_offset");
+                int iLeg = c.optional("leg_id");
+                int iRoute = c.optional("route_id");
+                if (iLeg < 0 && iRoute < 0)
+                    throw new SQLException("Missing column leg_id or route_id");
+
+                long legUid = -1;
+                long routeUid = -1;
+                Leg leg = null;
+                Route route = null;
+                while (rs.next()) {
+                    long l = getLong(rs, iLeg, -1);
+                    long r = getLong(rs, iRoute, -1);
+                    // Look up owners only when they change, i.e. once per leg
+                    if (l != legUid || r != routeUid) {
+                        legUid = l;
+                        routeUid = r;
+                        leg = legs.get(l);
+                        route = leg == null ? routes.get(r) : null;
+                        if (route != null && !route.getMatchedLegs().isEmpty())
+                            route = null;
+                        if (leg != bufferLeg || route != bufferRoute)
+                            flush();
+                        bufferLeg = leg;
+                        bufferRoute = route;
+                    }
+                    if (leg == null && route == null)
+                        continue;
+                    buffer(rs.getDouble(iTs), rs.getDouble(iLat), rs.getDouble(iLon), getDouble(rs, iAcc, -1),
+                            getDouble(rs, iSpeed, -1), getDouble(rs, iTz, 0));
+                }
+                flush();
+            }
+        }
+
+        // Sources of the waypoints of each leg, and of each route without legs
+        private void attachWaypointSources() {
+            for (Route r : data.getRoutes()) {
+                if (r.getMatchedLegs().isEmpty())
+                    r.setLocationSource(waypointSource(routeWaypointsSql, r.getUid()));
+                for (Leg l : r.getMatchedLegs())
+                    l.setLocationSource(waypointSource(legWaypointsSql, l.getUid()));
+            }
+        }
+
+        private LocationSource waypointSource(String sql, long uid) {
+            return new JdbcLocationSource(dataSource, sql, new Object[]{installationId, uid}, -1, waypointPageSize);
+        }
+
+        private void buffer(double t, double la, double lo, double a, double s, double z) {
+            if (nBuffered == ts.length) {
+                int n = nBuffered * 2;
+                ts = Arrays.copyOf(ts, n);
+                lat = Arrays.copyOf(lat, n);
+                lon = Arrays.copyOf(lon, n);
+                acc = Arrays.copyOf(acc, n);
+                spd = Arrays.copyOf(spd, n);
+                tz = Arrays.copyOf(tz, n);
+            }
+            ts[nBuffered] = t;
+            lat[nBuffered] = la;
+            lon[nBuffered] = lo;
+            acc[nBuffered] = a;
+            spd[nBuffered] = s;
+            tz[nBuffered] = z;
+            nBuffered++;
+        }
+
+        // Move the buffered waypoints to a block of their leg or route
+        private void flush() {
+            if (nBuffered == 0 || (bufferLeg == null && bufferRoute == null)) {
+                nBuffered = 0;
+                return;
+            }
+            LocationSource source = bufferLeg != null ? bufferLeg.getLocationSource() : bufferRoute.getLocationSource();
+            LocationBlock earlier = source instanceof LocationBlock ? (LocationBlock) source : null;
+            int offset = earlier != null ? earlier.size() : 0;
+            LocationBlock block = arena != null ? arena.allocate(offset + nBuffered)
+                    : LocationBlock.allocate(offset + nBuffered);
+            // Waypoints of a leg interrupted by another are appended to its earlier ones
+            for (int i = 0; i < offset; i++)
+                block.set(i, earlier.getLocation(i));
+            for (int i = 0; i < nBuffered; i++)
+                block.set(offset + i, ts[i], lat[i], lon[i], acc[i], spd[i], tz[i]);
+            nBuffered = 0;
+
+            if (bufferLeg != null) {
+                bufferLeg.setLocationSource(block);
+                if (bufferLeg.getStartLoc() == null)
+                    bufferLeg.setStartLoc(block.getLocation(0));
+                if (bufferLeg.getEndLoc() == null || offset > 0)
+                    bufferLeg.setEndLoc(block.getLocation(block.size() - 1));
+            } else {
+                bufferRoute.setLocationSource(block);
+            }
+        }
+
+        private void readReverseGeocodes() throws SQLException {
+            try (ResultSet rs = query(reverseGeocodesSql, fetchSize)) {
+                Columns c = new Columns(rs);
+                int iPlace = c.required("place_id");
+                int iId = c.optional("id");
+                int iTitle = c.optional("title");
+                int iSensitivity = c.optional("category_sensitivity");
+                int iScore = c.optional("score");
+                int iLat = c.optional("lat");
+                int iLon = c.optional("lon");
+                int iDistance = c.optional("distance");
+                while (rs.next()) {
+                    Place p = places.get(rs.getLong(iPlace));
+                    if (p == null)
+                        continue;
+                    POI poi = new POI();
+                    if (iId > 0)
+                        poi.setId(rs.getString(iId));
+                    if (iTitle > 0)
+                        poi.setTitle(rs.getString(iTitle));
+                    if (iSensitivity > 0) {
+                        Object s = rs.getObject(iSensitivity);
+                        if (s instanceof Number)
+                            poi.setCategorySensitivity(PrivacyCategory.fromOrdinal(((Number) s).intValue()));
+                        else if (s != null)
+                            poi.setCategorySensitivity(PrivacyCategory.valueOf(s.toString().toUpperCase()));
+                    }
+                    double la = getDouble(rs, iLat, Double.NaN);
+                    double lo = getDouble(rs, iLon, Double.NaN);
+                    if (!Double.isNaN(la) && !Double.isNaN(lo))
+                        poi.setPosition(location(0, la, lo));
+                    poi.setDistance(getDouble(rs, iDistance, 0));
+                    p.getNearbyPOIs().add(poi);
+                    p.getPOIScores().put(poi, getDouble(rs, iScore, 0));
+                    data.getPois().add(poi);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package uk.co.travelai_public.io;
+
+import uk.co.travelai_public.model.HERE.HEREExtraDetails;
+import uk.co.travelai_public.model.HERE.HERELinkFunctionalClass;
+import uk.co.travelai_public.model.HERE.HERESpeedCategory;
+import uk.co.travelai_public.model.Location;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-width binary record of a {@link Location}.
+ * <p>
+ * Layout (little or big endian as set on the buffer):
+ * timestamp, latitude, longitude, accuracy, speed, dspeed, tzOffset_ms as doubles, extra details id as long,
+ * functional class and speed category ordinals as bytes, one flag byte and padding to {@link #BYTES}.
+ */
+
+public class LocationRecord {
+
+    public static final int BYTES = 72;
+
+    private static final int FLAG_EXTRAS      = 1;
+    private static final int FLAG_PAVED       = 1 << 1;
+    private static final int FLAG_PRIVATE     = 1 << 2;
+    private static final int FLAG_OVERWRITTEN = 1 << 3;
+
+    private static final int PADDING = BYTES - 7 * Double.BYTES - Long.BYTES - 3;
+
+    private LocationRecord() {
+    }
+
+    /**
+     * Write input {@link Location} at the current position of the buffer and advance it by {@link #BYTES}
+     */
+    public static void write(ByteBuffer buf, Location l) {
+        buf.putDouble(l.getTimestamp());
+        buf.putDouble(l.getLatitude());
+        buf.putDouble(l.getLongitude());
+        buf.putDouble(l.getAccuracy());
+        buf.putDouble(l.getSpeed());
+        buf.putDouble(l.getDspeed());
+        buf.putDouble(l.getTzOffset_ms());
+
+        HEREExtraDetails ed = l.getExtraDetails();
+        int flags = l.isOverwrittenByGISProcess() ? FLAG_OVERWRITTEN : 0;
+        if (ed != null) {
+            flags |= FLAG_EXTRAS;
+            if (ed.isPaved())
+                flags |= FLAG_PAVED;
+            if (ed.isPrivateRoad())
+                flags |= FLAG_PRIVATE;
+            buf.putLong(ed.getId());
+            buf.put((byte) (ed.getFunctionalClass() != null ? ed.getFunctionalClass().ordinal() : 0));
+            buf.put((byte) (ed.getSpeedCategory() != null ? ed.getSpeedCategory().ordinal() : 0));
+        } else {
+            buf.putLong(0);
+            buf.put((byte) 0);
+            buf.put((byte) 0);
+        }
+        buf.put((byte) flags);
+        for (int i = 0; i < PADDING; i++)
+            buf.put((byte) 0);
+    }
+
+    /**
+     * Read {@link Location} from the current position of the buffer and advance it by {@link #BYTES}
+     */
+    public static Location read(ByteBuffer buf) {
+        Location l = new Location();
+        l.setTimestamp(buf.getDouble());
+        l.setLatitude(buf.getDouble());
+        l.setLongitude(buf.getDouble());
+        l.setAccuracy(buf.getDouble());
+        l.setSpeed(buf.getDouble());
+        l.setDspeed(buf.getDouble());
+        l.setTzOffset_ms(buf.getDouble());
+
+        long id = buf.getLong();
+        int fc = buf.get();
+        int sc = buf.get();
+        int flags = buf.get();
+        buf.position(buf.position() + PADDING);
+
+        if ((flags & FLAG_EXTRAS) != 0) {
+            l.setExtraDetails(new HEREExtraDetails(id,
+                    HERELinkFunctionalClass.fromID(fc),
+                    HERESpeedCategory.fromOrdinal(sc),
+                    (flags & FLAG_PAVED) != 0,
+                    (flags & FLAG_PRIVATE) != 0));
+        }
+        l.setOverwrittenByGISProcess((flags & FLAG_OVERWRITTEN) != 0);
+        return l;
+    }
+}
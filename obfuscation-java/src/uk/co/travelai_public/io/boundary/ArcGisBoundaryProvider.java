@@ -0,0 +1,128 @@
+package uk.co.travelai_public.io.boundary;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import uk.co.travelai_public.model.place.OutputArea;
+import uk.co.travelai_public.tools.Polygon;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link BoundaryProvider} querying the ONS Lower Layer Super Output Area boundaries from their ArcGIS feature
+ * service, as done by queryOutputArea of the Matlab implementation. Bulk queries send all points as one multipoint
+ * geometry and match the returned areas back to the points.
+ */
+
+@Getter
+@Setter
+public class ArcGisBoundaryProvider implements BoundaryProvider {
+
+    public static final String DEFAULT_URL = "https://services1.arcgis.com/ESMARspQHYMw9BZ9/arcgis/rest/services/"
+            + "Lower_Layer_Super_Output_Areas_December_2011_Boundaries_EW_BFE_V2/FeatureServer/0/query";
+
+    private String url = DEFAULT_URL;
+    private String idField = "LSOA11CD";
+    private String nameField = "LSOA11NM";
+    private Duration timeout = Duration.ofSeconds(30);
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+
+    @Override
+    public OutputArea query(double lat, double lon) throws IOException {
+        return queryAll(new double[]{lat}, new double[]{lon}).get(0);
+    }
+
+    @Override
+    public List<OutputArea> queryAll(double[] lats, double[] lons) throws IOException {
+        JSONArray points = new JSONArray();
+        for (int i = 0; i < lats.length; i++)
+            points.put(new JSONArray().put(lons[i]).put(lats[i]));
+        JSONObject geometry = new JSONObject()
+                .put("points", points)
+                .put("spatialReference", new JSONObject().put("wkid", 4326));
+
+        String form = "where=1%3D1"
+                + "&outFields=" + idField + "," + nameField
+                + "&geometryType=esriGeometryMultipoint"
+                + "&geometry=" + URLEncoder.encode(geometry.toString(), StandardCharsets.UTF_8)
+                + "&inSR=4326&outSR=4326&spatialRel=esriSpatialRelIntersects&returnGeometry=true&f=json";
+
+        List<OutputArea> areas = parse(post(form));
+
+        List<OutputArea> result = new ArrayList<>(lats.length);
+        for (int i = 0; i < lats.length; i++) {
+            OutputArea match = null;
+            for (OutputArea a : areas) {
+                if (a.contains(lats[i], lons[i])) {
+                    match = a;
+                    break;
+                }
+            }
+            result.add(match);
+        }
+        return result;
+    }
+
+    private String post(String form) throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(timeout)
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form))
+                .build();
+        try {
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200)
+                throw new IOException("Boundary query failed with HTTP " + response.statusCode() + ": " + url);
+            return response.body();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted querying " + url);
+        }
+    }
+
+    private List<OutputArea> parse(String body) throws IOException {
+        JSONObject json = new JSONObject(body);
+        if (json.has("error"))
+            throw new IOException("Boundary query failed: " + json.getJSONObject("error").optString("message"));
+
+        List<OutputArea> areas = new ArrayList<>();
+        JSONArray features = json.optJSONArray("features");
+        if (features == null)
+            return areas;
+        for (int f = 0; f < features.length(); f++) {
+            JSONObject feature = features.getJSONObject(f);
+            JSONObject attributes = feature.getJSONObject("attributes");
+            JSONArray rings = feature.getJSONObject("geometry").getJSONArray("rings");
+
+            Polygon polygon = null;
+            for (int r = 0; r < rings.length(); r++) {
+                JSONArray ring = rings.getJSONArray(r);
+                double[] lats = new double[ring.length()];
+                double[] lons = new double[ring.length()];
+                for (int i = 0; i < ring.length(); i++) {
+                    lons[i] = ring.getJSONArray(i).getDouble(0);
+                    lats[i] = ring.getJSONArray(i).getDouble(1);
+                }
+                if (polygon == null)
+                    polygon = new Polygon(lats, lons);
+                else
+                    polygon.addRing(lats, lons);
+            }
+            if (polygon != null)
+                areas.add(new OutputArea(attributes.optString(idField), attributes.optString(nameField), polygon));
+        }
+        return areas;
+    }
+}
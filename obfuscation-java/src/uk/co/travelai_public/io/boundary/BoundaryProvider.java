@@ -0,0 +1,32 @@
+package uk.co.travelai_public.io.boundary;
+
+import uk.co.travelai_public.model.place.OutputArea;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Source of {@link OutputArea} boundaries by location
+ */
+
+public interface BoundaryProvider {
+
+    /**
+     * @return output area containing input point; null if there is none
+     */
+    OutputArea query(double lat, double lon) throws IOException;
+
+    /**
+     * Query output areas of many points at once. Providers with a bulk query override this; by default the points are
+     * queried one by one.
+     *
+     * @return output areas containing input points, in the same order; entries are null for points with no area
+     */
+    default List<OutputArea> queryAll(double[] lats, double[] lons) throws IOException {
+        List<OutputArea> areas = new ArrayList<>(lats.length);
+        for (int i = 0; i < lats.length; i++)
+            areas.add(query(lats[i], lons[i]));
+        return areas;
+    }
+}
@@ -0,0 +1,325 @@
+package uk.co.travelai_public.io.boundary;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.place.OutputArea;
+import uk.co.travelai_public.tools.GeoHash;
+import uk.co.travelai_public.tools.Polygon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * {@link BoundaryProvider} caching the areas of another provider.
+ * <p>
+ * Lookups are first answered by containment in the areas fetched so far, found through a grid of coarse geohash
+ * cells, so nearby places need one remote query between them. Concurrent misses for points in the same small cell are
+ * coalesced: one query goes out and the others wait for its result. Bulk lookups send their misses in batches, and
+ * re-check the remaining points against each batch's results before sending the next. Cached areas are evicted least
+ * recently used beyond maxAreas, and persisted to a compact binary store file by {@link #flush()} and {@link #close()}.
+ */
+
+@Getter
+@Setter
+public class CachingBoundaryProvider implements BoundaryProvider, Closeable {
+
+    private static final int MAGIC = 0x4F424241;
+    private static final int VERSION = 1;
+
+    // Geohash precision of the grid indexing cached areas (about 5 km) and of the coalescing cells (about 150 m)
+    public static final int INDEX_PRECISION = 5;
+    public static final int COALESCE_PRECISION = 7;
+
+    @Setter(AccessLevel.NONE) private final BoundaryProvider provider;
+    @Setter(AccessLevel.NONE) private final Path storeFile;
+
+    @Setter(AccessLevel.NONE) private int maxAreas = 20000;
+    private int batchSize = 50;
+
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private final LinkedHashMap<String, OutputArea> areas = new LinkedHashMap<>(16, 0.75f, true);
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private final Map<Long, List<OutputArea>> index = new HashMap<>();
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private final ConcurrentHashMap<Long, CompletableFuture<OutputArea>> inFlight = new ConcurrentHashMap<>();
+
+    // Counts of lookups answered from the cache and points sent to the provider
+    @Setter(AccessLevel.NONE) private long nHits;
+    @Setter(AccessLevel.NONE) private long nProviderPoints;
+
+    /**
+     * @param storeFile file the cache is loaded from and persisted to; null to keep the cache in memory only
+     */
+    public CachingBoundaryProvider(BoundaryProvider provider, Path storeFile) throws IOException {
+        this.provider = provider;
+        this.storeFile = storeFile;
+        if (storeFile != null)
+            load();
+    }
+
+    @Override
+    public OutputArea query(double lat, double lon) throws IOException {
+        OutputArea area = findCached(lat, lon);
+        if (area != null)
+            return area;
+
+        long cell = GeoHash.encode(lat, lon, COALESCE_PRECISION);
+        CompletableFuture<OutputArea> future = new CompletableFuture<>();
+        CompletableFuture<OutputArea> pending = inFlight.putIfAbsent(cell, future);
+        if (pending != null) {
+            // Another thread is querying a point nearby; its area is likely ours too
+            area = await(pending);
+            if (area != null && area.contains(lat, lon))
+                return area;
+            area = findCached(lat, lon);
+            return area != null ? area : fetch(lat, lon);
+        }
+
+        try {
+            area = findCached(lat, lon);
+            if (area == null)
+                area = fetch(lat, lon);
+            future.complete(area);
+            return area;
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(cell, future);
+        }
+    }
+
+    @Override
+    public List<OutputArea> queryAll(double[] lats, double[] lons) throws IOException {
+        if (lats.length != lons.length)
+            throw new IllegalArgumentException("Latitudes and longitudes differ in length");
+
+        OutputArea[] result = new OutputArea[lats.length];
+        boolean[] queried = new boolean[lats.length];
+        List<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < lats.length; i++) {
+            result[i] = findCached(lats[i], lons[i]);
+            if (result[i] == null)
+                misses.add(i);
+        }
+
+        while (!misses.isEmpty()) {
+            // One point per coalescing cell per batch; the others likely fall in the same area
+            Map<Long, Integer> batch = new LinkedHashMap<>();
+            for (int i : misses) {
+                if (batch.size() == batchSize)
+                    break;
+                batch.putIfAbsent(GeoHash.encode(lats[i], lons[i], COALESCE_PRECISION), i);
+            }
+            double[] bLats = new double[batch.size()];
+            double[] bLons = new double[batch.size()];
+            int k = 0;
+            for (int i : batch.values()) {
+                bLats[k] = lats[i];
+                bLons[k++] = lons[i];
+                queried[i] = true;
+            }
+
+            List<OutputArea> fetched = provider.queryAll(bLats, bLons);
+            synchronized (this) {
+                nProviderPoints += bLats.length;
+            }
+            for (OutputArea a : fetched)
+                if (a != null)
+                    add(a);
+
+            List<Integer> remaining = new ArrayList<>();
+            for (int i : misses) {
+                result[i] = findCached(lats[i], lons[i]);
+                if (result[i] == null && !queried[i])
+                    remaining.add(i);
+            }
+            misses = remaining;
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * @return cached area containing input point; null if none
+     */
+    public synchronized OutputArea findCached(double lat, double lon) {
+        List<OutputArea> candidates = index.get(GeoHash.encode(lat, lon, INDEX_PRECISION));
+        if (candidates == null)
+            return null;
+        for (OutputArea a : candidates) {
+            if (a.contains(lat, lon)) {
+                areas.get(a.getId());
+                nHits++;
+                return a;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Set the maximum number of cached areas, evicting the least recently used areas beyond it
+     */
+    public synchronized void setMaxAreas(int maxAreas) {
+        if (maxAreas < 1)
+            throw new IllegalArgumentException("Max areas must be positive: " + maxAreas);
+        this.maxAreas = maxAreas;
+        evict();
+    }
+
+    /**
+     * @return number of cached areas
+     */
+    public synchronized int size() {
+        return areas.size();
+    }
+
+    /**
+     * Write cached areas to the store file, replacing it atomically
+     */
+    public synchronized void flush() throws IOException {
+        if (storeFile == null)
+            return;
+        Path tmp = storeFile.resolveSibling("." + storeFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(areas.size());
+            // Least recently used first, so that loading restores the eviction order
+            for (OutputArea a : areas.values())
+                writeArea(out, a);
+        }
+        Files.move(tmp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    private OutputArea fetch(double lat, double lon) throws IOException {
+        OutputArea area = provider.query(lat, lon);
+        synchronized (this) {
+            nProviderPoints++;
+        }
+        if (area != null)
+            add(area);
+        return area;
+    }
+
+    private static OutputArea await(CompletableFuture<OutputArea> pending) throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for boundary query");
+        } catch (ExecutionException e) {
+            // The other query failed; this one is retried on its own
+            return null;
+        }
+    }
+
+    private synchronized void add(OutputArea area) {
+        if (areas.containsKey(area.getId()))
+            return;
+        areas.put(area.getId(), area);
+        for (long cell : indexCells(area.getPolygon()))
+            index.computeIfAbsent(cell, c -> new ArrayList<>(2)).add(area);
+        evict();
+    }
+
+    private synchronized void evict() {
+        while (areas.size() > maxAreas) {
+            OutputArea eldest = areas.values().iterator().next();
+            areas.remove(eldest.getId());
+            for (long cell : indexCells(eldest.getPolygon())) {
+                List<OutputArea> list = index.get(cell);
+                list.remove(eldest);
+                if (list.isEmpty())
+                    index.remove(cell);
+            }
+        }
+    }
+
+    // Index cells overlapping the bounding box of input polygon
+    private static List<Long> indexCells(Polygon p) {
+        double[] b = GeoHash.bounds(GeoHash.encode(p.getMinLat(), p.getMinLon(), INDEX_PRECISION));
+        double h = b[2] - b[0];
+        double w = b[3] - b[1];
+        List<Long> cells = new ArrayList<>();
+        for (double lat = b[0] + h / 2; lat < p.getMaxLat() + h / 2; lat += h)
+            for (double lon = b[1] + w / 2; lon < p.getMaxLon() + w / 2; lon += w)
+                cells.add(GeoHash.encode(lat, lon, INDEX_PRECISION));
+        return cells;
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(storeFile)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a boundary store file: " + storeFile);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported boundary store version " + version + ": " + storeFile);
+            int n = in.readInt();
+            for (int i = 0; i < n; i++)
+                add(readArea(in));
+        } catch (NoSuchFileException e) {
+            // Empty cache
+        }
+    }
+
+    private static void writeArea(DataOutputStream out, OutputArea a) throws IOException {
+        out.writeUTF(a.getId());
+        out.writeUTF(a.getName() != null ? a.getName() : "");
+        Polygon p = a.getPolygon();
+        out.writeInt(p.getRingLats().size());
+        for (int r = 0; r < p.getRingLats().size(); r++) {
+            double[] lats = p.getRingLats().get(r);
+            double[] lons = p.getRingLons().get(r);
+            out.writeInt(lats.length);
+            for (int i = 0; i < lats.length; i++) {
+                out.writeDouble(lats[i]);
+                out.writeDouble(lons[i]);
+            }
+        }
+    }
+
+    private static OutputArea readArea(DataInputStream in) throws IOException {
+        String id = in.readUTF();
+        String name = in.readUTF();
+        int nRings = in.readInt();
+        Polygon polygon = null;
+        for (int r = 0; r < nRings; r++) {
+            int n = in.readInt();
+            double[] lats = new double[n];
+            double[] lons = new double[n];
+            for (int i = 0; i < n; i++) {
+                lats[i] = in.readDouble();
+                lons[i] = in.readDouble();
+            }
+            if (polygon == null)
+                polygon = new Polygon(lats, lons);
+            else
+                polygon.addRing(lats, lons);
+        }
+        return new OutputArea(id, name, polygon);
+    }
+}
@@ -0,0 +1,67 @@
+package uk.co.travelai_public.io.boundary;
+
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.place.OutputArea;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.place.ProtectedArea;
+import uk.co.travelai_public.obfuscation.KAnonymityCounters;
+import uk.co.travelai_public.obfuscation.PlaceObfuscation;
+import uk.co.travelai_public.obfuscation.RouteTrimming;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class attaching to each {@link Place} the {@link OutputArea} containing it as its {@link ProtectedArea}, so that
+ * {@link PlaceObfuscation} publishes hidden places at the centroid of their area, {@link RouteTrimming} hides the
+ * waypoints inside it and {@link KAnonymityCounters} count installations by area. Run before those.
+ * <p>
+ * The places of a call are looked up with one bulk query of the boundary provider, which should be a
+ * {@link CachingBoundaryProvider} shared by all pipelines of the process, so that places near earlier ones, of any
+ * user, are answered from the areas fetched so far. Places that already have a protected area keep it; places outside
+ * every output area get none.
+ */
+
+@Getter
+@Setter
+public class ProtectedAreaLookup {
+
+    // Source of the output areas; null to leave places as they are
+    private BoundaryProvider boundaryProvider;
+
+    public ProtectedAreaLookup() {
+    }
+
+    public ProtectedAreaLookup(BoundaryProvider boundaryProvider) {
+        this.boundaryProvider = boundaryProvider;
+    }
+
+    /**
+     * Attach protected areas to input places without one
+     */
+    public void run(List<Place> places) throws IOException {
+        if (boundaryProvider == null)
+            return;
+        List<Place> missing = new ArrayList<>();
+        for (Place p : places)
+            if (p != null && p.getProtectedArea() == null)
+                missing.add(p);
+        if (missing.isEmpty())
+            return;
+
+        double[] lats = new double[missing.size()];
+        double[] lons = new double[missing.size()];
+        for (int i = 0; i < missing.size(); i++) {
+            lats[i] = missing.get(i).getLatitude();
+            lons[i] = missing.get(i).getLongitude();
+        }
+        List<OutputArea> areas = boundaryProvider.queryAll(lats, lons);
+        for (int i = 0; i < missing.size(); i++) {
+            OutputArea area = areas.get(i);
+            if (area != null)
+                missing.get(i).setProtectedArea(area.toProtectedArea(missing.get(i)));
+        }
+    }
+}
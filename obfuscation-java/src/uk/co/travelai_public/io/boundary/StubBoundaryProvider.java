@@ -0,0 +1,68 @@
+package uk.co.travelai_public.io.boundary;
+
+import lombok.Getter;
+import uk.co.travelai_public.model.place.OutputArea;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link BoundaryProvider} answering from a fixed list of areas held in memory, for tests and offline runs. Counts the
+ * queries made, and can add a delay to each to stand in for a remote service.
+ */
+
+@Getter
+public class StubBoundaryProvider implements BoundaryProvider {
+
+    private final List<OutputArea> areas;
+    private final long delayMillis;
+
+    private final AtomicInteger nQueries = new AtomicInteger();
+    private final AtomicInteger nPoints = new AtomicInteger();
+
+    public StubBoundaryProvider(List<OutputArea> areas) {
+        this(areas, 0);
+    }
+
+    public StubBoundaryProvider(List<OutputArea> areas, long delayMillis) {
+        this.areas = new ArrayList<>(areas);
+        this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public OutputArea query(double lat, double lon) {
+        nQueries.incrementAndGet();
+        nPoints.incrementAndGet();
+        delay();
+        return find(lat, lon);
+    }
+
+    @Override
+    public List<OutputArea> queryAll(double[] lats, double[] lons) {
+        nQueries.incrementAndGet();
+        nPoints.addAndGet(lats.length);
+        delay();
+        List<OutputArea> result = new ArrayList<>(lats.length);
+        for (int i = 0; i < lats.length; i++)
+            result.add(find(lats[i], lons[i]));
+        return result;
+    }
+
+    private OutputArea find(double lat, double lon) {
+        for (OutputArea a : areas)
+            if (a.contains(lat, lon))
+                return a;
+        return null;
+    }
+
+    private void delay() {
+        if (delayMillis <= 0)
+            return;
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package uk.co.travelai_public.io.snapshot;
+
+/**
+ * Constants of the user snapshot file format.
+ * <p>
+ * A snapshot file consists of:
+ * <ul>
+ *     <li>Header of {@link #HEADER_BYTES} bytes: magic, format version, offset and length of the graph section</li>
+ *     <li>Waypoint chunks: 8-byte aligned {@link uk.co.travelai_public.model.travel.LocationBlock}s holding the
+ *     waypoints of consecutive legs and routes</li>
+ *     <li>Graph section: POIs, places, dwells, legs and routes, with references stored as indices and waypoints
+ *     stored as (chunk, first row, count) ranges</li>
+ * </ul>
+ * Waypoint chunks are memory-mapped individually on read, so the file may exceed 2GB as long as each chunk does not.
+ */
+
+final class SnapshotFormat {
+
+    static final int MAGIC = 0x4F425346; // "OBSF"
+
+    // Readers accept files with the same major version and any minor version
+    static final short VERSION_MAJOR = 2;  // 1: 32-bit uids
+    static final short VERSION_MINOR = 0;
+
+    static final int HEADER_BYTES = 32;
+
+    // Null references and enums
+    static final int NONE = -1;
+
+    private SnapshotFormat() {
+    }
+}
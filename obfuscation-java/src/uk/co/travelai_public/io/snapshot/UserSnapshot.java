@@ -0,0 +1,16 @@
+package uk.co.travelai_public.io.snapshot;
+
+import lombok.NoArgsConstructor;
+import uk.co.travelai_public.pipeline.UserData;
+
+/**
+ * Object graph of a single user's places, dwells, routes and legs, as stored in a snapshot file.
+ * <p>
+ * Objects referenced from the graph (e.g. dwells of a place or legs of a route) are included in the snapshot even
+ * when they are missing from these lists.
+ */
+
+@NoArgsConstructor
+public class UserSnapshot extends UserData {
+
+}
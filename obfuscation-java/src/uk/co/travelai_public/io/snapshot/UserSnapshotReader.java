@@ -0,0 +1,335 @@
+package uk.co.travelai_public.io.snapshot;
+
+import uk.co.travelai_public.io.LocationRecord;
+import uk.co.travelai_public.model.IdAllocator;
+import uk.co.travelai_public.model.Ids;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.TransportMode;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.DwellDurationType;
+import uk.co.travelai_public.model.place.POI;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.place.PlaceCategory;
+import uk.co.travelai_public.model.place.PlaceType;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.PedestrianStop;
+import uk.co.travelai_public.model.travel.PublicTransitDetails;
+import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.obfuscation.PrivacyCategory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static uk.co.travelai_public.io.snapshot.SnapshotFormat.*;
+
+/**
+ * Reads snapshot files written by {@link UserSnapshotWriter}.
+ * <p>
+ * The graph section is decoded into model objects, while waypoint chunks are memory-mapped and exposed to each
+ * {@link Leg} and {@link Route} as a {@link LocationBlock} view through their location source. Waypoints are therefore
+ * read straight from the page cache when iterated and never copied onto heap as a whole.
+ */
+
+public class UserSnapshotReader {
+
+    /**
+     * Read snapshot file
+     *
+     * @return {@link UserSnapshot} whose legs and routes read their waypoints from the mapped file
+     */
+    @SuppressWarnings("try")
+    public UserSnapshot read(Path file) throws IOException {
+        // Uids are read from the file
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+             Ids.Scope ids = Ids.use(IdAllocator.UNASSIGNED)) {
+
+            ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC)
+                throw new IOException("Not a user snapshot file: " + file);
+            short major = header.getShort();
+            short minor = header.getShort();
+            if (major != VERSION_MAJOR)
+                throw new IOException("Unsupported snapshot version " + major + "." + minor + " in " + file);
+            long graphOffset = header.getLong();
+            long graphLength = header.getLong();
+
+            // Mappings stay valid after the channel is closed
+            MappedByteBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, graphOffset, graphLength);
+
+            UserSnapshot s = new UserSnapshot();
+            s.setInstallationId(readString(in));
+            s.setStartTs(in.getDouble());
+            s.setEndTs(in.getDouble());
+
+            int nChunks = in.getInt();
+            LocationBlock[] chunks = new LocationBlock[nChunks];
+            for (int i = 0; i < nChunks; i++) {
+                long offset = in.getLong();
+                int n = in.getInt();
+                chunks[i] = LocationBlock.wrap(ch.map(FileChannel.MapMode.READ_ONLY, offset, LocationBlock.bytesFor(n)), n);
+            }
+
+            // Create all objects first, then resolve the references between them
+            List<POI> pois = new ArrayList<>();
+            int nPOIs = in.getInt();
+            for (int i = 0; i < nPOIs; i++)
+                pois.add(readPOI(in));
+
+            int nPlaces = in.getInt();
+            List<Place> places = new ArrayList<>(nPlaces);
+            int[][] placeRefs = new int[nPlaces][];
+            for (int i = 0; i < nPlaces; i++)
+                places.add(readPlace(in, pois, placeRefs, i));
+
+            int nDwells = in.getInt();
+            List<Dwell> dwells = new ArrayList<>(nDwells);
+            int[][] dwellRefs = new int[nDwells][];
+            for (int i = 0; i < nDwells; i++) {
+                Dwell d = readDwell(in);
+                dwellRefs[i] = new int[]{in.getInt(), in.getInt()};
+                dwells.add(d);
+            }
+
+            int nLegs = in.getInt();
+            List<Leg> legs = new ArrayList<>(nLegs);
+            for (int i = 0; i < nLegs; i++)
+                legs.add(readLeg(in, chunks));
+
+            int nRoutes = in.getInt();
+            List<Route> routes = new ArrayList<>(nRoutes);
+            int[][] routeRefs = new int[nRoutes][];
+            int[][] matchedLegRefs = new int[nRoutes][];
+            for (int i = 0; i < nRoutes; i++)
+                routes.add(readRoute(in, chunks, routeRefs, matchedLegRefs, i));
+
+            for (int i = 0; i < nDwells; i++) {
+                dwells.get(i).setOrigin_of_route(get(routes, dwellRefs[i][0]));
+                dwells.get(i).setDestination_of_route(get(routes, dwellRefs[i][1]));
+            }
+            for (int i = 0; i < nPlaces; i++) {
+                Place p = places.get(i);
+                p.setDwells(resolve(dwells, placeRefs[i], 0));
+                p.setDepartingRoutes(resolve(routes, placeRefs[i], 1));
+                p.setArrivingRoutes(resolve(routes, placeRefs[i], 2));
+            }
+            for (int i = 0; i < nRoutes; i++) {
+                Route r = routes.get(i);
+                r.setStartDwell(get(dwells, routeRefs[i][0]));
+                r.setEndDwell(get(dwells, routeRefs[i][1]));
+                r.setStartPlace(get(places, routeRefs[i][2]));
+                r.setEndPlace(get(places, routeRefs[i][3]));
+                r.setMatchedLegs(resolve(legs, matchedLegRefs[i], 0));
+            }
+
+            s.setPois(pois);
+            s.setPlaces(places);
+            s.setDwells(dwells);
+            s.setLegs(legs);
+            s.setRoutes(routes);
+            return s;
+        }
+    }
+
+    private static <T> T get(List<T> list, int idx) {
+        return idx == NONE ? null : list.get(idx);
+    }
+
+    /**
+     * Resolve index list number i of the packed reference lists, see {@link #readIndices(ByteBuffer)}
+     */
+    private static <T> List<T> resolve(List<T> list, int[] packed, int i) {
+        int pos = 0;
+        for (int k = 0; k < i; k++)
+            pos += packed[pos] == NONE ? 1 : packed[pos] + 1;
+        int n = packed[pos];
+        if (n == NONE)
+            return null;
+        List<T> res = new ArrayList<>(n);
+        for (int k = 0; k < n; k++)
+            res.add(get(list, packed[pos + 1 + k]));
+        return res;
+    }
+
+    private static int[] readIndices(ByteBuffer in) {
+        int n = in.getInt();
+        if (n == NONE)
+            return new int[]{NONE};
+        int[] res = new int[n + 1];
+        res[0] = n;
+        for (int i = 0; i < n; i++)
+            res[i + 1] = in.getInt();
+        return res;
+    }
+
+    private static POI readPOI(ByteBuffer in) {
+        POI poi = new POI();
+        poi.setId(readString(in));
+        poi.setTitle(readString(in));
+        if (in.get() != 0)
+            poi.setCategory(new PlaceCategory(readString(in), readString(in), poi));
+        int sensitivity = in.get();
+        poi.setCategorySensitivity(sensitivity == NONE ? null : PrivacyCategory.fromOrdinal(sensitivity));
+        poi.setDistance(in.getDouble());
+        poi.setPosition(readLocation(in));
+        poi.setAccess(readLocation(in));
+        return poi;
+    }
+
+    private static Place readPlace(ByteBuffer in, List<POI> pois, int[][] placeRefs, int i) {
+        Place p = new Place();
+        p.setUid(in.getLong());
+        p.setLatitude(in.getDouble());
+        p.setLongitude(in.getDouble());
+        p.setVisitFrequency(in.getDouble());
+        p.setVisitRegularity(in.getDouble());
+        p.setVisitDuration(in.getDouble());
+        p.setNSleepVisits(in.getInt());
+        int privacy = in.get();
+        p.setPrivacyCategory(privacy == NONE ? null : PrivacyCategory.fromOrdinal(privacy));
+        int type = in.get();
+        p.setPlaceType(type == NONE ? null : PlaceType.values()[type]);
+        p.setImported(in.get() != 0);
+
+        int nScores = in.getInt();
+        if (nScores == NONE) {
+            p.setPOIScores(null);
+        } else {
+            for (int k = 0; k < nScores; k++) {
+                POI poi = get(pois, in.getInt());
+                p.getPOIScores().put(poi, in.getDouble());
+            }
+        }
+        int[] nearby = readIndices(in);
+        if (nearby[0] != NONE) {
+            List<POI> nearbyPOIs = new ArrayList<>(nearby[0]);
+            for (int k = 1; k < nearby.length; k++)
+                nearbyPOIs.add(get(pois, nearby[k]));
+            p.setNearbyPOIs(nearbyPOIs);
+        }
+
+        // Packed dwell, departing and arriving route index lists
+        int[] dwells = readIndices(in);
+        int[] departing = readIndices(in);
+        int[] arriving = readIndices(in);
+        int[] packed = new int[dwells.length + departing.length + arriving.length];
+        System.arraycopy(dwells, 0, packed, 0, dwells.length);
+        System.arraycopy(departing, 0, packed, dwells.length, departing.length);
+        System.arraycopy(arriving, 0, packed, dwells.length + departing.length, arriving.length);
+        placeRefs[i] = packed;
+        return p;
+    }
+
+    private static Dwell readDwell(ByteBuffer in) {
+        Dwell d = new Dwell();
+        d.setUid(in.getLong());
+        d.setStartTime(in.getDouble());
+        d.setEndTime(in.getDouble());
+        d.setDuration(in.getDouble());
+        d.setParentPlaceID(in.getLong());
+        int type = in.get();
+        d.setDwellDurationType(type == NONE ? null : DwellDurationType.values()[type]);
+        d.setDwellLocation(readLocation(in));
+        return d;
+    }
+
+    private static Leg readLeg(ByteBuffer in, LocationBlock[] chunks) {
+        Leg l = new Leg();
+        l.setUid(in.getLong());
+        l.setStartTime(in.getDouble());
+        l.setEndTime(in.getDouble());
+        l.setOriginTZOffset(in.getDouble());
+        l.setDestinationTZOffset(in.getDouble());
+        l.setDuration(in.getDouble());
+        l.setDistance(in.getDouble());
+        l.setStartLoc(readLocation(in));
+        l.setEndLoc(readLocation(in));
+        int mode = in.get();
+        l.setMode(mode == NONE ? null : TransportMode.fromID(mode));
+        int privacy = in.get();
+        l.setPrivacyCategory(privacy == NONE ? null : PrivacyCategory.fromOrdinal(privacy));
+
+        if (in.get() != 0) {
+            PublicTransitDetails pt = new PublicTransitDetails();
+            pt.setCompanyName(readString(in));
+            pt.setDestination(readString(in));
+            pt.setLineName(readString(in));
+            pt.setLineID(readString(in));
+            pt.setLineType(readString(in));
+            l.setPublicTransitDetails(pt);
+        }
+
+        int nStops = in.getInt();
+        if (nStops != NONE) {
+            List<PedestrianStop> stops = new ArrayList<>(nStops);
+            for (int k = 0; k < nStops; k++) {
+                PedestrianStop ps = new PedestrianStop();
+                ps.setStartTime(in.getDouble());
+                ps.setEndTime(in.getDouble());
+                ps.setDuration(in.getDouble());
+                ps.setStopLoc(readLocation(in));
+                stops.add(ps);
+            }
+            l.setPedestrianStops(stops);
+        }
+        l.setLocationSource(readBlock(in, chunks));
+        return l;
+    }
+
+    private static Route readRoute(ByteBuffer in, LocationBlock[] chunks, int[][] routeRefs, int[][] matchedLegRefs,
+                                   int i) {
+        Route r = new Route();
+        r.setUid(in.getLong());
+        routeRefs[i] = new int[]{in.getInt(), in.getInt(), in.getInt(), in.getInt()};
+        r.setStartTime(in.getDouble());
+        r.setEndTime(in.getDouble());
+        r.setDuration(in.getDouble());
+        r.setDistance(in.getDouble());
+        r.setGisDistance(in.getDouble());
+        r.setOriginTZOffset(in.getDouble());
+        r.setDestinationTZOffset(in.getDouble());
+        r.setDistFromStartDwell(in.getDouble());
+        r.setDistToEndDwell(in.getDouble());
+        matchedLegRefs[i] = readIndices(in);
+        r.setLabel(readString(in));
+        int privacy = in.get();
+        r.setPrivacyCategory(privacy == NONE ? null : PrivacyCategory.fromOrdinal(privacy));
+        r.setLocationSource(readBlock(in, chunks));
+        return r;
+    }
+
+    private static LocationBlock readBlock(ByteBuffer in, LocationBlock[] chunks) {
+        int chunk = in.getInt();
+        int first = in.getInt();
+        int n = in.getInt();
+        if (chunk == NONE)
+            return LocationBlock.allocate(0);
+        return chunks[chunk].slice(first, n);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int n = in.getInt();
+        if (n == NONE)
+            return null;
+        byte[] b = new byte[n];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static Location readLocation(ByteBuffer in) {
+        if (in.get() == 0)
+            return null;
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        Location l = LocationRecord.read(in);
+        in.order(ByteOrder.BIG_ENDIAN);
+        return l;
+    }
+}
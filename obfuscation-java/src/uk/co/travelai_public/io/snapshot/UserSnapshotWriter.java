@@ -0,0 +1,406 @@
+package uk.co.travelai_public.io.snapshot;
+
+import uk.co.travelai_public.io.LocationRecord;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.POI;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+import uk.co.travelai_public.model.travel.PedestrianStop;
+import uk.co.travelai_public.model.travel.PublicTransitDetails;
+import uk.co.travelai_public.model.travel.Route;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static uk.co.travelai_public.io.snapshot.SnapshotFormat.*;
+
+/**
+ * Writes a {@link UserSnapshot} to a snapshot file, see {@link SnapshotFormat} for the layout.
+ * <p>
+ * Waypoints are streamed from each leg's and route's {@link LocationSource} into chunks of about chunkSize
+ * {@link Location}s, so only one chunk is held in memory at a time. The file is written next to the target and moved
+ * into place when complete.
+ */
+
+public class UserSnapshotWriter {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    private final int chunkSize;
+
+    public UserSnapshotWriter() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public UserSnapshotWriter(int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("Chunk size must be positive, got " + chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Write input {@link UserSnapshot} to file
+     */
+    public void write(Path file, UserSnapshot snapshot) throws IOException {
+        Graph g = new Graph(snapshot);
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            ch.position(HEADER_BYTES);
+
+            // Waypoint chunks
+            ChunkWriter chunks = new ChunkWriter(ch);
+            int[][] legRefs = new int[g.legs.size()][];
+            for (int i = 0; i < g.legs.size(); i++)
+                legRefs[i] = chunks.append(g.legs.get(i).getLocationSource());
+            int[][] routeRefs = new int[g.routes.size()][];
+            for (int i = 0; i < g.routes.size(); i++)
+                routeRefs[i] = chunks.append(g.routes.get(i).getLocationSource());
+            chunks.flush();
+
+            // Graph section
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, snapshot.getInstallationId());
+            out.writeDouble(snapshot.getStartTs());
+            out.writeDouble(snapshot.getEndTs());
+
+            out.writeInt(chunks.offsets.size());
+            for (int i = 0; i < chunks.offsets.size(); i++) {
+                out.writeLong(chunks.offsets.get(i));
+                out.writeInt(chunks.sizes.get(i));
+            }
+
+            out.writeInt(g.pois.size());
+            for (POI poi : g.pois)
+                writePOI(out, poi);
+            out.writeInt(g.places.size());
+            for (Place p : g.places)
+                writePlace(out, p, g);
+            out.writeInt(g.dwells.size());
+            for (Dwell d : g.dwells)
+                writeDwell(out, d, g);
+            out.writeInt(g.legs.size());
+            for (int i = 0; i < g.legs.size(); i++)
+                writeLeg(out, g.legs.get(i), legRefs[i]);
+            out.writeInt(g.routes.size());
+            for (int i = 0; i < g.routes.size(); i++)
+                writeRoute(out, g.routes.get(i), routeRefs[i], g);
+            out.flush();
+
+            long graphOffset = ch.position();
+            writeFully(ch, ByteBuffer.wrap(bytes.toByteArray()));
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC);
+            header.putShort(VERSION_MAJOR);
+            header.putShort(VERSION_MINOR);
+            header.putLong(graphOffset);
+            header.putLong(bytes.size());
+            header.flip();
+            ch.position(0);
+            writeFully(ch, header);
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            ch.write(buf);
+    }
+
+    /**
+     * Buffers waypoints of consecutive legs and routes and writes them as {@link LocationBlock} chunks
+     */
+    private class ChunkWriter {
+
+        private final FileChannel ch;
+        private final List<Location> pending = new ArrayList<>();
+        private final List<Long> offsets = new ArrayList<>();
+        private final List<Integer> sizes = new ArrayList<>();
+
+        ChunkWriter(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        /**
+         * @return waypoint reference {chunk, first row, count}
+         */
+        int[] append(LocationSource source) throws IOException {
+            if (pending.size() >= chunkSize)
+                flush();
+            int first = pending.size();
+            for (Location l : source)
+                pending.add(l);
+            int n = pending.size() - first;
+            if (n == 0)
+                return new int[]{NONE, 0, 0};
+            return new int[]{offsets.size(), first, n};
+        }
+
+        void flush() throws IOException {
+            if (pending.isEmpty())
+                return;
+
+            // Align chunk start for the double columns
+            long pos = ch.position();
+            long aligned = (pos + 7) & ~7L;
+            if (aligned > pos)
+                writeFully(ch, ByteBuffer.allocate((int) (aligned - pos)));
+
+            LocationBlock block = LocationBlock.of(pending);
+            offsets.add(aligned);
+            sizes.add(pending.size());
+            writeFully(ch, block.getBuffer());
+            pending.clear();
+        }
+    }
+
+    /**
+     * Indexed view of all objects reachable from a {@link UserSnapshot}
+     */
+    private static class Graph {
+
+        final List<POI> pois = new ArrayList<>();
+        final List<Place> places = new ArrayList<>();
+        final List<Dwell> dwells = new ArrayList<>();
+        final List<Leg> legs = new ArrayList<>();
+        final List<Route> routes = new ArrayList<>();
+
+        final Map<Object, Integer> index = new IdentityHashMap<>();
+
+        Graph(UserSnapshot s) {
+            for (POI poi : s.getPois())
+                add(pois, poi);
+            for (Place p : s.getPlaces())
+                addPlace(p);
+            for (Dwell d : s.getDwells())
+                addDwell(d);
+            for (Route r : s.getRoutes())
+                addRoute(r);
+            for (Leg l : s.getLegs())
+                add(legs, l);
+        }
+
+        private <T> boolean add(List<T> list, T o) {
+            if (o == null || index.containsKey(o))
+                return false;
+            index.put(o, list.size());
+            list.add(o);
+            return true;
+        }
+
+        private void addPlace(Place p) {
+            if (!add(places, p))
+                return;
+            if (p.getPOIScores() != null)
+                for (POI poi : p.getPOIScores().keySet())
+                    add(pois, poi);
+            if (p.getNearbyPOIs() != null)
+                for (POI poi : p.getNearbyPOIs())
+                    add(pois, poi);
+            if (p.getDwells() != null)
+                for (Dwell d : p.getDwells())
+                    addDwell(d);
+            if (p.getDepartingRoutes() != null)
+                for (Route r : p.getDepartingRoutes())
+                    addRoute(r);
+            if (p.getArrivingRoutes() != null)
+                for (Route r : p.getArrivingRoutes())
+                    addRoute(r);
+        }
+
+        private void addDwell(Dwell d) {
+            if (!add(dwells, d))
+                return;
+            addRoute(d.getOrigin_of_route());
+            addRoute(d.getDestination_of_route());
+        }
+
+        private void addRoute(Route r) {
+            if (!add(routes, r))
+                return;
+            addDwell(r.getStartDwell());
+            addDwell(r.getEndDwell());
+            addPlace(r.getStartPlace());
+            addPlace(r.getEndPlace());
+            if (r.getMatchedLegs() != null)
+                for (Leg l : r.getMatchedLegs())
+                    add(legs, l);
+        }
+
+        int indexOf(Object o) {
+            if (o == null)
+                return NONE;
+            return index.get(o);
+        }
+
+        void writeIndices(DataOutputStream out, List<?> list) throws IOException {
+            if (list == null) {
+                out.writeInt(NONE);
+                return;
+            }
+            out.writeInt(list.size());
+            for (Object o : list)
+                out.writeInt(indexOf(o));
+        }
+    }
+
+    private static void writePOI(DataOutputStream out, POI poi) throws IOException {
+        writeString(out, poi.getId());
+        writeString(out, poi.getTitle());
+        out.writeBoolean(poi.getCategory() != null);
+        if (poi.getCategory() != null) {
+            writeString(out, poi.getCategory().getCategoryName());
+            writeString(out, poi.getCategory().getCategoryId());
+        }
+        writeOrdinal(out, poi.getCategorySensitivity());
+        out.writeDouble(poi.getDistance());
+        writeLocation(out, poi.getPosition());
+        writeLocation(out, poi.getAccess());
+    }
+
+    private static void writePlace(DataOutputStream out, Place p, Graph g) throws IOException {
+        out.writeLong(p.getUid());
+        out.writeDouble(p.getLatitude());
+        out.writeDouble(p.getLongitude());
+        out.writeDouble(p.getVisitFrequency());
+        out.writeDouble(p.getVisitRegularity());
+        out.writeDouble(p.getVisitDuration());
+        out.writeInt(p.getNSleepVisits());
+        writeOrdinal(out, p.getPrivacyCategory());
+        writeOrdinal(out, p.getPlaceType());
+        out.writeBoolean(p.isImported());
+
+        if (p.getPOIScores() == null) {
+            out.writeInt(NONE);
+        } else {
+            out.writeInt(p.getPOIScores().size());
+            for (Map.Entry<POI, Double> e : p.getPOIScores().entrySet()) {
+                out.writeInt(g.indexOf(e.getKey()));
+                out.writeDouble(e.getValue());
+            }
+        }
+        g.writeIndices(out, p.getNearbyPOIs());
+        g.writeIndices(out, p.getDwells());
+        g.writeIndices(out, p.getDepartingRoutes());
+        g.writeIndices(out, p.getArrivingRoutes());
+    }
+
+    private static void writeDwell(DataOutputStream out, Dwell d, Graph g) throws IOException {
+        out.writeLong(d.getUid());
+        out.writeDouble(d.getStartTime());
+        out.writeDouble(d.getEndTime());
+        out.writeDouble(d.getDuration());
+        out.writeLong(d.getParentPlaceID());
+        writeOrdinal(out, d.getDwellDurationType());
+        writeLocation(out, d.getDwellLocation());
+        out.writeInt(g.indexOf(d.getOrigin_of_route()));
+        out.writeInt(g.indexOf(d.getDestination_of_route()));
+    }
+
+    private static void writeLeg(DataOutputStream out, Leg l, int[] ref) throws IOException {
+        out.writeLong(l.getUid());
+        out.writeDouble(l.getStartTime());
+        out.writeDouble(l.getEndTime());
+        out.writeDouble(l.getOriginTZOffset());
+        out.writeDouble(l.getDestinationTZOffset());
+        out.writeDouble(l.getDuration());
+        out.writeDouble(l.getDistance());
+        writeLocation(out, l.getStartLoc());
+        writeLocation(out, l.getEndLoc());
+        writeOrdinal(out, l.getMode());
+        writeOrdinal(out, l.getPrivacyCategory());
+
+        PublicTransitDetails pt = l.getPublicTransitDetails();
+        out.writeBoolean(pt != null);
+        if (pt != null) {
+            writeString(out, pt.getCompanyName());
+            writeString(out, pt.getDestination());
+            writeString(out, pt.getLineName());
+            writeString(out, pt.getLineID());
+            writeString(out, pt.getLineType());
+        }
+
+        List<PedestrianStop> stops = l.getPedestrianStops();
+        out.writeInt(stops != null ? stops.size() : NONE);
+        if (stops != null) {
+            for (PedestrianStop ps : stops) {
+                out.writeDouble(ps.getStartTime());
+                out.writeDouble(ps.getEndTime());
+                out.writeDouble(ps.getDuration());
+                writeLocation(out, ps.getStopLoc());
+            }
+        }
+        writeRef(out, ref);
+    }
+
+    private static void writeRoute(DataOutputStream out, Route r, int[] ref, Graph g) throws IOException {
+        out.writeLong(r.getUid());
+        out.writeInt(g.indexOf(r.getStartDwell()));
+        out.writeInt(g.indexOf(r.getEndDwell()));
+        out.writeInt(g.indexOf(r.getStartPlace()));
+        out.writeInt(g.indexOf(r.getEndPlace()));
+        out.writeDouble(r.getStartTime());
+        out.writeDouble(r.getEndTime());
+        out.writeDouble(r.getDuration());
+        out.writeDouble(r.getDistance());
+        out.writeDouble(r.getGisDistance());
+        out.writeDouble(r.getOriginTZOffset());
+        out.writeDouble(r.getDestinationTZOffset());
+        out.writeDouble(r.getDistFromStartDwell());
+        out.writeDouble(r.getDistToEndDwell());
+        g.writeIndices(out, r.getMatchedLegs());
+        writeString(out, r.getLabel());
+        writeOrdinal(out, r.getPrivacyCategory());
+        writeRef(out, ref);
+    }
+
+    private static void writeRef(DataOutputStream out, int[] ref) throws IOException {
+        out.writeInt(ref[0]);
+        out.writeInt(ref[1]);
+        out.writeInt(ref[2]);
+    }
+
+    private static void writeOrdinal(DataOutputStream out, Enum<?> e) throws IOException {
+        out.writeByte(e != null ? e.ordinal() : NONE);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(NONE);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static void writeLocation(DataOutputStream out, Location l) throws IOException {
+        out.writeBoolean(l != null);
+        if (l != null) {
+            ByteBuffer buf = ByteBuffer.allocate(LocationRecord.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            LocationRecord.write(buf, l);
+            out.write(buf.array());
+        }
+    }
+}
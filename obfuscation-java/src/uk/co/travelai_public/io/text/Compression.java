@@ -0,0 +1,76 @@
+package uk.co.travelai_public.io.text;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compression of the files written by a {@link TextSink}
+ */
+
+public interface Compression {
+
+    /**
+     * @return file name suffix, e.g. ".gz"; empty if uncompressed
+     */
+    String getSuffix();
+
+    /**
+     * @return stream compressing into input stream; input stream itself if uncompressed
+     */
+    OutputStream wrap(OutputStream out) throws IOException;
+
+    Compression NONE = new Compression() {
+        @Override
+        public String getSuffix() {
+            return "";
+        }
+
+        @Override
+        public OutputStream wrap(OutputStream out) {
+            return out;
+        }
+    };
+
+    Compression GZIP = new Compression() {
+        @Override
+        public String getSuffix() {
+            return ".gz";
+        }
+
+        @Override
+        public OutputStream wrap(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, 64 * 1024);
+        }
+    };
+
+    /**
+     * Zstandard compression through zstd-jni (com.github.luben:zstd-jni), which must be on the class path
+     *
+     * @param level compression level, e.g. 3
+     */
+    static Compression zstd(int level) {
+        Constructor<?> ctor;
+        try {
+            ctor = Class.forName("com.github.luben.zstd.ZstdOutputStream").getConstructor(OutputStream.class, int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("zstd-jni is not on the class path", e);
+        }
+        return new Compression() {
+            @Override
+            public String getSuffix() {
+                return ".zst";
+            }
+
+            @Override
+            public OutputStream wrap(OutputStream out) throws IOException {
+                try {
+                    return (OutputStream) ctor.newInstance(out, level);
+                } catch (ReflectiveOperationException e) {
+                    throw new IOException("Failed to open zstd stream", e);
+                }
+            }
+        };
+    }
+}
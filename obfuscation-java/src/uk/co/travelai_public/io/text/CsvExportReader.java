@@ -0,0 +1,215 @@
+package uk.co.travelai_public.io.text;
+
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.TransportMode;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.travel.Leg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reader of waypoint, leg and place tables exported from the input database as CSV with a header row.
+ * <p>
+ * Columns are matched by header name as in the database tables, and other columns are skipped:
+ * <ul>
+ *     <li>waypoints: timestamp, lat, lon, and optionally accuracy, speed, timezone_offset, leg_id and route_id</li>
+ *     <li>legs: id (or leg_id), start_ts, end_ts, and optionally transport_mode (id or name), duration, distance,
+ *     firstloc_lat, firstloc_lon, lastloc_lat and lastloc_lon</li>
+ *     <li>places: id (or place_id), lat and lon</li>
+ * </ul>
+ * Files are memory-mapped and parsed in parallel chunks by {@link TextChunks}, with numbers parsed in place; ids are
+ * therefore exact up to 2^53. Text fields other than the transport mode must not contain line breaks.
+ */
+
+@Getter
+@Setter
+public class CsvExportReader {
+
+    private static final String[] WAYPOINT_COLUMNS = {
+            "timestamp", "lat", "lon", "accuracy", "speed", "timezone_offset", "leg_id", "route_id"};
+    private static final int W_TS = 0, W_LAT = 1, W_LON = 2, W_ACC = 3, W_SPEED = 4, W_TZ = 5, W_LEG = 6, W_ROUTE = 7;
+
+    private static final String[] LEG_COLUMNS = {
+            "id", "start_ts", "end_ts", "transport_mode", "duration", "distance",
+            "firstloc_lat", "firstloc_lon", "lastloc_lat", "lastloc_lon", "leg_id"};
+    private static final int L_ID = 0, L_START = 1, L_END = 2, L_MODE = 3, L_DURATION = 4, L_DISTANCE = 5,
+            L_FIRST_LAT = 6, L_FIRST_LON = 7, L_LAST_LAT = 8, L_LAST_LON = 9, L_LEG_ID = 10;
+
+    private static final String[] PLACE_COLUMNS = {"id", "lat", "lon", "place_id"};
+    private static final int P_ID = 0, P_LAT = 1, P_LON = 2, P_PLACE_ID = 3;
+
+    private int chunkBytes = TextChunks.DEFAULT_CHUNK_BYTES;
+
+    /**
+     * Read waypoint export
+     */
+    public WaypointTable readWaypoints(Path file) throws IOException {
+        int[] columns = header(file, WAYPOINT_COLUMNS, W_TS, W_LAT, W_LON);
+        List<WaypointTable.Columns> chunks = TextChunks.parse(file, TextChunks.firstLineEnd(file), chunkBytes,
+                b -> parseWaypoints(b, columns));
+        return WaypointTable.Columns.merge(chunks);
+    }
+
+    /**
+     * Read leg export. Leg uids are set to the ids of the file.
+     */
+    public List<Leg> readLegs(Path file) throws IOException {
+        int[] columns = header(file, LEG_COLUMNS, L_START, L_END);
+        if (!contains(columns, L_ID) && !contains(columns, L_LEG_ID))
+            throw new IOException("Missing column id: " + file);
+        return concat(TextChunks.parse(file, TextChunks.firstLineEnd(file), chunkBytes,
+                b -> parseLegs(b, columns)));
+    }
+
+    /**
+     * Read place export. Place uids are set to the ids of the file.
+     */
+    public List<Place> readPlaces(Path file) throws IOException {
+        int[] columns = header(file, PLACE_COLUMNS, P_LAT, P_LON);
+        if (!contains(columns, P_ID) && !contains(columns, P_PLACE_ID))
+            throw new IOException("Missing column id: " + file);
+        return concat(TextChunks.parse(file, TextChunks.firstLineEnd(file), chunkBytes,
+                b -> parsePlaces(b, columns)));
+    }
+
+    private static WaypointTable.Columns parseWaypoints(ByteBuffer b, int[] columns) {
+        WaypointTable.Columns out = new WaypointTable.Columns();
+        double[] v = new double[WAYPOINT_COLUMNS.length];
+        TextCursor c = new TextCursor(b);
+        while (!c.atEnd()) {
+            if (c.blankLine()) {
+                c.nextLine();
+                continue;
+            }
+            Arrays.fill(v, 0);
+            v[W_LEG] = -1;
+            v[W_ROUTE] = -1;
+            for (int col : columns) {
+                if (col < 0)
+                    c.skipField();
+                else
+                    v[col] = c.doubleField();
+            }
+            c.nextLine();
+            out.add(v[W_TS], v[W_LAT], v[W_LON], v[W_ACC], v[W_SPEED], v[W_TZ], id(v[W_LEG]), id(v[W_ROUTE]));
+        }
+        return out;
+    }
+
+    private static List<Leg> parseLegs(ByteBuffer b, int[] columns) {
+        List<Leg> out = new ArrayList<>();
+        double[] v = new double[LEG_COLUMNS.length];
+        TextCursor c = new TextCursor(b);
+        while (!c.atEnd()) {
+            if (c.blankLine()) {
+                c.nextLine();
+                continue;
+            }
+            Arrays.fill(v, Double.NaN);
+            TransportMode mode = TransportMode.unknown;
+            for (int col : columns) {
+                if (col < 0)
+                    c.skipField();
+                else if (col == L_MODE)
+                    mode = c.modeField();
+                else
+                    v[col] = c.doubleField();
+            }
+            c.nextLine();
+
+            Leg l = new Leg();
+            l.setUid((long) (Double.isNaN(v[L_ID]) ? v[L_LEG_ID] : v[L_ID]));
+            l.setStartTime(v[L_START]);
+            l.setEndTime(v[L_END]);
+            l.setMode(mode);
+            l.setDuration(Double.isNaN(v[L_DURATION]) ? v[L_END] - v[L_START] : v[L_DURATION]);
+            if (!Double.isNaN(v[L_DISTANCE]))
+                l.setDistance(v[L_DISTANCE]);
+            if (!Double.isNaN(v[L_FIRST_LAT]) && !Double.isNaN(v[L_FIRST_LON]))
+                l.setStartLoc(location(v[L_START], v[L_FIRST_LAT], v[L_FIRST_LON]));
+            if (!Double.isNaN(v[L_LAST_LAT]) && !Double.isNaN(v[L_LAST_LON]))
+                l.setEndLoc(location(v[L_END], v[L_LAST_LAT], v[L_LAST_LON]));
+            out.add(l);
+        }
+        return out;
+    }
+
+    private static List<Place> parsePlaces(ByteBuffer b, int[] columns) {
+        List<Place> out = new ArrayList<>();
+        double[] v = new double[PLACE_COLUMNS.length];
+        TextCursor c = new TextCursor(b);
+        while (!c.atEnd()) {
+            if (c.blankLine()) {
+                c.nextLine();
+                continue;
+            }
+            Arrays.fill(v, Double.NaN);
+            for (int col : columns) {
+                if (col < 0)
+                    c.skipField();
+                else
+                    v[col] = c.doubleField();
+            }
+            c.nextLine();
+
+            Place p = new Place();
+            p.setUid((long) (Double.isNaN(v[P_ID]) ? v[P_PLACE_ID] : v[P_ID]));
+            p.setLatitude(v[P_LAT]);
+            p.setLongitude(v[P_LON]);
+            out.add(p);
+        }
+        return out;
+    }
+
+    /**
+     * @return index of each header column in names; -1 for columns that are skipped
+     */
+    private static int[] header(Path file, String[] names, int... required) throws IOException {
+        String[] header = TextChunks.firstLine(file).split(",", -1);
+        int[] columns = new int[header.length];
+        for (int i = 0; i < header.length; i++) {
+            String h = header[i].trim().replace("\"", "").toLowerCase();
+            columns[i] = Arrays.asList(names).indexOf(h);
+        }
+        for (int r : required)
+            if (!contains(columns, r))
+                throw new IOException("Missing column " + names[r] + ": " + file);
+        return columns;
+    }
+
+    private static boolean contains(int[] columns, int column) {
+        for (int c : columns)
+            if (c == column)
+                return true;
+        return false;
+    }
+
+    static long id(double v) {
+        return Double.isNaN(v) ? -1 : (long) v;
+    }
+
+    static Location location(double ts, double lat, double lon) {
+        Location l = new Location();
+        l.setTimestamp(ts);
+        l.setLatitude(lat);
+        l.setLongitude(lon);
+        return l;
+    }
+
+    static <T> List<T> concat(List<List<T>> chunks) {
+        int n = 0;
+        for (List<T> c : chunks)
+            n += c.size();
+        List<T> out = new ArrayList<>(n);
+        for (List<T> c : chunks)
+            out.addAll(c);
+        return out;
+    }
+}
@@ -0,0 +1,213 @@
+package uk.co.travelai_public.io.text;
+
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.DwellDurationType;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+import uk.co.travelai_public.model.travel.Route;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * {@link ExportSink} writing CSV tables with a header row: places, dwells, routes, legs and waypoints, each to its own
+ * series of files in the output directory.
+ * <p>
+ * Columns are named as in the input database, so that the place, leg and waypoint tables can be read back by
+ * {@link CsvExportReader}. Missing values are written as empty fields.
+ */
+
+public class CsvExportWriter implements ExportSink {
+
+    static final int COORDINATE_DECIMALS = 7;
+    static final int METRIC_DECIMALS = 2;
+
+    @Getter private final TextSink places;
+    @Getter private final TextSink dwells;
+    @Getter private final TextSink routes;
+    @Getter private final TextSink legs;
+    @Getter private final TextSink waypoints;
+
+    // Resolution published times are truncated to; 0 for exact times
+    @Getter @Setter private double timeResolution_ms = 0;
+
+    /**
+     * @param maxBytes size on disk after which files are rotated
+     */
+    public CsvExportWriter(Path dir, Compression compression, long maxBytes) throws IOException {
+        places = new TextSink(dir, "places", "csv", compression, maxBytes,
+                s -> header(s, "id", "lat", "lon", "hidden", "privacy"));
+        dwells = new TextSink(dir, "dwells", "csv", compression, maxBytes,
+                s -> header(s, "id", "place_id", "start_ts", "end_ts", "duration", "duration_type", "hidden",
+                        "privacy"));
+        routes = new TextSink(dir, "routes", "csv", compression, maxBytes,
+                s -> header(s, "id", "start_ts", "end_ts", "duration", "distance", "start_place_id",
+                        "end_place_id", "hidden", "privacy"));
+        legs = new TextSink(dir, "legs", "csv", compression, maxBytes,
+                s -> header(s, "id", "route_id", "start_ts", "end_ts", "transport_mode", "duration", "distance",
+                        "firstloc_lat", "firstloc_lon", "lastloc_lat", "lastloc_lon", "hidden", "privacy"));
+        waypoints = new TextSink(dir, "waypoints", "csv", compression, maxBytes,
+                s -> header(s, "timestamp", "lat", "lon", "accuracy", "speed", "timezone_offset", "leg_id",
+                        "route_id"));
+    }
+
+    @Override
+    public void writePlace(Place p) throws IOException {
+        places.append(p.getUid()).append(',');
+        places.append(ExportSink.publishedLatitude(p), COORDINATE_DECIMALS).append(',');
+        places.append(ExportSink.publishedLongitude(p), COORDINATE_DECIMALS).append(',');
+        places.append(p.isHidden() ? '1' : '0').append(',');
+        places.append(p.getPrivacyCategory().name());
+        places.endRecord();
+    }
+
+    @Override
+    public void writeDwell(Dwell d) throws IOException {
+        DwellDurationType type = d.isHidden() ? d.getHiddenDurationType() : d.getDwellDurationType();
+        dwells.append(d.getUid()).append(',');
+        if (d.getParentPlaceID() >= 0)
+            dwells.append(d.getParentPlaceID());
+        dwells.append(',');
+        if (!d.isHidden()) {
+            dwells.append(time(d.getStartTime()), 0).append(',');
+            dwells.append(time(d.getEndTime()), 0).append(',');
+            dwells.append(time(d.getDuration()), 0).append(',');
+        } else {
+            dwells.append(",,,");
+        }
+        if (type != null)
+            dwells.append(type.name());
+        dwells.append(',');
+        dwells.append(d.isHidden() ? '1' : '0').append(',');
+        dwells.append(d.getPrivacyCategory().name());
+        dwells.endRecord();
+    }
+
+    @Override
+    public void writeRoute(Route r) throws IOException {
+        boolean hidden = r.isHidden();
+        routes.append(r.getUid()).append(',');
+        routes.append(time(hidden ? r.getHiddenStartTime() : r.getStartTime()), 0).append(',');
+        routes.append(time(hidden ? r.getHiddenEndTime() : r.getEndTime()), 0).append(',');
+        routes.append(time(hidden ? r.getHiddenDuration() : r.getDuration()), 0).append(',');
+        routes.append(hidden ? r.getHiddenDistance() : r.getDistance(), METRIC_DECIMALS).append(',');
+        if (r.getStartPlace() != null)
+            routes.append(r.getStartPlace().getUid());
+        routes.append(',');
+        if (r.getEndPlace() != null)
+            routes.append(r.getEndPlace().getUid());
+        routes.append(',');
+        routes.append(hidden ? '1' : '0').append(',');
+        routes.append(r.getPrivacyCategory().name());
+        routes.endRecord();
+
+        if (r.getMatchedLegs() == null || r.getMatchedLegs().isEmpty()) {
+            writeWaypoints(ExportSink.publishedWaypoints(r), -1, r.getUid());
+            return;
+        }
+        for (Leg l : r.getMatchedLegs()) {
+            writeLeg(l, r.getUid());
+            writeWaypoints(ExportSink.publishedWaypoints(l), l.getUid(), r.getUid());
+        }
+    }
+
+    private void writeLeg(Leg l, long routeUid) throws IOException {
+        boolean hidden = l.isHidden();
+        legs.append(l.getUid()).append(',');
+        legs.append(routeUid).append(',');
+        legs.append(time(hidden ? l.getHiddenStartTime() : l.getStartTime()), 0).append(',');
+        legs.append(time(hidden ? l.getHiddenEndTime() : l.getEndTime()), 0).append(',');
+        if (l.getMode() != null)
+            legs.append(l.getMode().name());
+        legs.append(',');
+        legs.append(time(hidden ? l.getHiddenDuration() : l.getDuration()), 0).append(',');
+        legs.append(hidden ? l.getHiddenDistance() : l.getDistance(), METRIC_DECIMALS).append(',');
+        if (hidden) {
+            LocationBlock b = l.getHiddenWaypoints();
+            boolean empty = b == null || b.size() == 0;
+            appendPosition(legs, empty ? null : b.getLocation(0));
+            appendPosition(legs, empty ? null : b.getLocation(b.size() - 1));
+        } else {
+            appendPosition(legs, l.getStartLoc());
+            appendPosition(legs, l.getEndLoc());
+        }
+        legs.append(hidden ? '1' : '0').append(',');
+        legs.append(l.getPrivacyCategory().name());
+        legs.endRecord();
+    }
+
+    private void writeWaypoints(LocationSource source, long legUid, long routeUid) throws IOException {
+        if (source instanceof LocationBlock) {
+            // Read the columns in place rather than creating a Location per waypoint
+            LocationBlock b = (LocationBlock) source;
+            for (int i = 0; i < b.size(); i++)
+                writeWaypoint(b.getTimestamp(i), b.getLatitude(i), b.getLongitude(i), b.getAccuracy(i),
+                        b.getSpeed(i), b.getTzOffset_ms(i), legUid, routeUid);
+            return;
+        }
+        for (Location l : source)
+            writeWaypoint(l.getTimestamp(), l.getLatitude(), l.getLongitude(), l.getAccuracy(), l.getSpeed(),
+                    l.getTzOffset_ms(), legUid, routeUid);
+    }
+
+    private void writeWaypoint(double ts, double lat, double lon, double acc, double speed, double tz, long legUid,
+                               long routeUid) throws IOException {
+        waypoints.append(time(ts), 0).append(',');
+        waypoints.append(lat, COORDINATE_DECIMALS).append(',');
+        waypoints.append(lon, COORDINATE_DECIMALS).append(',');
+        waypoints.append(acc, METRIC_DECIMALS).append(',');
+        waypoints.append(speed, METRIC_DECIMALS).append(',');
+        waypoints.append(tz, 0).append(',');
+        if (legUid >= 0)
+            waypoints.append(legUid);
+        waypoints.append(',');
+        waypoints.append(routeUid);
+        waypoints.endRecord();
+    }
+
+    private double time(double t) {
+        return ExportSink.publishedTime(t, timeResolution_ms);
+    }
+
+    // Latitude and longitude fields of input location, each followed by a separator
+    private static void appendPosition(TextSink s, Location l) throws IOException {
+        if (l != null) {
+            s.append(l.getLatitude(), COORDINATE_DECIMALS).append(',');
+            s.append(l.getLongitude(), COORDINATE_DECIMALS).append(',');
+        } else {
+            s.append(",,");
+        }
+    }
+
+    private static void header(TextSink s, String... columns) throws IOException {
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0)
+                s.append(',');
+            s.append(columns[i]);
+        }
+        s.append('\n');
+    }
+
+    @Override
+    public void flush() throws IOException {
+        places.flush();
+        dwells.flush();
+        routes.flush();
+        legs.flush();
+        waypoints.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        places.close();
+        dwells.close();
+        routes.close();
+        legs.close();
+        waypoints.close();
+    }
+}
@@ -0,0 +1,99 @@
+package uk.co.travelai_public.io.text;
+
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+import uk.co.travelai_public.model.travel.Route;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Streaming output of obfuscated places, dwells, routes, legs and waypoints, written as they come out of the pipeline.
+ * <p>
+ * Hidden places are written at their published position, the centroid of their protected area, or without a
+ * position if they have none. Hidden dwells are written without times, with the duration type they may publish.
+ * Hidden routes and legs are written with their hidden waypoints, times, duration and distance. With a time
+ * resolution set, published times and durations are truncated to multiples of it.
+ */
+
+public interface ExportSink extends Closeable {
+
+    void writePlace(Place p) throws IOException;
+
+    void writeDwell(Dwell d) throws IOException;
+
+    /**
+     * Write input route with its matched legs and their waypoints, or with its own waypoints if it has no legs
+     */
+    void writeRoute(Route r) throws IOException;
+
+    /**
+     * Truncate published times and durations to multiples of input resolution in milliseconds; 0 for exact times
+     */
+    void setTimeResolution_ms(double timeResolution_ms);
+
+    /**
+     * Write buffered output out to the files
+     */
+    void flush() throws IOException;
+
+    /**
+     * Write input places with their dwells, and input routes
+     */
+    default void write(List<Place> places, List<Route> routes) throws IOException {
+        for (Place p : places) {
+            writePlace(p);
+            if (p.getDwells() != null)
+                for (Dwell d : p.getDwells())
+                    writeDwell(d);
+        }
+        for (Route r : routes)
+            writeRoute(r);
+    }
+
+    /**
+     * @return latitude input place is published at; NaN if it is hidden without a published position
+     */
+    static double publishedLatitude(Place p) {
+        return p.isHidden() ? p.getHiddenLatitude() : p.getLatitude();
+    }
+
+    /**
+     * @return longitude input place is published at; NaN if it is hidden without a published position
+     */
+    static double publishedLongitude(Place p) {
+        return p.isHidden() ? p.getHiddenLongitude() : p.getLongitude();
+    }
+
+    /**
+     * @return input time or duration truncated to a multiple of resolution; as is if resolution is 0 or the value is
+     * unknown
+     */
+    static double publishedTime(double t, double resolution_ms) {
+        if (resolution_ms <= 0 || !(t >= 0) || Double.isInfinite(t))
+            return t;
+        return Math.floor(t / resolution_ms) * resolution_ms;
+    }
+
+    /**
+     * @return waypoints input leg is published with
+     */
+    static LocationSource publishedWaypoints(Leg l) {
+        if (!l.isHidden())
+            return l.getLocationSource();
+        return l.getHiddenWaypoints() != null ? l.getHiddenWaypoints() : LocationBlock.allocate(0);
+    }
+
+    /**
+     * @return waypoints input route without legs is published with
+     */
+    static LocationSource publishedWaypoints(Route r) {
+        if (!r.isHidden())
+            return r.getLocationSource();
+        return r.getHiddenWaypoints() != null ? r.getHiddenWaypoints() : LocationBlock.allocate(0);
+    }
+}
@@ -0,0 +1,303 @@
+package uk.co.travelai_public.io.text;
+
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.TransportMode;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.LocationBlock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reader of newline-delimited GeoJSON exports: one Feature per line, optionally preceded by an RS character as in
+ * RFC 8142.
+ * <p>
+ * Properties are named as the columns read by {@link CsvExportReader}; the feature id is used when there is no id
+ * property. Waypoints are Point features with a timestamp property. Legs are LineString features, whose coordinates
+ * become the waypoints of the leg, timed by an optional timestamps array property or spread evenly between start_ts
+ * and end_ts. Places are Point features. Legs and places without a numeric id, and features of other geometry types,
+ * are skipped.
+ * <p>
+ * Files are memory-mapped and parsed in parallel chunks by {@link TextChunks}, with numbers parsed in place.
+ */
+
+@Getter
+@Setter
+public class GeoJsonSeqReader {
+
+    private static final byte RS = 0x1E;
+
+    private static final byte[][] FEATURE_KEYS = TextCursor.names("geometry", "properties", "id");
+    private static final int F_GEOMETRY = 0, F_PROPERTIES = 1, F_ID = 2;
+
+    private static final byte[][] GEOMETRY_KEYS = TextCursor.names("type", "coordinates");
+    private static final int G_TYPE = 0, G_COORDINATES = 1;
+
+    private static final byte[][] GEOMETRY_TYPES = TextCursor.names("Point", "LineString");
+    private static final int POINT = 0, LINE_STRING = 1;
+
+    private static final byte[][] PROPERTY_KEYS = TextCursor.names(
+            "id", "leg_id", "route_id", "place_id", "timestamp", "accuracy", "speed", "timezone_offset",
+            "start_ts", "end_ts", "duration", "distance", "transport_mode", "timestamps");
+    private static final int ID = 0, LEG_ID = 1, ROUTE_ID = 2, PLACE_ID = 3, TIMESTAMP = 4, ACCURACY = 5, SPEED = 6,
+            TZ = 7, START = 8, END = 9, DURATION = 10, DISTANCE = 11, MODE = 12, TIMESTAMPS = 13;
+
+    private int chunkBytes = TextChunks.DEFAULT_CHUNK_BYTES;
+
+    /**
+     * Read Point features as waypoints; features without a timestamp are skipped
+     */
+    public WaypointTable readWaypoints(Path file) throws IOException {
+        List<WaypointTable.Columns> chunks = TextChunks.parse(file, 0, chunkBytes, b -> {
+            WaypointTable.Columns out = new WaypointTable.Columns();
+            Feature f = new Feature();
+            TextCursor c = new TextCursor(b);
+            while (f.next(c)) {
+                if (f.geometry != POINT || f.nCoords == 0 || Double.isNaN(f.props[TIMESTAMP]))
+                    continue;
+                out.add(f.props[TIMESTAMP], f.lats[0], f.lons[0], orZero(f.props[ACCURACY]),
+                        orZero(f.props[SPEED]), orZero(f.props[TZ]),
+                        CsvExportReader.id(f.props[LEG_ID]), CsvExportReader.id(f.props[ROUTE_ID]));
+            }
+            return out;
+        });
+        return WaypointTable.Columns.merge(chunks);
+    }
+
+    /**
+     * Read LineString features as legs with their waypoints. Leg uids are set to the ids of the file.
+     */
+    public List<Leg> readLegs(Path file) throws IOException {
+        return CsvExportReader.concat(TextChunks.parse(file, 0, chunkBytes, b -> {
+            List<Leg> out = new ArrayList<>();
+            Feature f = new Feature();
+            TextCursor c = new TextCursor(b);
+            while (f.next(c)) {
+                double id = firstId(f.props[ID], f.props[LEG_ID], f.id);
+                if (f.geometry == LINE_STRING && f.nCoords > 0 && !Double.isNaN(id))
+                    out.add(toLeg(f, (long) id));
+            }
+            return out;
+        }));
+    }
+
+    /**
+     * Read Point features as places. Place uids are set to the ids of the file.
+     */
+    public List<Place> readPlaces(Path file) throws IOException {
+        return CsvExportReader.concat(TextChunks.parse(file, 0, chunkBytes, b -> {
+            List<Place> out = new ArrayList<>();
+            Feature f = new Feature();
+            TextCursor c = new TextCursor(b);
+            while (f.next(c)) {
+                double id = firstId(f.props[ID], f.props[PLACE_ID], f.id);
+                if (f.geometry != POINT || f.nCoords == 0 || Double.isNaN(id))
+                    continue;
+                Place p = new Place();
+                p.setUid((long) id);
+                p.setLatitude(f.lats[0]);
+                p.setLongitude(f.lons[0]);
+                out.add(p);
+            }
+            return out;
+        }));
+    }
+
+    private static Leg toLeg(Feature f, long uid) {
+        int n = f.nCoords;
+        double start = f.props[START];
+        double end = f.props[END];
+        if (Double.isNaN(start) && f.nTimestamps > 0)
+            start = f.timestamps[0];
+        if (Double.isNaN(end) && f.nTimestamps > 0)
+            end = f.timestamps[f.nTimestamps - 1];
+
+        LocationBlock block = LocationBlock.allocate(n);
+        for (int i = 0; i < n; i++) {
+            double ts;
+            if (f.nTimestamps == n)
+                ts = f.timestamps[i];
+            else
+                ts = n > 1 ? start + (end - start) * i / (n - 1) : start;
+            block.set(i, ts, f.lats[i], f.lons[i], 0, 0, orZero(f.props[TZ]));
+        }
+
+        Leg l = new Leg();
+        l.setUid(uid);
+        l.setStartTime(start);
+        l.setEndTime(end);
+        l.setMode(f.mode);
+        l.setDuration(Double.isNaN(f.props[DURATION]) ? end - start : f.props[DURATION]);
+        if (!Double.isNaN(f.props[DISTANCE]))
+            l.setDistance(f.props[DISTANCE]);
+        l.setStartLoc(block.getLocation(0));
+        l.setEndLoc(block.getLocation(n - 1));
+        l.setLocationSource(block);
+        return l;
+    }
+
+    // First of input ids that is set; NaN if none
+    private static double firstId(double... ids) {
+        for (double id : ids)
+            if (!Double.isNaN(id))
+                return id;
+        return Double.NaN;
+    }
+
+    private static double orZero(double v) {
+        return Double.isNaN(v) ? 0 : v;
+    }
+
+    /**
+     * Fields of the last feature read; reused from line to line
+     */
+    private static class Feature {
+
+        int geometry;
+        double id;
+        double[] props = new double[PROPERTY_KEYS.length];
+        TransportMode mode;
+
+        double[] lats = new double[64];
+        double[] lons = new double[64];
+        int nCoords;
+        double[] timestamps = new double[64];
+        int nTimestamps;
+
+        /**
+         * Read the next feature
+         *
+         * @return false at the end of the chunk
+         */
+        boolean next(TextCursor c) {
+            while (true) {
+                c.skipSpace();
+                if (c.atEnd())
+                    return false;
+                if (!c.accept((char) RS))
+                    break;
+            }
+
+            geometry = -1;
+            id = Double.NaN;
+            Arrays.fill(props, Double.NaN);
+            mode = TransportMode.unknown;
+            nCoords = 0;
+            nTimestamps = 0;
+
+            c.expect('{');
+            if (!c.accept('}')) {
+                do {
+                    switch (c.key(FEATURE_KEYS)) {
+                        case F_GEOMETRY:
+                            geometry(c);
+                            break;
+                        case F_PROPERTIES:
+                            properties(c);
+                            break;
+                        case F_ID:
+                            id = c.jsonNumber();
+                            break;
+                        default:
+                            c.skipValue();
+                    }
+                } while (c.accept(','));
+                c.expect('}');
+            }
+            return true;
+        }
+
+        private void geometry(TextCursor c) {
+            if (!c.accept('{')) {
+                c.skipValue();
+                return;
+            }
+            if (c.accept('}'))
+                return;
+            do {
+                switch (c.key(GEOMETRY_KEYS)) {
+                    case G_TYPE:
+                        geometry = c.jsonString(GEOMETRY_TYPES);
+                        break;
+                    case G_COORDINATES:
+                        coordinates(c);
+                        break;
+                    default:
+                        c.skipValue();
+                }
+            } while (c.accept(','));
+            c.expect('}');
+        }
+
+        // A position [lon, lat, ...] or an array of them
+        private void coordinates(TextCursor c) {
+            c.expect('[');
+            if (c.accept('[')) {
+                position(c);
+                while (c.accept(',')) {
+                    c.expect('[');
+                    position(c);
+                }
+                c.expect(']');
+            } else {
+                position(c);
+            }
+        }
+
+        // Position after its opening bracket
+        private void position(TextCursor c) {
+            if (nCoords == lats.length) {
+                lats = Arrays.copyOf(lats, nCoords * 2);
+                lons = Arrays.copyOf(lons, nCoords * 2);
+            }
+            lons[nCoords] = c.jsonNumber();
+            c.expect(',');
+            lats[nCoords++] = c.jsonNumber();
+            while (c.accept(','))
+                c.skipValue();
+            c.expect(']');
+        }
+
+        private void properties(TextCursor c) {
+            if (!c.accept('{')) {
+                c.skipValue();
+                return;
+            }
+            if (c.accept('}'))
+                return;
+            do {
+                int k = c.key(PROPERTY_KEYS);
+                if (k == MODE)
+                    mode = c.jsonMode();
+                else if (k == TIMESTAMPS)
+                    timestamps(c);
+                else if (k >= 0)
+                    props[k] = c.jsonNumber();
+                else
+                    c.skipValue();
+            } while (c.accept(','));
+            c.expect('}');
+        }
+
+        private void timestamps(TextCursor c) {
+            if (!c.accept('[')) {
+                c.skipValue();
+                return;
+            }
+            if (c.accept(']'))
+                return;
+            do {
+                if (nTimestamps == timestamps.length)
+                    timestamps = Arrays.copyOf(timestamps, nTimestamps * 2);
+                timestamps[nTimestamps++] = c.jsonNumber();
+            } while (c.accept(','));
+            c.expect(']');
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package uk.co.travelai_public.io.text;
+
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.DwellDurationType;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+import uk.co.travelai_public.model.travel.Route;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static uk.co.travelai_public.io.text.CsvExportWriter.COORDINATE_DECIMALS;
+import static uk.co.travelai_public.io.text.CsvExportWriter.METRIC_DECIMALS;
+
+/**
+ * {@link ExportSink} writing newline-delimited GeoJSON features: places, dwells, routes and legs, each to its own
+ * series of files in the output directory.
+ * <p>
+ * Places are Point features, or features without geometry if hidden without a published position. Dwells and routes
+ * have no geometry. Legs are LineString features of their waypoints, with the waypoint times as a timestamps
+ * property, so that places and legs can be read back by {@link GeoJsonSeqReader}. Routes without legs are written as
+ * a single leg-less LineString feature in the leg files.
+ */
+
+public class GeoJsonSeqWriter implements ExportSink {
+
+    @Getter private final TextSink places;
+    @Getter private final TextSink dwells;
+    @Getter private final TextSink routes;
+    @Getter private final TextSink legs;
+
+    // Resolution published times are truncated to; 0 for exact times
+    @Getter @Setter private double timeResolution_ms = 0;
+
+    /**
+     * @param maxBytes size on disk after which files are rotated
+     */
+    public GeoJsonSeqWriter(Path dir, Compression compression, long maxBytes) throws IOException {
+        places = new TextSink(dir, "places", "geojsonl", compression, maxBytes, null);
+        dwells = new TextSink(dir, "dwells", "geojsonl", compression, maxBytes, null);
+        routes = new TextSink(dir, "routes", "geojsonl", compression, maxBytes, null);
+        legs = new TextSink(dir, "legs", "geojsonl", compression, maxBytes, null);
+    }
+
+    @Override
+    public void writePlace(Place p) throws IOException {
+        double lat = ExportSink.publishedLatitude(p);
+        double lon = ExportSink.publishedLongitude(p);
+        places.append("{\"type\":\"Feature\",\"id\":").append(p.getUid()).append(",\"geometry\":");
+        if (Double.isNaN(lat) || Double.isNaN(lon)) {
+            places.append("null");
+        } else {
+            places.append("{\"type\":\"Point\",\"coordinates\":[");
+            places.append(lon, COORDINATE_DECIMALS).append(',').append(lat, COORDINATE_DECIMALS).append("]}");
+        }
+        places.append(",\"properties\":{\"id\":").append(p.getUid());
+        places.append(",\"hidden\":").append(p.isHidden() ? "true" : "false");
+        places.append(",\"privacy\":\"").append(p.getPrivacyCategory().name()).append("\"}}");
+        places.endRecord();
+    }
+
+    @Override
+    public void writeDwell(Dwell d) throws IOException {
+        DwellDurationType type = d.isHidden() ? d.getHiddenDurationType() : d.getDwellDurationType();
+        dwells.append("{\"type\":\"Feature\",\"id\":").append(d.getUid()).append(",\"geometry\":null");
+        dwells.append(",\"properties\":{\"id\":").append(d.getUid());
+        if (d.getParentPlaceID() >= 0)
+            dwells.append(",\"place_id\":").append(d.getParentPlaceID());
+        if (!d.isHidden()) {
+            number(dwells, "start_ts", time(d.getStartTime()), 0);
+            number(dwells, "end_ts", time(d.getEndTime()), 0);
+            number(dwells, "duration", time(d.getDuration()), 0);
+        }
+        if (type != null)
+            dwells.append(",\"duration_type\":\"").append(type.name()).append('"');
+        dwells.append(",\"hidden\":").append(d.isHidden() ? "true" : "false");
+        dwells.append(",\"privacy\":\"").append(d.getPrivacyCategory().name()).append("\"}}");
+        dwells.endRecord();
+    }
+
+    @Override
+    public void writeRoute(Route r) throws IOException {
+        routes.append("{\"type\":\"Feature\",\"id\":").append(r.getUid()).append(",\"geometry\":null");
+        boolean hidden = r.isHidden();
+        routes.append(",\"properties\":{\"id\":").append(r.getUid());
+        number(routes, "start_ts", time(hidden ? r.getHiddenStartTime() : r.getStartTime()), 0);
+        number(routes, "end_ts", time(hidden ? r.getHiddenEndTime() : r.getEndTime()), 0);
+        number(routes, "duration", time(hidden ? r.getHiddenDuration() : r.getDuration()), 0);
+        number(routes, "distance", hidden ? r.getHiddenDistance() : r.getDistance(), METRIC_DECIMALS);
+        if (r.getStartPlace() != null)
+            routes.append(",\"start_place_id\":").append(r.getStartPlace().getUid());
+        if (r.getEndPlace() != null)
+            routes.append(",\"end_place_id\":").append(r.getEndPlace().getUid());
+        routes.append(",\"hidden\":").append(hidden ? "true" : "false");
+        routes.append(",\"privacy\":\"").append(r.getPrivacyCategory().name()).append("\"}}");
+        routes.endRecord();
+
+        if (r.getMatchedLegs() == null || r.getMatchedLegs().isEmpty()) {
+            LocationSource source = ExportSink.publishedWaypoints(r);
+            if (source.size() != 0) {
+                legs.append("{\"type\":\"Feature\",\"geometry\":");
+                lineString(source);
+                legs.append(",\"properties\":{\"route_id\":").append(r.getUid());
+                timestamps(source);
+                legs.append("}}");
+                legs.endRecord();
+            }
+            return;
+        }
+        for (Leg l : r.getMatchedLegs())
+            writeLeg(l, r.getUid());
+    }
+
+    private void writeLeg(Leg l, long routeUid) throws IOException {
+        LocationSource source = ExportSink.publishedWaypoints(l);
+        boolean hidden = l.isHidden();
+        legs.append("{\"type\":\"Feature\",\"id\":").append(l.getUid()).append(",\"geometry\":");
+        if (source.size() != 0)
+            lineString(source);
+        else
+            legs.append("null");
+        legs.append(",\"properties\":{\"id\":").append(l.getUid());
+        legs.append(",\"route_id\":").append(routeUid);
+        number(legs, "start_ts", time(hidden ? l.getHiddenStartTime() : l.getStartTime()), 0);
+        number(legs, "end_ts", time(hidden ? l.getHiddenEndTime() : l.getEndTime()), 0);
+        if (l.getMode() != null)
+            legs.append(",\"transport_mode\":\"").append(l.getMode().name()).append('"');
+        number(legs, "duration", time(hidden ? l.getHiddenDuration() : l.getDuration()), 0);
+        number(legs, "distance", hidden ? l.getHiddenDistance() : l.getDistance(), METRIC_DECIMALS);
+        legs.append(",\"hidden\":").append(hidden ? "true" : "false");
+        legs.append(",\"privacy\":\"").append(l.getPrivacyCategory().name()).append('"');
+        if (source.size() != 0)
+            timestamps(source);
+        legs.append("}}");
+        legs.endRecord();
+    }
+
+    private void lineString(LocationSource source) throws IOException {
+        legs.append("{\"type\":\"LineString\",\"coordinates\":[");
+        if (source instanceof LocationBlock) {
+            LocationBlock b = (LocationBlock) source;
+            for (int i = 0; i < b.size(); i++)
+                position(i, b.getLatitude(i), b.getLongitude(i));
+        } else {
+            int i = 0;
+            for (Location l : source)
+                position(i++, l.getLatitude(), l.getLongitude());
+        }
+        legs.append("]}");
+    }
+
+    private void position(int i, double lat, double lon) throws IOException {
+        if (i > 0)
+            legs.append(',');
+        legs.append('[').append(lon, COORDINATE_DECIMALS).append(',').append(lat, COORDINATE_DECIMALS).append(']');
+    }
+
+    private void timestamps(LocationSource source) throws IOException {
+        legs.append(",\"timestamps\":[");
+        if (source instanceof LocationBlock) {
+            LocationBlock b = (LocationBlock) source;
+            for (int i = 0; i < b.size(); i++) {
+                if (i > 0)
+                    legs.append(',');
+                legs.append(time(b.getTimestamp(i)), 0);
+            }
+        } else {
+            boolean first = true;
+            for (Location l : source) {
+                if (!first)
+                    legs.append(',');
+                legs.append(time(l.getTimestamp()), 0);
+                first = false;
+            }
+        }
+        legs.append(']');
+    }
+
+    private double time(double t) {
+        return ExportSink.publishedTime(t, timeResolution_ms);
+    }
+
+    // Numeric property; omitted if NaN
+    private static void number(TextSink s, String key, double v, int decimals) throws IOException {
+        if (Double.isNaN(v) || Double.isInfinite(v))
+            return;
+        s.append(",\"").append(key).append("\":").append(v, decimals);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        places.flush();
+        dwells.flush();
+        routes.flush();
+        legs.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        places.close();
+        dwells.close();
+        routes.close();
+        legs.close();
+    }
+}
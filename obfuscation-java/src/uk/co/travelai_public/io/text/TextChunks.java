@@ -0,0 +1,113 @@
+package uk.co.travelai_public.io.text;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Memory-mapped text file split into line-aligned chunks.
+ * <p>
+ * The file is mapped read-only in regions of about chunkBytes, each extended to the end of the line it would split,
+ * so that every line lies in exactly one chunk. Chunks are parsed in parallel and their results returned in file
+ * order. Files larger than 2 GB are fine as long as no single line is.
+ */
+
+public class TextChunks {
+
+    public static final int DEFAULT_CHUNK_BYTES = 8 * 1024 * 1024;
+
+    private static final int SCAN_BYTES = 4096;
+
+    private TextChunks() {
+    }
+
+    /**
+     * Map input file from byte offset start on in line-aligned chunks
+     */
+    public static List<ByteBuffer> map(Path file, long start, int chunkBytes) throws IOException {
+        if (chunkBytes < 1)
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkBytes);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            List<ByteBuffer> chunks = new ArrayList<>();
+            ByteBuffer scan = ByteBuffer.allocate(SCAN_BYTES);
+            long from = start;
+            while (from < size) {
+                long to = from + chunkBytes < size ? nextLine(ch, from + chunkBytes, size, scan) : size;
+                if (to - from > Integer.MAX_VALUE)
+                    throw new IOException("Line longer than 2 GB at byte " + from + ": " + file);
+                MappedByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+                chunks.add(b);
+                from = to;
+            }
+            return chunks;
+        }
+    }
+
+    /**
+     * Parse input file from byte offset start on, one chunk per task on the common fork-join pool
+     *
+     * @return results of parser for each chunk, in file order
+     */
+    public static <T> List<T> parse(Path file, long start, int chunkBytes, Function<ByteBuffer, T> parser)
+            throws IOException {
+        List<ByteBuffer> chunks = map(file, start, chunkBytes);
+        try {
+            return chunks.parallelStream().map(parser).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return offset just past the first line of input file; file length if it has one line
+     */
+    public static long firstLineEnd(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            return nextLine(ch, 0, ch.size(), ByteBuffer.allocate(SCAN_BYTES));
+        }
+    }
+
+    /**
+     * @return first line of input file, without line terminator
+     */
+    public static String firstLine(Path file) throws IOException {
+        long end = firstLineEnd(file);
+        if (end > Integer.MAX_VALUE)
+            throw new IOException("Header line too long: " + file);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate((int) end);
+            while (b.hasRemaining())
+                if (ch.read(b, b.position()) < 0)
+                    break;
+            int n = b.position();
+            while (n > 0 && (b.get(n - 1) == '\n' || b.get(n - 1) == '\r'))
+                n--;
+            return new String(b.array(), 0, n, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Offset just past the first newline at or after pos; size if none
+    private static long nextLine(FileChannel ch, long pos, long size, ByteBuffer scan) throws IOException {
+        while (pos < size) {
+            scan.clear();
+            int n = ch.read(scan, pos);
+            if (n <= 0)
+                break;
+            for (int i = 0; i < n; i++)
+                if (scan.get(i) == '\n')
+                    return pos + i + 1;
+            pos += n;
+        }
+        return size;
+    }
+}
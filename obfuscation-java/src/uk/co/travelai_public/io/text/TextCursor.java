@@ -0,0 +1,431 @@
+package uk.co.travelai_public.io.text;
+
+import uk.co.travelai_public.model.TransportMode;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cursor over the ASCII bytes of a {@link TextChunks} chunk, parsing CSV fields and JSON tokens in place.
+ * <p>
+ * Numbers are parsed straight from the bytes without creating Strings. Decimals with at most 18 significant digits
+ * and a decimal exponent between -22 and 22 (all coordinates, timestamps and accuracies in practice) are converted
+ * exactly with one rounding; anything else falls back to {@link Double#parseDouble(String)}. Empty fields, null and
+ * NaN read as NaN.
+ */
+
+class TextCursor {
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final long MAX_EXACT = 1L << 53;
+
+    private static final byte[][] MODE_NAMES = new byte[TransportMode.values().length][];
+
+    static {
+        for (TransportMode m : TransportMode.values())
+            MODE_NAMES[m.ordinal()] = m.name().toLowerCase().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private final ByteBuffer buf;
+    private final int limit;
+    private int pos;
+
+    TextCursor(ByteBuffer buf) {
+        this.buf = buf;
+        this.pos = buf.position();
+        this.limit = buf.limit();
+    }
+
+    boolean atEnd() {
+        return pos >= limit;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    private int peek() {
+        return pos < limit ? buf.get(pos) : -1;
+    }
+
+    // ----- lines -----
+
+    boolean atLineEnd() {
+        int c = peek();
+        return c == -1 || c == '\n' || c == '\r';
+    }
+
+    /**
+     * @return whether the rest of the line is blank
+     */
+    boolean blankLine() {
+        for (int i = pos; i < limit; i++) {
+            byte c = buf.get(i);
+            if (c == '\n')
+                return true;
+            if (c != ' ' && c != '\t' && c != '\r')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Move past the end of the current line
+     */
+    void nextLine() {
+        while (pos < limit && buf.get(pos++) != '\n')
+            ;
+    }
+
+    // ----- CSV -----
+
+    /**
+     * Move past the separator ending the current field, if any
+     */
+    void nextField() {
+        if (peek() == ',')
+            pos++;
+    }
+
+    /**
+     * Skip the current field, quoted or not, and its separator
+     */
+    void skipField() {
+        if (peek() == '"') {
+            pos++;
+            while (pos < limit) {
+                byte c = buf.get(pos++);
+                if (c == '"') {
+                    if (peek() != '"')
+                        break;
+                    pos++;
+                }
+            }
+        }
+        while (!atLineEnd() && peek() != ',')
+            pos++;
+        nextField();
+    }
+
+    /**
+     * Parse the current field as a number and move past its separator
+     */
+    double doubleField() {
+        boolean quoted = peek() == '"';
+        if (quoted)
+            pos++;
+        double v = number();
+        if (quoted && peek() == '"')
+            pos++;
+        if (!atLineEnd() && peek() != ',')
+            throw malformed("number");
+        nextField();
+        return v;
+    }
+
+    /**
+     * Parse the current field as a mode id or name and move past its separator
+     */
+    TransportMode modeField() {
+        int c = peek();
+        if (c == '"') {
+            pos++;
+            c = peek();
+        }
+        TransportMode m;
+        if (c == '-' || (c >= '0' && c <= '9')) {
+            double id = number();
+            m = Double.isNaN(id) ? TransportMode.unknown : TransportMode.fromID((int) id);
+        } else {
+            m = modeName();
+        }
+        skipField();
+        return m;
+    }
+
+    // ----- JSON -----
+
+    void skipSpace() {
+        while (pos < limit) {
+            byte c = buf.get(pos);
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n')
+                return;
+            pos++;
+        }
+    }
+
+    /**
+     * Consume input character after optional whitespace
+     */
+    void expect(char c) {
+        skipSpace();
+        if (peek() != c)
+            throw malformed("'" + c + "'");
+        pos++;
+    }
+
+    /**
+     * Consume input character after optional whitespace if it is next
+     *
+     * @return whether it was consumed
+     */
+    boolean accept(char c) {
+        skipSpace();
+        if (peek() != c)
+            return false;
+        pos++;
+        return true;
+    }
+
+    /**
+     * Consume an object key and its colon
+     *
+     * @return index of the key in keys; -1 if not found
+     */
+    int key(byte[][] keys) {
+        skipSpace();
+        if (peek() != '"')
+            throw malformed("key");
+        int start = ++pos;
+        while (pos < limit && buf.get(pos) != '"')
+            if (buf.get(pos++) == '\\')
+                pos++;
+        int end = pos++;
+        expect(':');
+        for (int k = 0; k < keys.length; k++)
+            if (equals(start, end, keys[k]))
+                return k;
+        return -1;
+    }
+
+    /**
+     * Consume a JSON number, a string holding one, or null
+     */
+    double jsonNumber() {
+        skipSpace();
+        if (peek() == 'n') {
+            literal("null");
+            return Double.NaN;
+        }
+        if (peek() != '"')
+            return number();
+        int quote = pos++;
+        double v = number();
+        if (peek() != '"') {
+            // Not a number, e.g. a textual id
+            pos = quote;
+            skipValue();
+            return Double.NaN;
+        }
+        pos++;
+        return v;
+    }
+
+    /**
+     * Consume a JSON string and match it against input names
+     *
+     * @return index of the string in names; -1 if not found
+     */
+    int jsonString(byte[][] names) {
+        skipSpace();
+        if (peek() != '"') {
+            skipValue();
+            return -1;
+        }
+        int start = ++pos;
+        while (pos < limit && buf.get(pos) != '"')
+            if (buf.get(pos++) == '\\')
+                pos++;
+        int end = pos++;
+        for (int k = 0; k < names.length; k++)
+            if (equals(start, end, names[k]))
+                return k;
+        return -1;
+    }
+
+    /**
+     * Consume a JSON mode id or name
+     */
+    TransportMode jsonMode() {
+        skipSpace();
+        int c = peek();
+        if (c == '"' && pos + 1 < limit && !Character.isDigit(buf.get(pos + 1))) {
+            pos++;
+            TransportMode m = modeName();
+            while (pos < limit && buf.get(pos++) != '"')
+                ;
+            return m;
+        }
+        double id = jsonNumber();
+        return Double.isNaN(id) ? TransportMode.unknown : TransportMode.fromID((int) id);
+    }
+
+    /**
+     * Consume any JSON value
+     */
+    void skipValue() {
+        skipSpace();
+        int c = peek();
+        if (c == '"') {
+            pos++;
+            while (pos < limit && buf.get(pos) != '"')
+                if (buf.get(pos++) == '\\')
+                    pos++;
+            pos++;
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            while (pos < limit) {
+                byte b = buf.get(pos++);
+                if (b == '"') {
+                    while (pos < limit && buf.get(pos) != '"')
+                        if (buf.get(pos++) == '\\')
+                            pos++;
+                    pos++;
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    if (--depth == 0)
+                        return;
+                }
+            }
+            throw malformed("end of " + (char) c);
+        } else {
+            while (pos < limit) {
+                byte b = buf.get(pos);
+                if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t')
+                    break;
+                pos++;
+            }
+        }
+    }
+
+    // ----- numbers -----
+
+    /**
+     * Parse a decimal number at the cursor; NaN if there is none
+     */
+    double number() {
+        int start = pos;
+        boolean negative = false;
+        int c = peek();
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int nDigits = 0;
+        int exponent = 0;
+        boolean exact = true;
+        boolean any = false;
+        while ((c = peek()) >= '0' && c <= '9') {
+            any = true;
+            if (nDigits < 18) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0)
+                    nDigits++;
+            } else {
+                exponent++;
+                exact &= c == '0';
+            }
+            pos++;
+        }
+        if (c == '.') {
+            pos++;
+            while ((c = peek()) >= '0' && c <= '9') {
+                any = true;
+                if (nDigits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0)
+                        nDigits++;
+                    exponent--;
+                } else {
+                    exact &= c == '0';
+                }
+                pos++;
+            }
+        }
+        if (!any) {
+            // Empty, NaN or null
+            pos = start;
+            while (pos < limit && Character.isLetter(buf.get(pos)))
+                pos++;
+            return Double.NaN;
+        }
+        if (c == 'e' || c == 'E') {
+            pos++;
+            int sign = 1;
+            if (peek() == '-' || peek() == '+')
+                sign = buf.get(pos++) == '-' ? -1 : 1;
+            int e = 0;
+            while ((c = peek()) >= '0' && c <= '9') {
+                if (e < 100000)
+                    e = e * 10 + (c - '0');
+                pos++;
+            }
+            exponent += sign * e;
+        }
+
+        if (exact && mantissa < MAX_EXACT && exponent >= -22 && exponent <= 22) {
+            double v = exponent < 0 ? mantissa / POW10[-exponent] : mantissa * POW10[exponent];
+            return negative ? -v : v;
+        }
+        byte[] b = new byte[pos - start];
+        for (int i = 0; i < b.length; i++)
+            b[i] = buf.get(start + i);
+        return Double.parseDouble(new String(b, StandardCharsets.US_ASCII));
+    }
+
+    // Mode name at the cursor, matched case-insensitively
+    private TransportMode modeName() {
+        int start = pos;
+        while (pos < limit) {
+            int c = buf.get(pos) | 0x20;
+            if (c < 'a' || c > 'z')
+                break;
+            pos++;
+        }
+        for (TransportMode m : TransportMode.values()) {
+            byte[] name = MODE_NAMES[m.ordinal()];
+            if (name.length != pos - start)
+                continue;
+            boolean match = true;
+            for (int i = 0; i < name.length && match; i++)
+                match = (buf.get(start + i) | 0x20) == name[i];
+            if (match)
+                return m;
+        }
+        return TransportMode.unknown;
+    }
+
+    private void literal(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if (pos >= limit || buf.get(pos++) != s.charAt(i))
+                throw malformed(s);
+    }
+
+    private boolean equals(int start, int end, byte[] s) {
+        if (end - start != s.length)
+            return false;
+        for (int i = 0; i < s.length; i++)
+            if (buf.get(start + i) != s[i])
+                return false;
+        return true;
+    }
+
+    IllegalArgumentException malformed(String expected) {
+        return new IllegalArgumentException("Expected " + expected + " at chunk offset " + pos);
+    }
+
+    /**
+     * @return input names as ASCII bytes, for matching with {@link #key(byte[][])} and {@link #jsonString(byte[][])}
+     */
+    static byte[][] names(String... names) {
+        byte[][] b = new byte[names.length][];
+        for (int i = 0; i < names.length; i++)
+            b[i] = names[i].getBytes(StandardCharsets.US_ASCII);
+        return b;
+    }
+}
@@ -0,0 +1,230 @@
+package uk.co.travelai_public.io.text;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Buffered text output to a series of files, rotated by size.
+ * <p>
+ * Records are appended field by field into a fixed buffer, with numbers formatted in place, so that writing takes
+ * constant memory and allocates nothing whatever the output volume. The buffer is written to the file channel, or
+ * through the compression stream, when full. Once a file reaches maxBytes on disk, the next {@link #endRecord()}
+ * closes it and opens the next one, numbered name-00000, name-00001, ..., and writes the header to it.
+ * <p>
+ * Sinks are not thread-safe.
+ */
+
+public class TextSink implements Closeable {
+
+    public static final int BUFFER_BYTES = 64 * 1024;
+
+    /**
+     * Writer of the header record starting each file
+     */
+    public interface Header {
+        void write(TextSink sink) throws IOException;
+    }
+
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L, 10000000000L};
+    private static final byte[] DIGITS = "0123456789abcdef".getBytes();
+
+    @Getter private final Path dir;
+    @Getter private final String name;
+    @Getter private final String extension;
+    @Getter private final Compression compression;
+    @Getter private final long maxBytes;
+    private final Header header;
+
+    private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_BYTES);
+    private final byte[] scratch = new byte[20];
+
+    @Getter(AccessLevel.NONE) private FileChannel channel;
+    @Getter(AccessLevel.NONE) private OutputStream stream;
+
+    @Getter private int nFiles;
+    @Getter private long nRecords;
+    @Getter private Path currentFile;
+
+    /**
+     * @param dir       output directory; created if missing
+     * @param name      base name of the files
+     * @param extension file extension without compression suffix, e.g. "csv"
+     * @param maxBytes  size on disk after which files are rotated; Long.MAX_VALUE to write one file
+     * @param header    writes the header at the start of each file; null if none
+     */
+    public TextSink(Path dir, String name, String extension, Compression compression, long maxBytes,
+                    Header header) throws IOException {
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("Max bytes must be positive: " + maxBytes);
+        this.dir = dir;
+        this.name = name;
+        this.extension = extension;
+        this.compression = compression != null ? compression : Compression.NONE;
+        this.maxBytes = maxBytes;
+        this.header = header;
+        Files.createDirectories(dir);
+        open();
+    }
+
+    // ----- fields -----
+
+    public TextSink append(char c) throws IOException {
+        if (!buf.hasRemaining())
+            drain();
+        buf.put((byte) c);
+        return this;
+    }
+
+    /**
+     * Append input characters as single bytes; callers only pass ASCII
+     */
+    public TextSink append(CharSequence s) throws IOException {
+        for (int i = 0; i < s.length(); i++)
+            append(s.charAt(i));
+        return this;
+    }
+
+    /**
+     * Append input string as a quoted JSON string, escaping quotes, backslashes and control characters. Characters
+     * beyond ASCII are escaped as well.
+     */
+    public TextSink appendJsonString(CharSequence s) throws IOException {
+        append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7E) {
+                append('\\').append('u');
+                for (int shift = 12; shift >= 0; shift -= 4)
+                    append((char) DIGITS[(c >> shift) & 0xF]);
+            } else {
+                append(c);
+            }
+        }
+        return append('"');
+    }
+
+    public TextSink append(long v) throws IOException {
+        if (v == Long.MIN_VALUE)
+            return append("-9223372036854775808");
+        if (v < 0) {
+            append('-');
+            v = -v;
+        }
+        int n = 0;
+        do {
+            scratch[n++] = DIGITS[(int) (v % 10)];
+            v /= 10;
+        } while (v > 0);
+        if (buf.remaining() < n)
+            drain();
+        while (n > 0)
+            buf.put(scratch[--n]);
+        return this;
+    }
+
+    /**
+     * Append input number rounded to at most input decimals (0 to 10), without trailing zeros. NaN and infinities
+     * are appended as nothing; numbers too large for fixed-point are appended as by {@link Double#toString(double)}.
+     */
+    public TextSink append(double v, int decimals) throws IOException {
+        if (Double.isNaN(v) || Double.isInfinite(v))
+            return this;
+        if (decimals < 0 || decimals >= POW10.length)
+            throw new IllegalArgumentException("Decimals must be 0-" + (POW10.length - 1) + ": " + decimals);
+        double scaled = Math.abs(v) * POW10[decimals];
+        if (scaled >= 9e15)
+            return append(Double.toString(v));
+
+        long r = Math.round(scaled);
+        if (v < 0 && r != 0)
+            append('-');
+        append(r / POW10[decimals]);
+        long frac = r % POW10[decimals];
+        if (frac == 0)
+            return this;
+        int digits = decimals;
+        while (frac % 10 == 0) {
+            frac /= 10;
+            digits--;
+        }
+        append('.');
+        for (int d = digits - 1; d >= 0; d--)
+            append((char) DIGITS[(int) (frac / POW10[d] % 10)]);
+        return this;
+    }
+
+    // ----- records -----
+
+    /**
+     * End the current record with a newline, rotating the file if it has reached maxBytes
+     */
+    public void endRecord() throws IOException {
+        append('\n');
+        nRecords++;
+        if (bytesOnDisk() >= maxBytes) {
+            closeFile();
+            open();
+        }
+    }
+
+    /**
+     * Write buffered records out to the current file
+     */
+    public void flush() throws IOException {
+        drain();
+        if (stream != null)
+            stream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null)
+            closeFile();
+    }
+
+    // Bytes of the current file on disk, including those still buffered if uncompressed
+    private long bytesOnDisk() throws IOException {
+        return channel.position() + (stream == null ? buf.position() : 0);
+    }
+
+    private void drain() throws IOException {
+        buf.flip();
+        if (stream != null)
+            stream.write(buf.array(), 0, buf.limit());
+        else
+            while (buf.hasRemaining())
+                channel.write(buf);
+        buf.clear();
+    }
+
+    private void open() throws IOException {
+        currentFile = dir.resolve(String.format("%s-%05d.%s%s", name, nFiles++, extension, compression.getSuffix()));
+        channel = FileChannel.open(currentFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        stream = compression == Compression.NONE ? null : compression.wrap(Channels.newOutputStream(channel));
+        if (header != null)
+            header.write(this);
+    }
+
+    private void closeFile() throws IOException {
+        drain();
+        if (stream != null)
+            stream.close();
+        channel.close();
+        channel = null;
+        stream = null;
+    }
+}
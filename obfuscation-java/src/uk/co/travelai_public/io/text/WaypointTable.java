@@ -0,0 +1,166 @@
+package uk.co.travelai_public.io.text;
+
+import lombok.Getter;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.Route;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Waypoints read from an export file, as one {@link LocationBlock} with the leg and route id of each row (-1 if the
+ * file has none).
+ * <p>
+ * {@link #attachToLegs(Collection)} and {@link #attachToRoutes(Collection)} set the waypoints of legs and routes by
+ * uid. Exports are normally ordered by leg or route, in which case each gets a slice of the block without copying;
+ * rows of a leg or route spread over the file are gathered into a block of their own.
+ */
+
+@Getter
+public class WaypointTable {
+
+    private final LocationBlock locations;
+    private final long[] legIds;
+    private final long[] routeIds;
+
+    WaypointTable(LocationBlock locations, long[] legIds, long[] routeIds) {
+        this.locations = locations;
+        this.legIds = legIds;
+        this.routeIds = routeIds;
+    }
+
+    public int size() {
+        return locations.size();
+    }
+
+    /**
+     * Set the waypoints of input legs to the rows with their uid as leg id. Legs without rows are left as they are.
+     */
+    public void attachToLegs(Collection<Leg> legs) {
+        Map<Long, LocationBlock> blocks = group(legIds);
+        for (Leg l : legs) {
+            LocationBlock b = blocks.get(l.getUid());
+            if (b != null)
+                l.setLocationSource(b);
+        }
+    }
+
+    /**
+     * Set the waypoints of input routes to the rows with their uid as route id. Routes without rows are left as they
+     * are.
+     */
+    public void attachToRoutes(Collection<Route> routes) {
+        Map<Long, LocationBlock> blocks = group(routeIds);
+        for (Route r : routes) {
+            LocationBlock b = blocks.get(r.getUid());
+            if (b != null)
+                r.setLocationSource(b);
+        }
+    }
+
+    /**
+     * @return rows of each id in input column, in file order
+     */
+    public Map<Long, LocationBlock> group(long[] ids) {
+        // Runs of equal ids; most ids have exactly one
+        Map<Long, List<int[]>> runs = new HashMap<>();
+        int start = 0;
+        for (int i = 1; i <= ids.length; i++) {
+            if (i == ids.length || ids[i] != ids[start]) {
+                if (ids[start] >= 0)
+                    runs.computeIfAbsent(ids[start], k -> new ArrayList<>(1)).add(new int[]{start, i - start});
+                start = i;
+            }
+        }
+
+        Map<Long, LocationBlock> blocks = new HashMap<>(runs.size() * 2);
+        for (Map.Entry<Long, List<int[]>> e : runs.entrySet()) {
+            List<int[]> r = e.getValue();
+            if (r.size() == 1) {
+                blocks.put(e.getKey(), locations.slice(r.get(0)[0], r.get(0)[1]));
+                continue;
+            }
+            int n = 0;
+            for (int[] run : r)
+                n += run[1];
+            LocationBlock b = LocationBlock.allocate(n);
+            int k = 0;
+            for (int[] run : r)
+                for (int i = run[0]; i < run[0] + run[1]; i++)
+                    b.set(k++, locations.getLocation(i));
+            blocks.put(e.getKey(), b);
+        }
+        return blocks;
+    }
+
+    /**
+     * Growable columns of the waypoints of one chunk
+     */
+    static class Columns {
+
+        double[] timestamp = new double[1024];
+        double[] latitude = new double[1024];
+        double[] longitude = new double[1024];
+        double[] accuracy = new double[1024];
+        double[] speed = new double[1024];
+        double[] tzOffset = new double[1024];
+        long[] legId = new long[1024];
+        long[] routeId = new long[1024];
+        int n;
+
+        void add(double ts, double lat, double lon, double acc, double spd, double tz, long leg, long route) {
+            if (n == timestamp.length) {
+                int c = n * 2;
+                timestamp = Arrays.copyOf(timestamp, c);
+                latitude = Arrays.copyOf(latitude, c);
+                longitude = Arrays.copyOf(longitude, c);
+                accuracy = Arrays.copyOf(accuracy, c);
+                speed = Arrays.copyOf(speed, c);
+                tzOffset = Arrays.copyOf(tzOffset, c);
+                legId = Arrays.copyOf(legId, c);
+                routeId = Arrays.copyOf(routeId, c);
+            }
+            timestamp[n] = ts;
+            latitude[n] = lat;
+            longitude[n] = lon;
+            accuracy[n] = acc;
+            speed[n] = spd;
+            tzOffset[n] = tz;
+            legId[n] = leg;
+            routeId[n++] = route;
+        }
+
+        /**
+         * Copy rows [from, to) into input block starting at row at
+         */
+        void copyTo(LocationBlock block, int at, int from, int to) {
+            for (int i = from; i < to; i++)
+                block.set(at++, timestamp[i], latitude[i], longitude[i], accuracy[i], speed[i], tzOffset[i]);
+        }
+
+        /**
+         * Concatenate input chunk columns into a table, in order
+         */
+        static WaypointTable merge(List<Columns> chunks) {
+            int n = 0;
+            for (Columns c : chunks)
+                n += c.n;
+            LocationBlock block = LocationBlock.allocate(n);
+            long[] legIds = new long[n];
+            long[] routeIds = new long[n];
+            int at = 0;
+            for (Columns c : chunks) {
+                c.copyTo(block, at, 0, c.n);
+                System.arraycopy(c.legId, 0, legIds, at, c.n);
+                System.arraycopy(c.routeId, 0, routeIds, at, c.n);
+                at += c.n;
+            }
+            return new WaypointTable(block, legIds, routeIds);
+        }
+    }
+}
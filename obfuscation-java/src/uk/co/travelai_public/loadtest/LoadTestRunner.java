@@ -0,0 +1,166 @@
+package uk.co.travelai_public.loadtest;
+
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.obfuscation.ProtectedAreaCoverCache;
+import uk.co.travelai_public.pipeline.ObfuscationPipeline;
+import uk.co.travelai_public.pipeline.UserData;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Macro load test driving the users of a {@link SyntheticWorkload} through the {@link ObfuscationPipeline} on a
+ * thread pool, as a production run would. Reports throughput, per-user latency percentiles and peak heap use.
+ * <p>
+ * Generation of a user's data is not included in its latency, but is included in the wall time and throughput. Each
+ * thread uses its own pipeline, as pipeline stages keep per-run state; the pipelines share the
+ * {@link ProtectedAreaCoverCache} of the process, as the workers of a production run do.
+ * <pre>
+ *   LoadTestRunner &lt;nUsers&gt; [days] [threads] [seed]
+ * </pre>
+ */
+
+@Getter
+@Setter
+public class LoadTestRunner {
+
+    private final SyntheticWorkload workload;
+
+    private Supplier<ObfuscationPipeline> pipelineFactory = ObfuscationPipeline::new;
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+
+    public LoadTestRunner(SyntheticWorkload workload) {
+        this.workload = workload;
+    }
+
+    /**
+     * Result of a load test run
+     */
+    @Getter
+    public static class Result {
+        private int nUsers;
+        private long nRoutes;
+        private long nLegs;
+        private long nWaypoints;
+        private double wallSeconds;
+        private double p50Millis;
+        private double p99Millis;
+        private double maxMillis;
+        private long peakHeapBytes;
+
+        public double getUsersPerSecond() {
+            return nUsers / wallSeconds;
+        }
+
+        public double getLegsPerSecond() {
+            return nLegs / wallSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("users %d, routes %d, legs %d, waypoints %d%n"
+                            + "wall %.1f s, %.1f users/s, %.0f legs/s%n"
+                            + "per-user latency p50 %.1f ms, p99 %.1f ms, max %.1f ms%n"
+                            + "peak heap %.1f MB",
+                    nUsers, nRoutes, nLegs, nWaypoints, wallSeconds, getUsersPerSecond(), getLegsPerSecond(),
+                    p50Millis, p99Millis, maxMillis, peakHeapBytes / 1e6);
+        }
+    }
+
+    /**
+     * Run all users of the workload
+     */
+    public Result run() throws Exception {
+        List<String> ids = workload.getInstallationIds();
+        long[] latencies = new long[ids.size()];
+        AtomicLong nRoutes = new AtomicLong();
+        AtomicLong nLegs = new AtomicLong();
+        AtomicLong nWaypoints = new AtomicLong();
+        ThreadLocal<ObfuscationPipeline> pipelines = ThreadLocal.withInitial(pipelineFactory);
+
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans();
+        heapPools.removeIf(p -> p.getType() != MemoryType.HEAP);
+        for (MemoryPoolMXBean p : heapPools)
+            p.resetPeakUsage();
+
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        long start = System.nanoTime();
+        try {
+            Future<?>[] futures = new Future<?>[ids.size()];
+            for (int i = 0; i < ids.size(); i++) {
+                int index = i;
+                futures[i] = executor.submit(() -> {
+                    UserData data = workload.load(ids.get(index), workload.getStartTs(), workload.getEndTs());
+                    nRoutes.addAndGet(data.getRoutes().size());
+                    nLegs.addAndGet(data.getLegs().size());
+                    long n = 0;
+                    for (Leg l : data.getLegs())
+                        n += l.getLegLocs().size();
+                    nWaypoints.addAndGet(n);
+
+                    long t = System.nanoTime();
+                    pipelines.get().run(data);
+                    latencies[index] = System.nanoTime() - t;
+                    return null;
+                });
+            }
+            for (Future<?> f : futures)
+                f.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        Result r = new Result();
+        r.wallSeconds = (System.nanoTime() - start) / 1e9;
+        r.nUsers = ids.size();
+        r.nRoutes = nRoutes.get();
+        r.nLegs = nLegs.get();
+        r.nWaypoints = nWaypoints.get();
+
+        Arrays.sort(latencies);
+        if (latencies.length > 0) {
+            r.p50Millis = percentile(latencies, 0.50) / 1e6;
+            r.p99Millis = percentile(latencies, 0.99) / 1e6;
+            r.maxMillis = latencies[latencies.length - 1] / 1e6;
+        }
+        // Sum of the peaks of the pools; an upper bound of the peak of their total
+        for (MemoryPoolMXBean p : heapPools)
+            r.peakHeapBytes += p.getPeakUsage().getUsed();
+        return r;
+    }
+
+    // Nearest-rank percentile of sorted values
+    private static long percentile(long[] sorted, double q) {
+        int rank = (int) Math.ceil(q * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadTestRunner <nUsers> [days] [threads] [seed]");
+            System.exit(2);
+        }
+        int nUsers = Integer.parseInt(args[0]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+
+        SyntheticWorkload workload = new SyntheticWorkload(seed, nUsers);
+        if (args.length > 1)
+            workload.setDays(Integer.parseInt(args[1]));
+
+        LoadTestRunner runner = new LoadTestRunner(workload);
+        if (args.length > 2)
+            runner.setNThreads(Integer.parseInt(args[2]));
+
+        System.out.println(runner.run());
+    }
+}
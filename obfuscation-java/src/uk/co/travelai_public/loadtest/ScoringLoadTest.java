@@ -0,0 +1,190 @@
+package uk.co.travelai_public.loadtest;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.json.JSONObject;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.pipeline.ObfuscationPipeline;
+import uk.co.travelai_public.pipeline.UserData;
+import uk.co.travelai_public.service.ScoringRequests;
+import uk.co.travelai_public.service.ScoringService;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of a {@link ScoringService} on loopback: a number of client threads send route and place scoring requests
+ * built from the users of a {@link SyntheticWorkload}, back to back for a fixed time. Reports throughput, latency
+ * percentiles and response status counts, including shed (503) and late (504) requests.
+ * <pre>
+ *   ScoringLoadTest &lt;nUsers&gt; [clients] [seconds] [deadlineMs]
+ * </pre>
+ */
+
+@Getter
+@Setter
+public class ScoringLoadTest {
+
+    private final ScoringService service;
+    private final List<String> routeRequests = new ArrayList<>();
+    private final List<String> placeRequests = new ArrayList<>();
+
+    private int nClients = 64;
+    private long seconds = 10;
+    private long deadlineMillis = 500;
+
+    public ScoringLoadTest(ScoringService service) {
+        this.service = service;
+    }
+
+    /**
+     * Add requests scoring the routes and places of the users of input workload, as scored by the pipeline
+     */
+    public void addRequests(SyntheticWorkload workload) throws Exception {
+        ObfuscationPipeline pipeline = new ObfuscationPipeline();
+        for (String id : workload.getInstallationIds()) {
+            UserData data = workload.load(id, workload.getStartTs(), workload.getEndTs());
+            pipeline.run(data);
+            for (Route r : data.getRoutes())
+                routeRequests.add(ScoringRequests.routeRequest(r).toString());
+            for (Place p : data.getPlaces())
+                placeRequests.add(ScoringRequests.placeRequest(p).toString());
+        }
+    }
+
+    /**
+     * Result of a load test run
+     */
+    @Getter
+    public static class Result {
+        private long nRequests;
+        private double wallSeconds;
+        private double p50Millis;
+        private double p99Millis;
+        private double maxMillis;
+        private final Map<Integer, Long> statusCounts = new TreeMap<>();
+        private JSONObject serviceStats;
+
+        @Override
+        public String toString() {
+            return String.format("requests %d, %.0f req/s%n"
+                            + "latency p50 %.1f ms, p99 %.1f ms, max %.1f ms%n"
+                            + "status %s%nservice %s",
+                    nRequests, nRequests / wallSeconds, p50Millis, p99Millis, maxMillis, statusCounts, serviceStats);
+        }
+    }
+
+    /**
+     * Send requests from all clients until the test time is up; one in four requests scores a place
+     */
+    public Result run() throws Exception {
+        if (routeRequests.isEmpty() || placeRequests.isEmpty())
+            throw new IllegalStateException("No requests to send");
+        HttpClient client = HttpClient.newBuilder().executor(Executors.newCachedThreadPool()).build();
+        URI routeUri = URI.create("http://127.0.0.1:" + service.getPort() + "/score/route");
+        URI placeUri = URI.create("http://127.0.0.1:" + service.getPort() + "/score/place");
+
+        ExecutorService clients = Executors.newFixedThreadPool(nClients);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<Client>> futures = new ArrayList<>();
+        for (int c = 0; c < nClients; c++) {
+            int offset = c;
+            futures.add(clients.submit(() -> {
+                Client stats = new Client();
+                for (long i = offset; System.nanoTime() < end; i += nClients) {
+                    boolean place = i % 4 == 3;
+                    List<String> bodies = place ? placeRequests : routeRequests;
+                    HttpRequest req = HttpRequest.newBuilder(place ? placeUri : routeUri)
+                            .header(ScoringService.DEADLINE_HEADER, Long.toString(deadlineMillis))
+                            .POST(HttpRequest.BodyPublishers.ofString(bodies.get((int) (i % bodies.size()))))
+                            .build();
+                    long t = System.nanoTime();
+                    HttpResponse<String> res = client.send(req, HttpResponse.BodyHandlers.ofString());
+                    stats.add(System.nanoTime() - t, res.statusCode());
+                }
+                return stats;
+            }));
+        }
+
+        Result r = new Result();
+        List<long[]> latencies = new ArrayList<>();
+        int n = 0;
+        try {
+            for (Future<Client> f : futures) {
+                Client c = f.get();
+                latencies.add(Arrays.copyOf(c.latencies, c.n));
+                n += c.n;
+                c.statusCounts.forEach((k, v) -> r.statusCounts.merge(k, v, Long::sum));
+            }
+        } finally {
+            clients.shutdown();
+        }
+        r.wallSeconds = (System.nanoTime() - start) / 1e9;
+
+        long[] all = new long[n];
+        int k = 0;
+        for (long[] l : latencies) {
+            System.arraycopy(l, 0, all, k, l.length);
+            k += l.length;
+        }
+        Arrays.sort(all);
+        r.nRequests = n;
+        if (n > 0) {
+            r.p50Millis = all[Math.max(0, (int) Math.ceil(0.50 * n) - 1)] / 1e6;
+            r.p99Millis = all[Math.max(0, (int) Math.ceil(0.99 * n) - 1)] / 1e6;
+            r.maxMillis = all[n - 1] / 1e6;
+        }
+
+        HttpResponse<String> stats = client.send(HttpRequest.newBuilder(
+                URI.create("http://127.0.0.1:" + service.getPort() + "/stats")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        r.serviceStats = new JSONObject(stats.body());
+        return r;
+    }
+
+    // Latencies and status counts of one client thread
+    private static class Client {
+        long[] latencies = new long[1024];
+        int n;
+        final Map<Integer, Long> statusCounts = new TreeMap<>();
+
+        void add(long nanos, int status) {
+            if (n == latencies.length)
+                latencies = Arrays.copyOf(latencies, n * 2);
+            latencies[n++] = nanos;
+            statusCounts.merge(status, 1L, Long::sum);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: ScoringLoadTest <nUsers> [clients] [seconds] [deadlineMs]");
+            System.exit(2);
+        }
+        try (ScoringService service = new ScoringService(0)) {
+            service.start();
+            ScoringLoadTest test = new ScoringLoadTest(service);
+            test.addRequests(new SyntheticWorkload(1, Integer.parseInt(args[0])));
+            if (args.length > 1)
+                test.setNClients(Integer.parseInt(args[1]));
+            if (args.length > 2)
+                test.setSeconds(Long.parseLong(args[2]));
+            if (args.length > 3)
+                test.setDeadlineMillis(Long.parseLong(args[3]));
+            System.out.println(test.run());
+        }
+    }
+}
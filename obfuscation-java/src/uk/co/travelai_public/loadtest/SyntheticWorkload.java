@@ -0,0 +1,416 @@
+package uk.co.travelai_public.loadtest;
+
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.HERE.HEREExtraDetails;
+import uk.co.travelai_public.model.HERE.HERELinkFunctionalClass;
+import uk.co.travelai_public.model.HERE.HERESpeedCategory;
+import uk.co.travelai_public.model.IdAllocator;
+import uk.co.travelai_public.model.Ids;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.TimeConstants;
+import uk.co.travelai_public.model.TransportMode;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.OpenHours;
+import uk.co.travelai_public.model.place.POI;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.place.PlaceCategory;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.PublicTransitDetails;
+import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.obfuscation.PrivacyCategory;
+import uk.co.travelai_public.pipeline.UserData;
+import uk.co.travelai_public.pipeline.UserDataLoader;
+import uk.co.travelai_public.tools.DistanceKernel;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded generator of synthetic users, for load tests that can be shared.
+ * <p>
+ * Each user has a home, a work place and a few other places around a city centre, each with candidate POIs of
+ * different category sensitivities, some with opening hours. On work days the user commutes between home and work
+ * and sometimes visits another place in the evening; on weekends the user visits other places. Trips are made by car,
+ * bicycle, on foot or by bus with walking access legs. Each trip between two places follows the same path every time,
+ * so habitual trips repeat as they do in real data, and waypoints carry GPS noise and, for road legs, HERE road
+ * attributes. Dwells fill the time between trips.
+ * <p>
+ * Users are generated on demand from the seed and their index, so any number of users can be loaded, in any order
+ * and on any thread, without holding the population in memory. The same seed gives the same data. Uids are unique
+ * within a user.
+ */
+
+@Getter
+@Setter
+public class SyntheticWorkload implements UserDataLoader {
+
+    public static final String ID_PREFIX = "synthetic-";
+
+    private static final String[][] CATEGORIES = {
+            {"Restaurant", "PUBLIC"}, {"Shopping", "PUBLIC"}, {"Park", "PUBLIC"}, {"Gym", "PUBLIC"},
+            {"Bar", "SENSITIVE"}, {"Hospital", "SENSITIVE"}, {"Pharmacy", "SENSITIVE"},
+            {"Place of Worship", "SENSITIVE"}, {"School", "SENSITIVE"}, {"Residential", "PRIVATE"}};
+
+    private final long seed;
+    private final int nUsers;
+
+    // Monday 1.1.2024 00:00 UTC
+    private double startTs = 1704067200000.0;
+    private int days = 14;
+    private int nOtherPlaces = 6;
+    private int nPOIsPerPlace = 5;
+
+    private double centreLat = 51.5074;
+    private double centreLon = -0.1278;
+    private double cityRadius = 15000;
+
+    // Standard deviation of GPS noise, metres
+    private double gpsNoise = 8;
+
+    public SyntheticWorkload(long seed, int nUsers) {
+        this.seed = seed;
+        this.nUsers = nUsers;
+    }
+
+    /**
+     * @return installation IDs of all users
+     */
+    public List<String> getInstallationIds() {
+        List<String> ids = new ArrayList<>(nUsers);
+        for (int i = 0; i < nUsers; i++)
+            ids.add(String.format("%s%07d", ID_PREFIX, i));
+        return ids;
+    }
+
+    /**
+     * @return end of the generated period as epoch milliseconds
+     */
+    public double getEndTs() {
+        return startTs + days * (double) TimeConstants.DAY_MS;
+    }
+
+    @Override
+    @SuppressWarnings("try")
+    public UserData load(String installationId, double startTs, double endTs) {
+        if (!installationId.startsWith(ID_PREFIX))
+            throw new IllegalArgumentException("Not a synthetic installation: " + installationId);
+        int user = Integer.parseInt(installationId.substring(ID_PREFIX.length()));
+        UserData all;
+        // Uids are assigned per user by the generator
+        try (Ids.Scope ids = Ids.use(IdAllocator.UNASSIGNED)) {
+            all = generate(user);
+        }
+        all.setInstallationId(installationId);
+        return window(all, startTs, endTs);
+    }
+
+    /**
+     * @return all data of input user
+     */
+    public UserData generate(int user) {
+        Random rnd = new Random(mix(seed * 1000003L + user));
+        UserGenerator g = new UserGenerator(user, rnd);
+        return g.generate();
+    }
+
+    // Data of input user restricted to a window, as specified by UserDataLoader
+    private static UserData window(UserData all, double startTs, double endTs) {
+        UserData w = new UserData();
+        w.setInstallationId(all.getInstallationId());
+        w.setStartTs(startTs);
+        w.setEndTs(endTs);
+        w.setPois(all.getPois());
+        for (Route r : all.getRoutes()) {
+            if (r.getStartTime() >= startTs && r.getStartTime() < endTs) {
+                w.getRoutes().add(r);
+                w.getLegs().addAll(r.getMatchedLegs());
+            }
+        }
+        for (Place p : all.getPlaces()) {
+            List<Dwell> dwells = new ArrayList<>();
+            for (Dwell d : p.getDwells())
+                if (d.getStartTime() >= startTs && d.getStartTime() < endTs)
+                    dwells.add(d);
+            if (dwells.isEmpty())
+                continue;
+            p.setDwells(dwells);
+            w.getPlaces().add(p);
+            w.getDwells().addAll(dwells);
+        }
+        return w;
+    }
+
+    private class UserGenerator {
+
+        private final int user;
+        private final Random rnd;
+        private final UserData data = new UserData();
+
+        private final List<Place> places = new ArrayList<>();
+        private Place home;
+        private Place work;
+
+        // Preferred mode of longer trips
+        private final TransportMode habit;
+
+        private Place current;
+        private double since;
+        private int nRoutes;
+
+        UserGenerator(int user, Random rnd) {
+            this.user = user;
+            this.rnd = rnd;
+            double u = rnd.nextDouble();
+            this.habit = u < 0.5 ? TransportMode.car : u < 0.65 ? TransportMode.bicycle : TransportMode.bus;
+        }
+
+        UserData generate() {
+            double[] h = randomPoint(centreLat, centreLon, cityRadius);
+            double[] w = randomPoint(centreLat, centreLon, cityRadius);
+            home = newPlace(h, "Residential", PrivacyCategory.PRIVATE);
+            work = newPlace(w, "Office", PrivacyCategory.PUBLIC);
+            for (int i = 0; i < nOtherPlaces; i++) {
+                String[] c = CATEGORIES[rnd.nextInt(CATEGORIES.length - 1)];
+                newPlace(randomPoint(h[0], h[1], 5000), c[0], PrivacyCategory.valueOf(c[1]));
+            }
+
+            current = home;
+            since = startTs;
+            for (int d = 0; d < days; d++) {
+                double day = startTs + d * (double) TimeConstants.DAY_MS;
+                boolean workDay = d % 7 < 5;
+                if (workDay) {
+                    trip(work, day + hours(7.5 + rnd.nextGaussian() * 0.5));
+                    double leave = day + hours(17 + rnd.nextGaussian());
+                    if (rnd.nextDouble() < 0.4) {
+                        trip(other(), leave);
+                        trip(home, since + hours(1 + rnd.nextDouble()));
+                    } else {
+                        trip(home, leave);
+                    }
+                } else {
+                    int nTrips = 1 + rnd.nextInt(2);
+                    double t = day + hours(10 + rnd.nextDouble() * 2);
+                    for (int i = 0; i < nTrips; i++) {
+                        trip(other(), t);
+                        t = since + hours(1 + rnd.nextDouble() * 2);
+                    }
+                    trip(home, t);
+                }
+            }
+            addDwell(current, since, getEndTs() - 1);
+
+            data.setPlaces(places);
+            return data;
+        }
+
+        private Place other() {
+            Place p;
+            do {
+                p = places.get(2 + rnd.nextInt(places.size() - 2));
+            } while (p == current);
+            return p;
+        }
+
+        private Place newPlace(double[] latLon, String category, PrivacyCategory sensitivity) {
+            Place p = new Place();
+            p.setUid(places.size() + 1);
+            p.setLatitude(latLon[0]);
+            p.setLongitude(latLon[1]);
+            p.setDwells(new ArrayList<>());
+            p.setDepartingRoutes(new ArrayList<>());
+            p.setArrivingRoutes(new ArrayList<>());
+            p.setNearbyPOIs(new ArrayList<>());
+
+            // The true POI scores highest; others are nearby candidates
+            for (int i = 0; i < nPOIsPerPlace; i++) {
+                String[] c = i == 0 ? new String[]{category, sensitivity.name()}
+                        : CATEGORIES[rnd.nextInt(CATEGORIES.length)];
+                POI poi = new POI();
+                poi.setId("poi-" + p.getUid() + "-" + i);
+                poi.setTitle(c[0] + " " + i);
+                poi.setCategory(new PlaceCategory(c[0], c[0].toLowerCase().replace(' ', '-'), poi));
+                poi.setCategorySensitivity(PrivacyCategory.valueOf(c[1]));
+                double[] pos = randomPoint(latLon[0], latLon[1], 80);
+                poi.setPosition(location(startTs, pos[0], pos[1], 0));
+                poi.setDistance(DistanceKernel.distance(latLon[0], latLon[1], pos[0], pos[1]));
+                if (!c[1].equals("PRIVATE") && rnd.nextBoolean())
+                    poi.setOpenHours(openHours());
+                p.getNearbyPOIs().add(poi);
+                p.getPOIScores().put(poi, i == 0 ? 0.6 + 0.35 * rnd.nextDouble() : 0.5 * rnd.nextDouble());
+                data.getPois().add(poi);
+            }
+            places.add(p);
+            return p;
+        }
+
+        private OpenHours openHours() {
+            OpenHours oh = new OpenHours();
+            int open = 7 + rnd.nextInt(4);
+            int close = 17 + rnd.nextInt(6);
+            for (OpenHours.Weekday d : OpenHours.Weekday.values())
+                if (d.ordinal() < 6 || rnd.nextBoolean())
+                    oh.add(d, LocalTime.of(open, 0), LocalTime.of(close, 0));
+            return oh;
+        }
+
+        // Trip from the current place to input place, departing at input time
+        private void trip(Place to, double departTs) {
+            departTs = Math.max(departTs, since + 60000);
+            Dwell startDwell = addDwell(current, since, departTs);
+
+            Route r = new Route();
+            r.setUid(++nRoutes);
+            r.setStartPlace(current);
+            r.setEndPlace(to);
+            r.setStartDwell(startDwell);
+            r.setStartTime(departTs);
+
+            double dist = DistanceKernel.distance(current.getLatitude(), current.getLongitude(),
+                    to.getLatitude(), to.getLongitude());
+            TransportMode mode = dist < 1500 ? TransportMode.walk : habit;
+            // Paths depend only on the two places, so repeated trips follow the same route
+            long pathSeed = seed ^ (31L * current.getUid() + to.getUid());
+
+            double t = departTs;
+            double[] a = {current.getLatitude(), current.getLongitude()};
+            double[] b = {to.getLatitude(), to.getLongitude()};
+            if (mode == TransportMode.bus) {
+                Random stops = new Random(mix(pathSeed));
+                double[] stopA = SyntheticWorkload.randomPoint(stops, a[0], a[1], 300);
+                double[] stopB = SyntheticWorkload.randomPoint(stops, b[0], b[1], 300);
+                t = addLeg(r, TransportMode.walk, a, stopA, t, pathSeed);
+                t = addLeg(r, TransportMode.bus, stopA, stopB, t + 120000 * rnd.nextDouble(), pathSeed + 1);
+                t = addLeg(r, TransportMode.walk, stopB, b, t, pathSeed + 2);
+            } else {
+                t = addLeg(r, mode, a, b, t, pathSeed);
+            }
+
+            r.setEndTime(t);
+            r.setDuration(t - departTs);
+            double total = 0;
+            for (Leg l : r.getMatchedLegs())
+                total += l.getDistance();
+            r.setDistance(total);
+
+            current.getDepartingRoutes().add(r);
+            to.getArrivingRoutes().add(r);
+            startDwell.setOrigin_of_route(r);
+            data.getRoutes().add(r);
+            data.getLegs().addAll(r.getMatchedLegs());
+
+            current = to;
+            since = t;
+        }
+
+        private double addLeg(Route r, TransportMode mode, double[] a, double[] b, double t, long pathSeed) {
+            double speed;
+            double interval;
+            switch (mode) {
+                case walk: speed = 1.4; interval = 5000; break;
+                case bicycle: speed = 4.5; interval = 3000; break;
+                case bus: speed = 7; interval = 5000; break;
+                default: speed = 11; interval = 2000; break;
+            }
+
+            // Path through a control point off the straight line, fixed per pair of places
+            Random path = new Random(mix(pathSeed));
+            double bend = (path.nextDouble() - 0.5) * 0.4;
+            double midLat = (a[0] + b[0]) / 2 - bend * (b[1] - a[1]) * 0.6;
+            double midLon = (a[1] + b[1]) / 2 + bend * (b[0] - a[0]) / 0.6;
+            double length = DistanceKernel.distance(a[0], a[1], midLat, midLon)
+                    + DistanceKernel.distance(midLat, midLon, b[0], b[1]);
+            double duration = Math.max(60000, length / speed * 1000 * (0.9 + 0.2 * rnd.nextDouble()));
+            int n = Math.max(2, (int) (duration / interval) + 1);
+
+            List<Location> locs = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                double f = i / (double) (n - 1);
+                // Quadratic Bezier through the control point
+                double lat = (1 - f) * (1 - f) * a[0] + 2 * f * (1 - f) * midLat + f * f * b[0];
+                double lon = (1 - f) * (1 - f) * a[1] + 2 * f * (1 - f) * midLon + f * f * b[1];
+                double[] noisy = randomPoint(lat, lon, gpsNoise * Math.abs(rnd.nextGaussian()));
+                Location l = location(t + f * duration, noisy[0], noisy[1], gpsNoise * (0.5 + rnd.nextDouble()));
+                if (mode == TransportMode.car || mode == TransportMode.bicycle || mode == TransportMode.bus) {
+                    // Road class follows the position along the path: main roads in the middle of the trip
+                    int fc = 1 + (int) Math.min(4, Math.abs(f - 0.5) * 8 + path.nextInt(2));
+                    l.setExtraDetails(new HEREExtraDetails(pathSeed * 1000 + i / 50,
+                            HERELinkFunctionalClass.fromID(fc),
+                            HERESpeedCategory.values()[Math.min(HERESpeedCategory.values().length - 1, fc + 2)],
+                            true, (f < 0.02 || f > 0.98) && pathSeed % 5 == 0));
+                }
+                locs.add(l);
+            }
+
+            Leg leg = new Leg();
+            leg.setUid(r.getUid() * 4 + r.getMatchedLegs().size());
+            leg.setMode(mode);
+            leg.setStartTime(t);
+            leg.setEndTime(t + duration);
+            leg.setDuration(duration);
+            leg.setDistance(length);
+            leg.setLegLocs(locs);
+            leg.setStartLoc(locs.get(0));
+            leg.setEndLoc(locs.get(n - 1));
+            if (mode == TransportMode.bus) {
+                PublicTransitDetails pt = new PublicTransitDetails();
+                pt.setLineName("" + (1 + Math.floorMod(pathSeed, 300)));
+                pt.setLineType("bus");
+                leg.setPublicTransitDetails(pt);
+            }
+            r.getMatchedLegs().add(leg);
+            return t + duration;
+        }
+
+        private Dwell addDwell(Place p, double start, double end) {
+            Dwell d = new Dwell();
+            d.setUid(data.getDwells().size() + 1);
+            d.setStartTime(start);
+            d.setEndTime(end);
+            d.setDuration(end - start);
+            d.setParentPlaceID(p.getUid());
+            d.setDwellLocation(location(start, p.getLatitude(), p.getLongitude(), gpsNoise));
+            if (!p.getArrivingRoutes().isEmpty())
+                d.setDestination_of_route(p.getArrivingRoutes().get(p.getArrivingRoutes().size() - 1));
+            p.getDwells().add(d);
+            data.getDwells().add(d);
+            return d;
+        }
+
+        private double[] randomPoint(double lat, double lon, double radius) {
+            return SyntheticWorkload.randomPoint(rnd, lat, lon, radius);
+        }
+    }
+
+    // Finaliser of SplitMix64: java.util.Random yields nearly equal first values for adjacent seeds, so that e.g. the
+    // habits of consecutive users would be the same
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static double[] randomPoint(Random rnd, double lat, double lon, double radius) {
+        double r = radius * Math.sqrt(rnd.nextDouble());
+        double a = 2 * Math.PI * rnd.nextDouble();
+        double dLat = r * Math.cos(a) / 111320.0;
+        double dLon = r * Math.sin(a) / (111320.0 * Math.cos(Math.toRadians(lat)));
+        return new double[]{lat + dLat, lon + dLon};
+    }
+
+    private static Location location(double ts, double lat, double lon, double accuracy) {
+        Location l = new Location();
+        l.setTimestamp(ts);
+        l.setLatitude(lat);
+        l.setLongitude(lon);
+        l.setAccuracy(accuracy);
+        return l;
+    }
+
+    private static double hours(double h) {
+        return h * TimeConstants.HOUR_MS;
+    }
+}
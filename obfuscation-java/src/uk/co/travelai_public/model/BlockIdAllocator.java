@@ -0,0 +1,79 @@
+package uk.co.travelai_public.model;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe {@link IdAllocator} handing out 64-bit uids in contiguous blocks.
+ * <p>
+ * Blocks of blockSize uids are taken from a shared counter, one atomic increment per block; uids within a block are
+ * handed out without synchronisation. {@link #next()} uses a block per thread, while {@link #range()} gives a
+ * separate, single-threaded sequence of blocks, e.g. for the model graph of one user, so that its uids are contiguous
+ * regardless of the thread building it. Uids are unique across all threads and ranges of one allocator, but are not
+ * ordered by allocation time across them.
+ */
+
+@Getter
+public class BlockIdAllocator implements IdAllocator {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+
+    private final int blockSize;
+    @Getter(AccessLevel.NONE) private final AtomicLong nextBlock;
+    @Getter(AccessLevel.NONE) private final ThreadLocal<Range> threadRanges = ThreadLocal.withInitial(this::range);
+
+    /**
+     * Allocator starting from uid 1 with default block size
+     */
+    public BlockIdAllocator() {
+        this(1, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param first     first uid to hand out
+     * @param blockSize number of uids taken from the shared counter at a time
+     */
+    public BlockIdAllocator(long first, int blockSize) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("Invalid block size " + blockSize);
+        this.blockSize = blockSize;
+        this.nextBlock = new AtomicLong(first);
+    }
+
+    /**
+     * @return next uid from the block of the calling thread
+     */
+    @Override
+    public long next() {
+        return threadRanges.get().next();
+    }
+
+    /**
+     * @return new sequence of uids taking its own blocks from this allocator; not thread-safe
+     */
+    public Range range() {
+        return new Range();
+    }
+
+    /**
+     * Sequence of uids from blocks of the enclosing allocator, to be used from one thread at a time
+     */
+    public class Range implements IdAllocator {
+        private long next;
+        private long end;
+
+        private Range() {
+        }
+
+        @Override
+        public long next() {
+            if (next == end) {
+                next = nextBlock.getAndAdd(blockSize);
+                end = next + blockSize;
+            }
+            return next++;
+        }
+    }
+}
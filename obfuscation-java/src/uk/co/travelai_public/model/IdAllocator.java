@@ -0,0 +1,21 @@
+package uk.co.travelai_public.model;
+
+/**
+ * Source of uids of model objects ({@link uk.co.travelai_public.model.place.Place},
+ * {@link uk.co.travelai_public.model.place.Dwell}, {@link uk.co.travelai_public.model.travel.Route} and
+ * {@link uk.co.travelai_public.model.travel.Leg}), as used through {@link Ids}.
+ */
+
+public interface IdAllocator {
+
+    /**
+     * Allocator leaving uids unassigned (0), for objects whose uids are supplied externally, e.g. by a reader setting
+     * the uids of the store
+     */
+    IdAllocator UNASSIGNED = () -> 0;
+
+    /**
+     * @return next uid
+     */
+    long next();
+}
@@ -0,0 +1,74 @@
+package uk.co.travelai_public.model;
+
+import lombok.NonNull;
+
+/**
+ * Uids of new model objects.
+ * <p>
+ * Uids come from the {@link IdAllocator} scoped to the current thread with {@link #use(IdAllocator)}, if any, and
+ * otherwise from the default allocator, a {@link BlockIdAllocator} shared by all threads. Model graphs can therefore be
+ * built on any number of threads without duplicate uids. Scoping, for example, a {@link BlockIdAllocator#range()} to
+ * the loading of one user gives the user contiguous uids; scoping {@link IdAllocator#UNASSIGNED} leaves uids to be set
+ * from an external store.
+ * <pre>
+ *   try (Ids.Scope scope = Ids.use(IdAllocator.UNASSIGNED)) {
+ *       ... read places and set their uids
+ *   }
+ * </pre>
+ */
+
+public class Ids {
+
+    private static volatile IdAllocator defaultAllocator = new BlockIdAllocator();
+    private static final ThreadLocal<IdAllocator> scoped = new ThreadLocal<>();
+
+    private Ids() {
+    }
+
+    /**
+     * @return next uid for a new model object
+     */
+    public static long next() {
+        IdAllocator a = scoped.get();
+        return (a != null ? a : defaultAllocator).next();
+    }
+
+    public static IdAllocator getDefault() {
+        return defaultAllocator;
+    }
+
+    /**
+     * Set the allocator used by threads without a scoped allocator; must be thread-safe
+     */
+    public static void setDefault(@NonNull IdAllocator allocator) {
+        defaultAllocator = allocator;
+    }
+
+    /**
+     * Use input allocator on the current thread until the returned scope is closed
+     */
+    public static Scope use(@NonNull IdAllocator allocator) {
+        Scope s = new Scope(scoped.get());
+        scoped.set(allocator);
+        return s;
+    }
+
+    /**
+     * Scope of an allocator on the current thread; closing restores the allocator scoped before it
+     */
+    public static class Scope implements AutoCloseable {
+        private final IdAllocator previous;
+
+        private Scope(IdAllocator previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous != null)
+                scoped.set(previous);
+            else
+                scoped.remove();
+        }
+    }
+}
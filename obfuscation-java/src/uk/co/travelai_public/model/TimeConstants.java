@@ -20,6 +20,7 @@ public class TimeConstants {
     public static final int[] DAY_HOURS     = {12,13,14,15,16,17,18};
     public static final int[] EVENING_HOURS = {19,20,21,22,23};
     public static final int[] PRIVATE_HOURS = {0,1,2,3,4,5,20,21,22,23};
+    public static final int[] WORK_HOURS    = {9,10,11,12,13,14,15,16};
 
     // Weekday categories
     public static final int[] WORK_DAYS     = {2,3,4,5,6};
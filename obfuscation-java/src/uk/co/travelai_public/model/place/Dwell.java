@@ -2,8 +2,10 @@ package uk.co.travelai_public.model.place;
 
 import lombok.Getter;
 import lombok.Setter;
+import uk.co.travelai_public.model.Ids;
 import uk.co.travelai_public.model.Location;
 import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.obfuscation.PrivacyCategory;
 
 /**
  * Class representing a single Dwell within a {@link Place}
@@ -15,8 +17,7 @@ import uk.co.travelai_public.model.travel.Route;
 @Getter
 public class Dwell {
 
-    private static int dwellIDCounter = 0;
-    private int uid = ++dwellIDCounter;
+    private long uid = Ids.next();
 
     // Dwell duration
     private double startTime = -1;
@@ -27,11 +28,16 @@ public class Dwell {
     private Location dwellLocation;
 
     // TravelObjects associated with this Dwell
-    private int parentPlaceID = -1;
+    private long parentPlaceID = -1;
     private Route origin_of_route;
     private Route destination_of_route;
 
     // Additional dwell details
     private DwellDurationType dwellDurationType;
 
+    // Obfuscation output; hidden dwells are published with their duration type only, if set
+    private PrivacyCategory privacyCategory = PrivacyCategory.UNKNOWN;
+    private boolean hidden = false;
+    private DwellDurationType hiddenDurationType;
+
 }
@@ -1,10 +1,14 @@
 package uk.co.travelai_public.model.place;
 
+import lombok.Getter;
+
 import java.time.LocalTime;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+@Getter
 public class OpenHours {
 
     public class OpenClose {
@@ -12,7 +16,7 @@ public class OpenHours {
         public LocalTime closeTime;
     }
 
-    enum Weekday {
+    public enum Weekday {
         monday,
         tuesday,
         wednesday,
@@ -23,4 +27,27 @@ public class OpenHours {
     }
 
     private Map<Weekday, List<OpenClose>> openHours = new HashMap<>();
+
+    // Compiled form of openHours; null until first requested
+    private OpenHoursBitmap bitmap;
+
+    /**
+     * Add opening period on input day. A close time at or before the open time closes on the following day.
+     */
+    public void add(Weekday day, LocalTime openTime, LocalTime closeTime) {
+        OpenClose oc = new OpenClose();
+        oc.openTime = openTime;
+        oc.closeTime = closeTime;
+        openHours.computeIfAbsent(day, d -> new ArrayList<>()).add(oc);
+        bitmap = null;
+    }
+
+    /**
+     * @return opening hours compiled to a {@link OpenHoursBitmap}, compiled on first call after changes
+     */
+    public OpenHoursBitmap getBitmap() {
+        if (bitmap == null)
+            bitmap = OpenHoursBitmap.compile(this);
+        return bitmap;
+    }
 }
@@ -0,0 +1,87 @@
+package uk.co.travelai_public.model.place;
+
+import lombok.NonNull;
+import uk.co.travelai_public.model.TimeConstants;
+
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link OpenHours} compiled to a bitmap of the 672 quarter-hour slots of a week, numbered from Monday 00:00 local
+ * time. A slot is open if the place is open during any part of it.
+ */
+
+public final class OpenHoursBitmap {
+
+    public static final long SLOT_MS = 15 * 60 * 1000;
+    public static final int SLOTS_PER_DAY = (int) (TimeConstants.DAY_MS / SLOT_MS);
+    public static final int N_SLOTS = TimeConstants.DAYS_PER_WEEK * SLOTS_PER_DAY;
+    public static final int N_WORDS = (N_SLOTS + 63) / 64;
+
+    private final long[] words;
+
+    private OpenHoursBitmap(long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * @return bitmap of input opening hours
+     */
+    public static OpenHoursBitmap compile(@NonNull OpenHours openHours) {
+        long[] words = new long[N_WORDS];
+        for (Map.Entry<OpenHours.Weekday, List<OpenHours.OpenClose>> e : openHours.getOpenHours().entrySet()) {
+            int dayStart = e.getKey().ordinal() * SLOTS_PER_DAY;
+            for (OpenHours.OpenClose oc : e.getValue()) {
+                int open = minuteOfDay(oc.openTime) / 15;
+                int close = (minuteOfDay(oc.closeTime) + 14) / 15;
+                if (close <= open)
+                    close += SLOTS_PER_DAY;
+                for (int s = dayStart + open; s < dayStart + close; s++)
+                    set(words, s % N_SLOTS);
+            }
+        }
+        return new OpenHoursBitmap(words);
+    }
+
+    /**
+     * @return boolean indicating whether input slot (0..671) is open
+     */
+    public boolean isOpen(int slot) {
+        return (words[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    /**
+     * @return i:th 64-slot word of the bitmap; slot s is bit s % 64 of word s / 64
+     */
+    public long word(int i) {
+        return words[i];
+    }
+
+    /**
+     * @return number of open slots in a week
+     */
+    public int getNOpenSlots() {
+        int n = 0;
+        for (long w : words)
+            n += Long.bitCount(w);
+        return n;
+    }
+
+    /**
+     * @return quarter-hour-of-week slot of input local time in epoch milliseconds
+     */
+    public static int slotOfLocal(long localMs) {
+        // 1.1.1970 was a Thursday, i.e. three days after the start of the week
+        long weekMs = TimeConstants.DAYS_PER_WEEK * TimeConstants.DAY_MS;
+        return (int) (Math.floorMod(localMs + 3 * TimeConstants.DAY_MS, weekMs) / SLOT_MS);
+    }
+
+    private static void set(long[] words, int slot) {
+        words[slot >>> 6] |= 1L << slot;
+    }
+
+    private static int minuteOfDay(LocalTime t) {
+        return t.getHour() * 60 + t.getMinute();
+    }
+}
@@ -0,0 +1,39 @@
+package uk.co.travelai_public.model.place;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.tools.Polygon;
+
+/**
+ * Statistical output area (e.g. an LSOA in England and Wales) with its boundary, as returned by a boundary provider
+ */
+
+@Getter
+@Setter
+@AllArgsConstructor
+public class OutputArea {
+
+    // Area code, e.g. E01000001
+    private String id;
+    private String name;
+    private Polygon polygon;
+
+    /**
+     * @return boolean indicating whether input point is inside the area
+     */
+    public boolean contains(double lat, double lon) {
+        return polygon.contains(lat, lon);
+    }
+
+    /**
+     * @return {@link ProtectedArea} covering this output area, built for input place
+     */
+    public ProtectedArea toProtectedArea(Place place) {
+        ProtectedArea area = new ProtectedArea(id, polygon);
+        area.setName(name);
+        area.setPlaceId(place.getUid());
+        area.setPrivacyCategory(place.getPrivacyCategory());
+        return area;
+    }
+}
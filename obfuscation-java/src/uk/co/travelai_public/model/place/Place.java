@@ -2,6 +2,7 @@ package uk.co.travelai_public.model.place;
 
 import lombok.Getter;
 import lombok.Setter;
+import uk.co.travelai_public.model.Ids;
 import uk.co.travelai_public.model.travel.Route;
 import uk.co.travelai_public.obfuscation.PrivacyCategory;
 
@@ -13,8 +14,7 @@ import java.util.Map;
 @Setter
 public class Place {
 
-    private static int placeIDCounter = 0;
-    private int uid = ++placeIDCounter;
+    private long uid = Ids.next();
 
     // Dwells, arriving and departing Routes
     private List<Route> departingRoutes;
@@ -39,6 +39,14 @@ public class Place {
     private double latitude;
     private double longitude;
 
+    // Area in which waypoints are hidden; null if not protected
+    private ProtectedArea protectedArea;
+
+    // Obfuscation output; hidden places are published at the hidden location, if any
+    private boolean hidden = false;
+    private double hiddenLatitude = Double.NaN;
+    private double hiddenLongitude = Double.NaN;
+
     // Indicates whether this Place is imported from DB or created from present data
     private boolean isImported = false;
 }
@@ -0,0 +1,47 @@
+package uk.co.travelai_public.model.place;
+
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.obfuscation.PrivacyCategory;
+import uk.co.travelai_public.obfuscation.ProtectedAreaCover;
+import uk.co.travelai_public.tools.Polygon;
+
+/**
+ * Area around a sensitive or private {@link Place} inside which waypoints are hidden, e.g. the output area the place
+ * is in. Areas of places in the same output area share the id, and thereby the cached {@link ProtectedAreaCover}.
+ */
+
+@Getter
+@Setter
+public class ProtectedArea {
+
+    // Output area code, or other id that is unique for the polygon
+    private String id;
+    private String name;
+
+    private Polygon polygon;
+    private double centroidLatitude;
+    private double centroidLongitude;
+
+    // Place the area was built for, and its privacy category
+    private long placeId;
+    private PrivacyCategory privacyCategory = PrivacyCategory.UNKNOWN;
+
+    // Cell cover of the polygon; null until computed
+    private ProtectedAreaCover cover;
+
+    public ProtectedArea(String id, Polygon polygon) {
+        this.id = id;
+        this.polygon = polygon;
+        double[] centroid = polygon.getCentroid();
+        this.centroidLatitude = centroid[0];
+        this.centroidLongitude = centroid[1];
+    }
+
+    /**
+     * @return boolean indicating whether input point is inside the area; uses the cover if computed
+     */
+    public boolean contains(double lat, double lon) {
+        return cover != null ? cover.contains(lat, lon) : polygon.contains(lat, lon);
+    }
+}
@@ -3,6 +3,7 @@ package uk.co.travelai_public.model.travel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import uk.co.travelai_public.model.Ids;
 import uk.co.travelai_public.model.Location;
 import uk.co.travelai_public.model.TransportMode;
 import uk.co.travelai_public.obfuscation.PrivacyCategory;
@@ -20,8 +21,7 @@ import java.util.List;
 @NoArgsConstructor
 public class Leg {
 
-    private static int idCounter = 0;
-    private int uid = ++idCounter;
+    private long uid = Ids.next();
 
     private double startTime;
     private double endTime;
@@ -32,6 +32,7 @@ public class Leg {
     private Location startLoc;
     private Location endLoc;
     private List<Location> legLocs;
+    private LocationSource locationSource;
 
     private List<PedestrianStop> pedestrianStops;
     private PublicTransitDetails publicTransitDetails;
@@ -41,6 +42,14 @@ public class Leg {
     private PrivacyCategory privacyCategory = PrivacyCategory.UNKNOWN;
     private TravelPrivacyCategoryFactors privacyCategoryFactors;
 
+    // Obfuscation output; hidden legs are published with the hidden waypoints and values, NaN if unknown
+    private boolean hidden = false;
+    private LocationBlock hiddenWaypoints;
+    private double hiddenStartTime = Double.NaN;
+    private double hiddenEndTime = Double.NaN;
+    private double hiddenDuration = Double.NaN;
+    private double hiddenDistance = Double.NaN;
+
     /**
      * Return boolean indicating whether this {@link Leg} is of PublicTransit type
      * <p>
@@ -53,4 +62,16 @@ public class Leg {
             return false;
     }
 
+    /**
+     * Return {@link LocationSource} of the waypoints of this {@link Leg}. Falls back to legLocs when no source
+     * has been set.
+     * <p>
+     * @return {@link LocationSource}, never null
+     */
+    public LocationSource getLocationSource() {
+        if (this.locationSource != null)
+            return this.locationSource;
+        return new ListLocationSource(this.legLocs);
+    }
+
 }
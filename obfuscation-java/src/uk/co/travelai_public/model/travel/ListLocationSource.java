@@ -0,0 +1,35 @@
+package uk.co.travelai_public.model.travel;
+
+import uk.co.travelai_public.model.Location;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * In-memory {@link LocationSource} backed by a List of {@link Location}s
+ */
+
+public class ListLocationSource implements LocationSource {
+
+    private final List<Location> locs;
+
+    public ListLocationSource(List<Location> locs) {
+        this.locs = locs != null ? locs : Collections.emptyList();
+    }
+
+    @Override
+    public int size() {
+        return locs.size();
+    }
+
+    @Override
+    public Iterator<Location> iterator() {
+        return locs.iterator();
+    }
+
+    @Override
+    public List<Location> toList() {
+        return locs;
+    }
+}
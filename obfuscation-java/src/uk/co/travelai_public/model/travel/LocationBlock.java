@@ -0,0 +1,326 @@
+package uk.co.travelai_public.model.travel;
+
+import uk.co.travelai_public.model.HERE.HEREExtraDetails;
+import uk.co.travelai_public.model.HERE.HERELinkFunctionalClass;
+import uk.co.travelai_public.model.HERE.HERESpeedCategory;
+import uk.co.travelai_public.model.Location;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Column-oriented block of waypoints stored in a single {@link ByteBuffer}.
+ * <p>
+ * Each {@link Location} field is stored as a contiguous column, in order: timestamp, latitude, longitude, accuracy,
+ * speed, dspeed and tzOffset_ms as doubles, extra details id as long, followed by functional class, speed category
+ * and flag bytes. The buffer may live on heap, off heap or in a memory-mapped file; columns are read in place
+ * without copying. {@link Location} objects are only created when the block is iterated.
+ */
+
+public class LocationBlock implements LocationSource {
+
+    private static final int N_DOUBLE_COLUMNS = 7;
+    private static final int ROW_BYTES = N_DOUBLE_COLUMNS * Double.BYTES + Long.BYTES + 3;
+
+    private static final int FLAG_EXTRAS      = 1;
+    private static final int FLAG_PAVED       = 1 << 1;
+    private static final int FLAG_PRIVATE     = 1 << 2;
+    private static final int FLAG_OVERWRITTEN = 1 << 3;
+
+    private final ByteBuffer buf;
+    private final int capacity;
+    private final int offset;
+    private final int size;
+
+    private final DoubleBuffer timestamp;
+    private final DoubleBuffer latitude;
+    private final DoubleBuffer longitude;
+    private final DoubleBuffer accuracy;
+    private final DoubleBuffer speed;
+    private final DoubleBuffer dspeed;
+    private final DoubleBuffer tzOffset;
+    private final LongBuffer extraId;
+    private final ByteBuffer functionalClass;
+    private final ByteBuffer speedCategory;
+    private final ByteBuffer flags;
+
+    private LocationBlock(ByteBuffer buf, int capacity, int offset, int size) {
+        this.buf = buf;
+        this.capacity = capacity;
+        this.offset = offset;
+        this.size = size;
+
+        timestamp = doubleColumn(0);
+        latitude = doubleColumn(1);
+        longitude = doubleColumn(2);
+        accuracy = doubleColumn(3);
+        speed = doubleColumn(4);
+        dspeed = doubleColumn(5);
+        tzOffset = doubleColumn(6);
+        extraId = column(N_DOUBLE_COLUMNS * Double.BYTES, Long.BYTES).asLongBuffer();
+        functionalClass = column(N_DOUBLE_COLUMNS * Double.BYTES + Long.BYTES, 1);
+        speedCategory = column(N_DOUBLE_COLUMNS * Double.BYTES + Long.BYTES + 1, 1);
+        flags = column(N_DOUBLE_COLUMNS * Double.BYTES + Long.BYTES + 2, 1);
+    }
+
+    private DoubleBuffer doubleColumn(int i) {
+        return column(i * Double.BYTES, Double.BYTES).asDoubleBuffer();
+    }
+
+    private ByteBuffer column(int columnOffset, int width) {
+        ByteBuffer b = buf.duplicate();
+        int start = columnOffset * capacity + offset * width;
+        b.limit(start + size * width);
+        b.position(start);
+        return b.slice().order(buf.order());
+    }
+
+    /**
+     * @return number of bytes needed to store n {@link Location}s
+     */
+    public static long bytesFor(int n) {
+        return (long) n * ROW_BYTES;
+    }
+
+    /**
+     * Allocate empty heap block for n {@link Location}s
+     */
+    public static LocationBlock allocate(int n) {
+        return wrap(ByteBuffer.allocate((int) bytesFor(n)), n);
+    }
+
+    /**
+     * Wrap input buffer, starting at its current position, as a block of n {@link Location}s. No data is copied;
+     * the buffer must have at least {@link #bytesFor(int)} bytes remaining.
+     */
+    public static LocationBlock wrap(ByteBuffer buffer, int n) {
+        if (buffer.remaining() < bytesFor(n))
+            throw new IllegalArgumentException("Buffer too small for " + n + " locations: " + buffer.remaining());
+        ByteBuffer b = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        b.limit((int) bytesFor(n));
+        return new LocationBlock(b.slice().order(ByteOrder.LITTLE_ENDIAN), n, 0, n);
+    }
+
+    /**
+     * Copy input {@link Location}s into a new heap block
+     */
+    public static LocationBlock of(List<Location> locs) {
+        LocationBlock block = allocate(locs.size());
+        for (int i = 0; i < locs.size(); i++)
+            block.set(i, locs.get(i));
+        return block;
+    }
+
+    /**
+     * Return view of rows [from, from + n) of this block, sharing its memory
+     */
+    public LocationBlock slice(int from, int n) {
+        if (from < 0 || n < 0 || from + n > size)
+            throw new IndexOutOfBoundsException("Slice " + from + "+" + n + " of block of size " + size);
+        return new LocationBlock(buf, capacity, offset + from, n);
+    }
+
+    /**
+     * Copy rows of this block into a new heap block, e.g. to keep a view of off-heap or mapped memory beyond the
+     * lifetime of that memory
+     */
+    public LocationBlock copy() {
+        LocationBlock b = allocate(size);
+        b.timestamp.duplicate().put(timestamp.duplicate());
+        b.latitude.duplicate().put(latitude.duplicate());
+        b.longitude.duplicate().put(longitude.duplicate());
+        b.accuracy.duplicate().put(accuracy.duplicate());
+        b.speed.duplicate().put(speed.duplicate());
+        b.dspeed.duplicate().put(dspeed.duplicate());
+        b.tzOffset.duplicate().put(tzOffset.duplicate());
+        b.extraId.duplicate().put(extraId.duplicate());
+        b.functionalClass.duplicate().put(functionalClass.duplicate());
+        b.speedCategory.duplicate().put(speedCategory.duplicate());
+        b.flags.duplicate().put(flags.duplicate());
+        return b;
+    }
+
+    // Buffer shared by this block and its slices
+    ByteBuffer memory() {
+        return buf;
+    }
+
+    /**
+     * @return buffer holding the whole block, positioned at its start
+     */
+    public ByteBuffer getBuffer() {
+        if (offset != 0 || size != capacity)
+            throw new IllegalStateException("Slices do not own a contiguous buffer");
+        return buf.duplicate().order(buf.order());
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public double getTimestamp(int i) {
+        return timestamp.get(i);
+    }
+
+    public double getLatitude(int i) {
+        return latitude.get(i);
+    }
+
+    public double getLongitude(int i) {
+        return longitude.get(i);
+    }
+
+    public double getAccuracy(int i) {
+        return accuracy.get(i);
+    }
+
+    public double getSpeed(int i) {
+        return speed.get(i);
+    }
+
+    public double getDspeed(int i) {
+        return dspeed.get(i);
+    }
+
+    public double getTzOffset_ms(int i) {
+        return tzOffset.get(i);
+    }
+
+    public boolean hasExtraDetails(int i) {
+        return (flags.get(i) & FLAG_EXTRAS) != 0;
+    }
+
+    /**
+     * @return {@link HEREExtraDetails} of row i, or null if it has none
+     */
+    public HEREExtraDetails getExtraDetails(int i) {
+        int f = flags.get(i);
+        if ((f & FLAG_EXTRAS) == 0)
+            return null;
+        return new HEREExtraDetails(extraId.get(i),
+                HERELinkFunctionalClass.fromID(functionalClass.get(i)),
+                HERESpeedCategory.fromOrdinal(speedCategory.get(i)),
+                (f & FLAG_PAVED) != 0,
+                (f & FLAG_PRIVATE) != 0);
+    }
+
+    /**
+     * Copy latitude column into dst, starting at dst[0]
+     */
+    public void getLatitudes(double[] dst) {
+        latitude.duplicate().get(dst, 0, size);
+    }
+
+    /**
+     * Copy longitude column into dst, starting at dst[0]
+     */
+    public void getLongitudes(double[] dst) {
+        longitude.duplicate().get(dst, 0, size);
+    }
+
+    /**
+     * Copy accuracy column into dst, starting at dst[0]
+     */
+    public void getAccuracies(double[] dst) {
+        accuracy.duplicate().get(dst, 0, size);
+    }
+
+    /**
+     * Copy timestamp column into dst, starting at dst[0]
+     */
+    public void getTimestamps(double[] dst) {
+        timestamp.duplicate().get(dst, 0, size);
+    }
+
+    /**
+     * @return new {@link Location} holding the values of row i
+     */
+    public Location getLocation(int i) {
+        Location l = new Location();
+        l.setTimestamp(timestamp.get(i));
+        l.setLatitude(latitude.get(i));
+        l.setLongitude(longitude.get(i));
+        l.setAccuracy(accuracy.get(i));
+        l.setSpeed(speed.get(i));
+        l.setDspeed(dspeed.get(i));
+        l.setTzOffset_ms(tzOffset.get(i));
+        l.setExtraDetails(getExtraDetails(i));
+        l.setOverwrittenByGISProcess((flags.get(i) & FLAG_OVERWRITTEN) != 0);
+        return l;
+    }
+
+    /**
+     * Store values of input {@link Location} in row i
+     */
+    public void set(int i, Location l) {
+        timestamp.put(i, l.getTimestamp());
+        latitude.put(i, l.getLatitude());
+        longitude.put(i, l.getLongitude());
+        accuracy.put(i, l.getAccuracy());
+        speed.put(i, l.getSpeed());
+        dspeed.put(i, l.getDspeed());
+        tzOffset.put(i, l.getTzOffset_ms());
+
+        HEREExtraDetails ed = l.getExtraDetails();
+        int f = l.isOverwrittenByGISProcess() ? FLAG_OVERWRITTEN : 0;
+        if (ed != null) {
+            f |= FLAG_EXTRAS;
+            if (ed.isPaved())
+                f |= FLAG_PAVED;
+            if (ed.isPrivateRoad())
+                f |= FLAG_PRIVATE;
+            extraId.put(i, ed.getId());
+            functionalClass.put(i, (byte) (ed.getFunctionalClass() != null ? ed.getFunctionalClass().ordinal() : 0));
+            speedCategory.put(i, (byte) (ed.getSpeedCategory() != null ? ed.getSpeedCategory().ordinal() : 0));
+        } else {
+            extraId.put(i, 0);
+            functionalClass.put(i, (byte) 0);
+            speedCategory.put(i, (byte) 0);
+        }
+        flags.put(i, (byte) f);
+    }
+
+    /**
+     * Store position and time of row i; other columns are left as they are
+     */
+    public void set(int i, double ts, double lat, double lon, double acc) {
+        timestamp.put(i, ts);
+        latitude.put(i, lat);
+        longitude.put(i, lon);
+        accuracy.put(i, acc);
+    }
+
+    /**
+     * Store position, time, speed and timezone offset of row i; other columns are left as they are
+     */
+    public void set(int i, double ts, double lat, double lon, double acc, double spd, double tzOffset_ms) {
+        set(i, ts, lat, lon, acc);
+        speed.put(i, spd);
+        tzOffset.put(i, tzOffset_ms);
+    }
+
+    @Override
+    public Iterator<Location> iterator() {
+        return new Iterator<Location>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                return i < size;
+            }
+
+            @Override
+            public Location next() {
+                if (i >= size)
+                    throw new NoSuchElementException();
+                return getLocation(i++);
+            }
+        };
+    }
+}
@@ -0,0 +1,74 @@
+package uk.co.travelai_public.model.travel;
+
+import uk.co.travelai_public.model.Location;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Source of waypoints for a {@link Leg} or {@link Route}.
+ * <p>
+ * Waypoints are loaded on demand when the source is iterated, so that the backing store (memory, file, database
+ * cursor) can hand them out page by page instead of the whole history being held on heap up front.
+ */
+
+public interface LocationSource extends Iterable<Location> {
+
+    /**
+     * @return number of {@link Location}s in this source, or -1 if it is not known without reading the backing store
+     */
+    int size();
+
+    /**
+     * Return iterator over the {@link Location}s of this source in time order. Pages of the backing store are
+     * loaded when first needed and released once iterated past. Iterators that hold external resources implement
+     * {@link AutoCloseable} and release them when exhausted; see {@link #close(Iterator)} for abandoned iterators.
+     */
+    @Override
+    Iterator<Location> iterator();
+
+    /**
+     * @return boolean indicating whether this source contains no {@link Location}s
+     */
+    default boolean isEmpty() {
+        int n = size();
+        if (n >= 0)
+            return n == 0;
+
+        Iterator<Location> it = iterator();
+        boolean empty = !it.hasNext();
+        close(it);
+        return empty;
+    }
+
+    /**
+     * Materialise all {@link Location}s of this source into a List
+     */
+    default List<Location> toList() {
+        List<Location> locs = new ArrayList<>(Math.max(0, size()));
+        for (Location l : this)
+            locs.add(l);
+        return locs;
+    }
+
+    /**
+     * Return {@link LocationSource} backed by the input List. Null input gives an empty source.
+     */
+    static LocationSource of(List<Location> locs) {
+        return new ListLocationSource(locs);
+    }
+
+    /**
+     * Release resources held by an iterator of a {@link LocationSource} that was not iterated to the end
+     */
+    static void close(Iterator<Location> it) {
+        if (it instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) it).close();
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to close location iterator", e);
+            }
+        }
+    }
+}
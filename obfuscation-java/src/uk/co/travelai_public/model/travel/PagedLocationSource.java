@@ -0,0 +1,105 @@
+package uk.co.travelai_public.model.travel;
+
+import uk.co.travelai_public.model.Location;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Base class for {@link LocationSource}s that read their {@link Location}s from an external store one page at a time.
+ * <p>
+ * Each iterator holds a single page; the page is cleared before the next one is read, so at most pageSize
+ * {@link Location}s of the source are reachable from the iterator at any time.
+ */
+
+public abstract class PagedLocationSource implements LocationSource {
+
+    public static final int DEFAULT_PAGE_SIZE = 1024;
+
+    private final int pageSize;
+
+    protected PagedLocationSource(int pageSize) {
+        if (pageSize < 1)
+            throw new IllegalArgumentException("Page size must be positive, got " + pageSize);
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @return maximum number of {@link Location}s read per page
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Open reader positioned at the first {@link Location} of this source
+     */
+    protected abstract PageReader openReader();
+
+    @Override
+    public Iterator<Location> iterator() {
+        return new PageIterator(openReader());
+    }
+
+    /**
+     * Reader handing out consecutive pages of a backing store
+     */
+    protected interface PageReader extends AutoCloseable {
+
+        /**
+         * Append up to limit next {@link Location}s to page
+         *
+         * @return number of {@link Location}s read; less than limit when the store is exhausted
+         */
+        int read(List<Location> page, int limit);
+
+        @Override
+        void close();
+    }
+
+    private class PageIterator implements Iterator<Location>, AutoCloseable {
+
+        private final List<Location> page = new ArrayList<>(pageSize);
+        private PageReader reader;
+        private int pos = 0;
+
+        PageIterator(PageReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (pos < page.size())
+                return true;
+            if (reader == null)
+                return false;
+
+            // Release previous page before reading the next one
+            page.clear();
+            pos = 0;
+            int n = reader.read(page, pageSize);
+            if (n < pageSize)
+                close();
+            return n > 0;
+        }
+
+        @Override
+        public Location next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Location l = page.get(pos);
+            page.set(pos++, null);
+            return l;
+        }
+
+        @Override
+        public void close() {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package uk.co.travelai_public.model.travel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import uk.co.travelai_public.model.Ids;
 import uk.co.travelai_public.model.Location;
 import uk.co.travelai_public.model.place.Dwell;
 import uk.co.travelai_public.model.place.Place;
@@ -22,8 +23,7 @@ import java.util.List;
 @NoArgsConstructor
 public class Route {
 
-    private static int routeIDCounter = 0;
-    private int uid = ++routeIDCounter;
+    private long uid = Ids.next();
 
     private Dwell startDwell;
     private Dwell endDwell;
@@ -31,6 +31,7 @@ public class Route {
     private Place endPlace;
 
     private List<Location> routeLocs = new ArrayList<>();
+    private LocationSource locationSource;
 
     private double startTime        = -1;
     private double endTime          = -1;
@@ -49,4 +50,24 @@ public class Route {
     private String label;
 
     private PrivacyCategory privacyCategory = PrivacyCategory.UNKNOWN;
+
+    // Obfuscation output; hidden routes are published with the hidden waypoints and values, NaN if unknown
+    private boolean hidden = false;
+    private LocationBlock hiddenWaypoints;
+    private double hiddenStartTime = Double.NaN;
+    private double hiddenEndTime = Double.NaN;
+    private double hiddenDuration = Double.NaN;
+    private double hiddenDistance = Double.NaN;
+
+    /**
+     * Return {@link LocationSource} of the waypoints of this {@link Route}. Falls back to routeLocs when no source
+     * has been set.
+     * <p>
+     * @return {@link LocationSource}, never null
+     */
+    public LocationSource getLocationSource() {
+        if (this.locationSource != null)
+            return this.locationSource;
+        return new ListLocationSource(this.routeLocs);
+    }
 }
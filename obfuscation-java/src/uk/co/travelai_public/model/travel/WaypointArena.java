@@ -0,0 +1,238 @@
+package uk.co.travelai_public.model.travel;
+
+import lombok.Getter;
+import uk.co.travelai_public.model.Location;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Off-heap arena holding the waypoints of one user or batch.
+ * <p>
+ * Memory is reserved from the operating system in large direct buffer slabs and handed out with a bump pointer as
+ * {@link LocationBlock}s and double columns for derived features. {@link #attach(Leg)} and {@link #attach(Route)}
+ * move the waypoints of a leg or route into the arena, leaving only the object skeleton on the Java heap.
+ * <p>
+ * On close, the location sources and hidden waypoints of the attached legs and routes that live in the arena are
+ * replaced by heap copies. If those were the only allocations, i.e. every block handed out is read by an attached leg
+ * or route and no double column was handed out, {@link #close()} frees all slabs in one step. Otherwise views of the
+ * slabs may still be reachable, and freeing them would leave those views reading unmapped memory; the slabs are then
+ * dropped and left to the garbage collector, which frees each one once no view of it is reachable. Either way the
+ * garbage collector never traces or copies waypoint data. Blocks other than the waypoints of attached legs and routes
+ * can be copied with {@link #toHeap(LocationBlock)} to keep them on the heap; slices of the blocks of attached legs
+ * and routes must not be kept after close. Arenas are not thread-safe; use one per user or batch.
+ */
+
+public class WaypointArena implements AutoCloseable {
+
+    public static final int DEFAULT_SLAB_BYTES = 16 * 1024 * 1024;
+
+    private static final int ALIGNMENT = Double.BYTES;
+
+    @Getter private final int slabBytes;
+    @Getter private long reservedBytes;
+    @Getter private long allocatedBytes;
+    @Getter private boolean closed;
+    // Whether close freed the slabs itself rather than leaving them to the garbage collector
+    @Getter private boolean freed;
+
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private ByteBuffer current;
+
+    // Memory of the blocks handed out, shared with their slices
+    private final Set<ByteBuffer> blocks = Collections.newSetFromMap(new IdentityHashMap<>());
+    // Double columns handed out, which are never copied
+    private int nColumns;
+
+    private final List<Leg> legs = new ArrayList<>();
+    private final List<Route> routes = new ArrayList<>();
+
+    public WaypointArena() {
+        this(DEFAULT_SLAB_BYTES);
+    }
+
+    public WaypointArena(int slabBytes) {
+        this.slabBytes = slabBytes;
+    }
+
+    /**
+     * Allocate empty block for n {@link Location}s
+     */
+    public LocationBlock allocate(int n) {
+        LocationBlock block = LocationBlock.wrap(allocateBytes(LocationBlock.bytesFor(n)), n);
+        blocks.add(block.memory());
+        return block;
+    }
+
+    /**
+     * @return true if input block, or the block it is a slice of, was allocated by this arena
+     */
+    public boolean owns(LocationBlock block) {
+        return block != null && blocks.contains(block.memory());
+    }
+
+    /**
+     * @return heap copy of input block if it lives in this arena, else the block itself
+     */
+    public LocationBlock toHeap(LocationBlock block) {
+        return owns(block) ? block.copy() : block;
+    }
+
+    /**
+     * Allocate column of n doubles, e.g. for derived per-waypoint features
+     */
+    public DoubleBuffer allocateDoubles(int n) {
+        DoubleBuffer column = allocateBytes((long) n * Double.BYTES).asDoubleBuffer();
+        nColumns++;
+        return column;
+    }
+
+    /**
+     * Copy {@link Location}s of input source into the arena
+     */
+    public LocationBlock copyOf(LocationSource source) {
+        List<Location> locs = null;
+        int n = source.size();
+        if (n < 0) {
+            locs = source.toList();
+            n = locs.size();
+        }
+
+        LocationBlock block = allocate(n);
+        int i = 0;
+        for (Location l : locs != null ? locs : source)
+            block.set(i++, l);
+        return block;
+    }
+
+    /**
+     * Move waypoints of input {@link Leg} into the arena, unless its location source already lives there. The leg
+     * reads them in place until the arena is closed, and from a heap copy afterwards.
+     */
+    public void attach(Leg leg) {
+        LocationSource source = leg.getLocationSource();
+        if (!(source instanceof LocationBlock) || !owns((LocationBlock) source))
+            leg.setLocationSource(copyOf(source));
+        leg.setLegLocs(null);
+        legs.add(leg);
+    }
+
+    /**
+     * Move waypoints of input {@link Route} into the arena, unless its location source already lives there. The
+     * route reads them in place until the arena is closed, and from a heap copy afterwards.
+     */
+    public void attach(Route route) {
+        LocationSource source = route.getLocationSource();
+        if (!(source instanceof LocationBlock) || !owns((LocationBlock) source))
+            route.setLocationSource(copyOf(source));
+        route.setRouteLocs(null);
+        routes.add(route);
+    }
+
+    private ByteBuffer allocateBytes(long bytes) {
+        if (closed)
+            throw new IllegalStateException("Arena is closed");
+        if (bytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Allocation too large: " + bytes + " bytes");
+
+        int size = (int) ((bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT);
+        if (current == null || current.remaining() < size) {
+            // Oversized allocations get a slab of their own, keeping the current slab for small ones
+            ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(size, slabBytes)).order(ByteOrder.LITTLE_ENDIAN);
+            slabs.add(slab);
+            reservedBytes += slab.capacity();
+            if (size < slabBytes || current == null)
+                current = slab;
+            if (slab != current)
+                return take(slab, size);
+        }
+        return take(current, size);
+    }
+
+    private ByteBuffer take(ByteBuffer slab, int size) {
+        ByteBuffer b = slab.duplicate();
+        b.limit(slab.position() + size);
+        slab.position(slab.position() + size);
+        allocatedBytes += size;
+        return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Copy the waypoints of the attached legs and routes that live in the arena to the heap, and free all memory of
+     * the arena, at once if no other allocation may still be reachable and by the garbage collector otherwise
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+
+        // Memory of the blocks replaced by heap copies
+        Set<ByteBuffer> copied = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Leg leg : legs) {
+            leg.setLocationSource(toHeap(leg.getLocationSource(), copied));
+            leg.setHiddenWaypoints(toHeap(leg.getHiddenWaypoints(), copied));
+        }
+        for (Route route : routes) {
+            route.setLocationSource(toHeap(route.getLocationSource(), copied));
+            route.setHiddenWaypoints(toHeap(route.getHiddenWaypoints(), copied));
+        }
+        freed = nColumns == 0 && copied.containsAll(blocks);
+        legs.clear();
+        routes.clear();
+        blocks.clear();
+
+        if (freed)
+            for (ByteBuffer slab : slabs)
+                free(slab);
+        slabs.clear();
+        current = null;
+    }
+
+    private LocationSource toHeap(LocationSource source, Set<ByteBuffer> copied) {
+        return source instanceof LocationBlock ? toHeap((LocationBlock) source, copied) : source;
+    }
+
+    private LocationBlock toHeap(LocationBlock block, Set<ByteBuffer> copied) {
+        if (!owns(block))
+            return block;
+        copied.add(block.memory());
+        return block.copy();
+    }
+
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+            invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Memory is then released by the garbage collector once the slabs are unreachable
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private static void free(ByteBuffer slab) {
+        if (INVOKE_CLEANER == null)
+            return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, slab);
+        } catch (ReflectiveOperationException e) {
+            // Fall back to the garbage collector
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.OpenHoursBitmap;
+import uk.co.travelai_public.tools.HourOfWeek;
+
+/**
+ * Dwell time of one place over the quarter-hour slots of the week, for overlap tests against
+ * {@link OpenHoursBitmap}s.
+ * <p>
+ * Besides the time per slot, the profile keeps a bitmap of the slots with any dwell time. Opening hours that miss
+ * or contain all of those slots are resolved with a few word-wise ANDs; otherwise the time of the shared slots is
+ * summed over the set bits of the AND.
+ */
+
+@Getter
+public class DwellTimeProfile {
+
+    @Getter(AccessLevel.NONE) private final long[] slotMs = new long[OpenHoursBitmap.N_SLOTS];
+    @Getter(AccessLevel.NONE) private final long[] mask = new long[OpenHoursBitmap.N_WORDS];
+    private long totalMs;
+
+    /**
+     * Add input {@link Dwell}. Dwells without start or end time are ignored.
+     */
+    public void insert(Dwell d) {
+        if (d.getStartTime() < 0 || d.getEndTime() < d.getStartTime())
+            return;
+        double tzOffset = d.getDwellLocation() != null ? d.getDwellLocation().getTzOffset_ms() : 0;
+        insert(HourOfWeek.localMillis(d.getStartTime(), tzOffset), HourOfWeek.localMillis(d.getEndTime(), tzOffset));
+    }
+
+    /**
+     * Add time between local start and end in epoch milliseconds
+     */
+    public void insert(long localStart, long localEnd) {
+        if (localEnd <= localStart)
+            return;
+        totalMs += localEnd - localStart;
+
+        // Whole weeks cover every slot equally
+        long weeks = (localEnd - localStart) / HourOfWeek.WEEK_MS;
+        if (weeks > 0) {
+            for (int s = 0; s < OpenHoursBitmap.N_SLOTS; s++)
+                slotMs[s] += weeks * OpenHoursBitmap.SLOT_MS;
+            for (int s = 0; s < OpenHoursBitmap.N_SLOTS; s++)
+                mask[s >>> 6] |= 1L << s;
+            localStart += weeks * HourOfWeek.WEEK_MS;
+        }
+
+        long t = localStart;
+        while (t < localEnd) {
+            long slotEnd = (Math.floorDiv(t, OpenHoursBitmap.SLOT_MS) + 1) * OpenHoursBitmap.SLOT_MS;
+            long end = Math.min(slotEnd, localEnd);
+            int s = OpenHoursBitmap.slotOfLocal(t);
+            slotMs[s] += end - t;
+            mask[s >>> 6] |= 1L << s;
+            t = end;
+        }
+    }
+
+    /**
+     * @return share (0..1) of the dwell time that falls on open slots of input bitmap; 0 if there is no dwell time
+     */
+    public double getOpenFraction(OpenHoursBitmap open) {
+        if (totalMs == 0)
+            return 0;
+
+        boolean none = true;
+        boolean all = true;
+        for (int i = 0; i < OpenHoursBitmap.N_WORDS; i++) {
+            long shared = mask[i] & open.word(i);
+            none &= shared == 0;
+            all &= shared == mask[i];
+        }
+        if (none)
+            return 0;
+        if (all)
+            return 1;
+
+        long openMs = 0;
+        for (int i = 0; i < OpenHoursBitmap.N_WORDS; i++) {
+            long shared = mask[i] & open.word(i);
+            while (shared != 0) {
+                openMs += slotMs[(i << 6) + Long.numberOfTrailingZeros(shared)];
+                shared &= shared - 1;
+            }
+        }
+        return (double) openMs / totalMs;
+    }
+
+    /**
+     * @return boolean indicating whether any dwell time was added
+     */
+    public boolean isEmpty() {
+        return totalMs == 0;
+    }
+}
@@ -0,0 +1,156 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.tools.GeoHash;
+import uk.co.travelai_public.tools.HyperLogLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Population-level counts of the distinct installations with places in each output area and each geohash cell, for
+ * k-anonymity decisions across users.
+ * <p>
+ * Counts are kept in {@link HyperLogLog} sketches, so an installation added twice counts once, counters of different
+ * workers can be merged, and a count query costs a hash lookup. Counters are safe for concurrent use and are
+ * persisted between runs with {@link #write(Path)} and {@link #read(Path)}.
+ */
+
+@Getter
+public class KAnonymityCounters {
+
+    private static final int MAGIC = 0x4F424B41;
+    private static final int VERSION = 1;
+
+    public static final int DEFAULT_CELL_PRECISION = 6;
+
+    private final int cellPrecision;
+    private final int sketchPrecision;
+
+    @Getter(AccessLevel.NONE) private final Map<String, HyperLogLog> areas = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.NONE) private final Map<Long, HyperLogLog> cells = new ConcurrentHashMap<>();
+
+    public KAnonymityCounters() {
+        this(DEFAULT_CELL_PRECISION, HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    public KAnonymityCounters(int cellPrecision, int sketchPrecision) {
+        this.cellPrecision = cellPrecision;
+        this.sketchPrecision = sketchPrecision;
+    }
+
+    /**
+     * Count input installation in the output areas and cells of input places
+     */
+    public void add(@NonNull String installationId, @NonNull Collection<Place> places) {
+        long h = HyperLogLog.hash(installationId);
+        for (Place p : places) {
+            if (p.getProtectedArea() != null && p.getProtectedArea().getId() != null)
+                areas.computeIfAbsent(p.getProtectedArea().getId(), k -> new HyperLogLog(sketchPrecision)).addHash(h);
+            cells.computeIfAbsent(GeoHash.encode(p.getLatitude(), p.getLongitude(), cellPrecision),
+                    k -> new HyperLogLog(sketchPrecision)).addHash(h);
+        }
+    }
+
+    /**
+     * @return estimated number of distinct installations with places in input output area
+     */
+    public double countArea(String areaId) {
+        HyperLogLog h = areas.get(areaId);
+        return h != null ? h.estimate() : 0;
+    }
+
+    /**
+     * @return estimated number of distinct installations with places in the cell of input point
+     */
+    public double countCell(double lat, double lon) {
+        HyperLogLog h = cells.get(GeoHash.encode(lat, lon, cellPrecision));
+        return h != null ? h.estimate() : 0;
+    }
+
+    /**
+     * @return boolean indicating whether at least k installations have places in the cell of input place, and in its
+     * output area if it has one
+     */
+    public boolean isAnonymous(Place p, int k) {
+        if (countCell(p.getLatitude(), p.getLongitude()) < k)
+            return false;
+        return p.getProtectedArea() == null || p.getProtectedArea().getId() == null
+                || countArea(p.getProtectedArea().getId()) >= k;
+    }
+
+    /**
+     * Add the counts of input counters, e.g. of another worker, to these
+     */
+    public void merge(@NonNull KAnonymityCounters other) {
+        if (other.cellPrecision != cellPrecision || other.sketchPrecision != sketchPrecision)
+            throw new IllegalArgumentException("Cannot merge counters of different precisions");
+        other.areas.forEach((k, h) -> areas.computeIfAbsent(k, x -> new HyperLogLog(sketchPrecision)).merge(h));
+        other.cells.forEach((k, h) -> cells.computeIfAbsent(k, x -> new HyperLogLog(sketchPrecision)).merge(h));
+    }
+
+    /**
+     * Write counters to input file, replacing it atomically
+     */
+    public void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling("." + file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(cellPrecision);
+            out.writeInt(sketchPrecision);
+            Map<String, HyperLogLog> a = Map.copyOf(areas);
+            out.writeInt(a.size());
+            for (Map.Entry<String, HyperLogLog> e : a.entrySet()) {
+                out.writeUTF(e.getKey());
+                e.getValue().write(out);
+            }
+            Map<Long, HyperLogLog> c = Map.copyOf(cells);
+            out.writeInt(c.size());
+            for (Map.Entry<Long, HyperLogLog> e : c.entrySet()) {
+                out.writeLong(e.getKey());
+                e.getValue().write(out);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read counters from input file
+     *
+     * @return counters; null if the file does not exist
+     */
+    public static KAnonymityCounters read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a k-anonymity counter file: " + file);
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported k-anonymity counter version " + version + ": " + file);
+
+            KAnonymityCounters c = new KAnonymityCounters(in.readInt(), in.readInt());
+            int nAreas = in.readInt();
+            for (int i = 0; i < nAreas; i++)
+                c.areas.put(in.readUTF(), HyperLogLog.read(in));
+            int nCells = in.readInt();
+            for (int i = 0; i < nCells; i++)
+                c.cells.put(in.readLong(), HyperLogLog.read(in));
+            return c;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
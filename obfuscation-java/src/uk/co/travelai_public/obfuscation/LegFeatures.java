@@ -0,0 +1,293 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.Getter;
+import uk.co.travelai_public.model.HERE.HEREExtraDetails;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.TransportMode;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.ListLocationSource;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+import uk.co.travelai_public.model.travel.PedestrianStop;
+import uk.co.travelai_public.tools.GeoMetrics;
+import uk.co.travelai_public.tools.PedestrianStopDetector;
+import uk.co.travelai_public.tools.Tools;
+import uk.co.travelai_public.tools.TrajectorySimplifier;
+
+import java.util.List;
+
+/**
+ * Waypoint-derived features of a {@link Leg} used by {@link TravelSensitivity}.
+ * <p>
+ * All features are collected in a single pass over the {@link LocationSource} of the leg, so that waypoints are read
+ * once and can be released page by page.
+ * <p>
+ * With a {@link TrajectorySimplifier}, geometrics are computed over the simplified polyline instead of the raw
+ * waypoints, so that distance and sinuosity are within the distance error of the simplifier. Road attributes and
+ * pedestrian stops are still collected from every waypoint.
+ * <p>
+ * With a {@link RouteSimilarityIndex}, the path of the leg is sketched in the same pass, and the geometrics and
+ * simplified waypoints of an indexed near-duplicate are reused. Road attributes and pedestrian stops are always
+ * collected from the leg itself, as stops depend on the timing of each trip. Waypoints held in memory are read a second
+ * time for geometrics only if there is no near-duplicate; streamed waypoints are read once, so their geometrics are
+ * always computed in the sketching pass.
+ */
+
+@Getter
+public class LegFeatures {
+
+    private GeoMetrics geoMetrics;
+    private int nLocations;
+
+    // Road attributes from HERE extra details
+    private double sumFC;
+    private double sumSC;
+    private int nFC;
+    private int nSC;
+    private int nPrivate;
+    private int nPaved;
+    private int nLocsWithExtras;
+
+    // Stops detected during the pass; null if detection was not run
+    private List<PedestrianStop> pedestrianStops;
+
+    // Simplified waypoints; null if not simplified
+    private LocationBlock simplified;
+
+    private LegFeatures() {
+    }
+
+    /**
+     * Extract features of the input {@link Leg}. Pedestrian stops are detected in the same pass for walk and run legs
+     * that do not have them yet.
+     */
+    public static LegFeatures extract(Leg leg) {
+        return extract(leg, null);
+    }
+
+    /**
+     * Extract features of the input {@link Leg}, with geometrics over its waypoints as simplified by input
+     * {@link TrajectorySimplifier} if not null
+     */
+    public static LegFeatures extract(Leg leg, TrajectorySimplifier simplifier) {
+        return extract(leg.getLocationSource(), detector(leg), simplifier);
+    }
+
+    /**
+     * Extract features of the input {@link Leg}, reusing the geometrics and simplified waypoints of a near-duplicate
+     * in input {@link RouteSimilarityIndex}, if any; otherwise they are computed as with
+     * {@link #extract(Leg, TrajectorySimplifier)} and the leg is added to the index
+     */
+    public static LegFeatures extract(Leg leg, TrajectorySimplifier simplifier, RouteSimilarityIndex index) {
+        LocationSource source = leg.getLocationSource();
+        LegSketch sketch = index.streamingSketch(leg.getMode());
+
+        if (!(source instanceof LocationBlock) && !(source instanceof ListLocationSource)) {
+            // Streamed waypoints are read once, so geometrics are computed in the same pass in any case
+            LegFeatures f = extract(source, detector(leg), simplifier, sketch, true);
+            if (sketch.finish() != null && index.find(sketch) == null)
+                index.add(sketch, f.path());
+            return f;
+        }
+
+        LegFeatures f = source instanceof LocationBlock ? scan((LocationBlock) source, detector(leg), sketch)
+                : extract(source, detector(leg), null, sketch, false);
+        boolean sketched = sketch.finish() != null;
+        LegFeatures duplicate = sketched ? index.find(sketch) : null;
+        if (duplicate != null) {
+            f.geoMetrics = duplicate.geoMetrics;
+            f.simplified = duplicate.simplified;
+        } else {
+            if (source instanceof LocationBlock)
+                f.geometrics((LocationBlock) source, simplifier);
+            else
+                f.geometrics(source, simplifier);
+            if (sketched)
+                index.add(sketch, f.path());
+        }
+        return f;
+    }
+
+    // Detector of the pedestrian stops of walk and run legs that do not have them yet
+    private static PedestrianStopDetector detector(Leg leg) {
+        if (leg.getPedestrianStops() == null
+                && (leg.getMode() == TransportMode.walk || leg.getMode() == TransportMode.run))
+            return new PedestrianStopDetector();
+        return null;
+    }
+
+    /**
+     * Extract features from input {@link LocationSource} in a single pass
+     */
+    public static LegFeatures extract(LocationSource source) {
+        return extract(source, null);
+    }
+
+    /**
+     * Extract features from input {@link LocationSource} in a single pass, feeding the waypoints also to input
+     * {@link PedestrianStopDetector} if not null
+     */
+    public static LegFeatures extract(LocationSource source, PedestrianStopDetector detector) {
+        return extract(source, detector, null);
+    }
+
+    /**
+     * Extract features from input {@link LocationSource} in a single pass, feeding the waypoints also to input
+     * {@link PedestrianStopDetector} and {@link TrajectorySimplifier} if not null
+     */
+    public static LegFeatures extract(LocationSource source, PedestrianStopDetector detector,
+                                      TrajectorySimplifier simplifier) {
+        if (source instanceof LocationBlock) {
+            LegFeatures f = scan((LocationBlock) source, detector, null);
+            f.geometrics((LocationBlock) source, simplifier);
+            return f;
+        }
+        return extract(source, detector, simplifier, null, true);
+    }
+
+    // Single pass over input source, computing geometrics only if withGeometrics
+    private static LegFeatures extract(LocationSource source, PedestrianStopDetector detector,
+                                       TrajectorySimplifier simplifier, LegSketch sketch, boolean withGeometrics) {
+        LegFeatures f = new LegFeatures();
+        if (!withGeometrics)
+            simplifier = null;
+        GeoMetrics geoMetrics = withGeometrics && simplifier == null ? GeoMetrics.streaming(false) : null;
+
+        for (Location l : source) {
+            if (simplifier != null)
+                simplifier.insertLocation(l);
+            else if (geoMetrics != null)
+                geoMetrics.insertLocation(l);
+            f.insertExtraDetails(l.getExtraDetails());
+            if (detector != null)
+                detector.insertLocation(l);
+            if (sketch != null)
+                sketch.insert(l.getLatitude(), l.getLongitude());
+            f.nLocations++;
+        }
+
+        if (simplifier != null) {
+            f.simplified = simplifier.finish();
+            f.geoMetrics = Tools.getGeometrics(f.simplified, false);
+        } else if (geoMetrics != null) {
+            f.geoMetrics = geoMetrics.finish();
+        }
+        if (detector != null)
+            f.pedestrianStops = detector.finish();
+        return f;
+    }
+
+    /**
+     * Collect road attributes and pedestrian stops from the columns of input {@link LocationBlock}, feeding the
+     * waypoints also to input sketch if not null
+     */
+    private static LegFeatures scan(LocationBlock block, PedestrianStopDetector detector, LegSketch sketch) {
+        LegFeatures f = new LegFeatures();
+        f.nLocations = block.size();
+
+        for (int i = 0; i < block.size(); i++) {
+            if (block.hasExtraDetails(i))
+                f.insertExtraDetails(block.getExtraDetails(i));
+            if (detector != null)
+                detector.insert(block.getTimestamp(i), block.getLatitude(i), block.getLongitude(i),
+                        block.getAccuracy(i));
+            if (sketch != null)
+                sketch.insert(block.getLatitude(i), block.getLongitude(i));
+        }
+
+        if (detector != null)
+            f.pedestrianStops = detector.finish();
+        return f;
+    }
+
+    /**
+     * Compute geometrics from the columns of input {@link LocationBlock} with the batch distance kernel, over its
+     * waypoints as simplified by input {@link TrajectorySimplifier} if not null
+     */
+    private void geometrics(LocationBlock block, TrajectorySimplifier simplifier) {
+        if (simplifier != null) {
+            for (int i = 0; i < block.size(); i++)
+                simplifier.insert(block.getTimestamp(i), block.getLatitude(i), block.getLongitude(i),
+                        block.getAccuracy(i), block.getSpeed(i), block.getTzOffset_ms(i));
+            simplified = simplifier.finish();
+        }
+        geoMetrics = Tools.getGeometrics(simplified != null ? simplified : block, false);
+    }
+
+    /**
+     * Compute geometrics in a second pass over input {@link LocationSource}, over its waypoints as simplified by input
+     * {@link TrajectorySimplifier} if not null
+     */
+    private void geometrics(LocationSource source, TrajectorySimplifier simplifier) {
+        if (simplifier != null) {
+            for (Location l : source)
+                simplifier.insertLocation(l);
+            simplified = simplifier.finish();
+            geoMetrics = Tools.getGeometrics(simplified, false);
+            return;
+        }
+        GeoMetrics streaming = GeoMetrics.streaming(false);
+        for (Location l : source)
+            streaming.insertLocation(l);
+        geoMetrics = streaming.finish();
+    }
+
+    // Features that depend only on the path of the leg, shared with its near-duplicates
+    private LegFeatures path() {
+        LegFeatures f = new LegFeatures();
+        f.geoMetrics = geoMetrics;
+        f.simplified = simplified;
+        f.nLocations = nLocations;
+        return f;
+    }
+
+    private void insertExtraDetails(HEREExtraDetails ed) {
+        if (ed == null)
+            return;
+
+        if (ed.getFunctionalClass().ordinal() > 0) {
+            sumFC += ed.getFunctionalClass().ordinal();
+            nFC++;
+        }
+
+        if (ed.getSpeedCategory().ordinal() > 0) {
+            sumSC += ed.getSpeedCategory().ordinal();
+            nSC++;
+        }
+
+        if (ed.isPrivateRoad())
+            nPrivate++;
+        if (ed.isPaved())
+            nPaved++;
+
+        nLocsWithExtras++;
+    }
+
+    /**
+     * @return boolean indicating whether the leg has no waypoints
+     */
+    public boolean isEmpty() {
+        return nLocations == 0;
+    }
+
+    /**
+     * @return average HERE functional class over waypoints with known class; NaN if none
+     */
+    public double getAverageFC() {
+        return sumFC / (nFC * 1.0);
+    }
+
+    /**
+     * @return average HERE speed category over waypoints with known category; NaN if none
+     */
+    public double getAverageSC() {
+        return sumSC / (nSC * 1.0);
+    }
+
+    /**
+     * @return ratio of waypoints on private roads to waypoints with extra details; NaN if none
+     */
+    public double getPrivateRatio() {
+        return nPrivate / (nLocsWithExtras * 1.0);
+    }
+}
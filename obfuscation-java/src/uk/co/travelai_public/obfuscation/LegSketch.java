@@ -0,0 +1,137 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.TransportMode;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+import uk.co.travelai_public.tools.GeoHash;
+
+import java.util.Arrays;
+
+/**
+ * MinHash sketch of the path of a {@link Leg}: the minimum hashes of the set of geohash cells its waypoints visit,
+ * under nHashes hash functions, together with its mode and the cells of its first and last waypoint. The share of
+ * equal minimum hashes of two sketches estimates the Jaccard similarity of their cell sets. Sketches are built in one
+ * pass over the waypoints, so they can be fed during another pass, see {@link #streaming(TransportMode, int, int, int)}.
+ */
+
+@Getter
+public class LegSketch {
+
+    private final TransportMode mode;
+    private final long[] minHashes;
+    private long startCell;
+    private long endCell;
+    private int nCells;
+
+    // State of streaming sketches
+    @Getter(AccessLevel.NONE) private final int cellPrecision;
+    @Getter(AccessLevel.NONE) private final int endpointPrecision;
+    @Getter(AccessLevel.NONE) private int nWaypoints;
+    @Getter(AccessLevel.NONE) private long prevCell;
+    @Getter(AccessLevel.NONE) private double lastLat;
+    @Getter(AccessLevel.NONE) private double lastLon;
+
+    private LegSketch(TransportMode mode, int nHashes, int cellPrecision, int endpointPrecision) {
+        this.mode = mode;
+        this.minHashes = new long[nHashes];
+        this.cellPrecision = cellPrecision;
+        this.endpointPrecision = endpointPrecision;
+        Arrays.fill(minHashes, Long.MAX_VALUE);
+    }
+
+    /**
+     * Empty sketch of a leg of input mode, to be fed its waypoints in order with {@link #insert(double, double)}, e.g.
+     * during the pass of {@link LegFeatures}
+     *
+     * @param cellPrecision     geohash precision of the path cells
+     * @param endpointPrecision geohash precision of the start and end cells
+     */
+    public static LegSketch streaming(TransportMode mode, int nHashes, int cellPrecision, int endpointPrecision) {
+        return new LegSketch(mode, nHashes, cellPrecision, endpointPrecision);
+    }
+
+    /**
+     * Sketch the waypoints of input {@link Leg}
+     *
+     * @param cellPrecision     geohash precision of the path cells
+     * @param endpointPrecision geohash precision of the start and end cells
+     * @return sketch; null if the leg has no waypoints
+     */
+    public static LegSketch of(Leg leg, int nHashes, int cellPrecision, int endpointPrecision) {
+        LegSketch s = streaming(leg.getMode(), nHashes, cellPrecision, endpointPrecision);
+        LocationSource source = leg.getLocationSource();
+        if (source instanceof LocationBlock) {
+            LocationBlock block = (LocationBlock) source;
+            for (int i = 0; i < block.size(); i++)
+                s.insert(block.getLatitude(i), block.getLongitude(i));
+        } else {
+            for (Location l : source)
+                s.insert(l.getLatitude(), l.getLongitude());
+        }
+        return s.finish();
+    }
+
+    /**
+     * Insert next waypoint of a streaming sketch
+     */
+    public void insert(double lat, double lon) {
+        if (nWaypoints++ == 0)
+            startCell = GeoHash.encode(lat, lon, endpointPrecision);
+        long cell = GeoHash.encode(lat, lon, cellPrecision);
+        if (cell != prevCell)
+            insert(cell);
+        prevCell = cell;
+        lastLat = lat;
+        lastLon = lon;
+    }
+
+    /**
+     * Finish streaming sketch after its last waypoint has been inserted
+     *
+     * @return this sketch; null if no waypoints were inserted
+     */
+    public LegSketch finish() {
+        if (nWaypoints == 0)
+            return null;
+        endCell = GeoHash.encode(lastLat, lastLon, endpointPrecision);
+        return this;
+    }
+
+    /**
+     * @return estimated Jaccard similarity (0..1) of the cell sets of this and input sketch
+     */
+    public double similarity(LegSketch other) {
+        int equal = 0;
+        for (int i = 0; i < minHashes.length; i++)
+            if (minHashes[i] == other.minHashes[i])
+                equal++;
+        return equal / (double) minHashes.length;
+    }
+
+    /**
+     * @return boolean indicating whether this and input sketch have the same mode, start cell and end cell
+     */
+    public boolean sameEnds(LegSketch other) {
+        return mode == other.mode && startCell == other.startCell && endCell == other.endCell;
+    }
+
+    private void insert(long cell) {
+        nCells++;
+        for (int i = 0; i < minHashes.length; i++) {
+            long h = mix(cell + 0x9E3779B97F4A7C15L * (i + 1));
+            if (h < minHashes[i])
+                minHashes[i] = h;
+        }
+    }
+
+    // Finaliser of SplitMix64
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
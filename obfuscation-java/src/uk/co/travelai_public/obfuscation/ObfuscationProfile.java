@@ -0,0 +1,68 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+
+/**
+ * Privacy level of one output of the obfuscation: the settings of the obfuscation stages ({@link PlaceObfuscation},
+ * {@link RouteTrimming} and {@link TravelObfuscation}) and the resolution of the published times.
+ * <p>
+ * Profiles only differ in the obfuscation stages, which rewrite the published values of places, dwells, routes and
+ * legs; scoring is the same for all of them, so that one run can score a user once and write an output per profile,
+ * e.g. coarse data for research partners and finer data for internal analytics.
+ */
+
+@Getter
+@Setter
+public class ObfuscationProfile {
+
+    private final String name;
+
+    // Places, dwells and legs at least this private are hidden
+    private PrivacyCategory hideThreshold = PrivacyCategory.SENSITIVE;
+
+    // Whether private legs are hidden too, published with only their first and last waypoint; the default output
+    // of a single-profile run leaves them as they are
+    private boolean hidePrivateLegs = true;
+
+    // Minimum number of installations per area for places to be published, with k-anonymity counters set
+    private int k = 5;
+
+    // Thinning of the waypoints of hidden legs
+    private double tolerance = 100;  // meters
+
+    // Resolution published times are truncated to; 0 for exact times
+    private double timeResolution_ms = 0;
+
+    public ObfuscationProfile(@NonNull String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return profile of the current settings of input stages, with the hide threshold of placeObfuscation and exact
+     * times; private legs are hidden only if travelObfuscation hides them
+     */
+    public static ObfuscationProfile of(@NonNull String name, PlaceObfuscation placeObfuscation,
+                                        TravelObfuscation travelObfuscation) {
+        ObfuscationProfile p = new ObfuscationProfile(name);
+        p.hideThreshold = placeObfuscation.getHideThreshold();
+        p.k = placeObfuscation.getK();
+        p.tolerance = travelObfuscation.getTolerance();
+        p.hidePrivateLegs = travelObfuscation.isHidePrivate();
+        return p;
+    }
+
+    /**
+     * Set the settings of this profile on input stages
+     */
+    public void configure(PlaceObfuscation placeObfuscation, RouteTrimming routeTrimming,
+                          TravelObfuscation travelObfuscation) {
+        placeObfuscation.setHideThreshold(hideThreshold);
+        placeObfuscation.setK(k);
+        routeTrimming.setHideThreshold(hideThreshold);
+        travelObfuscation.setHideThreshold(hideThreshold);
+        travelObfuscation.setTolerance(tolerance);
+        travelObfuscation.setHidePrivate(hidePrivateLegs);
+    }
+}
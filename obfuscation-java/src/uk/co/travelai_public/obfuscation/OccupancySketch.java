@@ -0,0 +1,138 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.Getter;
+import uk.co.travelai_public.model.TimeConstants;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.tools.HourOfWeek;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact time-of-week occupancy summary of one place, used by {@link PlaceTypeLabeller}.
+ * <p>
+ * Keeps the time spent at the place during night hours, during work hours of work days and in total, and the number
+ * of distinct days with night or work-time presence. Distinct days are counted with 256-bit linear counting bitmaps,
+ * which are exact in practice for the tens of days the labelling thresholds look at. The sketch takes about a hundred
+ * bytes regardless of the number of dwells.
+ */
+
+@Getter
+public class OccupancySketch {
+
+    private static final int DAY_BITS = 256;
+
+    private long nightMs;
+    private long workMs;
+    private long totalMs;
+
+    private final long[] nightDays = new long[DAY_BITS / 64];
+    private final long[] workDays = new long[DAY_BITS / 64];
+
+    /**
+     * Add input {@link Dwell}. Dwells without start or end time are ignored.
+     */
+    public void insert(Dwell d) {
+        if (d.getStartTime() < 0 || d.getEndTime() < d.getStartTime())
+            return;
+        double tzOffset = d.getDwellLocation() != null ? d.getDwellLocation().getTzOffset_ms() : 0;
+        insert(HourOfWeek.localMillis(d.getStartTime(), tzOffset), HourOfWeek.localMillis(d.getEndTime(), tzOffset));
+    }
+
+    /**
+     * Add time between local start and end in epoch milliseconds
+     */
+    public void insert(long localStart, long localEnd) {
+        long t = localStart;
+        while (t < localEnd) {
+            long binEnd = (Math.floorDiv(t, TimeConstants.HOUR_MS) + 1) * TimeConstants.HOUR_MS;
+            long end = Math.min(binEnd, localEnd);
+            int bin = HourOfWeek.binOfLocal(t);
+            long day = Math.floorDiv(t, TimeConstants.DAY_MS);
+
+            if (HourOfWeek.isNight(bin)) {
+                nightMs += end - t;
+                addDay(nightDays, day);
+            } else if (HourOfWeek.isWorkTime(bin)) {
+                workMs += end - t;
+                addDay(workDays, day);
+            }
+            totalMs += end - t;
+            t = end;
+        }
+    }
+
+    /**
+     * Add input sketch to this one
+     */
+    public OccupancySketch merge(OccupancySketch other) {
+        nightMs += other.nightMs;
+        workMs += other.workMs;
+        totalMs += other.totalMs;
+        for (int i = 0; i < nightDays.length; i++) {
+            nightDays[i] |= other.nightDays[i];
+            workDays[i] |= other.workDays[i];
+        }
+        return this;
+    }
+
+    /**
+     * Write sketch to input stream
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(nightMs);
+        out.writeLong(workMs);
+        out.writeLong(totalMs);
+        for (int i = 0; i < nightDays.length; i++) {
+            out.writeLong(nightDays[i]);
+            out.writeLong(workDays[i]);
+        }
+    }
+
+    /**
+     * Read sketch written with {@link #write(DataOutput)}
+     */
+    public static OccupancySketch read(DataInput in) throws IOException {
+        OccupancySketch s = new OccupancySketch();
+        s.nightMs = in.readLong();
+        s.workMs = in.readLong();
+        s.totalMs = in.readLong();
+        for (int i = 0; i < s.nightDays.length; i++) {
+            s.nightDays[i] = in.readLong();
+            s.workDays[i] = in.readLong();
+        }
+        return s;
+    }
+
+    /**
+     * @return estimated number of distinct days with night presence
+     */
+    public int getNNightDays() {
+        return countDays(nightDays);
+    }
+
+    /**
+     * @return estimated number of distinct work days with work-time presence
+     */
+    public int getNWorkDays() {
+        return countDays(workDays);
+    }
+
+    private static void addDay(long[] bitmap, long day) {
+        // Spread consecutive days over the bitmap with a 64-bit mix
+        long h = day * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        int bit = (int) (h & (DAY_BITS - 1));
+        bitmap[bit >>> 6] |= 1L << (bit & 63);
+    }
+
+    private static int countDays(long[] bitmap) {
+        int set = 0;
+        for (long w : bitmap)
+            set += Long.bitCount(w);
+        if (set == DAY_BITS)
+            return Integer.MAX_VALUE;
+        return (int) Math.round(-DAY_BITS * Math.log((DAY_BITS - set) / (double) DAY_BITS));
+    }
+}
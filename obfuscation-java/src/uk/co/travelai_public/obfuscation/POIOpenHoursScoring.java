@@ -0,0 +1,63 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.POI;
+import uk.co.travelai_public.model.place.Place;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class containing methods to weigh the POI match scores of {@link Place}s by the opening hours of the POIs.
+ * <p>
+ * A place visited while a POI is closed is less likely to be that POI. The score of each POI with known opening
+ * hours is scaled by minWeight + (1 - minWeight) * openFraction, where openFraction is the share of the place's
+ * dwell time falling on the POI's open hours. POIs without opening hours keep their scores. Run before
+ * {@link PlaceSensitivity}, once per loaded place: scores are scaled in place.
+ */
+
+@Getter
+@Setter
+public class POIOpenHoursScoring {
+
+    // Weight of a POI that is closed during all dwells
+    private double minWeight = 0.2;
+
+    /**
+     * Weigh the POI scores of input places
+     */
+    public void run(List<Place> places) {
+        for (Place p : places) {
+            if (p.getPOIScores() == null || p.getPOIScores().isEmpty())
+                continue;
+            Map<POI, Double> fractions = getOpenFractions(p);
+            for (Map.Entry<POI, Double> e : fractions.entrySet())
+                p.getPOIScores().computeIfPresent(e.getKey(),
+                        (poi, score) -> score * (minWeight + (1 - minWeight) * e.getValue()));
+        }
+    }
+
+    /**
+     * @return share of the dwell time of input place during the open hours of each of its candidate POIs that has
+     * opening hours; empty if the place has no dwell time
+     */
+    public Map<POI, Double> getOpenFractions(Place p) {
+        Map<POI, Double> fractions = new HashMap<>();
+        if (p.getDwells() == null || p.getPOIScores() == null)
+            return fractions;
+
+        DwellTimeProfile profile = new DwellTimeProfile();
+        for (Dwell d : p.getDwells())
+            profile.insert(d);
+        if (profile.isEmpty())
+            return fractions;
+
+        for (POI poi : p.getPOIScores().keySet())
+            if (poi.getOpenHours() != null && !poi.getOpenHours().getOpenHours().isEmpty())
+                fractions.put(poi, profile.getOpenFraction(poi.getOpenHours().getBitmap()));
+        return fractions;
+    }
+}
@@ -0,0 +1,102 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.TimeConstants;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.DwellDurationType;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.place.ProtectedArea;
+import uk.co.travelai_public.tools.HourOfWeek;
+
+import java.util.List;
+
+/**
+ * Class containing methods to hide sensitive {@link Place}s and their {@link Dwell}s, as obfuscatePlaces of the Matlab
+ * implementation. Run after {@link PlaceSensitivity}.
+ * <p>
+ * Places at least as private as hideThreshold, sensitive by default, are hidden and published at the centroid of their
+ * protected area, if any. Dwells take the privacy category of their place, except sleep dwells, which are private.
+ * Private dwells are hidden; other dwells at least as private as hideThreshold are hidden but keep their duration
+ * type.
+ * <p>
+ * With {@link KAnonymityCounters} set, places in a geohash cell or output area with fewer than k distinct
+ * installations are hidden as well, together with all their dwells.
+ */
+
+@Getter
+@Setter
+public class PlaceObfuscation {
+
+    // Population counters; null to decide per user only
+    private KAnonymityCounters kAnonymityCounters;
+    private int k = 5;
+
+    // Places and dwells at least this private are hidden
+    private PrivacyCategory hideThreshold = PrivacyCategory.SENSITIVE;
+
+    /**
+     * Hide places and dwells of input places
+     */
+    public void run(List<Place> places) {
+        for (Place p : places) {
+            boolean rare = kAnonymityCounters != null && !kAnonymityCounters.isAnonymous(p, k);
+            int placePrivacy = p.getPrivacyCategory().ordinal();
+
+            if (placePrivacy >= hideThreshold.ordinal() || rare) {
+                p.setHidden(true);
+                ProtectedArea area = p.getProtectedArea();
+                if (area != null) {
+                    p.setHiddenLatitude(area.getCentroidLatitude());
+                    p.setHiddenLongitude(area.getCentroidLongitude());
+                }
+            }
+
+            if (p.getDwells() == null)
+                continue;
+            for (Dwell d : p.getDwells()) {
+                DwellDurationType type = getDurationType(d);
+                if (type == DwellDurationType.sleep)
+                    d.setPrivacyCategory(PrivacyCategory.PRIVATE);
+                else
+                    d.setPrivacyCategory(p.getPrivacyCategory());
+
+                if (d.getPrivacyCategory() == PrivacyCategory.PRIVATE || rare) {
+                    d.setHidden(true);
+                } else if (d.getPrivacyCategory().ordinal() >= hideThreshold.ordinal()) {
+                    d.setHidden(true);
+                    d.setHiddenDurationType(type);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@link DwellDurationType} of input dwell; derived from its duration and night-time overlap if not set
+     */
+    public static DwellDurationType getDurationType(Dwell d) {
+        if (d.getDwellDurationType() != null)
+            return d.getDwellDurationType();
+
+        double minutes = (d.getEndTime() - d.getStartTime()) / (1000.0 * 60);
+        if (minutes < 30)
+            return DwellDurationType.brief;
+        if (minutes < 120)
+            return DwellDurationType.visit;
+        if (minutes > 240 && overlapsNight(d))
+            return DwellDurationType.sleep;
+        return DwellDurationType.stay;
+    }
+
+    private static boolean overlapsNight(Dwell d) {
+        double tzOffset = d.getDwellLocation() != null ? d.getDwellLocation().getTzOffset_ms() : 0;
+        long start = HourOfWeek.localMillis(d.getStartTime(), tzOffset);
+        long end = HourOfWeek.localMillis(d.getEndTime(), tzOffset);
+        if (end - start >= TimeConstants.DAY_MS)
+            return true;
+        for (long t = start; t < end; t = (Math.floorDiv(t, TimeConstants.HOUR_MS) + 1) * TimeConstants.HOUR_MS)
+            if (HourOfWeek.isNight(HourOfWeek.binOfLocal(t)))
+                return true;
+        return false;
+    }
+}
@@ -4,6 +4,7 @@ import lombok.NoArgsConstructor;
 import uk.co.travelai_public.model.place.POI;
 import uk.co.travelai_public.model.place.Place;
 import uk.co.travelai_public.model.place.PlaceType;
+import uk.co.travelai_public.profiling.PlaceSensitivityEvent;
 import uk.co.travelai_public.tools.Tools;
 
 import java.util.List;
@@ -27,13 +28,17 @@ public class PlaceSensitivity {
 
         for (Place p: places) {
 
+            PlaceSensitivityEvent event = PlaceSensitivityEvent.start();
+
             if (p.getPlaceType() != null) {
                 if (p.getPlaceType().equals(PlaceType.home)) {
                     p.setPrivacyCategory(PrivacyCategory.PRIVATE);
+                    finish(event, p);
                     continue;
                 }
                 if (p.getPlaceType().equals(PlaceType.work)) {
                     p.setPrivacyCategory(PrivacyCategory.PRIVATE);
+                    finish(event, p);
                     continue;
                 }
             }
@@ -120,7 +125,13 @@ public class PlaceSensitivity {
                 privacyScore = 0;
 
             p.setPrivacyCategory(PrivacyCategory.fromPrivacyScore(privacyScore));
+            finish(event, p);
 
         }
     }
+
+    private static void finish(PlaceSensitivityEvent event, Place p) {
+        PlaceSensitivityEvent.finish(event, p.getUid(), p.getPOIScores() != null ? p.getPOIScores().size() : 0,
+                p.getPrivacyCategory());
+    }
 }
@@ -0,0 +1,139 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.place.PlaceType;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Class assigning {@link PlaceType} home and work to the places of users based on their dwells.
+ * <p>
+ * The dwells of a user are streamed once, and each is folded into the {@link OccupancySketch} of its parent place;
+ * dwells are not retained. Home is the place with most night-time presence, work the other place with most
+ * presence during work hours of work days, each subject to a minimum share of the user's time in that period and a
+ * minimum number of distinct days. Users are processed in parallel.
+ */
+
+@Getter
+@Setter
+public class PlaceTypeLabeller {
+
+    // Minimum share of the user's night / work time spent at the place
+    private double minNightShare    = 0.5;
+    private double minWorkShare     = 0.4;
+
+    // Minimum number of distinct days with presence
+    private int minNightDays        = 3;
+    private int minWorkDays         = 3;
+
+    /**
+     * Label places of users in parallel
+     *
+     * @param userIds    users to process
+     * @param dwellLoader function returning the dwells of a user; called once per user and iterated once
+     * @return assigned {@link PlaceType}s by place uid, by user
+     */
+    public Map<String, Map<Long, PlaceType>> run(@NonNull Collection<String> userIds,
+                                                    @NonNull Function<String, Iterable<Dwell>> dwellLoader) {
+        Map<String, Map<Long, PlaceType>> res = new ConcurrentHashMap<>();
+        userIds.parallelStream().forEach(u -> res.put(u, label(dwellLoader.apply(u))));
+        return res;
+    }
+
+    /**
+     * Label places of input users in parallel, setting {@link Place#setPlaceType(PlaceType)}
+     */
+    public void runPlaces(@NonNull Collection<? extends Collection<Place>> users) {
+        users.parallelStream().forEach(this::label);
+    }
+
+    /**
+     * Label places of a single user, setting {@link Place#setPlaceType(PlaceType)}. Places that are neither home nor
+     * work are left as they are.
+     */
+    public void label(@NonNull Collection<Place> places) {
+        Map<Long, OccupancySketch> sketches = new HashMap<>();
+        for (Place p : places) {
+            OccupancySketch s = new OccupancySketch();
+            if (p.getDwells() != null)
+                for (Dwell d : p.getDwells())
+                    s.insert(d);
+            sketches.put(p.getUid(), s);
+        }
+
+        Map<Long, PlaceType> types = label(sketches);
+        for (Place p : places) {
+            PlaceType type = types.get(p.getUid());
+            if (type != null)
+                p.setPlaceType(type);
+        }
+    }
+
+    /**
+     * Label places of a single user from a stream of dwells, grouped by {@link Dwell#getParentPlaceID()}
+     *
+     * @return assigned {@link PlaceType}s by place uid
+     */
+    public Map<Long, PlaceType> label(@NonNull Iterable<Dwell> dwells) {
+        Map<Long, OccupancySketch> sketches = new HashMap<>();
+        for (Dwell d : dwells) {
+            if (d.getParentPlaceID() < 0)
+                continue;
+            sketches.computeIfAbsent(d.getParentPlaceID(), k -> new OccupancySketch()).insert(d);
+        }
+        return label(sketches);
+    }
+
+    /**
+     * @return assigned {@link PlaceType}s by place uid from input occupancy sketches of one user
+     */
+    public Map<Long, PlaceType> label(@NonNull Map<Long, OccupancySketch> sketches) {
+        long userNightMs = 0;
+        long userWorkMs = 0;
+        long home = -1;
+        long work = -1;
+
+        for (Map.Entry<Long, OccupancySketch> e : sketches.entrySet()) {
+            OccupancySketch s = e.getValue();
+            userNightMs += s.getNightMs();
+            userWorkMs += s.getWorkMs();
+            if (home < 0 || isBetter(e.getKey(), s.getNightMs(), home, sketches.get(home).getNightMs()))
+                home = e.getKey();
+        }
+
+        Map<Long, PlaceType> types = new HashMap<>();
+        if (home >= 0) {
+            OccupancySketch s = sketches.get(home);
+            if (userNightMs > 0 && s.getNightMs() >= minNightShare * userNightMs && s.getNNightDays() >= minNightDays)
+                types.put(home, PlaceType.home);
+        }
+
+        for (Map.Entry<Long, OccupancySketch> e : sketches.entrySet()) {
+            if (types.containsKey(e.getKey()))
+                continue;
+            if (work < 0 || isBetter(e.getKey(), e.getValue().getWorkMs(), work, sketches.get(work).getWorkMs()))
+                work = e.getKey();
+        }
+
+        if (work >= 0) {
+            OccupancySketch s = sketches.get(work);
+            if (userWorkMs > 0 && s.getWorkMs() >= minWorkShare * userWorkMs && s.getNWorkDays() >= minWorkDays)
+                types.put(work, PlaceType.work);
+        }
+
+        return types;
+    }
+
+    // Ties go to the lower uid so that labels do not depend on map iteration order
+    private static boolean isBetter(long uid, long ms, long bestUid, long bestMs) {
+        return ms > bestMs || (ms == bestMs && uid < bestUid);
+    }
+}
@@ -0,0 +1,154 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.Getter;
+import lombok.NonNull;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.DwellDurationType;
+import uk.co.travelai_public.tools.HourOfWeek;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Mergeable summary of the visits ({@link Dwell}s) of one place, from which {@link PlaceVisitStatistics} derives
+ * visit frequency, regularity, duration and number of sleep visits.
+ * <p>
+ * The summary consists of two 168-bin hour-of-week histograms in primitive arrays: time spent at the place in
+ * milliseconds (occupancy) and number of arrivals. All sums are integers, so merging partial summaries in any order
+ * gives exactly the same statistics.
+ */
+
+@Getter
+public class PlaceVisitAccumulator {
+
+    // Arrivals within +-REGULARITY_WINDOW hours of the same hour-of-week count as regular
+    public static final int REGULARITY_WINDOW = 1;
+
+    // Minimum duration of sleep visits, when dwell duration type is not known
+    static final long SLEEP_MIN_MS =
+            DwellDurationType.getDwellDurationTypeTimesInMinutes().get(DwellDurationType.sleep)[0] * 60L * 1000L;
+
+    private final long[] occupancyMs = new long[HourOfWeek.N_BINS];
+    private final int[] arrivals = new int[HourOfWeek.N_BINS];
+    private int nVisits;
+    private int nSleepVisits;
+    private long sumDurationMs;
+
+    /**
+     * Add input {@link Dwell} to the summary. Dwells without start or end time are ignored.
+     */
+    public void insert(@NonNull Dwell d) {
+        if (d.getStartTime() < 0 || d.getEndTime() < d.getStartTime())
+            return;
+
+        double tzOffset = d.getDwellLocation() != null ? d.getDwellLocation().getTzOffset_ms() : 0;
+        long localStart = HourOfWeek.localMillis(d.getStartTime(), tzOffset);
+        long localEnd = HourOfWeek.localMillis(d.getEndTime(), tzOffset);
+
+        boolean night = HourOfWeek.addOccupancy(occupancyMs, localStart, localEnd);
+        arrivals[HourOfWeek.binOfLocal(localStart)]++;
+        nVisits++;
+        sumDurationMs += localEnd - localStart;
+
+        if (isSleepVisit(d.getDwellDurationType(), localEnd - localStart, night))
+            nSleepVisits++;
+    }
+
+    /**
+     * Sleep visit detection: the {@link DwellDurationType} of the dwell decides if it is known; otherwise the dwell
+     * is a sleep visit if it lasts at least the sleep lower bound and overlaps night hours.
+     */
+    static boolean isSleepVisit(DwellDurationType type, long durationMs, boolean overlapsNight) {
+        if (type != null)
+            return type == DwellDurationType.sleep;
+        return durationMs >= SLEEP_MIN_MS && overlapsNight;
+    }
+
+    /**
+     * Add input summary to this one
+     */
+    public PlaceVisitAccumulator merge(@NonNull PlaceVisitAccumulator other) {
+        for (int b = 0; b < HourOfWeek.N_BINS; b++) {
+            occupancyMs[b] += other.occupancyMs[b];
+            arrivals[b] += other.arrivals[b];
+        }
+        nVisits += other.nVisits;
+        nSleepVisits += other.nSleepVisits;
+        sumDurationMs += other.sumDurationMs;
+        return this;
+    }
+
+    /**
+     * Write summary to input stream
+     */
+    public void write(DataOutput out) throws IOException {
+        for (int b = 0; b < HourOfWeek.N_BINS; b++) {
+            out.writeLong(occupancyMs[b]);
+            out.writeInt(arrivals[b]);
+        }
+        out.writeInt(nVisits);
+        out.writeInt(nSleepVisits);
+        out.writeLong(sumDurationMs);
+    }
+
+    /**
+     * Read summary written with {@link #write(DataOutput)}
+     */
+    public static PlaceVisitAccumulator read(DataInput in) throws IOException {
+        PlaceVisitAccumulator acc = new PlaceVisitAccumulator();
+        for (int b = 0; b < HourOfWeek.N_BINS; b++) {
+            acc.occupancyMs[b] = in.readLong();
+            acc.arrivals[b] = in.readInt();
+        }
+        acc.nVisits = in.readInt();
+        acc.nSleepVisits = in.readInt();
+        acc.sumDurationMs = in.readLong();
+        return acc;
+    }
+
+    /**
+     * @return visits per day over an observation period of input length
+     */
+    public double getFrequency(double observationDays) {
+        return frequency(nVisits, observationDays);
+    }
+
+    /**
+     * @return share [0.0 - 1.0] of arrivals within the busiest +-1h hour-of-week window; 0 with less than two visits
+     */
+    public double getRegularity() {
+        return regularity(arrivals, nVisits);
+    }
+
+    /**
+     * @return mean visit duration in seconds; 0 if no visits
+     */
+    public double getMeanDuration() {
+        return meanDuration(sumDurationMs, nVisits);
+    }
+
+    static double frequency(int nVisits, double observationDays) {
+        return nVisits / Math.max(1.0, observationDays);
+    }
+
+    static double regularity(int[] arrivals, int nVisits) {
+        if (nVisits < 2)
+            return 0;
+
+        int best = 0;
+        for (int b = 0; b < HourOfWeek.N_BINS; b++) {
+            int n = 0;
+            for (int k = -REGULARITY_WINDOW; k <= REGULARITY_WINDOW; k++)
+                n += arrivals[Math.floorMod(b + k, HourOfWeek.N_BINS)];
+            best = Math.max(best, n);
+        }
+        return best / (double) nVisits;
+    }
+
+    static double meanDuration(long sumDurationMs, int nVisits) {
+        if (nVisits == 0)
+            return 0;
+        return sumDurationMs / 1000.0 / nVisits;
+    }
+}
@@ -0,0 +1,140 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.Getter;
+import lombok.NonNull;
+import uk.co.travelai_public.model.TimeConstants;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.tools.HourOfWeek;
+import uk.co.travelai_public.tools.Tools;
+
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Class computing the visit statistics of {@link Place}s used by {@link PlaceSensitivity}:
+ * <ul>
+ *     <li>visitFrequency: visits per day over the observation period</li>
+ *     <li>visitRegularity: share of arrivals within the busiest +-1h hour-of-week window</li>
+ *     <li>visitDuration: mean visit duration in seconds</li>
+ *     <li>nSleepVisits: number of sleep visits</li>
+ * </ul>
+ * Each place is summarised with one pass over its dwells into a {@link PlaceVisitAccumulator}; places are processed
+ * in parallel.
+ */
+
+@Getter
+public class PlaceVisitStatistics {
+
+    // Observation period of the user, epoch milliseconds
+    private final double observationStart;
+    private final double observationEnd;
+
+    public PlaceVisitStatistics(double observationStart, double observationEnd) {
+        this.observationStart = observationStart;
+        this.observationEnd = observationEnd;
+    }
+
+    /**
+     * @return statistics using the span of all dwells of input places as observation period
+     */
+    public static PlaceVisitStatistics forPlaces(@NonNull Collection<Place> places) {
+        double start = Double.MAX_VALUE;
+        double end = -Double.MAX_VALUE;
+        for (Place p : places) {
+            if (p.getDwells() == null)
+                continue;
+            for (Dwell d : p.getDwells()) {
+                if (d.getStartTime() < 0 || d.getEndTime() < d.getStartTime())
+                    continue;
+                start = Math.min(start, d.getStartTime());
+                end = Math.max(end, d.getEndTime());
+            }
+        }
+        if (start > end)
+            start = end = 0;
+        return new PlaceVisitStatistics(start, end);
+    }
+
+    /**
+     * @return length of the observation period in days
+     */
+    public double getObservationDays() {
+        return (observationEnd - observationStart) / TimeConstants.DAY_MS;
+    }
+
+    /**
+     * Compute visit statistics of input places in parallel
+     */
+    public void run(@NonNull List<Place> places) {
+        places.parallelStream().forEach(p -> apply(p, accumulate(p)));
+    }
+
+    /**
+     * @return {@link PlaceVisitAccumulator} of the dwells of input place
+     */
+    public static PlaceVisitAccumulator accumulate(@NonNull Place p) {
+        PlaceVisitAccumulator acc = new PlaceVisitAccumulator();
+        if (p.getDwells() != null)
+            for (Dwell d : p.getDwells())
+                acc.insert(d);
+        return acc;
+    }
+
+    /**
+     * Set visit statistics of input place from input summary
+     */
+    public void apply(@NonNull Place p, @NonNull PlaceVisitAccumulator acc) {
+        p.setVisitFrequency(acc.getFrequency(getObservationDays()));
+        p.setVisitRegularity(acc.getRegularity());
+        p.setVisitDuration(acc.getMeanDuration());
+        p.setNSleepVisits(acc.getNSleepVisits());
+    }
+
+    /**
+     * Reference implementation: computes the statistics of a single place dwell by dwell and hour by hour using
+     * {@link ZonedDateTime}s. Slow; used to validate {@link #run(List)}.
+     */
+    public void runReference(@NonNull Place p) {
+        int[] arrivals = new int[HourOfWeek.N_BINS];
+        int nVisits = 0;
+        int nSleepVisits = 0;
+        long sumDurationMs = 0;
+
+        if (p.getDwells() != null) {
+            for (Dwell d : p.getDwells()) {
+                if (d.getStartTime() < 0 || d.getEndTime() < d.getStartTime())
+                    continue;
+
+                double tzOffset = d.getDwellLocation() != null ? d.getDwellLocation().getTzOffset_ms() : 0;
+                ZonedDateTime start = Tools.epoch2ZonedDateTime(d.getStartTime(), tzOffset);
+                ZonedDateTime end = Tools.epoch2ZonedDateTime(d.getEndTime(), tzOffset);
+
+                boolean night = false;
+                for (ZonedDateTime t = start; t.isBefore(end); t = t.plusHours(1)) {
+                    for (int h : TimeConstants.NIGHT_HOURS)
+                        if (t.getHour() == h)
+                            night = true;
+                }
+                // The last partial hour may start on a different hour than start + n hours
+                for (int h : TimeConstants.NIGHT_HOURS)
+                    if (end.isAfter(start) && end.minusNanos(1).getHour() == h)
+                        night = true;
+
+                arrivals[(start.getDayOfWeek().getValue() - 1) * TimeConstants.HOURS_PER_DAY + start.getHour()]++;
+                long durationMs = end.toInstant().toEpochMilli() - start.toInstant().toEpochMilli();
+                sumDurationMs += durationMs;
+                nVisits++;
+
+                if (PlaceVisitAccumulator.isSleepVisit(d.getDwellDurationType(), durationMs, night))
+                    nSleepVisits++;
+            }
+        }
+
+        p.setVisitFrequency(PlaceVisitAccumulator.frequency(nVisits, getObservationDays()));
+        p.setVisitRegularity(PlaceVisitAccumulator.regularity(arrivals, nVisits));
+        p.setVisitDuration(PlaceVisitAccumulator.meanDuration(sumDurationMs, nVisits));
+        p.setNSleepVisits(nSleepVisits);
+    }
+}
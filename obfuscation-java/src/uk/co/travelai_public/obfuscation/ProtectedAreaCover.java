@@ -0,0 +1,174 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import uk.co.travelai_public.tools.GeoHash;
+import uk.co.travelai_public.tools.Polygon;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Multi-resolution geohash cell cover of a {@link Polygon}, for fast point membership tests.
+ * <p>
+ * The bounding box of the polygon is covered with cells at the coarsest precision whose cells are no smaller than
+ * the box. Cells crossing the polygon boundary are split into their 32 children until the maximum precision, so each
+ * point of the box falls in exactly one leaf cell that is wholly inside, wholly outside or still on the boundary. A
+ * membership test encodes the point once and looks up its cells from coarse to fine in an open-addressing hash table;
+ * only points in boundary cells at the maximum precision need the exact polygon test.
+ */
+
+@Getter
+public class ProtectedAreaCover {
+
+    public static final int DEFAULT_MAX_PRECISION = 8;
+
+    private static final byte SPLIT = 1;
+    private static final byte INSIDE = 2;
+    private static final byte BOUNDARY = 3;
+
+    private final Polygon polygon;
+    private final int minPrecision;
+    private final int maxPrecision;
+
+    // Number of inside and boundary leaf cells
+    private int nInsideCells;
+    private int nBoundaryCells;
+
+    // Open-addressing table of cell keys; empty slots have key 0, which is not a valid cell key
+    @Getter(AccessLevel.NONE) private long[] keys = new long[64];
+    @Getter(AccessLevel.NONE) private byte[] states = new byte[64];
+    @Getter(AccessLevel.NONE) private int size;
+
+    public ProtectedAreaCover(@NonNull Polygon polygon) {
+        this(polygon, DEFAULT_MAX_PRECISION);
+    }
+
+    public ProtectedAreaCover(@NonNull Polygon polygon, int maxPrecision) {
+        if (maxPrecision < 1 || maxPrecision > GeoHash.MAX_PRECISION)
+            throw new IllegalArgumentException("Max precision must be 1.." + GeoHash.MAX_PRECISION);
+        this.polygon = polygon;
+        this.maxPrecision = maxPrecision;
+
+        int p = 1;
+        while (p < maxPrecision && cellHeight(p + 1) >= polygon.getMaxLat() - polygon.getMinLat()
+                && cellWidth(p + 1) >= polygon.getMaxLon() - polygon.getMinLon())
+            p++;
+        this.minPrecision = p;
+
+        for (long key : coverBox(p))
+            build(key);
+    }
+
+    /**
+     * @return boolean indicating whether input point is inside the polygon
+     */
+    public boolean contains(double lat, double lon) {
+        if (lat < polygon.getMinLat() || lat > polygon.getMaxLat()
+                || lon < polygon.getMinLon() || lon > polygon.getMaxLon())
+            return false;
+
+        long leaf = GeoHash.encode(lat, lon, maxPrecision);
+        for (int p = minPrecision; p <= maxPrecision; p++) {
+            byte state = get(GeoHash.ancestor(leaf, p));
+            if (state == INSIDE)
+                return true;
+            if (state == BOUNDARY)
+                return polygon.contains(lat, lon);
+            if (state != SPLIT)
+                return false;
+        }
+        return false;
+    }
+
+    /**
+     * @return number of cells in the cover, including split cells
+     */
+    public int getNCells() {
+        return size;
+    }
+
+    private void build(long key) {
+        double[] b = GeoHash.bounds(key);
+        Polygon.Relation relation = polygon.relate(b[0], b[1], b[2], b[3]);
+        if (relation == Polygon.Relation.OUTSIDE)
+            return;
+        if (relation == Polygon.Relation.INSIDE) {
+            put(key, INSIDE);
+            nInsideCells++;
+        } else if (GeoHash.precision(key) == maxPrecision) {
+            put(key, BOUNDARY);
+            nBoundaryCells++;
+        } else {
+            put(key, SPLIT);
+            for (int i = 0; i < 32; i++)
+                build(GeoHash.child(key, i));
+        }
+    }
+
+    // Cells of input precision overlapping the bounding box of the polygon
+    private List<Long> coverBox(int precision) {
+        double h = cellHeight(precision);
+        double w = cellWidth(precision);
+        Set<Long> cells = new LinkedHashSet<>();
+        for (double lat = polygon.getMinLat(); ; lat += h) {
+            double la = Math.min(lat, polygon.getMaxLat());
+            for (double lon = polygon.getMinLon(); ; lon += w) {
+                double lo = Math.min(lon, polygon.getMaxLon());
+                cells.add(GeoHash.encode(la, lo, precision));
+                if (lo >= polygon.getMaxLon())
+                    break;
+            }
+            if (la >= polygon.getMaxLat())
+                break;
+        }
+        return new ArrayList<>(cells);
+    }
+
+    private static double cellWidth(int precision) {
+        return 360.0 / (1L << ((5 * precision + 1) / 2));
+    }
+
+    private static double cellHeight(int precision) {
+        return 180.0 / (1L << (5 * precision / 2));
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (keys.length - 1);
+    }
+
+    private byte get(long key) {
+        for (int i = slot(key); ; i = (i + 1) & (keys.length - 1)) {
+            if (keys[i] == key)
+                return states[i];
+            if (keys[i] == 0)
+                return 0;
+        }
+    }
+
+    private void put(long key, byte state) {
+        if (2 * (size + 1) > keys.length)
+            grow();
+        int i = slot(key);
+        while (keys[i] != 0 && keys[i] != key)
+            i = (i + 1) & (keys.length - 1);
+        if (keys[i] == 0)
+            size++;
+        keys[i] = key;
+        states[i] = state;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        byte[] oldStates = states;
+        keys = new long[2 * oldKeys.length];
+        states = new byte[2 * oldKeys.length];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldKeys[i] != 0)
+                put(oldKeys[i], oldStates[i]);
+    }
+}
@@ -0,0 +1,102 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import uk.co.travelai_public.model.place.ProtectedArea;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded cache of {@link ProtectedAreaCover}s by area id.
+ * <p>
+ * Protected areas are output areas, which many users' places share, so a cover is computed once per area and reused
+ * across users. The least recently used covers are evicted once the cache holds maxEntries covers. The cache is safe
+ * for use from multiple threads; a cover that two threads miss at the same time may be computed twice, which is
+ * harmless.
+ * <p>
+ * The shared cache is used by every {@link RouteTrimming} by default, so that all pipelines of a process, e.g. one
+ * per worker thread, compute each cover once between them.
+ */
+
+@Getter
+public class ProtectedAreaCoverCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    private static volatile ProtectedAreaCoverCache shared = new ProtectedAreaCoverCache();
+
+    private final int maxEntries;
+    private final int maxPrecision;
+
+    @Getter(AccessLevel.NONE) private final Map<String, ProtectedAreaCover> covers;
+
+    private long nHits;
+    private long nMisses;
+
+    public ProtectedAreaCoverCache() {
+        this(DEFAULT_MAX_ENTRIES, ProtectedAreaCover.DEFAULT_MAX_PRECISION);
+    }
+
+    public ProtectedAreaCoverCache(int maxEntries, int maxPrecision) {
+        this.maxEntries = maxEntries;
+        this.maxPrecision = maxPrecision;
+        this.covers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ProtectedAreaCover> eldest) {
+                return size() > ProtectedAreaCoverCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return cache shared by the process
+     */
+    public static ProtectedAreaCoverCache getShared() {
+        return shared;
+    }
+
+    /**
+     * Replace the cache shared by the process, e.g. with one of another size; used by route trimmings created after
+     */
+    public static void setShared(@NonNull ProtectedAreaCoverCache cache) {
+        shared = cache;
+    }
+
+    /**
+     * @return cover of input area, from the cache if available. The cover is also set on the area.
+     */
+    public ProtectedAreaCover getCover(@NonNull ProtectedArea area) {
+        if (area.getId() == null)
+            throw new IllegalArgumentException("Protected area has no id");
+
+        ProtectedAreaCover cover;
+        synchronized (covers) {
+            cover = covers.get(area.getId());
+            if (cover != null)
+                nHits++;
+            else
+                nMisses++;
+        }
+        if (cover == null) {
+            cover = new ProtectedAreaCover(area.getPolygon(), maxPrecision);
+            synchronized (covers) {
+                ProtectedAreaCover existing = covers.putIfAbsent(area.getId(), cover);
+                if (existing != null)
+                    cover = existing;
+            }
+        }
+        area.setCover(cover);
+        return cover;
+    }
+
+    /**
+     * @return number of cached covers
+     */
+    public int size() {
+        synchronized (covers) {
+            return covers.size();
+        }
+    }
+}
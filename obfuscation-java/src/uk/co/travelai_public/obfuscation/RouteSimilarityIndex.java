@@ -0,0 +1,117 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.TransportMode;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.tools.TrajectorySimplifier;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of near-duplicate legs, used by {@link TravelSensitivity} to reuse the {@link LegFeatures} of habitual trips.
+ * <p>
+ * Each leg is sketched with a {@link LegSketch}. The sketches are split into nBands bands of minimum hashes (locality
+ * sensitive hashing), and a leg is looked up by the buckets of its bands, keyed also by mode, start cell and end cell.
+ * A candidate with the same mode and end cells and an estimated cell-set similarity of at least minSimilarity is a
+ * near-duplicate, and its features are returned. Only the features that depend on the path alone, geometrics and
+ * simplified waypoints, are indexed and stand in for those of the duplicate; road attributes and pedestrian stops are
+ * collected for every leg by {@link LegFeatures#extract(Leg, TrajectorySimplifier, RouteSimilarityIndex)}, and time
+ * of day and day of week are scored per trip by {@link TravelSensitivity}.
+ */
+
+@Getter
+@Setter
+public class RouteSimilarityIndex {
+
+    private int nHashes = 32;
+    private int nBands = 8;
+    private int cellPrecision = 7;
+    private int endpointPrecision = 6;
+    private double minSimilarity = 0.8;
+
+    // Counts of lookups and of lookups answered by a near-duplicate, for monitoring
+    @Setter(AccessLevel.NONE) private long nLookups;
+    @Setter(AccessLevel.NONE) private long nReused;
+
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE)
+    private final Map<Long, List<Entry>> buckets = new HashMap<>();
+
+    private static class Entry {
+        final LegSketch sketch;
+        final LegFeatures features;
+
+        Entry(LegSketch sketch, LegFeatures features) {
+            this.sketch = sketch;
+            this.features = features;
+        }
+    }
+
+    /**
+     * @return sketch of input {@link Leg} with the settings of this index; null if the leg has no waypoints
+     */
+    public LegSketch sketch(Leg leg) {
+        if (nHashes % nBands != 0)
+            throw new IllegalStateException("Number of hashes must be a multiple of the number of bands");
+        return LegSketch.of(leg, nHashes, cellPrecision, endpointPrecision);
+    }
+
+    /**
+     * @return empty streaming sketch of a leg of input mode with the settings of this index, see
+     * {@link LegSketch#streaming(TransportMode, int, int, int)}
+     */
+    public LegSketch streamingSketch(TransportMode mode) {
+        if (nHashes % nBands != 0)
+            throw new IllegalStateException("Number of hashes must be a multiple of the number of bands");
+        return LegSketch.streaming(mode, nHashes, cellPrecision, endpointPrecision);
+    }
+
+    /**
+     * @return path features of an indexed near-duplicate of input sketch; null if there is none
+     */
+    public LegFeatures find(LegSketch sketch) {
+        nLookups++;
+        for (int b = 0; b < nBands; b++) {
+            List<Entry> bucket = buckets.get(bandKey(sketch, b));
+            if (bucket == null)
+                continue;
+            for (Entry e : bucket) {
+                if (e.sketch.sameEnds(sketch) && e.sketch.similarity(sketch) >= minSimilarity) {
+                    nReused++;
+                    return e.features;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add input sketch with the path features of its leg as a cluster representative
+     */
+    public void add(LegSketch sketch, LegFeatures features) {
+        Entry e = new Entry(sketch, features);
+        for (int b = 0; b < nBands; b++)
+            buckets.computeIfAbsent(bandKey(sketch, b), k -> new ArrayList<>(1)).add(e);
+    }
+
+    /**
+     * Remove all legs from the index
+     */
+    public void clear() {
+        buckets.clear();
+    }
+
+    private long bandKey(LegSketch s, int band) {
+        long h = LegSketch.mix((s.getMode() != null ? s.getMode().ordinal() : -1) + 31L * band);
+        h = LegSketch.mix(h ^ s.getStartCell());
+        h = LegSketch.mix(h ^ s.getEndCell());
+        int rows = nHashes / nBands;
+        for (int i = band * rows; i < (band + 1) * rows; i++)
+            h = LegSketch.mix(h ^ s.getMinHashes()[i]);
+        return h;
+    }
+}
@@ -0,0 +1,364 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.place.ProtectedArea;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.tools.DistanceKernel;
+import uk.co.travelai_public.tools.Polygon;
+import uk.co.travelai_public.tools.Tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class hiding the waypoints of {@link Route}s inside the protected areas of their start and end places, as
+ * obfuscateTravelsWithProtectedAreas of the Matlab implementation. Run after {@link PlaceSensitivity} and
+ * {@link TravelSensitivity}.
+ * <p>
+ * Waypoints are time-ordered and a route usually leaves its start area, and enters its end area, only once. Rather than
+ * testing every waypoint against the area, the end of the hidden prefix is found by a galloping search over the
+ * waypoints from the start (probing 1, 3, 7, 15, ... waypoints in), narrowed down by binary search, and checked
+ * exactly: the checkWindow waypoints following the boundary must all be outside the area, otherwise the boundary moves
+ * past the last one inside. The hidden suffix is found the same way from the end. A route that leaves the area, returns
+ * and leaves again within the probed span is hidden up to its last exit, which hides more rather than less. Waypoints
+ * of public transit legs are never hidden, as in the Matlab implementation.
+ * <p>
+ * The hidden prefix and suffix are then replaced in bulk: hidden waypoints take the time and position of the first
+ * (last) public waypoint with unknown speed and accuracy, and the very first (last) waypoint is moved to the centroid
+ * of the area. Routes and legs with hidden waypoints are marked hidden and published with the replaced waypoints and the
+ * times, duration and distance of their public part; legs without public waypoints become private, and legs with
+ * some hidden waypoints become at least sensitive, as privacy 2 of obfuscateTravelsWithProtectedAreas, so that
+ * {@link TravelObfuscation} coarsens them too. If no waypoint of a route is public, the route and its legs are
+ * published without waypoints.
+ * <p>
+ * Places hidden by {@link PlaceObfuscation} below the hide threshold, e.g. for k-anonymity, are trimmed too, so that
+ * routes and legs do not publish them through their ends. A hidden place without a protected area is trimmed within
+ * hiddenPlaceRadius of its location; its hidden waypoints are not moved to a centroid, which would be the place itself.
+ * <p>
+ * With a boundary cache set, the hidden prefix and suffix found for a route are kept by route uid and protected area,
+ * so that routes trimmed again, e.g. for another {@link ObfuscationProfile}, are not tested against the same areas
+ * again, whichever areas the hide threshold of the earlier trims selected.
+ */
+
+@Getter
+@Setter
+public class RouteTrimming {
+
+    // Waypoints after a found boundary that must be outside the area
+    private int checkWindow = 4;
+
+    // Places at least this private have their protected area trimmed
+    private PrivacyCategory hideThreshold = PrivacyCategory.SENSITIVE;
+
+    // Radius around hidden places without a protected area within which waypoints are hidden; meters
+    private double hiddenPlaceRadius = 200;
+
+    // Hidden prefix or suffix lengths by route, area and end; null to not keep them
+    private Map<Boundary, Integer> boundaryCache;
+
+    // Covers of the protected areas, shared by the process by default; null to test the polygons
+    private ProtectedAreaCoverCache coverCache = ProtectedAreaCoverCache.getShared();
+
+    // Number of area membership tests, for profiling
+    @Setter(AccessLevel.NONE) private long nContainsTests;
+
+    // Waypoints of the route being trimmed, as consecutive segments of one index space
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) private final List<LocationBlock> blocks = new ArrayList<>();
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) private final List<Leg> segmentLegs = new ArrayList<>();
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) private int[] offsets = new int[8];
+
+    /**
+     * Trim input routes
+     */
+    public void run(List<Route> routes) {
+        for (Route r : routes)
+            trim(r);
+    }
+
+    /**
+     * Hide the waypoints of input route inside the protected areas of its start and end places
+     */
+    public void trim(Route r) {
+        ProtectedArea startArea = protectedArea(r.getStartPlace());
+        ProtectedArea endArea = protectedArea(r.getEndPlace());
+        if (startArea == null && endArea == null)
+            return;
+
+        int n = load(r);
+        try {
+            int nStart = startArea != null ? hiddenLength(r, startArea, n, false) : 0;
+            int nEnd = endArea != null ? hiddenLength(r, endArea, n, true) : 0;
+            if (nStart == 0 && nEnd == 0)
+                return;
+            if (nStart + nEnd >= n)
+                hideAll(r);
+            else
+                hide(r, n, nStart, nEnd, startArea, endArea);
+        } finally {
+            blocks.clear();
+            segmentLegs.clear();
+        }
+    }
+
+    private ProtectedArea protectedArea(Place p) {
+        if (p == null || (p.getPrivacyCategory().ordinal() < hideThreshold.ordinal() && !p.isHidden()))
+            return null;
+        ProtectedArea area = p.getProtectedArea();
+        if (area == null)
+            return p.isHidden() && hiddenPlaceRadius > 0 ? placeArea(p) : null;
+        if (area.getCover() == null && coverCache != null)
+            coverCache.getCover(area);
+        return area;
+    }
+
+    /**
+     * @return area within hiddenPlaceRadius of input place, as a polygon of 16 vertices, without a centroid
+     */
+    private ProtectedArea placeArea(Place p) {
+        int nVertices = 16;
+        double dLat = Math.toDegrees(hiddenPlaceRadius / DistanceKernel.EARTH_RADIUS);
+        double dLon = dLat / Math.max(1e-6, Math.cos(Math.toRadians(p.getLatitude())));
+        double[] lats = new double[nVertices];
+        double[] lons = new double[nVertices];
+        for (int i = 0; i < nVertices; i++) {
+            double a = 2 * Math.PI * i / nVertices;
+            lats[i] = p.getLatitude() + dLat * Math.cos(a);
+            lons[i] = p.getLongitude() + dLon * Math.sin(a);
+        }
+        ProtectedArea area = new ProtectedArea(null, new Polygon(lats, lons));
+        area.setPlaceId(p.getUid());
+        area.setPrivacyCategory(p.getPrivacyCategory());
+        area.setCentroidLatitude(Double.NaN);
+        area.setCentroidLongitude(Double.NaN);
+        return area;
+    }
+
+    // Collect the waypoint blocks of the legs of the route, or of the route itself if it has none
+    private int load(Route r) {
+        if (r.getMatchedLegs() != null && !r.getMatchedLegs().isEmpty()) {
+            for (Leg l : r.getMatchedLegs()) {
+                blocks.add(toBlock(l.getLocationSource()));
+                segmentLegs.add(l);
+            }
+        } else {
+            blocks.add(toBlock(r.getLocationSource()));
+            segmentLegs.add(null);
+        }
+        if (offsets.length < blocks.size() + 1)
+            offsets = new int[blocks.size() + 1];
+        offsets[0] = 0;
+        for (int k = 0; k < blocks.size(); k++)
+            offsets[k + 1] = offsets[k] + blocks.get(k).size();
+        return offsets[blocks.size()];
+    }
+
+    private static LocationBlock toBlock(LocationSource source) {
+        if (source instanceof LocationBlock)
+            return (LocationBlock) source;
+        List<Location> locs = new ArrayList<>(Math.max(0, source.size()));
+        for (Location l : source)
+            locs.add(l);
+        return LocationBlock.of(locs);
+    }
+
+    // Segment holding waypoint i
+    private int segment(int i) {
+        int k = Arrays.binarySearch(offsets, 0, blocks.size() + 1, i);
+        if (k < 0)
+            return -k - 2;
+        // Skip empty segments starting at the same index
+        while (offsets[k + 1] == i)
+            k++;
+        return k;
+    }
+
+    private boolean inside(ProtectedArea area, int i) {
+        int k = segment(i);
+        Leg leg = segmentLegs.get(k);
+        if (leg != null && leg.isPublicTransit())
+            return false;
+        LocationBlock b = blocks.get(k);
+        int row = i - offsets[k];
+        nContainsTests++;
+        return area.contains(b.getLatitude(row), b.getLongitude(row));
+    }
+
+    /**
+     * Hidden prefix or suffix of a route in a protected area, as a key of the boundary cache. Areas are compared by
+     * identity.
+     */
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static final class Boundary {
+        private final long routeUid;
+        private final ProtectedArea area;
+        private final boolean fromEnd;
+    }
+
+    // Hidden length of input route in input area, from the boundary cache if set; areas of places are built per route
+    private int hiddenLength(Route r, ProtectedArea area, int n, boolean fromEnd) {
+        if (boundaryCache == null || area.getId() == null)
+            return hiddenLength(area, n, fromEnd);
+        return boundaryCache.computeIfAbsent(new Boundary(r.getUid(), area, fromEnd),
+                k -> hiddenLength(area, n, fromEnd));
+    }
+
+    /**
+     * @return number of waypoints hidden at the start of the route, or at its end if fromEnd
+     */
+    private int hiddenLength(ProtectedArea area, int n, boolean fromEnd) {
+        if (n == 0 || !inside(area, fromEnd ? n - 1 : 0))
+            return 0;
+
+        // Gallop from the known inside waypoint lo until a probe is outside
+        int lo = 0;
+        int step = 1;
+        int hi = 1;
+        while (hi < n && inside(area, fromEnd ? n - 1 - hi : hi)) {
+            lo = hi;
+            step *= 2;
+            hi = (int) Math.min(n, (long) lo + step);
+        }
+
+        // Narrow down to adjacent inside / outside waypoints
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (inside(area, fromEnd ? n - 1 - mid : mid))
+                lo = mid;
+            else
+                hi = mid;
+        }
+
+        // Exact check past the boundary
+        int end = hi;
+        for (int j = end; j < n && j < end + checkWindow; j++)
+            if (inside(area, fromEnd ? n - 1 - j : j))
+                end = j + 1;
+        return end;
+    }
+
+    // No public waypoints
+    private void hideAll(Route r) {
+        LocationBlock empty = LocationBlock.allocate(0);
+        for (Leg l : segmentLegs) {
+            if (l == null)
+                continue;
+            setHidden(l, empty, Double.NaN, Double.NaN, 0);
+            l.setPrivacyCategory(PrivacyCategory.PRIVATE);
+        }
+        r.setHidden(true);
+        r.setHiddenWaypoints(segmentLegs.get(0) == null ? empty : null);
+        r.setHiddenStartTime(Double.NaN);
+        r.setHiddenEndTime(Double.NaN);
+        r.setHiddenDuration(0);
+        r.setHiddenDistance(0);
+    }
+
+    private void hide(Route r, int n, int nStart, int nEnd, ProtectedArea startArea, ProtectedArea endArea) {
+        int first = nStart;
+        int last = n - 1 - nEnd;
+        Location firstPublic = location(first);
+        Location lastPublic = location(last);
+
+        for (int k = 0; k < blocks.size(); k++) {
+            int from = offsets[k];
+            int to = offsets[k + 1];
+            if (from >= first && to - 1 <= last)
+                continue;
+
+            LocationBlock src = blocks.get(k);
+            LocationBlock dst = LocationBlock.allocate(src.size());
+            Location hiddenLoc = new Location();
+            for (int i = from; i < to; i++) {
+                int row = i - from;
+                if (i >= first && i <= last) {
+                    dst.set(row, src.getLocation(row));
+                    continue;
+                }
+                Location pub = i < first ? firstPublic : lastPublic;
+                hiddenLoc.setTimestamp(pub.getTimestamp());
+                hiddenLoc.setLatitude(pub.getLatitude());
+                hiddenLoc.setLongitude(pub.getLongitude());
+                hiddenLoc.setAccuracy(-1);
+                hiddenLoc.setSpeed(-1);
+                hiddenLoc.setDspeed(-1);
+                hiddenLoc.setTzOffset_ms(src.getTzOffset_ms(row));
+                if (i == 0 && !Double.isNaN(startArea.getCentroidLatitude())) {
+                    hiddenLoc.setLatitude(startArea.getCentroidLatitude());
+                    hiddenLoc.setLongitude(startArea.getCentroidLongitude());
+                } else if (i == n - 1 && !Double.isNaN(endArea.getCentroidLatitude())) {
+                    hiddenLoc.setLatitude(endArea.getCentroidLatitude());
+                    hiddenLoc.setLongitude(endArea.getCentroidLongitude());
+                }
+                dst.set(row, hiddenLoc);
+            }
+
+            Leg leg = segmentLegs.get(k);
+            int a = Math.max(from, first) - from;
+            int b = Math.min(to - 1, last) - from;
+            if (leg == null) {
+                r.setHiddenWaypoints(dst);
+            } else if (a > b) {
+                // Leg wholly in a protected area
+                setHidden(leg, dst, dst.getTimestamp(0), dst.getTimestamp(dst.size() - 1), 0);
+                leg.setPrivacyCategory(PrivacyCategory.PRIVATE);
+            } else {
+                // Leg partly in a protected area
+                double distance = Tools.getGeometrics(src.slice(a, b - a + 1), false).getDistance();
+                setHidden(leg, dst, src.getTimestamp(a), src.getTimestamp(b), distance);
+                if (leg.getPrivacyCategory().ordinal() < PrivacyCategory.SENSITIVE.ordinal())
+                    leg.setPrivacyCategory(PrivacyCategory.SENSITIVE);
+            }
+        }
+
+        r.setHidden(true);
+        r.setHiddenStartTime(firstPublic.getTimestamp());
+        r.setHiddenEndTime(lastPublic.getTimestamp());
+        r.setHiddenDuration(lastPublic.getTimestamp() - firstPublic.getTimestamp());
+        // Only the hidden ends are measured when the distance of the whole route is known
+        double hiddenDistance = distance(0, first) + distance(last, n - 1);
+        r.setHiddenDistance(r.getDistance() >= 0 ? Math.max(0, r.getDistance() - hiddenDistance)
+                : distance(first, last));
+    }
+
+    private static void setHidden(Leg l, LocationBlock waypoints, double start, double end, double distance) {
+        l.setHidden(true);
+        l.setHiddenWaypoints(waypoints);
+        l.setHiddenStartTime(start);
+        l.setHiddenEndTime(end);
+        l.setHiddenDuration(Double.isNaN(start) ? 0 : end - start);
+        l.setHiddenDistance(distance);
+    }
+
+    private Location location(int i) {
+        int k = segment(i);
+        return blocks.get(k).getLocation(i - offsets[k]);
+    }
+
+    // Distance along waypoints from..to, across segments
+    private double distance(int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            int k = segment(i);
+            int j = segment(i + 1);
+            LocationBlock a = blocks.get(k);
+            LocationBlock b = blocks.get(j);
+            int ra = i - offsets[k];
+            int rb = i + 1 - offsets[j];
+            sum += DistanceKernel.distance(a.getLatitude(ra), a.getLongitude(ra), b.getLatitude(rb),
+                    b.getLongitude(rb));
+        }
+        return sum;
+    }
+}
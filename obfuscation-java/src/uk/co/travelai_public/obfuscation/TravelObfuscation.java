@@ -0,0 +1,121 @@
+package uk.co.travelai_public.obfuscation;
+
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.tools.CorridorSimplifier;
+import uk.co.travelai_public.tools.DistanceKernel;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Class coarsening the waypoints of sensitive {@link Leg}s. Run after {@link TravelSensitivity}.
+ * <p>
+ * Legs at least as private as hideThreshold, sensitive by default, are hidden and published with a polyline of their
+ * waypoints simplified by {@link CorridorSimplifier} with a coarse tolerance, which keeps the shape of the leg but
+ * drops the detail of where it stopped or turned off a road. The interior waypoints of the polyline are published at
+ * constant speed between the start and end time of the leg, without speed and accuracy, so that neither do they show
+ * where it slowed down. Legs already hidden by {@link RouteTrimming} are simplified from their hidden waypoints.
+ * <p>
+ * Private legs are left as they are unless hidePrivate is set, in which case those at least as private as
+ * hideThreshold are hidden and published with only their first and last waypoint, as privacy 3 in the Matlab
+ * implementation. Legs below hideThreshold are left as they are.
+ */
+
+@Getter
+@Setter
+public class TravelObfuscation {
+
+    private double tolerance = 100;  // meters
+
+    // Legs at least this private, other than private ones, are coarsened
+    private PrivacyCategory hideThreshold = PrivacyCategory.SENSITIVE;
+
+    // Whether private legs at least as private as hideThreshold are reduced to their first and last waypoint
+    private boolean hidePrivate = false;
+
+    /**
+     * Coarsen the sensitive legs of input routes
+     */
+    public void run(List<Route> routes) {
+        for (Route r : routes) {
+            if (r.getMatchedLegs() == null)
+                continue;
+            for (Leg l : r.getMatchedLegs()) {
+                if (l.getPrivacyCategory().ordinal() < hideThreshold.ordinal())
+                    continue;
+                if (l.getPrivacyCategory() != PrivacyCategory.PRIVATE)
+                    coarsen(l);
+                else if (hidePrivate)
+                    hideInterior(l);
+            }
+        }
+    }
+
+    /**
+     * Hide input leg, publishing the simplified polyline of its waypoints
+     */
+    public void coarsen(Leg l) {
+        LocationSource source = l.isHidden() ? l.getHiddenWaypoints() : l.getLocationSource();
+        LocationBlock simplified = retime(CorridorSimplifier.simplify(source, tolerance));
+        if (!l.isHidden()) {
+            l.setHidden(true);
+            l.setHiddenStartTime(l.getStartTime());
+            l.setHiddenEndTime(l.getEndTime());
+            l.setHiddenDuration(l.getDuration());
+            l.setHiddenDistance(l.getDistance());
+        }
+        l.setHiddenWaypoints(simplified);
+    }
+
+    /**
+     * Hide input leg, publishing only the first and last of its waypoints
+     */
+    public void hideInterior(Leg l) {
+        LocationSource source = l.isHidden() ? l.getHiddenWaypoints() : l.getLocationSource();
+        Location first = null;
+        Location last = null;
+        Iterator<Location> it = source.iterator();
+        while (it.hasNext()) {
+            last = it.next();
+            if (first == null)
+                first = last;
+        }
+        LocationBlock endPoints = LocationBlock.allocate(first == null ? 0 : first == last ? 1 : 2);
+        if (first != null)
+            endPoints.set(0, first);
+        if (first != last)
+            endPoints.set(1, last);
+        if (!l.isHidden()) {
+            l.setHidden(true);
+            l.setHiddenStartTime(l.getStartTime());
+            l.setHiddenEndTime(l.getEndTime());
+            l.setHiddenDuration(l.getDuration());
+            l.setHiddenDistance(l.getDistance());
+        }
+        l.setHiddenWaypoints(endPoints);
+    }
+
+    // Spread the times of the interior waypoints evenly over the distance between the end points
+    private static LocationBlock retime(LocationBlock b) {
+        int n = b.size();
+        if (n < 3)
+            return b;
+        double[] along = new double[n];
+        for (int i = 1; i < n; i++)
+            along[i] = along[i - 1] + DistanceKernel.distance(b.getLatitude(i - 1), b.getLongitude(i - 1),
+                    b.getLatitude(i), b.getLongitude(i));
+        double start = b.getTimestamp(0);
+        double duration = b.getTimestamp(n - 1) - start;
+        for (int i = 1; i < n - 1; i++) {
+            double t = along[n - 1] > 0 ? start + duration * along[i] / along[n - 1] : start;
+            b.set(i, t, b.getLatitude(i), b.getLongitude(i), -1, -1, b.getTzOffset_ms(i));
+        }
+        return b;
+    }
+}
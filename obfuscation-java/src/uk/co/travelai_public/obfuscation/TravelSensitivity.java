@@ -1,17 +1,19 @@
 package uk.co.travelai_public.obfuscation;
 
+import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
-import uk.co.travelai_public.model.HERE.HERELinkFunctionalClass;
-import uk.co.travelai_public.model.HERE.HERESpeedCategory;
-import uk.co.travelai_public.model.Location;
+import lombok.Setter;
 import uk.co.travelai_public.model.TransportMode;
 import uk.co.travelai_public.model.place.Place;
 import uk.co.travelai_public.model.travel.Leg;
 import uk.co.travelai_public.model.travel.PedestrianStop;
 import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.profiling.LegSensitivityEvent;
+import uk.co.travelai_public.profiling.RouteSensitivityEvent;
 import uk.co.travelai_public.tools.GeoMetrics;
 import uk.co.travelai_public.tools.Tools;
+import uk.co.travelai_public.tools.TrajectorySimplifier;
 
 import java.time.DayOfWeek;
 import java.time.ZonedDateTime;
@@ -24,14 +26,25 @@ import java.util.List;
  * Date: 15.2.2020
  */
 
+@Getter
+@Setter
 @NoArgsConstructor
 public class TravelSensitivity {
 
+    // Index of near-duplicate legs within one run; null to extract features of every leg
+    private RouteSimilarityIndex similarityIndex = new RouteSimilarityIndex();
+
+    // Leg geometrics over waypoints simplified within this fraction of leg distance (see TrajectorySimplifier);
+    // 0 to use every waypoint
+    private double simplificationError = 0;
+    private double simplificationTolerance = TrajectorySimplifier.DEFAULT_TOLERANCE;
 
     /**
      * Estimate Route sensitivity
      */
     public void run(List<Route> routes) {
+        if (similarityIndex != null)
+            similarityIndex.clear();
         for (Route r: routes) {
             estimateRouteSensitivity(r);
         }
@@ -45,6 +58,8 @@ public class TravelSensitivity {
      */
     public void estimateRouteSensitivity(@NonNull Route r) {
 
+        RouteSensitivityEvent routeEvent = RouteSensitivityEvent.start();
+
         Place startPlace = r.getStartPlace();
         Place endPlace = r.getEndPlace();
 
@@ -59,13 +74,20 @@ public class TravelSensitivity {
 
         if (r.getMatchedLegs() == null) {
             r.setPrivacyCategory(PrivacyCategory.UNKNOWN);
+            finish(routeEvent, r);
             return;
         }
 
         Leg prevLeg = null;
         Leg nextLeg = null;
+        LegSensitivityEvent legEvent = null;
         for (int i = 0; i < r.getMatchedLegs().size(); i++) {
 
+            // Legs are left with continue, so the event of the previous leg ends here
+            if (legEvent != null)
+                finish(legEvent, r, r.getMatchedLegs().get(i - 1));
+            legEvent = LegSensitivityEvent.start();
+
             Leg leg = r.getMatchedLegs().get(i);
 
             ZonedDateTime startDate = Tools.epoch2ZonedDateTime(leg.getStartTime(), leg.getOriginTZOffset());
@@ -121,7 +143,15 @@ public class TravelSensitivity {
                 continue;
             }
 
-            GeoMetrics geoMetrics = Tools.getGeometrics(leg.getLegLocs(), false);
+            // Single pass over the leg waypoints; pages of the location source are released as they are consumed.
+            // Near-duplicates of earlier legs reuse their geometrics.
+            TrajectorySimplifier simplifier = simplificationError > 0
+                    ? new TrajectorySimplifier(simplificationError, simplificationTolerance) : null;
+            LegFeatures features = similarityIndex != null ? LegFeatures.extract(leg, simplifier, similarityIndex)
+                    : LegFeatures.extract(leg, simplifier);
+            GeoMetrics geoMetrics = features.getGeoMetrics();
+            if (leg.getPedestrianStops() == null && features.getPedestrianStops() != null)
+                leg.setPedestrianStops(features.getPedestrianStops());
 
             // Handle walking/run legs
             if (leg.getMode().equals(TransportMode.walk) || leg.getMode().equals(TransportMode.run)) {
@@ -156,7 +186,12 @@ public class TravelSensitivity {
 
                 // Pedestrian stops score [0.0 - 1.0]
                 double pedestrianStopsScore = 0;
-                for (PedestrianStop ps: leg.getPedestrianStops()) {
+                List<PedestrianStop> pedestrianStops = leg.getPedestrianStops();
+                if (pedestrianStops == null)
+                    pedestrianStops = features.getPedestrianStops();
+                if (pedestrianStops == null)
+                    pedestrianStops = List.of();
+                for (PedestrianStop ps: pedestrianStops) {
                     if (ps.getDuration() > 60)
                         pedestrianStopsScore += 0.2;
                     if (ps.getDuration() > 300)
@@ -216,7 +251,7 @@ public class TravelSensitivity {
             // Handle private automotive (car, motorcycle, taxi, lowkinemacy) legs
             if (TransportMode.isPrivateAutomotive(leg.getMode())) {
 
-                if (leg.getLegLocs() == null || leg.getLegLocs().isEmpty()) {
+                if (features.isEmpty()) {
                     leg.setPrivacyCategory(PrivacyCategory.UNKNOWN);
                     continue;
                 }
@@ -237,43 +272,8 @@ public class TravelSensitivity {
                 }
 
                 // Location extraDetails score
-                double sumFC = 0;
-                double sumSC = 0;
-                int nPrivate     = 0;
-                int nPaved       = 0;
-
-                int nLocsWithExtras = 0;
-                int nFC = 0;
-                int nSC = 0;
-                for (Location l: leg.getLegLocs()) {
-                    if (l.getExtraDetails() != null) {
-
-                        if (l.getExtraDetails().getFunctionalClass().ordinal() > 0) {
-                            HERELinkFunctionalClass fc = l.getExtraDetails().getFunctionalClass();
-                            sumFC += fc.ordinal();
-                            nFC++;
-                        }
-
-                        if (l.getExtraDetails().getSpeedCategory().ordinal() > 0) {
-                            HERESpeedCategory sc = l.getExtraDetails().getSpeedCategory();
-                            sumSC += sc.ordinal();
-                            nSC++;
-                        }
-
-                        boolean isPaved = l.getExtraDetails().isPaved();
-                        boolean isPrivate = l.getExtraDetails().isPrivateRoad();
-
-                        if (isPrivate)
-                            nPrivate++;
-                        if (isPaved)
-                            nPaved++;
-
-                        nLocsWithExtras++;
-                    }
-                }
-
-                double averageSC = sumSC / (nSC * 1.0);
-                double averageFC = sumFC / (nFC * 1.0);
+                double averageSC = features.getAverageSC();
+                double averageFC = features.getAverageFC();
 
                 // Sensitivity for FCs 1-3=0, 3-5 = 0 - 1.0
                 double roadFCScore = Math.min(1, Math.max(0, (averageFC - 3) / 2));
@@ -282,7 +282,7 @@ public class TravelSensitivity {
                 double roadSCScore = Math.min(1, Math.max(0, (averageSC - 5) / 3));
 
                 // Private roads, 0-5% = 0, 5-15% = 0 - 1.0
-                double privateRatio = nPrivate / (nLocsWithExtras * 1.0);
+                double privateRatio = features.getPrivateRatio();
                 double privateRoadScore = Math.min(1, Math.max(0, (privateRatio - 0.05) / 0.1));
 
                 // Paved roads not used for now
@@ -341,7 +341,7 @@ public class TravelSensitivity {
             // Handle bike legs
             if (leg.getMode().equals(TransportMode.bicycle)) {
 
-                if (leg.getLegLocs() == null || leg.getLegLocs().isEmpty()) {
+                if (features.isEmpty()) {
                     leg.setPrivacyCategory(PrivacyCategory.UNKNOWN);
                     continue;
                 }
@@ -362,43 +362,8 @@ public class TravelSensitivity {
                 }
 
                 // Location extraDetails score
-                double sumFC = 0;
-                double sumSC = 0;
-                int nPrivate = 0;
-                int nPaved   = 0;
-
-                int nLocsWithExtras = 0;
-                int nFC = 0;
-                int nSC = 0;
-                for (Location l: leg.getLegLocs()) {
-                    if (l.getExtraDetails() != null) {
-
-                        if (l.getExtraDetails().getFunctionalClass().ordinal() > 0) {
-                            HERELinkFunctionalClass fc = l.getExtraDetails().getFunctionalClass();
-                            sumFC += fc.ordinal();
-                            nFC++;
-                        }
-
-                        if (l.getExtraDetails().getSpeedCategory().ordinal() > 0) {
-                            HERESpeedCategory sc = l.getExtraDetails().getSpeedCategory();
-                            sumSC += sc.ordinal();
-                            nSC++;
-                        }
-
-                        boolean isPaved = l.getExtraDetails().isPaved();
-                        boolean isPrivate = l.getExtraDetails().isPrivateRoad();
-
-                        if (isPrivate)
-                            nPrivate++;
-                        if (isPaved)
-                            nPaved++;
-
-                        nLocsWithExtras++;
-                    }
-                }
-
-                double averageSC = sumSC / (nSC * 1.0);
-                double averageFC = sumFC / (nFC * 1.0);
+                double averageSC = features.getAverageSC();
+                double averageFC = features.getAverageFC();
 
                 // Sensitivity for FCs 1-4=0, 5 = 0.5
                 double roadFCScore = Math.min(1, Math.max(0, (averageFC - 4) / 2));
@@ -407,7 +372,7 @@ public class TravelSensitivity {
                 double roadSCScore = Math.min(1, Math.max(0, (averageSC - 6) / 2));
 
                 // Private roads, 0-5% = 0, 5-15% = 0 - 1.0
-                double privateRatio = nPrivate / (nLocsWithExtras * 1.0);
+                double privateRatio = features.getPrivateRatio();
                 double privateRoadScore = Math.min(1, Math.max(0, (privateRatio - 0.05) / 0.1));
 
                 // Base privacy for private bike legs
@@ -458,5 +423,17 @@ public class TravelSensitivity {
                 leg.setPrivacyCategoryFactors(debug);
             }
         }
+        if (legEvent != null)
+            finish(legEvent, r, r.getMatchedLegs().get(r.getMatchedLegs().size() - 1));
+        finish(routeEvent, r);
+    }
+
+    private static void finish(RouteSensitivityEvent event, Route r) {
+        RouteSensitivityEvent.finish(event, r.getUid(), r.getMatchedLegs() != null ? r.getMatchedLegs().size() : 0);
+    }
+
+    private static void finish(LegSensitivityEvent event, Route r, Leg leg) {
+        LegSensitivityEvent.finish(event, leg.getUid(), r.getUid(), leg.getMode(), leg.getLocationSource().size(),
+                leg.getPrivacyCategory());
     }
 }
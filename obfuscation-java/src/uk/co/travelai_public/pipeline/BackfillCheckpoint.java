@@ -0,0 +1,102 @@
+package uk.co.travelai_public.pipeline;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Progress of the backfill of one user: the partitioning of its history, the next partition to process and the
+ * {@link PlaceState}s after the last completed partition
+ */
+
+@Getter
+@Setter
+public class BackfillCheckpoint {
+
+    private static final int MAGIC = 0x4F424246;
+    private static final int VERSION = 2;  // 1: 32-bit place uids
+
+    private String installationId;
+    private double historyStart;
+    private double historyEnd;
+    private long partitionMillis;
+    private int nextPartition;
+
+    // Earliest dwell start seen so far as epoch milliseconds; -1 if none
+    private double observationStart = -1;
+
+    private Map<Long, PlaceState> placeStates = new HashMap<>();
+
+    /**
+     * @return boolean indicating whether the checkpoint was made with the same partitioning
+     */
+    public boolean matches(double historyStart, double historyEnd, long partitionMillis) {
+        return this.historyStart == historyStart && this.historyEnd == historyEnd
+                && this.partitionMillis == partitionMillis;
+    }
+
+    /**
+     * Write checkpoint to input file, replacing it atomically
+     */
+    public void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling("." + file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(installationId);
+            out.writeDouble(historyStart);
+            out.writeDouble(historyEnd);
+            out.writeLong(partitionMillis);
+            out.writeInt(nextPartition);
+            out.writeDouble(observationStart);
+            out.writeInt(placeStates.size());
+            for (Map.Entry<Long, PlaceState> e : placeStates.entrySet()) {
+                out.writeLong(e.getKey());
+                e.getValue().write(out);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read checkpoint from input file
+     *
+     * @return checkpoint; null if the file does not exist
+     */
+    public static BackfillCheckpoint read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a backfill checkpoint: " + file);
+            int version = in.readInt();
+            if (version != VERSION && version != 1)
+                throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+
+            BackfillCheckpoint c = new BackfillCheckpoint();
+            c.installationId = in.readUTF();
+            c.historyStart = in.readDouble();
+            c.historyEnd = in.readDouble();
+            c.partitionMillis = in.readLong();
+            c.nextPartition = in.readInt();
+            c.observationStart = in.readDouble();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                long uid = version >= 2 ? in.readLong() : in.readInt();
+                c.placeStates.put(uid, PlaceState.read(in));
+            }
+            return c;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
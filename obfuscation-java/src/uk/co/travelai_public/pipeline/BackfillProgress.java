@@ -0,0 +1,32 @@
+package uk.co.travelai_public.pipeline;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Progress of a backfill run, reported after each completed partition
+ */
+
+@Getter
+@AllArgsConstructor
+public class BackfillProgress {
+
+    private final String installationId;
+    private final int partition;
+    private final int nPartitions;
+
+    // Partitions over all users of the run
+    private final long partitionsDone;
+    private final long partitionsTotal;
+
+    // Mean wall-clock time of the partitions processed in this run, and estimated time to finish
+    private final double meanPartitionMillis;
+    private final long etaMillis;
+
+    @Override
+    public String toString() {
+        return "{ user: " + installationId + ", partition: " + (partition + 1) + "/" + nPartitions
+                + ", total: " + partitionsDone + "/" + partitionsTotal
+                + ", eta: " + (etaMillis / 1000) + " s }";
+    }
+}
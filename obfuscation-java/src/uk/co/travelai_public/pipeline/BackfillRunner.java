@@ -0,0 +1,226 @@
+package uk.co.travelai_public.pipeline;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import uk.co.travelai_public.model.TimeConstants;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.obfuscation.KAnonymityCounters;
+import uk.co.travelai_public.obfuscation.PlaceObfuscation;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Backfill of the history of users in time partitions.
+ * <p>
+ * The history [historyStart, historyEnd) of each user is split into partitions of partitionMillis, which are loaded,
+ * processed with the {@link ObfuscationPipeline} and written to the sink one at a time, so that memory is bounded by
+ * the largest partition. Each dwell and route belongs to the partition it starts in, also when it ends in a later one.
+ * {@link PlaceState}s carry the dwell history of each place from one partition to the next.
+ * <p>
+ * After each partition a {@link BackfillCheckpoint} is written per user; a restarted run resumes every user from its
+ * last completed partition. A partition may be written to the sink twice if the run stops between writing it and
+ * checkpointing, so the sink should replace earlier output of the same partition.
+ * <p>
+ * The loader is hinted with the partition to be processed next, the next partition of the user or the first pending
+ * partition of the next user, so that a {@link PrefetchingUserDataLoader} loads it while the current one is processed.
+ * <p>
+ * With a k-anonymity file set, {@link #run(Collection, double, double)} first counts the places of the users into the
+ * {@link KAnonymityCounters} of the file with {@link KAnonymityCounting}, and obfuscates with the updated counters.
+ * Users with a checkpoint were counted before the run that started them processed any user, and are not counted
+ * again. In sharded runs the workers should not share a file; count with a {@link KAnonymityCounting} per worker
+ * instead and set the merged counters on the {@link PlaceObfuscation} of the pipeline.
+ */
+
+@Getter
+@Setter
+public class BackfillRunner {
+
+    public static final long WEEK_MS = TimeConstants.DAYS_PER_WEEK * TimeConstants.DAY_MS;
+
+    private final UserDataLoader loader;
+    private final UserDataSink sink;
+    private final Path checkpointDir;
+
+    private ObfuscationPipeline pipeline = new ObfuscationPipeline();
+    private long partitionMillis = WEEK_MS;
+    private Consumer<BackfillProgress> progressListener;
+
+    // Population counters, updated with the users of each run; null for no k-anonymity across users
+    private Path kAnonymityFile;
+
+    // Progress of the current run
+    @Setter(AccessLevel.NONE) private long partitionsDone;
+    @Setter(AccessLevel.NONE) private long partitionsTotal;
+    @Setter(AccessLevel.NONE) private long partitionsTimed;
+    @Setter(AccessLevel.NONE) private long partitionNanos;
+
+    public BackfillRunner(UserDataLoader loader, UserDataSink sink, Path checkpointDir) throws IOException {
+        this.loader = loader;
+        this.sink = sink;
+        this.checkpointDir = Files.createDirectories(checkpointDir);
+    }
+
+    /**
+     * @return number of partitions in input history
+     */
+    public int nPartitions(double historyStart, double historyEnd) {
+        if (historyEnd <= historyStart)
+            return 0;
+        return (int) Math.ceil((historyEnd - historyStart) / partitionMillis);
+    }
+
+    /**
+     * Backfill input users one after the other
+     */
+    public void run(@NonNull Collection<String> installationIds, double historyStart, double historyEnd)
+            throws IOException {
+        int nPartitions = nPartitions(historyStart, historyEnd);
+        partitionsTotal = (long) nPartitions * installationIds.size();
+        partitionsDone = 0;
+        partitionsTimed = 0;
+        partitionNanos = 0;
+
+        for (String id : installationIds) {
+            BackfillCheckpoint c = BackfillCheckpoint.read(checkpointFile(id));
+            if (c != null && c.matches(historyStart, historyEnd, partitionMillis))
+                partitionsDone += c.getNextPartition();
+        }
+
+        if (kAnonymityFile != null)
+            countPlaces(installationIds, historyStart, historyEnd);
+
+        Iterator<String> it = installationIds.iterator();
+        String next = it.hasNext() ? it.next() : null;
+        while (next != null) {
+            String id = next;
+            next = it.hasNext() ? it.next() : null;
+            runUser(id, historyStart, historyEnd, next);
+        }
+    }
+
+    // Counting pass over the users not started yet
+    private void countPlaces(Collection<String> installationIds, double historyStart, double historyEnd)
+            throws IOException {
+        KAnonymityCounters counters = KAnonymityCounters.read(kAnonymityFile);
+        if (counters == null)
+            counters = new KAnonymityCounters();
+        List<String> uncounted = new ArrayList<>();
+        for (String id : installationIds)
+            if (!Files.exists(checkpointFile(id)))
+                uncounted.add(id);
+        if (!uncounted.isEmpty()) {
+            KAnonymityCounting counting = new KAnonymityCounting(loader);
+            counting.setPartitionMillis(partitionMillis);
+            counting.setProtectedAreaLookup(pipeline.getProtectedAreaLookup());
+            counting.count(uncounted, historyStart, historyEnd, counters);
+            counters.write(kAnonymityFile);
+        }
+        pipeline.getPlaceObfuscation().setKAnonymityCounters(counters);
+    }
+
+    /**
+     * Backfill a single user, resuming from its checkpoint if there is one
+     */
+    public void runUser(@NonNull String installationId, double historyStart, double historyEnd) throws IOException {
+        runUser(installationId, historyStart, historyEnd, null);
+    }
+
+    private void runUser(String installationId, double historyStart, double historyEnd, String nextInstallationId)
+            throws IOException {
+        Path file = checkpointFile(installationId);
+        BackfillCheckpoint c = BackfillCheckpoint.read(file);
+        if (c != null && !c.matches(historyStart, historyEnd, partitionMillis))
+            throw new IllegalStateException("Checkpoint of " + installationId + " was made with a different "
+                    + "partitioning; remove " + file + " to restart");
+        if (c == null) {
+            c = new BackfillCheckpoint();
+            c.setInstallationId(installationId);
+            c.setHistoryStart(historyStart);
+            c.setHistoryEnd(historyEnd);
+            c.setPartitionMillis(partitionMillis);
+        }
+
+        int nPartitions = nPartitions(historyStart, historyEnd);
+        for (int k = c.getNextPartition(); k < nPartitions; k++) {
+            long t0 = System.nanoTime();
+
+            double start = historyStart + (double) k * partitionMillis;
+            double end = Math.min(historyEnd, start + partitionMillis);
+            UserData data = loader.load(installationId, start, end);
+            if (k + 1 < nPartitions)
+                prefetch(installationId, historyStart, historyEnd, k + 1);
+            else if (nextInstallationId != null)
+                prefetchFirstPending(nextInstallationId, historyStart, historyEnd);
+
+            // Observation period of the user starts from its first dwell
+            for (Place p : data.getPlaces()) {
+                if (p.getDwells() == null)
+                    continue;
+                for (Dwell d : p.getDwells()) {
+                    double ts = d.getStartTime();
+                    if (ts >= 0 && (c.getObservationStart() < 0 || ts < c.getObservationStart()))
+                        c.setObservationStart(ts);
+                }
+            }
+            double observationStart = c.getObservationStart() >= 0 ? c.getObservationStart() : start;
+
+            try {
+                pipeline.run(data, c.getPlaceStates(), observationStart, end);
+                sink.write(data);
+            } finally {
+                data.releaseWaypoints();
+            }
+
+            c.setNextPartition(k + 1);
+            c.write(file);
+
+            partitionNanos += System.nanoTime() - t0;
+            partitionsTimed++;
+            partitionsDone++;
+            report(installationId, k, nPartitions);
+        }
+    }
+
+    private void prefetchFirstPending(String installationId, double historyStart, double historyEnd)
+            throws IOException {
+        BackfillCheckpoint c = BackfillCheckpoint.read(checkpointFile(installationId));
+        int k = c != null && c.matches(historyStart, historyEnd, partitionMillis) ? c.getNextPartition() : 0;
+        if (k < nPartitions(historyStart, historyEnd))
+            prefetch(installationId, historyStart, historyEnd, k);
+    }
+
+    // Window of partition k as loaded by runUser
+    private void prefetch(String installationId, double historyStart, double historyEnd, int k) {
+        double start = historyStart + (double) k * partitionMillis;
+        loader.prefetch(installationId, start, Math.min(historyEnd, start + partitionMillis));
+    }
+
+    private void report(String installationId, int partition, int nPartitions) {
+        if (progressListener == null)
+            return;
+        // Users run through runUser alone are not counted in partitionsTotal
+        long total = Math.max(partitionsTotal, partitionsDone);
+        double mean = partitionNanos / 1e6 / partitionsTimed;
+        progressListener.accept(new BackfillProgress(installationId, partition, nPartitions, partitionsDone, total,
+                mean, (long) (mean * (total - partitionsDone))));
+    }
+
+    /**
+     * @return checkpoint file of input user
+     */
+    public Path checkpointFile(String installationId) {
+        return checkpointDir.resolve(URLEncoder.encode(installationId, StandardCharsets.UTF_8) + ".ckpt");
+    }
+}
@@ -0,0 +1,224 @@
+package uk.co.travelai_public.pipeline;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.place.PlaceType;
+import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.obfuscation.KAnonymityCounters;
+import uk.co.travelai_public.obfuscation.PrivacyCategory;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Incremental processing of users: only data newer than the stored watermark of a user is loaded and processed.
+ * <p>
+ * Dwells and routes are loaded by start time, as specified by {@link UserDataLoader}. The watermark is held back to
+ * the start of the earliest dwell or route still open at the end of a run, as reported by
+ * {@link IncrementalUserDataLoader#completeUntil(String, double)}, so that it is loaded by a later run once complete.
+ * <p>
+ * For each user, the places with new dwells are updated from their stored {@link PlaceState}s and re-scored. New
+ * routes are scored, and earlier routes are re-scored only if the privacy category of their start or end place
+ * changed. The sink receives only the re-scored places and routes; all other stored results remain valid. The
+ * {@link DeltaState} of the user, holding the watermark, place states and place results, is replaced atomically
+ * after the sink has been written, so a failed run is repeated from the same watermark.
+ * <p>
+ * With a k-anonymity file set, {@link #run(Collection, double)} first adds the places of the new data of all users
+ * to the {@link KAnonymityCounters} of the file, e.g. as written by a {@link BackfillRunner}, and obfuscates with the
+ * updated counters.
+ */
+
+@Getter
+@Setter
+public class DeltaRunner {
+
+    private final IncrementalUserDataLoader loader;
+    private final UserDataSink sink;
+    private final Path stateDir;
+
+    private ObfuscationPipeline pipeline = new ObfuscationPipeline();
+
+    // Start of the history of users without stored state; epoch milliseconds
+    private double initialWatermark = 0;
+
+    // Population counters, updated with the new data of each run; null for no k-anonymity across users
+    private Path kAnonymityFile;
+
+    // Counts of the last run, for monitoring
+    @Setter(AccessLevel.NONE) private int nPlacesUpdated;
+    @Setter(AccessLevel.NONE) private int nPlacesChanged;
+    @Setter(AccessLevel.NONE) private int nRoutesNew;
+    @Setter(AccessLevel.NONE) private int nRoutesRescored;
+
+    public DeltaRunner(IncrementalUserDataLoader loader, UserDataSink sink, Path stateDir) throws IOException {
+        this.loader = loader;
+        this.sink = sink;
+        this.stateDir = Files.createDirectories(stateDir);
+    }
+
+    /**
+     * Process data of input users from their watermarks up to input time
+     *
+     * @param untilTs new watermark as epoch milliseconds, unless held back by open dwells or routes
+     */
+    public void run(@NonNull Collection<String> installationIds, double untilTs) throws IOException {
+        if (kAnonymityFile != null)
+            countPlaces(installationIds, untilTs);
+        for (String id : installationIds)
+            runUser(id, untilTs);
+    }
+
+    // Counting pass over the new data of the users
+    private void countPlaces(Collection<String> installationIds, double untilTs) throws IOException {
+        KAnonymityCounters counters = KAnonymityCounters.read(kAnonymityFile);
+        if (counters == null)
+            counters = new KAnonymityCounters();
+        for (String id : installationIds) {
+            DeltaState state = readState(id);
+            UserData data = loader.load(id, state.getWatermark(), loadUntil(id, state, untilTs));
+            try {
+                pipeline.getProtectedAreaLookup().run(data.getPlaces());
+                counters.add(id, data.getPlaces());
+            } finally {
+                data.releaseWaypoints();
+            }
+        }
+        counters.write(kAnonymityFile);
+        pipeline.getPlaceObfuscation().setKAnonymityCounters(counters);
+    }
+
+    /**
+     * Process data of input user from its watermark up to input time
+     *
+     * @param untilTs new watermark as epoch milliseconds, unless held back by open dwells or routes
+     * @return places and routes that were (re-)scored, as written to the sink
+     */
+    public UserData runUser(@NonNull String installationId, double untilTs) throws IOException {
+        Path file = stateFile(installationId);
+        DeltaState state = readState(installationId);
+        double loadUntil = loadUntil(installationId, state, untilTs);
+        UserData data = loader.load(installationId, state.getWatermark(), loadUntil);
+
+        for (Place p : data.getPlaces()) {
+            if (p.getDwells() == null)
+                continue;
+            for (Dwell d : p.getDwells()) {
+                double ts = d.getStartTime();
+                if (ts >= 0 && (state.getObservationStart() < 0 || ts < state.getObservationStart()))
+                    state.setObservationStart(ts);
+            }
+        }
+        double observationStart = state.getObservationStart() >= 0 ? state.getObservationStart() : loadUntil;
+
+        // Update and re-score places with new dwells; home and work are labelled again from all places of the user
+        Map<Long, PlaceType> types = pipeline.runPlaces(data, state.getPlaceStates(), observationStart, loadUntil);
+
+        Map<Long, Place> places = new HashMap<>();
+        Set<Long> changed = new HashSet<>();
+        for (Place p : data.getPlaces()) {
+            places.put(p.getUid(), p);
+            if (p.getPrivacyCategory() != state.getPlaceCategories().get(p.getUid()))
+                changed.add(p.getUid());
+        }
+
+        // New routes, and earlier routes of places whose category changed
+        List<Route> routes = new ArrayList<>(data.getRoutes());
+        Set<Long> routeIds = new HashSet<>();
+        for (Route r : routes)
+            routeIds.add(r.getUid());
+        nRoutesNew = routes.size();
+
+        if (!changed.isEmpty()) {
+            for (Route r : loader.loadRoutesOfPlaces(installationId, changed, state.getWatermark())) {
+                if (routeIds.add(r.getUid())) {
+                    routes.add(r);
+                    if (r.getMatchedLegs() != null)
+                        data.getLegs().addAll(r.getMatchedLegs());
+                }
+            }
+        }
+        nRoutesRescored = routes.size() - nRoutesNew;
+
+        // Start and end places not updated in this run keep their stored category, and are given their protected
+        // areas for trimming
+        Set<Place> ends = new LinkedHashSet<>();
+        for (Route r : routes) {
+            r.setStartPlace(resolve(r.getStartPlace(), places, state));
+            r.setEndPlace(resolve(r.getEndPlace(), places, state));
+            if (r.getStartPlace() != null)
+                ends.add(r.getStartPlace());
+            if (r.getEndPlace() != null)
+                ends.add(r.getEndPlace());
+        }
+        pipeline.lookUpProtectedAreas(new ArrayList<>(ends), installationId);
+        pipeline.runTravels(routes);
+        data.setRoutes(routes);
+
+        try {
+            sink.write(data);
+        } finally {
+            data.releaseWaypoints();
+        }
+
+        for (Place p : data.getPlaces())
+            state.getPlaceCategories().put(p.getUid(), p.getPrivacyCategory());
+        // Places not loaded in this run lose a type labelled to another place since
+        state.getPlaceTypes().clear();
+        state.getPlaceTypes().putAll(types);
+        state.setWatermark(loadUntil);
+        state.write(file);
+
+        nPlacesUpdated = data.getPlaces().size();
+        nPlacesChanged = changed.size();
+        return data;
+    }
+
+    private DeltaState readState(String installationId) throws IOException {
+        DeltaState state = DeltaState.read(stateFile(installationId));
+        if (state == null) {
+            state = new DeltaState();
+            state.setInstallationId(installationId);
+            state.setWatermark(initialWatermark);
+        }
+        return state;
+    }
+
+    // End of the data of the user that is loaded in this run
+    private double loadUntil(String installationId, DeltaState state, double untilTs) throws IOException {
+        return Math.max(state.getWatermark(), Math.min(untilTs, loader.completeUntil(installationId, untilTs)));
+    }
+
+    private static Place resolve(Place p, Map<Long, Place> places, DeltaState state) {
+        if (p == null)
+            return null;
+        Place updated = places.get(p.getUid());
+        if (updated != null)
+            return updated;
+        PrivacyCategory stored = state.getPlaceCategories().get(p.getUid());
+        if (stored != null)
+            p.setPrivacyCategory(stored);
+        return p;
+    }
+
+    /**
+     * @return state file of input user
+     */
+    public Path stateFile(String installationId) {
+        return stateDir.resolve(URLEncoder.encode(installationId, StandardCharsets.UTF_8) + ".delta");
+    }
+}
@@ -0,0 +1,102 @@
+package uk.co.travelai_public.pipeline;
+
+import lombok.Getter;
+import lombok.Setter;
+import uk.co.travelai_public.model.place.PlaceType;
+import uk.co.travelai_public.obfuscation.PrivacyCategory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stored state of the incremental processing of one user: the watermark up to which data has been processed, the
+ * {@link PlaceState}s of its places and the last results of each place
+ */
+
+@Getter
+@Setter
+public class DeltaState {
+
+    private static final int MAGIC = 0x4F424453;
+    private static final int VERSION = 2;  // 1: 32-bit place uids
+
+    private String installationId;
+
+    // Data starting before the watermark has been processed; epoch milliseconds
+    private double watermark = -1;
+
+    // Earliest dwell start seen so far as epoch milliseconds; -1 if none
+    private double observationStart = -1;
+
+    private Map<Long, PlaceState> placeStates = new HashMap<>();
+    private Map<Long, PrivacyCategory> placeCategories = new HashMap<>();
+    private Map<Long, PlaceType> placeTypes = new HashMap<>();
+
+    /**
+     * Write state to input file, replacing it atomically
+     */
+    public void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling("." + file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(installationId);
+            out.writeDouble(watermark);
+            out.writeDouble(observationStart);
+            out.writeInt(placeStates.size());
+            for (Map.Entry<Long, PlaceState> e : placeStates.entrySet()) {
+                long uid = e.getKey();
+                PrivacyCategory category = placeCategories.get(uid);
+                PlaceType type = placeTypes.get(uid);
+                out.writeLong(uid);
+                out.writeByte(category != null ? category.ordinal() : -1);
+                out.writeByte(type != null ? type.ordinal() : -1);
+                e.getValue().write(out);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read state from input file
+     *
+     * @return state; null if the file does not exist
+     */
+    public static DeltaState read(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a delta state file: " + file);
+            int version = in.readInt();
+            if (version != VERSION && version != 1)
+                throw new IOException("Unsupported delta state version " + version + ": " + file);
+
+            DeltaState s = new DeltaState();
+            s.installationId = in.readUTF();
+            s.watermark = in.readDouble();
+            s.observationStart = in.readDouble();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                long uid = version >= 2 ? in.readLong() : in.readInt();
+                byte category = in.readByte();
+                byte type = in.readByte();
+                if (category >= 0)
+                    s.placeCategories.put(uid, PrivacyCategory.values()[category]);
+                if (type >= 0)
+                    s.placeTypes.put(uid, PlaceType.values()[type]);
+                s.placeStates.put(uid, PlaceState.read(in));
+            }
+            return s;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
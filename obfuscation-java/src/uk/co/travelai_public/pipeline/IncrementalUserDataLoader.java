@@ -0,0 +1,30 @@
+package uk.co.travelai_public.pipeline;
+
+import uk.co.travelai_public.model.travel.Route;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * {@link UserDataLoader} that can also load earlier routes of a user by place, as needed by {@link DeltaRunner}
+ */
+
+public interface IncrementalUserDataLoader extends UserDataLoader {
+
+    /**
+     * Load routes of input user that start before endTs and start or end at any of input places, with their matched
+     * legs and waypoints. Start and end places of the routes only need their uid set.
+     */
+    List<Route> loadRoutesOfPlaces(String installationId, Collection<Long> placeUids, double endTs)
+            throws IOException;
+
+    /**
+     * @return time up to which the data of input user is complete, at most untilTs: the start of the earliest dwell or
+     * route that is still open at untilTs, i.e. not yet stored with its end, or untilTs if there is none
+     */
+    default double completeUntil(String installationId, double untilTs) throws IOException {
+        return untilTs;
+    }
+
+}
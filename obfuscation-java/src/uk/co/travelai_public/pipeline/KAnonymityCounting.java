@@ -0,0 +1,93 @@
+package uk.co.travelai_public.pipeline;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import uk.co.travelai_public.io.boundary.ProtectedAreaLookup;
+import uk.co.travelai_public.obfuscation.KAnonymityCounters;
+import uk.co.travelai_public.obfuscation.PlaceObfuscation;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * Counting pass of the places of users into {@link KAnonymityCounters}, run over all users before any of them is
+ * obfuscated, so that {@link PlaceObfuscation} decides on the counts of the whole population.
+ * <p>
+ * The history of each user is loaded in partitions of partitionMillis, as by {@link BackfillRunner}, and only its
+ * places are counted, by geohash cell and by the output area looked up by protectedAreaLookup, which should be that of
+ * the pipeline. Adding an installation again does not change the counts, so a pass may be repeated, e.g. after
+ * a restart, and counters of separate workers are combined by {@link #merge(Path)}.
+ */
+
+@Getter
+@Setter
+public class KAnonymityCounting {
+
+    // Suffix of counter files, as merged by merge(Path)
+    public static final String SUFFIX = ".kac";
+
+    private final UserDataLoader loader;
+
+    private long partitionMillis = BackfillRunner.WEEK_MS;
+    private ProtectedAreaLookup protectedAreaLookup = new ProtectedAreaLookup();
+
+    public KAnonymityCounting(UserDataLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Count the places of input users within [startTs, endTs) into input counters
+     *
+     * @return input counters
+     */
+    public KAnonymityCounters count(@NonNull Collection<String> installationIds, double startTs, double endTs,
+                                    @NonNull KAnonymityCounters counters) throws IOException {
+        for (String id : installationIds)
+            count(id, startTs, endTs, counters);
+        return counters;
+    }
+
+    /**
+     * Count the places of input user within [startTs, endTs) into input counters
+     *
+     * @return input counters
+     */
+    public KAnonymityCounters count(@NonNull String installationId, double startTs, double endTs,
+                                    @NonNull KAnonymityCounters counters) throws IOException {
+        for (double start = startTs; start < endTs; start += partitionMillis) {
+            UserData data = loader.load(installationId, start, Math.min(endTs, start + partitionMillis));
+            try {
+                protectedAreaLookup.run(data.getPlaces());
+                counters.add(installationId, data.getPlaces());
+            } finally {
+                data.releaseWaypoints();
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * Merge the counter files in input directory, e.g. written by separate workers
+     *
+     * @return merged counters; null if there are none
+     */
+    public static KAnonymityCounters merge(Path dir) throws IOException {
+        KAnonymityCounters merged = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path f : files) {
+                KAnonymityCounters c = KAnonymityCounters.read(f);
+                if (c == null)
+                    continue;
+                if (merged == null)
+                    merged = c;
+                else
+                    merged.merge(c);
+            }
+        }
+        return merged;
+    }
+}
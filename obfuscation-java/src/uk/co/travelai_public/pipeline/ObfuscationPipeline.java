@@ -0,0 +1,286 @@
+package uk.co.travelai_public.pipeline;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Setter;
+import uk.co.travelai_public.io.boundary.ProtectedAreaLookup;
+import uk.co.travelai_public.io.text.ExportSink;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.place.PlaceType;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.obfuscation.ObfuscationProfile;
+import uk.co.travelai_public.obfuscation.OccupancySketch;
+import uk.co.travelai_public.obfuscation.POIOpenHoursScoring;
+import uk.co.travelai_public.obfuscation.PlaceObfuscation;
+import uk.co.travelai_public.obfuscation.PlaceSensitivity;
+import uk.co.travelai_public.obfuscation.PlaceTypeLabeller;
+import uk.co.travelai_public.obfuscation.PlaceVisitStatistics;
+import uk.co.travelai_public.obfuscation.PrivacyCategory;
+import uk.co.travelai_public.obfuscation.RouteTrimming;
+import uk.co.travelai_public.obfuscation.TravelObfuscation;
+import uk.co.travelai_public.obfuscation.TravelSensitivity;
+import uk.co.travelai_public.profiling.PipelineStageEvent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Privacy estimation of the places and travels of a single user, in order:
+ * <ol>
+ *     <li>place visit statistics and home/work place types from the dwells of the places</li>
+ *     <li>POI scores weighed by POI opening hours ({@link POIOpenHoursScoring})</li>
+ *     <li>place sensitivity ({@link PlaceSensitivity})</li>
+ *     <li>output areas of the places as their protected areas ({@link ProtectedAreaLookup})</li>
+ *     <li>hiding of sensitive places and dwells ({@link PlaceObfuscation})</li>
+ *     <li>route and leg sensitivity ({@link TravelSensitivity})</li>
+ *     <li>hiding of route waypoints in the protected areas of their end places ({@link RouteTrimming})</li>
+ *     <li>coarsening of the waypoints of sensitive legs ({@link TravelObfuscation})</li>
+ * </ol>
+ * Each stage, and each user as a whole, is recorded as a {@link PipelineStageEvent} when a flight recording is active.
+ * <p>
+ * Several {@link ObfuscationProfile}s can be output in one run: the scoring stages run once, and the obfuscation
+ * stages, from {@link PlaceObfuscation} on, are run again for each profile before writing to the sink of the profile.
+ * Geometrics, scores, protected areas and the waypoints hidden in each protected area are shared by the profiles.
+ */
+
+@Getter
+@Setter
+public class ObfuscationPipeline {
+
+    private PlaceTypeLabeller placeTypeLabeller = new PlaceTypeLabeller();
+    private POIOpenHoursScoring poiOpenHoursScoring = new POIOpenHoursScoring();
+    private PlaceSensitivity placeSensitivity = new PlaceSensitivity();
+    private ProtectedAreaLookup protectedAreaLookup = new ProtectedAreaLookup();
+    private PlaceObfuscation placeObfuscation = new PlaceObfuscation();
+    private TravelSensitivity travelSensitivity = new TravelSensitivity();
+    private RouteTrimming routeTrimming = new RouteTrimming();
+    private TravelObfuscation travelObfuscation = new TravelObfuscation();
+
+    /**
+     * Process input data on its own, using its time window (or the span of its dwells if unbounded) as observation
+     * period
+     */
+    public void run(@NonNull UserData data) {
+        double start = data.getStartTs();
+        double end = data.getEndTs();
+        if (start < 0 || end < 0) {
+            PlaceVisitStatistics span = PlaceVisitStatistics.forPlaces(data.getPlaces());
+            start = span.getObservationStart();
+            end = span.getObservationEnd();
+        }
+        run(data, new HashMap<>(), start, end);
+    }
+
+    /**
+     * Process input data as a continuation of earlier data of the same user.
+     * <p>
+     * The dwells of the places in data are added to states, keyed by place uid, and place statistics and types are
+     * derived from the updated states.
+     *
+     * @param states           summaries of the places of the user so far; updated
+     * @param observationStart start of the observation period of the user as epoch milliseconds
+     * @param observationEnd   end of the observation period of the user as epoch milliseconds
+     */
+    public void run(@NonNull UserData data, @NonNull Map<Long, PlaceState> states, double observationStart,
+                    double observationEnd) {
+        PipelineStageEvent event = PipelineStageEvent.start();
+        runPlaces(data, states, observationStart, observationEnd);
+        runTravels(data.getRoutes(), data.getInstallationId());
+        PipelineStageEvent.finish(event, "user", data.getInstallationId(),
+                data.getPlaces().size() + data.getRoutes().size());
+    }
+
+    /**
+     * Process input data as {@link #run(UserData, Map, double, double)} once for each of input profiles, writing the
+     * data as obfuscated by each profile to its sink. Data is left as obfuscated by the last profile.
+     *
+     * @param outputs sinks by profile, in the order the profiles are run; not flushed
+     */
+    public void run(@NonNull UserData data, @NonNull Map<Long, PlaceState> states, double observationStart,
+                    double observationEnd, @NonNull Map<ObfuscationProfile, ExportSink> outputs) throws IOException {
+        String id = data.getInstallationId();
+        PipelineStageEvent event = PipelineStageEvent.start();
+        scorePlaces(data, states, observationStart, observationEnd);
+        scoreTravels(data.getRoutes(), id);
+
+        // Route trimming may make legs private; each profile starts from the scored categories
+        List<Leg> legs = new ArrayList<>();
+        for (Route r : data.getRoutes())
+            if (r.getMatchedLegs() != null)
+                legs.addAll(r.getMatchedLegs());
+        PrivacyCategory[] legCategories = new PrivacyCategory[legs.size()];
+        for (int i = 0; i < legs.size(); i++)
+            legCategories[i] = legs.get(i).getPrivacyCategory();
+
+        ObfuscationProfile previous = ObfuscationProfile.of("previous", placeObfuscation, travelObfuscation);
+        PrivacyCategory trimThreshold = routeTrimming.getHideThreshold();
+        PrivacyCategory coarsenThreshold = travelObfuscation.getHideThreshold();
+        Map<RouteTrimming.Boundary, Integer> boundaryCache = routeTrimming.getBoundaryCache();
+        routeTrimming.setBoundaryCache(new HashMap<>());
+        try {
+            for (Map.Entry<ObfuscationProfile, ExportSink> e : outputs.entrySet()) {
+                clearObfuscation(data, legs, legCategories);
+                e.getKey().configure(placeObfuscation, routeTrimming, travelObfuscation);
+                obfuscatePlaces(data);
+                obfuscateTravels(data.getRoutes(), id);
+
+                PipelineStageEvent export = PipelineStageEvent.start();
+                e.getValue().setTimeResolution_ms(e.getKey().getTimeResolution_ms());
+                e.getValue().write(data.getPlaces(), data.getRoutes());
+                PipelineStageEvent.finish(export, "export", id, data.getPlaces().size() + data.getRoutes().size());
+            }
+        } finally {
+            previous.configure(placeObfuscation, routeTrimming, travelObfuscation);
+            routeTrimming.setHideThreshold(trimThreshold);
+            travelObfuscation.setHideThreshold(coarsenThreshold);
+            routeTrimming.setBoundaryCache(boundaryCache);
+        }
+        PipelineStageEvent.finish(event, "user", id, data.getPlaces().size() + data.getRoutes().size());
+    }
+
+    /**
+     * Place stages of {@link #run(UserData, Map, double, double)}: statistics, types, POI scores, sensitivity and
+     * obfuscation of the places in data
+     *
+     * @return home and work types by place uid, labelled from all places in states
+     */
+    public Map<Long, PlaceType> runPlaces(@NonNull UserData data, @NonNull Map<Long, PlaceState> states,
+                                          double observationStart, double observationEnd) {
+        Map<Long, PlaceType> types = scorePlaces(data, states, observationStart, observationEnd);
+        obfuscatePlaces(data);
+        return types;
+    }
+
+    private Map<Long, PlaceType> scorePlaces(UserData data, Map<Long, PlaceState> states, double observationStart,
+                                             double observationEnd) {
+        String id = data.getInstallationId();
+        int nPlaces = data.getPlaces().size();
+
+        PipelineStageEvent event = PipelineStageEvent.start();
+        for (Place p : data.getPlaces()) {
+            PlaceState state = states.computeIfAbsent(p.getUid(), k -> new PlaceState());
+            if (p.getDwells() != null)
+                for (Dwell d : p.getDwells())
+                    state.insert(d);
+        }
+        PipelineStageEvent.finish(event, "placeState", id, nPlaces);
+
+        event = PipelineStageEvent.start();
+
+        PlaceVisitStatistics statistics = new PlaceVisitStatistics(observationStart, observationEnd);
+        Map<Long, OccupancySketch> sketches = new HashMap<>();
+        for (Map.Entry<Long, PlaceState> e : states.entrySet())
+            sketches.put(e.getKey(), e.getValue().getOccupancy());
+        Map<Long, PlaceType> types = placeTypeLabeller.label(sketches);
+
+        for (Place p : data.getPlaces()) {
+            statistics.apply(p, states.get(p.getUid()).getVisits());
+            PlaceType type = types.get(p.getUid());
+            if (type != null)
+                p.setPlaceType(type);
+        }
+        PipelineStageEvent.finish(event, "placeType", id, nPlaces);
+
+        event = PipelineStageEvent.start();
+        poiOpenHoursScoring.run(data.getPlaces());
+        PipelineStageEvent.finish(event, "poiOpenHours", id, nPlaces);
+
+        event = PipelineStageEvent.start();
+        placeSensitivity.assessPlaceSensitivity(data.getPlaces());
+        PipelineStageEvent.finish(event, "placeSensitivity", id, nPlaces);
+
+        event = PipelineStageEvent.start();
+        lookUpProtectedAreas(data.getPlaces(), id);
+        PipelineStageEvent.finish(event, "protectedAreas", id, nPlaces);
+        return types;
+    }
+
+    /**
+     * Attach protected areas to input places without one, e.g. start and end places of routes not processed with
+     * their user's places
+     *
+     * @throws UncheckedIOException if the boundary provider fails
+     */
+    public void lookUpProtectedAreas(@NonNull List<Place> places, String installationId) {
+        try {
+            protectedAreaLookup.run(places);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to look up the output areas of the places of " + installationId, e);
+        }
+    }
+
+    private void obfuscatePlaces(UserData data) {
+        PipelineStageEvent event = PipelineStageEvent.start();
+        placeObfuscation.run(data.getPlaces());
+        PipelineStageEvent.finish(event, "placeObfuscation", data.getInstallationId(), data.getPlaces().size());
+    }
+
+    /**
+     * Travel stages of {@link #run(UserData, Map, double, double)}: sensitivity of input routes and their legs,
+     * hiding of their waypoints in protected areas and coarsening of sensitive legs. Start and end places of the
+     * routes must have their privacy category set.
+     */
+    public void runTravels(@NonNull List<Route> routes) {
+        runTravels(routes, null);
+    }
+
+    private void runTravels(List<Route> routes, String installationId) {
+        scoreTravels(routes, installationId);
+        obfuscateTravels(routes, installationId);
+    }
+
+    private void scoreTravels(List<Route> routes, String installationId) {
+        PipelineStageEvent event = PipelineStageEvent.start();
+        travelSensitivity.run(routes);
+        PipelineStageEvent.finish(event, "travelSensitivity", installationId, routes.size());
+    }
+
+    private void obfuscateTravels(List<Route> routes, String installationId) {
+        PipelineStageEvent event = PipelineStageEvent.start();
+        routeTrimming.run(routes);
+        PipelineStageEvent.finish(event, "routeTrimming", installationId, routes.size());
+
+        event = PipelineStageEvent.start();
+        travelObfuscation.run(routes);
+        PipelineStageEvent.finish(event, "travelObfuscation", installationId, routes.size());
+    }
+
+    // Reset the obfuscation output of data, restoring the scored categories of legs
+    private static void clearObfuscation(UserData data, List<Leg> legs, PrivacyCategory[] legCategories) {
+        for (Place p : data.getPlaces()) {
+            p.setHidden(false);
+            p.setHiddenLatitude(Double.NaN);
+            p.setHiddenLongitude(Double.NaN);
+            if (p.getDwells() == null)
+                continue;
+            for (Dwell d : p.getDwells()) {
+                d.setHidden(false);
+                d.setHiddenDurationType(null);
+            }
+        }
+        for (Route r : data.getRoutes()) {
+            r.setHidden(false);
+            r.setHiddenWaypoints(null);
+            r.setHiddenStartTime(Double.NaN);
+            r.setHiddenEndTime(Double.NaN);
+            r.setHiddenDuration(Double.NaN);
+            r.setHiddenDistance(Double.NaN);
+        }
+        for (int i = 0; i < legs.size(); i++) {
+            Leg l = legs.get(i);
+            l.setPrivacyCategory(legCategories[i]);
+            l.setHidden(false);
+            l.setHiddenWaypoints(null);
+            l.setHiddenStartTime(Double.NaN);
+            l.setHiddenEndTime(Double.NaN);
+            l.setHiddenDuration(Double.NaN);
+            l.setHiddenDistance(Double.NaN);
+        }
+    }
+}
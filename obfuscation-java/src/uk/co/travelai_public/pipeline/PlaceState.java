@@ -0,0 +1,54 @@
+package uk.co.travelai_public.pipeline;
+
+import lombok.Getter;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.obfuscation.OccupancySketch;
+import uk.co.travelai_public.obfuscation.PlaceVisitAccumulator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Summary of all dwells of a place seen so far, carried between time partitions of a user so that visit statistics
+ * and place types reflect the whole history rather than a single partition
+ */
+
+@Getter
+public class PlaceState {
+
+    private final PlaceVisitAccumulator visits;
+    private final OccupancySketch occupancy;
+
+    public PlaceState() {
+        this(new PlaceVisitAccumulator(), new OccupancySketch());
+    }
+
+    private PlaceState(PlaceVisitAccumulator visits, OccupancySketch occupancy) {
+        this.visits = visits;
+        this.occupancy = occupancy;
+    }
+
+    /**
+     * Add input {@link Dwell} to the summary
+     */
+    public void insert(Dwell d) {
+        visits.insert(d);
+        occupancy.insert(d);
+    }
+
+    /**
+     * Write state to input stream
+     */
+    public void write(DataOutput out) throws IOException {
+        visits.write(out);
+        occupancy.write(out);
+    }
+
+    /**
+     * Read state written with {@link #write(DataOutput)}
+     */
+    public static PlaceState read(DataInput in) throws IOException {
+        return new PlaceState(PlaceVisitAccumulator.read(in), OccupancySketch.read(in));
+    }
+}
@@ -0,0 +1,133 @@
+package uk.co.travelai_public.pipeline;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * {@link UserDataLoader} loading the windows hinted with {@link #prefetch(String, double, double)} in the background,
+ * so that the next user is loaded while the current one is processed.
+ * <p>
+ * Prefetched windows are loaded one at a time, in the order hinted, by a single daemon thread; at most maxPrefetched
+ * windows are held, loaded or being loaded, and further hints are ignored until one is taken, which bounds the memory
+ * used by prefetching. Taking a prefetched window drops the windows hinted before it, which will not be asked for.
+ * Loading a window that was not hinted loads it directly, and drops only the prefetched windows of the same user that
+ * start before it; other hints are kept. The delegate must allow loads from several threads.
+ */
+
+@Getter
+public class PrefetchingUserDataLoader implements UserDataLoader, Closeable {
+
+    private final UserDataLoader loader;
+    private final int maxPrefetched;
+
+    // Number of loads served from prefetched windows, and loaded directly
+    private long nHits;
+    private long nMisses;
+
+    @Getter(AccessLevel.NONE) private final Map<Window, Future<UserData>> prefetched = new LinkedHashMap<>();
+    @Getter(AccessLevel.NONE) private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "user-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param maxPrefetched maximum number of windows held ahead of the current one
+     */
+    public PrefetchingUserDataLoader(@NonNull UserDataLoader loader, int maxPrefetched) {
+        if (maxPrefetched < 1)
+            throw new IllegalArgumentException("Invalid number of prefetched windows " + maxPrefetched);
+        this.loader = loader;
+        this.maxPrefetched = maxPrefetched;
+    }
+
+    @Override
+    public synchronized void prefetch(String installationId, double startTs, double endTs) {
+        Window w = new Window(installationId, startTs, endTs);
+        if (prefetched.size() >= maxPrefetched || prefetched.containsKey(w) || executor.isShutdown())
+            return;
+        prefetched.put(w, executor.submit(() -> loader.load(installationId, startTs, endTs)));
+    }
+
+    @Override
+    public UserData load(String installationId, double startTs, double endTs) throws IOException {
+        Future<UserData> f = take(new Window(installationId, startTs, endTs));
+        if (f == null)
+            return loader.load(installationId, startTs, endTs);
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading " + installationId, e);
+        } catch (CancellationException e) {
+            return loader.load(installationId, startTs, endTs);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException("Failed to load " + installationId, e.getCause());
+        }
+    }
+
+    // Prefetched load of input window, null if not hinted; windows hinted before it are dropped, or if it was not
+    // hinted, earlier windows of the same user
+    private synchronized Future<UserData> take(Window w) {
+        if (!prefetched.containsKey(w)) {
+            nMisses++;
+            Iterator<Map.Entry<Window, Future<UserData>>> it = prefetched.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Window, Future<UserData>> e = it.next();
+                if (e.getKey().installationId.equals(w.installationId) && e.getKey().startTs < w.startTs) {
+                    e.getValue().cancel(false);
+                    it.remove();
+                }
+            }
+            return null;
+        }
+        Iterator<Map.Entry<Window, Future<UserData>>> it = prefetched.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Window, Future<UserData>> e = it.next();
+            it.remove();
+            if (e.getKey().equals(w)) {
+                nHits++;
+                return e.getValue();
+            }
+            e.getValue().cancel(false);
+        }
+        return null;
+    }
+
+    /**
+     * Drop prefetched windows and stop the background thread
+     */
+    @Override
+    public synchronized void close() {
+        for (Future<UserData> f : prefetched.values())
+            f.cancel(false);
+        prefetched.clear();
+        executor.shutdown();
+    }
+
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static final class Window {
+        private final String installationId;
+        private final double startTs;
+        private final double endTs;
+    }
+}
@@ -0,0 +1,49 @@
+package uk.co.travelai_public.pipeline;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.POI;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.model.travel.WaypointArena;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Places, dwells, routes and legs of a single user within a time window
+ */
+
+@Getter
+@Setter
+@NoArgsConstructor
+public class UserData {
+
+    private String installationId;
+
+    // Time window of the data as epoch milliseconds; -1 if unbounded
+    private double startTs = -1;
+    private double endTs = -1;
+
+    private List<Place> places = new ArrayList<>();
+    private List<Dwell> dwells = new ArrayList<>();
+    private List<Route> routes = new ArrayList<>();
+    private List<Leg> legs = new ArrayList<>();
+    private List<POI> pois = new ArrayList<>();
+
+    // Off-heap memory of the waypoints, if loaded there
+    private WaypointArena waypointArena;
+
+    /**
+     * Free the off-heap memory of the waypoints, if any; the legs and routes keep heap copies of their waypoints
+     */
+    public void releaseWaypoints() {
+        if (waypointArena != null)
+            waypointArena.close();
+        waypointArena = null;
+    }
+
+}
@@ -0,0 +1,28 @@
+package uk.co.travelai_public.pipeline;
+
+import java.io.IOException;
+
+/**
+ * Source of {@link UserData}, e.g. the input database
+ */
+
+public interface UserDataLoader {
+
+    /**
+     * Load data of input user within a time window. Routes and dwells are included if they start within the window,
+     * and may end after it, so that consecutive windows hold every route and dwell exactly once; legs and waypoints
+     * are included with their route. Places are included if any of their dwells is, and then hold only those dwells.
+     * Place uids must be stable across windows of the same user.
+     *
+     * @param startTs window start as epoch milliseconds, inclusive
+     * @param endTs   window end as epoch milliseconds, exclusive
+     */
+    UserData load(String installationId, double startTs, double endTs) throws IOException;
+
+    /**
+     * Hint that input window of input user is loaded next; loaders may start loading it in the background
+     */
+    default void prefetch(String installationId, double startTs, double endTs) {
+    }
+
+}
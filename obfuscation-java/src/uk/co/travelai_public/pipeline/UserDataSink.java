@@ -0,0 +1,16 @@
+package uk.co.travelai_public.pipeline;
+
+import java.io.IOException;
+
+/**
+ * Destination of processed {@link UserData}, e.g. the output database
+ */
+
+public interface UserDataSink {
+
+    /**
+     * Write processed data of one user or one time partition of a user
+     */
+    void write(UserData data) throws IOException;
+
+}
@@ -0,0 +1,50 @@
+package uk.co.travelai_public.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for the computation of geometrics over a set of waypoints
+ */
+
+@Name("uk.co.travelai_public.Geometrics")
+@Label("Geometrics")
+@Category({"Obfuscation", "Geometry"})
+@Description("Distance, speed and sinuosity computation over waypoints")
+@StackTrace(false)
+@Threshold("1 ms")
+public class GeometricsEvent extends Event {
+
+    @Label("Source")
+    @Description("Kind of waypoint source: list, block or stream")
+    public String source;
+
+    @Label("Waypoints")
+    public int nLocations;
+
+    /**
+     * @return started event
+     */
+    public static GeometricsEvent start() {
+        GeometricsEvent e = new GeometricsEvent();
+        e.begin();
+        return e;
+    }
+
+    /**
+     * End input event and commit it if recorded
+     */
+    public static void finish(GeometricsEvent e, String source, int nLocations) {
+        e.end();
+        if (e.shouldCommit()) {
+            e.source = source;
+            e.nLocations = nLocations;
+            e.commit();
+        }
+    }
+}
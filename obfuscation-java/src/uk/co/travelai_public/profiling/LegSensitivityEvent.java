@@ -0,0 +1,62 @@
+package uk.co.travelai_public.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for the sensitivity estimation of one leg
+ */
+
+@Name("uk.co.travelai_public.LegSensitivity")
+@Label("Leg Sensitivity")
+@Category({"Obfuscation", "Travel"})
+@Description("Feature extraction and sensitivity scoring of a leg")
+@StackTrace(false)
+@Threshold("1 ms")
+public class LegSensitivityEvent extends Event {
+
+    @Label("Leg UID")
+    public long legUid;
+
+    @Label("Route UID")
+    public long routeUid;
+
+    @Label("Mode")
+    public String mode;
+
+    @Label("Waypoints")
+    public int nWaypoints;
+
+    @Label("Privacy Category")
+    public String privacyCategory;
+
+    /**
+     * @return started event
+     */
+    public static LegSensitivityEvent start() {
+        LegSensitivityEvent e = new LegSensitivityEvent();
+        e.begin();
+        return e;
+    }
+
+    /**
+     * End input event and commit it if recorded
+     */
+    public static void finish(LegSensitivityEvent e, long legUid, long routeUid, Object mode, int nWaypoints,
+                              Object privacyCategory) {
+        e.end();
+        if (e.shouldCommit()) {
+            e.legUid = legUid;
+            e.routeUid = routeUid;
+            e.mode = String.valueOf(mode);
+            e.nWaypoints = nWaypoints;
+            e.privacyCategory = String.valueOf(privacyCategory);
+            e.commit();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package uk.co.travelai_public.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one stage of the per-user pipeline, or for a whole user (stage "user")
+ */
+
+@Name("uk.co.travelai_public.PipelineStage")
+@Label("Pipeline Stage")
+@Category({"Obfuscation", "Pipeline"})
+@Description("Stage of the per-user privacy estimation pipeline")
+@StackTrace(false)
+public class PipelineStageEvent extends Event {
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("Installation ID")
+    public String installationId;
+
+    @Label("Items")
+    @Description("Number of places or routes processed by the stage")
+    public int nItems;
+
+    /**
+     * @return started event
+     */
+    public static PipelineStageEvent start() {
+        PipelineStageEvent e = new PipelineStageEvent();
+        e.begin();
+        return e;
+    }
+
+    /**
+     * End input event and commit it if recorded
+     */
+    public static void finish(PipelineStageEvent e, String stage, String installationId, int nItems) {
+        e.end();
+        if (e.shouldCommit()) {
+            e.stage = stage;
+            e.installationId = installationId;
+            e.nItems = nItems;
+            e.commit();
+        }
+    }
+}
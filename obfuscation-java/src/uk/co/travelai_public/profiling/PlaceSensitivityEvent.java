@@ -0,0 +1,53 @@
+package uk.co.travelai_public.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for the sensitivity estimation of one place
+ */
+
+@Name("uk.co.travelai_public.PlaceSensitivity")
+@Label("Place Sensitivity")
+@Category({"Obfuscation", "Place"})
+@Description("Sensitivity scoring of a place from its POI scores and visit statistics")
+@StackTrace(false)
+@Threshold("1 ms")
+public class PlaceSensitivityEvent extends Event {
+
+    @Label("Place UID")
+    public long placeUid;
+
+    @Label("POIs")
+    public int nPOIs;
+
+    @Label("Privacy Category")
+    public String privacyCategory;
+
+    /**
+     * @return started event
+     */
+    public static PlaceSensitivityEvent start() {
+        PlaceSensitivityEvent e = new PlaceSensitivityEvent();
+        e.begin();
+        return e;
+    }
+
+    /**
+     * End input event and commit it if recorded
+     */
+    public static void finish(PlaceSensitivityEvent e, long placeUid, int nPOIs, Object privacyCategory) {
+        e.end();
+        if (e.shouldCommit()) {
+            e.placeUid = placeUid;
+            e.nPOIs = nPOIs;
+            e.privacyCategory = String.valueOf(privacyCategory);
+            e.commit();
+        }
+    }
+}
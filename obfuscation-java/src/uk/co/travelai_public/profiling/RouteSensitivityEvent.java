@@ -0,0 +1,49 @@
+package uk.co.travelai_public.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event for the sensitivity estimation of one route
+ */
+
+@Name("uk.co.travelai_public.RouteSensitivity")
+@Label("Route Sensitivity")
+@Category({"Obfuscation", "Travel"})
+@Description("Sensitivity estimation of a route and its legs")
+@StackTrace(false)
+@Threshold("1 ms")
+public class RouteSensitivityEvent extends Event {
+
+    @Label("Route UID")
+    public long routeUid;
+
+    @Label("Legs")
+    public int nLegs;
+
+    /**
+     * @return started event
+     */
+    public static RouteSensitivityEvent start() {
+        RouteSensitivityEvent e = new RouteSensitivityEvent();
+        e.begin();
+        return e;
+    }
+
+    /**
+     * End input event and commit it if recorded
+     */
+    public static void finish(RouteSensitivityEvent e, long routeUid, int nLegs) {
+        e.end();
+        if (e.shouldCommit()) {
+            e.routeUid = routeUid;
+            e.nLegs = nLegs;
+            e.commit();
+        }
+    }
+}
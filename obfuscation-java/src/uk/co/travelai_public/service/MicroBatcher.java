@@ -0,0 +1,210 @@
+package uk.co.travelai_public.service;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects items submitted concurrently into batches for a batch function, run on a single dispatcher thread.
+ * <p>
+ * A batch is closed windowMillis after its first item arrives, or once it holds maxBatchSize items, whichever comes
+ * first. Items whose deadline has passed by the time their batch runs are failed with a {@link TimeoutException}
+ * without being processed. At most maxQueued items wait at a time; further submissions are shed at once with a
+ * {@link RejectedExecutionException}, so that callers can fail fast rather than queue up behind a saturated batch
+ * function.
+ * <p>
+ * If the batch function throws for a batch, its items are run again one at a time, so that a single bad item only
+ * fails its own request.
+ */
+
+@Getter
+public class MicroBatcher<T, R> implements Closeable {
+
+    /**
+     * Function processing a batch of items, returning one result per item in order
+     */
+    public interface BatchFunction<T, R> {
+        List<R> apply(List<T> batch);
+    }
+
+    private final String name;
+    private final BatchFunction<T, R> function;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final int maxQueued;
+
+    @Getter(AccessLevel.NONE) private final BlockingQueue<Pending<T, R>> queue;
+    @Getter(AccessLevel.NONE) private final Thread dispatcher;
+    @Getter(AccessLevel.NONE) private volatile boolean closed;
+
+    private final AtomicLong nSubmitted = new AtomicLong();
+    private final AtomicLong nShed = new AtomicLong();
+    private final AtomicLong nExpired = new AtomicLong();
+    private final AtomicLong nBatches = new AtomicLong();
+    private final AtomicLong nProcessed = new AtomicLong();
+    private final AtomicLong nFailed = new AtomicLong();
+
+    private static class Pending<T, R> {
+        final T item;
+        final long deadlineNanos;
+        final CompletableFuture<R> future = new CompletableFuture<>();
+
+        Pending(T item, long deadlineNanos) {
+            this.item = item;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+
+    public MicroBatcher(String name, BatchFunction<T, R> function, long windowMillis, int maxBatchSize,
+                        int maxQueued) {
+        if (windowMillis < 0 || maxBatchSize < 1 || maxQueued < 1)
+            throw new IllegalArgumentException("Invalid batching " + windowMillis + " ms, " + maxBatchSize + "/"
+                    + maxQueued + " items");
+        this.name = name;
+        this.function = function;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.maxQueued = maxQueued;
+        this.queue = new ArrayBlockingQueue<>(maxQueued);
+        this.dispatcher = new Thread(this::dispatch, "batcher-" + name);
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Submit input item for the next batch
+     *
+     * @param deadlineNanos {@link System#nanoTime()} after which the item is no longer processed
+     * @return future of the result of the item; failed at once with {@link RejectedExecutionException} if the queue
+     * is full or the batcher closed
+     */
+    public CompletableFuture<R> submit(T item, long deadlineNanos) {
+        Pending<T, R> p = new Pending<>(item, deadlineNanos);
+        nSubmitted.incrementAndGet();
+        if (closed || !queue.offer(p)) {
+            nShed.incrementAndGet();
+            p.future.completeExceptionally(new RejectedExecutionException(name + " queue full"));
+        } else if (closed && queue.remove(p)) {
+            // Closed while offering; the dispatcher may have stopped already
+            nShed.incrementAndGet();
+            p.future.completeExceptionally(new RejectedExecutionException(name + " closed"));
+        }
+        return p.future;
+    }
+
+    /**
+     * @return number of items waiting for a batch
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Stop accepting items and wait for the items already queued to be processed
+     */
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Items offered while the dispatcher stopped
+        for (Pending<T, R> p; (p = queue.poll()) != null; ) {
+            nShed.incrementAndGet();
+            p.future.completeExceptionally(new RejectedExecutionException(name + " closed"));
+        }
+    }
+
+    private void dispatch() {
+        List<Pending<T, R>> batch = new ArrayList<>(maxBatchSize);
+        long windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        while (true) {
+            try {
+                Pending<T, R> first = closed ? queue.poll() : queue.take();
+                if (first == null)
+                    return;
+                batch.add(first);
+                long windowEnd = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    // Whatever is already waiting joins without delay
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = windowEnd - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0 || closed)
+                        break;
+                    Pending<T, R> p = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (p == null)
+                        break;
+                    batch.add(p);
+                }
+            } catch (InterruptedException e) {
+                // Closed; drain what is queued
+            }
+            if (!batch.isEmpty())
+                run(batch);
+            batch.clear();
+        }
+    }
+
+    private void run(List<Pending<T, R>> batch) {
+        long now = System.nanoTime();
+        List<Pending<T, R>> live = new ArrayList<>(batch.size());
+        for (Pending<T, R> p : batch) {
+            if (p.future.isDone())
+                continue;
+            if (now - p.deadlineNanos > 0) {
+                nExpired.incrementAndGet();
+                p.future.completeExceptionally(new TimeoutException(name + " deadline passed in queue"));
+                continue;
+            }
+            live.add(p);
+        }
+        if (live.isEmpty())
+            return;
+
+        try {
+            apply(live);
+        } catch (RuntimeException e) {
+            if (live.size() == 1) {
+                nFailed.incrementAndGet();
+                live.get(0).future.completeExceptionally(e);
+                return;
+            }
+            // Isolate the failing items
+            for (Pending<T, R> p : live) {
+                try {
+                    apply(List.of(p));
+                } catch (RuntimeException e1) {
+                    nFailed.incrementAndGet();
+                    p.future.completeExceptionally(e1);
+                }
+            }
+        }
+    }
+
+    private void apply(List<Pending<T, R>> batch) {
+        List<T> items = new ArrayList<>(batch.size());
+        for (Pending<T, R> p : batch)
+            items.add(p.item);
+        List<R> results = function.apply(items);
+        if (results.size() != items.size())
+            throw new IllegalStateException(name + " returned " + results.size() + " results for "
+                    + items.size() + " items");
+        for (int i = 0; i < batch.size(); i++)
+            batch.get(i).future.complete(results.get(i));
+        nBatches.incrementAndGet();
+        nProcessed.addAndGet(items.size());
+    }
+}
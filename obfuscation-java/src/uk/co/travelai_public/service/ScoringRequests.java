@@ -0,0 +1,223 @@
+package uk.co.travelai_public.service;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.TransportMode;
+import uk.co.travelai_public.model.place.POI;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.place.PlaceType;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+import uk.co.travelai_public.model.travel.PublicTransitDetails;
+import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.obfuscation.PrivacyCategory;
+
+import java.util.Iterator;
+
+/**
+ * JSON bodies of {@link ScoringService} requests and responses.
+ * <p>
+ * Route request, scored by {@link uk.co.travelai_public.obfuscation.TravelSensitivity}:
+ * <pre>
+ * {"start_place": "PRIVATE", "end_place": "PUBLIC",
+ *  "legs": [{"transport_mode": "car", "start_ts": 1600000000000, "end_ts": 1600000900000,
+ *            "timezone_offset": 3600000, "public_transit": false,
+ *            "coordinates": [[lon, lat], ...], "timestamps": [...], "accuracies": [...]}]}
+ * </pre>
+ * answered with {"privacy": "SENSITIVE", "legs": ["PUBLIC", "SENSITIVE"]}, the route taking the highest category of
+ * its legs. Place categories default to UNKNOWN, and transport modes may be given as names or ids.
+ * <p>
+ * Place request, scored by {@link uk.co.travelai_public.obfuscation.PlaceSensitivity}:
+ * <pre>
+ * {"place_type": "home", "visit_frequency": 0.4, "visit_regularity": 0.6, "visit_duration": 7200,
+ *  "sleep_visits": 2, "pois": [{"category_sensitivity": "SENSITIVE", "score": 0.8}]}
+ * </pre>
+ * answered with {"privacy": "PRIVATE"}.
+ */
+
+public class ScoringRequests {
+
+    private ScoringRequests() {
+    }
+
+    /**
+     * @return route with matched legs and start and end places holding the privacy categories of the request
+     */
+    public static Route toRoute(JSONObject json) {
+        Route r = new Route();
+        r.setStartPlace(place(category(json.optString("start_place", null))));
+        r.setEndPlace(place(category(json.optString("end_place", null))));
+
+        JSONArray legs = json.optJSONArray("legs");
+        if (legs == null)
+            throw new IllegalArgumentException("Route without legs");
+        for (int i = 0; i < legs.length(); i++)
+            r.getMatchedLegs().add(toLeg(legs.getJSONObject(i)));
+        if (!r.getMatchedLegs().isEmpty()) {
+            r.setStartTime(r.getMatchedLegs().get(0).getStartTime());
+            r.setEndTime(r.getMatchedLegs().get(r.getMatchedLegs().size() - 1).getEndTime());
+        }
+        return r;
+    }
+
+    private static Leg toLeg(JSONObject json) {
+        JSONArray coordinates = json.getJSONArray("coordinates");
+        JSONArray timestamps = json.optJSONArray("timestamps");
+        JSONArray accuracies = json.optJSONArray("accuracies");
+        int n = coordinates.length();
+        if (timestamps != null && timestamps.length() != n)
+            throw new IllegalArgumentException("Timestamps and coordinates differ in length");
+        if (accuracies != null && accuracies.length() != n)
+            throw new IllegalArgumentException("Accuracies and coordinates differ in length");
+
+        double start = json.optDouble("start_ts", timestamps != null && n > 0 ? timestamps.getDouble(0) : 0);
+        double end = json.optDouble("end_ts", timestamps != null && n > 0 ? timestamps.getDouble(n - 1) : start);
+        double tz = json.optDouble("timezone_offset", 0);
+
+        LocationBlock block = LocationBlock.allocate(n);
+        for (int i = 0; i < n; i++) {
+            JSONArray c = coordinates.getJSONArray(i);
+            double ts = timestamps != null ? timestamps.getDouble(i) : n > 1 ? start + (end - start) * i / (n - 1) : start;
+            block.set(i, ts, c.getDouble(1), c.getDouble(0), accuracies != null ? accuracies.getDouble(i) : 0, 0, tz);
+        }
+
+        Leg l = new Leg();
+        l.setStartTime(start);
+        l.setEndTime(end);
+        l.setDuration(end - start);
+        l.setOriginTZOffset(tz);
+        l.setDestinationTZOffset(tz);
+        l.setMode(mode(json.opt("transport_mode")));
+        if (json.optBoolean("public_transit", false))
+            l.setPublicTransitDetails(new PublicTransitDetails());
+        if (n > 0) {
+            l.setStartLoc(block.getLocation(0));
+            l.setEndLoc(block.getLocation(n - 1));
+        }
+        l.setLocationSource(block);
+        return l;
+    }
+
+    /**
+     * @return place with the visit statistics and POI scores of the request
+     */
+    public static Place toPlace(JSONObject json) {
+        Place p = new Place();
+        String type = json.optString("place_type", null);
+        if (type != null)
+            p.setPlaceType(PlaceType.valueOf(type));
+        p.setVisitFrequency(json.optDouble("visit_frequency", 0));
+        p.setVisitRegularity(json.optDouble("visit_regularity", 0));
+        p.setVisitDuration(json.optDouble("visit_duration", 0));
+        p.setNSleepVisits(json.optInt("sleep_visits", 0));
+
+        JSONArray pois = json.optJSONArray("pois");
+        if (pois != null) {
+            for (int i = 0; i < pois.length(); i++) {
+                JSONObject o = pois.getJSONObject(i);
+                POI poi = new POI();
+                poi.setCategorySensitivity(category(o.optString("category_sensitivity", null)));
+                p.getPOIScores().put(poi, o.optDouble("score", 0));
+            }
+        }
+        return p;
+    }
+
+    /**
+     * @return response to a route request scored in place
+     */
+    public static JSONObject fromRoute(Route r) {
+        PrivacyCategory max = PrivacyCategory.UNKNOWN;
+        JSONArray legs = new JSONArray();
+        for (Leg l : r.getMatchedLegs()) {
+            legs.put(l.getPrivacyCategory().name());
+            if (l.getPrivacyCategory().ordinal() > max.ordinal())
+                max = l.getPrivacyCategory();
+        }
+        return new JSONObject().put("privacy", max.name()).put("legs", legs);
+    }
+
+    /**
+     * @return response to a place request scored in place
+     */
+    public static JSONObject fromPlace(Place p) {
+        return new JSONObject().put("privacy", p.getPrivacyCategory().name());
+    }
+
+    /**
+     * @return request scoring input route, e.g. for load tests; legs are sent with all their waypoints
+     */
+    public static JSONObject routeRequest(Route r) {
+        JSONObject json = new JSONObject();
+        if (r.getStartPlace() != null)
+            json.put("start_place", r.getStartPlace().getPrivacyCategory().name());
+        if (r.getEndPlace() != null)
+            json.put("end_place", r.getEndPlace().getPrivacyCategory().name());
+        JSONArray legs = new JSONArray();
+        for (Leg l : r.getMatchedLegs()) {
+            JSONArray coordinates = new JSONArray();
+            JSONArray timestamps = new JSONArray();
+            JSONArray accuracies = new JSONArray();
+            LocationSource source = l.getLocationSource();
+            for (Iterator<Location> it = source.iterator(); it.hasNext(); ) {
+                Location loc = it.next();
+                coordinates.put(new JSONArray().put(loc.getLongitude()).put(loc.getLatitude()));
+                timestamps.put(loc.getTimestamp());
+                accuracies.put(loc.getAccuracy());
+            }
+            JSONObject leg = new JSONObject()
+                    .put("transport_mode", l.getMode() != null ? l.getMode().name() : TransportMode.unknown.name())
+                    .put("start_ts", l.getStartTime())
+                    .put("end_ts", l.getEndTime())
+                    .put("timezone_offset", l.getOriginTZOffset())
+                    .put("coordinates", coordinates)
+                    .put("timestamps", timestamps)
+                    .put("accuracies", accuracies);
+            if (l.isPublicTransit())
+                leg.put("public_transit", true);
+            legs.put(leg);
+        }
+        return json.put("legs", legs);
+    }
+
+    /**
+     * @return request scoring input place, e.g. for load tests
+     */
+    public static JSONObject placeRequest(Place p) {
+        JSONObject json = new JSONObject()
+                .put("visit_frequency", p.getVisitFrequency())
+                .put("visit_regularity", p.getVisitRegularity())
+                .put("visit_duration", p.getVisitDuration())
+                .put("sleep_visits", p.getNSleepVisits());
+        if (p.getPlaceType() != null)
+            json.put("place_type", p.getPlaceType().name());
+        JSONArray pois = new JSONArray();
+        p.getPOIScores().forEach((poi, score) -> {
+            JSONObject o = new JSONObject().put("score", score);
+            if (poi.getCategorySensitivity() != null)
+                o.put("category_sensitivity", poi.getCategorySensitivity().name());
+            pois.put(o);
+        });
+        return json.put("pois", pois);
+    }
+
+    private static Place place(PrivacyCategory category) {
+        Place p = new Place();
+        p.setPrivacyCategory(category);
+        return p;
+    }
+
+    private static PrivacyCategory category(String name) {
+        return name != null ? PrivacyCategory.valueOf(name.toUpperCase()) : PrivacyCategory.UNKNOWN;
+    }
+
+    private static TransportMode mode(Object mode) {
+        if (mode == null)
+            return TransportMode.unknown;
+        if (mode instanceof Number)
+            return TransportMode.fromID(((Number) mode).intValue());
+        return TransportMode.fromString(mode.toString());
+    }
+}
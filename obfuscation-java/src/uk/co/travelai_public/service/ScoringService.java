@@ -0,0 +1,247 @@
+package uk.co.travelai_public.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import org.json.JSONObject;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.obfuscation.PlaceSensitivity;
+import uk.co.travelai_public.obfuscation.TravelSensitivity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Embedded HTTP service scoring the privacy category of routes and places, bound to the loopback interface.
+ * <p>
+ * Endpoints, with bodies as described in {@link ScoringRequests}:
+ * <ul>
+ *     <li>POST /score/route: sensitivity of a route and its legs by {@link TravelSensitivity}</li>
+ *     <li>POST /score/place: sensitivity of a place by {@link PlaceSensitivity}</li>
+ *     <li>GET /stats: request and batch counters</li>
+ * </ul>
+ * Requests are handled on virtual threads where the runtime has them (Java 21+), and on a cached thread pool
+ * otherwise. Each kind of request is scored by a {@link MicroBatcher}, so that concurrent requests share one batch
+ * scoring pass. A request may set its deadline in milliseconds with the X-Deadline-Ms header, capped at
+ * maxDeadlineMillis. Responses are 400 for malformed bodies, 503 with Retry-After when the batch queue is full, and
+ * 504 when the deadline passes before the result is ready.
+ * <pre>
+ *   ScoringService [port]
+ * </pre>
+ */
+
+@Getter
+@Setter
+public class ScoringService implements Closeable {
+
+    public static final String DEADLINE_HEADER = "X-Deadline-Ms";
+
+    private int port;
+    private long windowMillis = 2;
+    private int maxBatchSize = 64;
+    private int maxQueued = 1024;
+    private long defaultDeadlineMillis = 500;
+    private long maxDeadlineMillis = 10000;
+    private int maxBodyBytes = 16 * 1024 * 1024;
+
+    private TravelSensitivity travelSensitivity = new TravelSensitivity();
+    private PlaceSensitivity placeSensitivity = new PlaceSensitivity();
+
+    @Setter(AccessLevel.NONE) private MicroBatcher<Route, JSONObject> routeBatcher;
+    @Setter(AccessLevel.NONE) private MicroBatcher<Place, JSONObject> placeBatcher;
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) private HttpServer server;
+    @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) private ExecutorService executor;
+
+    /**
+     * @param port loopback port to listen on; 0 for any free port, see {@link #getPort()} once started
+     */
+    public ScoringService(int port) {
+        this.port = port;
+        // Batches mix unrelated requests, whose scores must not depend on each other
+        travelSensitivity.setSimilarityIndex(null);
+    }
+
+    /**
+     * Start listening; settings must not be changed afterwards
+     */
+    public synchronized void start() throws IOException {
+        if (server != null)
+            throw new IllegalStateException("Scoring service already started");
+        routeBatcher = new MicroBatcher<>("routes", this::scoreRoutes, windowMillis, maxBatchSize, maxQueued);
+        placeBatcher = new MicroBatcher<>("places", this::scorePlaces, windowMillis, maxBatchSize, maxQueued);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = requestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/score/route", ex -> score(ex, routeBatcher, ScoringRequests::toRoute));
+        server.createContext("/score/place", ex -> score(ex, placeBatcher, ScoringRequests::toPlace));
+        server.createContext("/stats", this::stats);
+        server.start();
+        port = server.getAddress().getPort();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server == null)
+            return;
+        server.stop(0);
+        routeBatcher.close();
+        placeBatcher.close();
+        executor.shutdown();
+        server = null;
+    }
+
+    private List<JSONObject> scoreRoutes(List<Route> routes) {
+        travelSensitivity.run(routes);
+        List<JSONObject> res = new ArrayList<>(routes.size());
+        for (Route r : routes)
+            res.add(ScoringRequests.fromRoute(r));
+        return res;
+    }
+
+    private List<JSONObject> scorePlaces(List<Place> places) {
+        placeSensitivity.assessPlaceSensitivity(places);
+        List<JSONObject> res = new ArrayList<>(places.size());
+        for (Place p : places)
+            res.add(ScoringRequests.fromPlace(p));
+        return res;
+    }
+
+    private <T> void score(HttpExchange ex, MicroBatcher<T, JSONObject> batcher, Function<JSONObject, T> parser)
+            throws IOException {
+        try {
+            if (!"POST".equals(ex.getRequestMethod())) {
+                send(ex, 405, error("POST only"));
+                return;
+            }
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis(ex));
+
+            T item;
+            try {
+                item = parser.apply(new JSONObject(readBody(ex)));
+            } catch (RuntimeException e) {
+                send(ex, 400, error(e.getMessage()));
+                return;
+            }
+
+            CompletableFuture<JSONObject> future = batcher.submit(item, deadline);
+            try {
+                send(ex, 200, future.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(false);
+                send(ex, 504, error("Deadline exceeded"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                send(ex, 503, error("Interrupted"));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RejectedExecutionException) {
+                    ex.getResponseHeaders().set("Retry-After", "1");
+                    send(ex, 503, error("Overloaded"));
+                } else if (cause instanceof TimeoutException) {
+                    send(ex, 504, error("Deadline exceeded"));
+                } else {
+                    send(ex, 500, error(String.valueOf(cause)));
+                }
+            }
+        } finally {
+            ex.close();
+        }
+    }
+
+    private void stats(HttpExchange ex) throws IOException {
+        try {
+            send(ex, 200, new JSONObject()
+                    .put("routes", stats(routeBatcher))
+                    .put("places", stats(placeBatcher)));
+        } finally {
+            ex.close();
+        }
+    }
+
+    private static JSONObject stats(MicroBatcher<?, ?> b) {
+        return new JSONObject()
+                .put("submitted", b.getNSubmitted().get())
+                .put("shed", b.getNShed().get())
+                .put("expired", b.getNExpired().get())
+                .put("batches", b.getNBatches().get())
+                .put("processed", b.getNProcessed().get())
+                .put("failed", b.getNFailed().get())
+                .put("queued", b.getQueued());
+    }
+
+    private long deadlineMillis(HttpExchange ex) {
+        String h = ex.getRequestHeaders().getFirst(DEADLINE_HEADER);
+        if (h == null)
+            return defaultDeadlineMillis;
+        try {
+            return Math.max(0, Math.min(maxDeadlineMillis, Long.parseLong(h.trim())));
+        } catch (NumberFormatException e) {
+            return defaultDeadlineMillis;
+        }
+    }
+
+    private String readBody(HttpExchange ex) throws IOException {
+        try (InputStream in = ex.getRequestBody()) {
+            byte[] body = in.readNBytes(maxBodyBytes + 1);
+            if (body.length > maxBodyBytes)
+                throw new IllegalArgumentException("Body larger than " + maxBodyBytes + " bytes");
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void send(HttpExchange ex, int status, JSONObject body) throws IOException {
+        byte[] b = body.toString().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, b.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(b);
+        }
+    }
+
+    private static JSONObject error(String message) {
+        return new JSONObject().put("error", message != null ? message : "");
+    }
+
+    /**
+     * @return executor starting a virtual thread per request on Java 21+, a cached pool of daemon threads otherwise
+     */
+    static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "scoring-request");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ScoringService service = new ScoringService(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+        service.start();
+        System.out.println("Scoring service listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+                + service.getPort());
+        Runtime.getRuntime().addShutdownHook(new Thread(service::close));
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,69 @@
+package uk.co.travelai_public.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring assigning installation IDs to workers.
+ * <p>
+ * Each worker is placed on the ring at a number of virtual node positions; an installation belongs to the first
+ * worker clockwise from the hash of its ID. Adding or removing a worker only moves the installations between it and
+ * its ring neighbours.
+ */
+
+public class ConsistentHashRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 64;
+
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    public ConsistentHashRing(Collection<String> workers) {
+        this(workers, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(Collection<String> workers, int virtualNodes) {
+        for (String w : workers)
+            for (int i = 0; i < virtualNodes; i++)
+                ring.put(hash(w + "#" + i), w);
+    }
+
+    /**
+     * @return worker owning input installation, or null if the ring is empty
+     */
+    public String ownerOf(String installationId) {
+        if (ring.isEmpty())
+            return null;
+        SortedMap<Long, String> tail = ring.tailMap(hash(installationId));
+        return tail.isEmpty() ? ring.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    public boolean isEmpty() {
+        return ring.isEmpty();
+    }
+
+    /**
+     * @return number of distinct workers on the ring
+     */
+    public int nWorkers() {
+        return (int) ring.values().stream().distinct().count();
+    }
+
+    /**
+     * Stable 64-bit hash from the first 8 bytes of the MD5 digest of input string
+     */
+    static long hash(String s) {
+        try {
+            byte[] d = MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++)
+                h = (h << 8) | (d[i] & 0xff);
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
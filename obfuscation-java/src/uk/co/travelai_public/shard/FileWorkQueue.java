@@ -0,0 +1,377 @@
+package uk.co.travelai_public.shard;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Work queue of installations shared by worker processes on one host through a directory.
+ * <p>
+ * Directory layout:
+ * <ul>
+ *     <li>pending/&lt;id&gt;: installations still to be processed; content is the number of failed attempts</li>
+ *     <li>leases/&lt;id&gt;: installations being processed; content is the owning worker and lease expiry</li>
+ *     <li>done/&lt;id&gt;, failed/&lt;id&gt;: finished installations</li>
+ *     <li>workers/&lt;worker&gt;: worker heartbeats; content is the time of the last beat</li>
+ * </ul>
+ * State changes are serialised with an exclusive lock on queue.lock, which holds across processes. All times are
+ * epoch milliseconds of the host clock.
+ */
+
+public class FileWorkQueue {
+
+    private static final Map<Path, ReentrantLock> JVM_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path pendingDir;
+    private final Path leaseDir;
+    private final Path doneDir;
+    private final Path failedDir;
+    private final Path workerDir;
+    private final Path lockFile;
+
+    /**
+     * Open queue in input directory, creating it if needed
+     */
+    public FileWorkQueue(Path dir) throws IOException {
+        pendingDir = Files.createDirectories(dir.resolve("pending"));
+        leaseDir = Files.createDirectories(dir.resolve("leases"));
+        doneDir = Files.createDirectories(dir.resolve("done"));
+        failedDir = Files.createDirectories(dir.resolve("failed"));
+        workerDir = Files.createDirectories(dir.resolve("workers"));
+        lockFile = dir.resolve("queue.lock").toAbsolutePath().normalize();
+    }
+
+    /**
+     * Counts of installations and live workers in the queue
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Status {
+        private final int pending;
+        private final int leased;
+        private final int done;
+        private final int failed;
+        private final int liveWorkers;
+
+        @Override
+        public String toString() {
+            return "{ pending: " + pending + ", leased: " + leased + ", done: " + done + ", failed: " + failed
+                    + ", workers: " + liveWorkers + " }";
+        }
+    }
+
+    private interface Action<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Run input action holding the queue lock. The file lock serialises processes; the JVM lock serialises threads
+     * of this process, which file locks do not.
+     */
+    private <T> T locked(Action<T> action) {
+        ReentrantLock jvmLock = JVM_LOCKS.computeIfAbsent(lockFile, f -> new ReentrantLock());
+        jvmLock.lock();
+        try (FileChannel ch = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Released when the channel is closed
+            ch.lock();
+            return action.run();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Work queue operation failed in " + lockFile.getParent(), e);
+        } finally {
+            jvmLock.unlock();
+        }
+    }
+
+    /**
+     * Add installations to the queue. Installations that are already pending or done are skipped, so enqueueing the
+     * same list again is harmless. Installations that failed are given another round of attempts.
+     *
+     * @return number of installations added
+     */
+    public int enqueue(Collection<String> installationIds) {
+        return locked(() -> {
+            int n = 0;
+            for (String id : installationIds) {
+                String f = encode(id);
+                if (Files.exists(doneDir.resolve(f)) || Files.exists(pendingDir.resolve(f)))
+                    continue;
+                Files.deleteIfExists(failedDir.resolve(f));
+                writeAtomic(pendingDir.resolve(f), "0");
+                n++;
+            }
+            return n;
+        });
+    }
+
+    /**
+     * Record heartbeat of input worker and renew all leases it holds
+     */
+    public void heartbeat(String workerId, long leaseMillis) {
+        locked(() -> {
+            long now = System.currentTimeMillis();
+            writeAtomic(workerDir.resolve(encode(workerId)), Long.toString(now));
+            for (Path p : list(leaseDir)) {
+                Lease lease = readLease(p);
+                if (lease != null && lease.owner.equals(workerId))
+                    writeAtomic(p, workerId + "\n" + (now + leaseMillis));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Remove heartbeat of a worker that is shutting down, so that its share is handed to others immediately
+     */
+    public void deregister(String workerId) {
+        locked(() -> Files.deleteIfExists(workerDir.resolve(encode(workerId))));
+    }
+
+    /**
+     * @return workers whose last heartbeat is at most timeoutMillis old
+     */
+    public List<String> liveWorkers(long timeoutMillis) {
+        return locked(() -> {
+            long now = System.currentTimeMillis();
+            List<String> live = new ArrayList<>();
+            for (Path p : list(workerDir)) {
+                String s = readString(p);
+                if (s != null && now - Long.parseLong(s.trim()) <= timeoutMillis)
+                    live.add(decode(p.getFileName().toString()));
+            }
+            Collections.sort(live);
+            return live;
+        });
+    }
+
+    /**
+     * Lease up to max available installations for input worker.
+     * <p>
+     * Installations that hash to the worker on the ring are taken first. When the worker has none left, it steals
+     * half of the backlog of the worker with the largest backlog, if that backlog exceeds stealThreshold.
+     * Installations whose lease has expired are available again.
+     *
+     * @return leased installation IDs
+     */
+    public List<String> claim(String workerId, ConsistentHashRing ring, int max, long leaseMillis, int stealThreshold) {
+        return locked(() -> {
+            long now = System.currentTimeMillis();
+
+            Map<String, List<String>> available = new HashMap<>();
+            for (Path p : list(pendingDir)) {
+                String f = p.getFileName().toString();
+                if (Files.exists(doneDir.resolve(f))) {
+                    Files.deleteIfExists(p);
+                    continue;
+                }
+                Lease lease = readLease(leaseDir.resolve(f));
+                if (lease != null && lease.expiry > now)
+                    continue;
+                String id = decode(f);
+                String owner = ring.ownerOf(id);
+                available.computeIfAbsent(owner != null ? owner : workerId, k -> new ArrayList<>()).add(id);
+            }
+
+            List<String> claimed = new ArrayList<>();
+            List<String> mine = available.get(workerId);
+            if (mine != null && !mine.isEmpty()) {
+                Collections.sort(mine);
+                claimed.addAll(mine.subList(0, Math.min(max, mine.size())));
+            } else {
+                // Work stealing from the worker that is furthest behind
+                List<String> victim = null;
+                for (List<String> backlog : available.values())
+                    if (victim == null || backlog.size() > victim.size())
+                        victim = backlog;
+                if (victim != null && victim.size() > stealThreshold) {
+                    Collections.sort(victim);
+                    int n = Math.min(max, Math.max(1, victim.size() / 2));
+                    claimed.addAll(victim.subList(victim.size() - n, victim.size()));
+                }
+            }
+
+            for (String id : claimed)
+                writeAtomic(leaseDir.resolve(encode(id)), workerId + "\n" + (now + leaseMillis));
+            return claimed;
+        });
+    }
+
+    /**
+     * Mark installation as done and release its lease. Nothing is recorded if the worker no longer holds the lease,
+     * e.g. after it expired and the installation was claimed by another worker. A lease the worker holds is always
+     * released, also when the installation was finished meanwhile.
+     *
+     * @return boolean indicating whether the installation was marked as done
+     */
+    public boolean complete(String workerId, String installationId) {
+        return locked(() -> {
+            String f = encode(installationId);
+            if (!holdsLease(workerId, f))
+                return false;
+            boolean recorded = !Files.exists(doneDir.resolve(f));
+            if (recorded) {
+                writeAtomic(doneDir.resolve(f), workerId);
+                Files.deleteIfExists(failedDir.resolve(f));
+            }
+            Files.deleteIfExists(pendingDir.resolve(f));
+            Files.deleteIfExists(leaseDir.resolve(f));
+            return recorded;
+        });
+    }
+
+    /**
+     * Record failed attempt of an installation and release its lease. After maxAttempts failures the installation
+     * is moved to failed and no longer handed out. Nothing is recorded if the worker no longer holds the lease, but a
+     * lease the worker holds is always released, also when the installation was finished meanwhile.
+     *
+     * @return boolean indicating whether the attempt was recorded
+     */
+    public boolean fail(String workerId, String installationId, int maxAttempts) {
+        return locked(() -> {
+            String f = encode(installationId);
+            if (!holdsLease(workerId, f))
+                return false;
+            Path pending = pendingDir.resolve(f);
+            if (Files.exists(doneDir.resolve(f)) || Files.exists(failedDir.resolve(f))) {
+                Files.deleteIfExists(pending);
+                Files.deleteIfExists(leaseDir.resolve(f));
+                return false;
+            }
+            String s = readString(pending);
+            int attempts = (s != null ? Integer.parseInt(s.trim()) : 0) + 1;
+            if (attempts >= maxAttempts) {
+                writeAtomic(failedDir.resolve(f), workerId + "\n" + attempts);
+                Files.deleteIfExists(pending);
+            } else {
+                writeAtomic(pending, Integer.toString(attempts));
+            }
+            Files.deleteIfExists(leaseDir.resolve(f));
+            return true;
+        });
+    }
+
+    // Whether input worker holds the lease of an installation; call holding the queue lock
+    private boolean holdsLease(String workerId, String f) throws IOException {
+        Lease lease = readLease(leaseDir.resolve(f));
+        return lease != null && lease.owner.equals(workerId);
+    }
+
+    /**
+     * Release lease of an installation without counting an attempt, e.g. when a worker stops before processing it
+     */
+    public void release(String workerId, String installationId) {
+        locked(() -> {
+            Path p = leaseDir.resolve(encode(installationId));
+            Lease lease = readLease(p);
+            if (lease != null && lease.owner.equals(workerId))
+                Files.deleteIfExists(p);
+            return null;
+        });
+    }
+
+    /**
+     * Delete expired leases, making their installations available again
+     *
+     * @return number of leases removed
+     */
+    public int reapExpiredLeases() {
+        return locked(() -> {
+            long now = System.currentTimeMillis();
+            int n = 0;
+            for (Path p : list(leaseDir)) {
+                Lease lease = readLease(p);
+                if (lease != null && lease.expiry <= now) {
+                    Files.deleteIfExists(p);
+                    n++;
+                }
+            }
+            return n;
+        });
+    }
+
+    /**
+     * @return current {@link Status} of the queue
+     */
+    public Status status(long workerTimeoutMillis) {
+        int live = liveWorkers(workerTimeoutMillis).size();
+        return locked(() -> new Status(list(pendingDir).size(), list(leaseDir).size(), list(doneDir).size(),
+                list(failedDir).size(), live));
+    }
+
+    /**
+     * @return boolean indicating whether no installations are pending
+     */
+    public boolean isDrained() {
+        return locked(() -> list(pendingDir).isEmpty());
+    }
+
+    private static class Lease {
+        final String owner;
+        final long expiry;
+
+        Lease(String owner, long expiry) {
+            this.owner = owner;
+            this.expiry = expiry;
+        }
+    }
+
+    private static Lease readLease(Path p) throws IOException {
+        String s = readString(p);
+        if (s == null)
+            return null;
+        String[] parts = s.split("\n");
+        return new Lease(parts[0], Long.parseLong(parts[1].trim()));
+    }
+
+    private static String readString(Path p) throws IOException {
+        try {
+            return new String(Files.readAllBytes(p), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static void writeAtomic(Path p, String content) throws IOException {
+        Path tmp = p.resolveSibling("." + p.getFileName() + ".tmp");
+        Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        List<Path> res = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds)
+                if (!p.getFileName().toString().startsWith("."))
+                    res.add(p);
+        }
+        return res;
+    }
+
+    private static String encode(String id) {
+        String s = URLEncoder.encode(id, StandardCharsets.UTF_8);
+        return s.startsWith(".") ? "%2E" + s.substring(1) : s;
+    }
+
+    private static String decode(String f) {
+        return URLDecoder.decode(f, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,18 @@
+package uk.co.travelai_public.shard;
+
+/**
+ * Processing of a single installation by a {@link ShardWorker}.
+ * <p>
+ * Implementations must be idempotent: an installation may be processed again after a worker dies or its lease
+ * expires, so results should replace earlier results for the same installation rather than add to them
+ * (see {@link ResultDirectory}).
+ */
+
+public interface InstallationProcessor {
+
+    /**
+     * Process input installation; throwing marks the attempt as failed
+     */
+    void process(String installationId) throws Exception;
+
+}
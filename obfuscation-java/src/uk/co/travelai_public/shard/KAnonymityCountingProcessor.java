@@ -0,0 +1,37 @@
+package uk.co.travelai_public.shard;
+
+import uk.co.travelai_public.obfuscation.KAnonymityCounters;
+import uk.co.travelai_public.pipeline.KAnonymityCounting;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * {@link InstallationProcessor} of the counting pass of a sharded run: the places of each installation are counted
+ * into {@link KAnonymityCounters} of their own, committed to a {@link ResultDirectory}, so that a retried
+ * installation replaces its counters. The counters of all installations are merged with
+ * {@link KAnonymityCounting#merge(Path)} once the pass is done, e.g. by ShardMain kanonymity, and set on the
+ * pipelines of the obfuscation pass.
+ */
+
+public class KAnonymityCountingProcessor implements InstallationProcessor {
+
+    private final KAnonymityCounting counting;
+    private final ResultDirectory results;
+    private final double startTs;
+    private final double endTs;
+
+    public KAnonymityCountingProcessor(KAnonymityCounting counting, Path countersDir, double startTs, double endTs)
+            throws IOException {
+        this.counting = counting;
+        this.results = new ResultDirectory(countersDir, KAnonymityCounting.SUFFIX);
+        this.startTs = startTs;
+        this.endTs = endTs;
+    }
+
+    @Override
+    public void process(String installationId) throws IOException {
+        KAnonymityCounters counters = counting.count(installationId, startTs, endTs, new KAnonymityCounters());
+        results.commit(installationId, counters::write);
+    }
+}
@@ -0,0 +1,62 @@
+package uk.co.travelai_public.shard;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Directory holding one result file per installation.
+ * <p>
+ * Results are written to a temporary file and atomically moved over any earlier result of the same installation,
+ * so a retried or duplicated shard leaves exactly one complete result behind.
+ */
+
+public class ResultDirectory {
+
+    private final Path dir;
+    private final String suffix;
+
+    /**
+     * Writer of the result of one installation to the input file
+     */
+    public interface ResultWriter {
+        void write(Path file) throws IOException;
+    }
+
+    public ResultDirectory(Path dir, String suffix) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.suffix = suffix;
+    }
+
+    /**
+     * @return path of the committed result of input installation
+     */
+    public Path resultFile(String installationId) {
+        return dir.resolve(URLEncoder.encode(installationId, StandardCharsets.UTF_8) + suffix);
+    }
+
+    /**
+     * Write and commit result of input installation, replacing any earlier result
+     */
+    public Path commit(String installationId, ResultWriter writer) throws IOException {
+        Path target = resultFile(installationId);
+        Path tmp = Files.createTempFile(dir, ".result", ".tmp");
+        try {
+            writer.write(tmp);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return target;
+    }
+
+    /**
+     * @return boolean indicating whether a result of input installation has been committed
+     */
+    public boolean hasResult(String installationId) {
+        return Files.exists(resultFile(installationId));
+    }
+}
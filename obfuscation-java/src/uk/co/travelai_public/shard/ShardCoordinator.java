@@ -0,0 +1,50 @@
+package uk.co.travelai_public.shard;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Collection;
+
+/**
+ * Coordinator of a sharded run: submits installations to a {@link FileWorkQueue} and follows progress until all of
+ * them are done or failed, reaping leases of workers that died meanwhile.
+ */
+
+@Getter
+@Setter
+public class ShardCoordinator {
+
+    private final FileWorkQueue queue;
+
+    private long pollMillis          = 5 * 1000;
+    private long workerTimeoutMillis = 30 * 1000;
+
+    public ShardCoordinator(FileWorkQueue queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * Submit installations for processing
+     *
+     * @return number of installations that were not already pending or done
+     */
+    public int submit(Collection<String> installationIds) {
+        return queue.enqueue(installationIds);
+    }
+
+    /**
+     * Wait until no installations are pending or timeoutMillis has passed
+     *
+     * @return final {@link FileWorkQueue.Status}
+     */
+    public FileWorkQueue.Status awaitCompletion(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            queue.reapExpiredLeases();
+            FileWorkQueue.Status status = queue.status(workerTimeoutMillis);
+            if (status.getPending() == 0 || System.currentTimeMillis() >= deadline)
+                return status;
+            Thread.sleep(pollMillis);
+        }
+    }
+}
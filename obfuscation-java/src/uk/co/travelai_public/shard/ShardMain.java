@@ -0,0 +1,84 @@
+package uk.co.travelai_public.shard;
+
+import uk.co.travelai_public.obfuscation.KAnonymityCounters;
+import uk.co.travelai_public.pipeline.KAnonymityCounting;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Command line entry point for running a sharded job as separate processes on one host:
+ * <pre>
+ *   ShardMain coordinator &lt;queueDir&gt; &lt;installationIdsFile&gt;
+ *   ShardMain worker &lt;queueDir&gt; &lt;workerId&gt; &lt;processorClass&gt;
+ *   ShardMain kanonymity &lt;countersDir&gt; &lt;countersFile&gt;
+ * </pre>
+ * The ids file holds one installation ID per line. The processor class must implement
+ * {@link InstallationProcessor} and have a public no-argument constructor. The kanonymity mode merges the counters
+ * written by a {@link KAnonymityCountingProcessor} pass into one file for the obfuscation pass.
+ */
+
+public class ShardMain {
+
+    private static final long SHUTDOWN_WAIT_MILLIS = 60_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: ShardMain coordinator <queueDir> <installationIdsFile>");
+            System.err.println("       ShardMain worker <queueDir> <workerId> <processorClass>");
+            System.err.println("       ShardMain kanonymity <countersDir> <countersFile>");
+            System.exit(2);
+        }
+
+        if (args[0].equals("kanonymity")) {
+            KAnonymityCounters counters = KAnonymityCounting.merge(Paths.get(args[1]));
+            if (counters == null) {
+                System.err.println("No counters in " + args[1]);
+                System.exit(1);
+            }
+            counters.write(Paths.get(args[2]));
+            System.out.println("Merged counters into " + args[2]);
+            return;
+        }
+
+        FileWorkQueue queue = new FileWorkQueue(Paths.get(args[1]));
+
+        if (args[0].equals("coordinator")) {
+            List<String> ids = Files.readAllLines(Paths.get(args[2]), StandardCharsets.UTF_8).stream()
+                    .map(String::trim)
+                    .filter(s -> !s.isEmpty())
+                    .collect(Collectors.toList());
+            ShardCoordinator coordinator = new ShardCoordinator(queue);
+            int n = coordinator.submit(ids);
+            System.out.println("Submitted " + n + " installations");
+            System.out.println("Finished: " + coordinator.awaitCompletion(Long.MAX_VALUE / 2));
+            return;
+        }
+
+        if (args[0].equals("worker") && args.length >= 4) {
+            InstallationProcessor processor = (InstallationProcessor) Class.forName(args[3])
+                    .getDeclaredConstructor().newInstance();
+            ShardWorker worker = new ShardWorker(args[2], queue, processor);
+            // On shutdown let the worker finish its current installation, so that its lease is not left behind
+            Thread main = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                worker.stop();
+                try {
+                    main.join(SHUTDOWN_WAIT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            worker.run();
+            System.out.println("Worker " + args[2] + " processed " + worker.getNProcessed()
+                    + ", failed " + worker.getNFailed());
+            return;
+        }
+
+        System.err.println("Unknown mode " + args[0]);
+        System.exit(2);
+    }
+}
@@ -0,0 +1,106 @@
+package uk.co.travelai_public.shard;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker processing installations from a {@link FileWorkQueue}.
+ * <p>
+ * The worker heartbeats in the background, renewing the leases it holds. In each round it builds a
+ * {@link ConsistentHashRing} over the live workers and leases a batch of the installations it owns, or steals from
+ * the worker with the largest backlog once its own share is done. Installations of workers that stop heartbeating
+ * move to the remaining workers when the ring is rebuilt or their leases expire.
+ */
+
+@Getter
+@Setter
+public class ShardWorker implements Runnable {
+
+    private final String workerId;
+    private final FileWorkQueue queue;
+    private final InstallationProcessor processor;
+
+    private long leaseMillis            = 5 * 60 * 1000;
+    private long heartbeatMillis        = 10 * 1000;
+    private long workerTimeoutMillis    = 30 * 1000;
+    private long idleSleepMillis        = 1000;
+    private int batchSize               = 4;
+    private int stealThreshold          = 2;
+    private int maxAttempts             = 3;
+
+    // Exit once no installations are pending, rather than wait for new ones
+    private boolean exitWhenDrained     = true;
+
+    @Setter(AccessLevel.NONE) private volatile boolean stopped  = false;
+    @Setter(AccessLevel.NONE) private volatile int nProcessed   = 0;
+    @Setter(AccessLevel.NONE) private volatile int nFailed      = 0;
+
+    public ShardWorker(String workerId, FileWorkQueue queue, InstallationProcessor processor) {
+        this.workerId = workerId;
+        this.queue = queue;
+        this.processor = processor;
+    }
+
+    /**
+     * Request worker to stop after the installation it is currently processing
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public void run() {
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "heartbeat-" + workerId);
+            t.setDaemon(true);
+            return t;
+        });
+
+        try {
+            queue.heartbeat(workerId, leaseMillis);
+            heartbeat.scheduleAtFixedRate(() -> queue.heartbeat(workerId, leaseMillis),
+                    heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+
+            while (!stopped) {
+                List<String> live = queue.liveWorkers(workerTimeoutMillis);
+                if (!live.contains(workerId))
+                    live.add(workerId);
+                ConsistentHashRing ring = new ConsistentHashRing(live);
+
+                List<String> claimed = queue.claim(workerId, ring, batchSize, leaseMillis, stealThreshold);
+                if (claimed.isEmpty()) {
+                    if (exitWhenDrained && queue.isDrained())
+                        break;
+                    Thread.sleep(idleSleepMillis);
+                    continue;
+                }
+
+                for (String id : claimed) {
+                    if (stopped) {
+                        queue.release(workerId, id);
+                        continue;
+                    }
+                    try {
+                        processor.process(id);
+                        if (queue.complete(workerId, id))
+                            nProcessed++;
+                    } catch (Exception e) {
+                        if (queue.fail(workerId, id, maxAttempts))
+                            nFailed++;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            heartbeat.shutdownNow();
+            queue.deregister(workerId);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package uk.co.travelai_public.tools;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+
+import java.util.Arrays;
+
+/**
+ * Streaming simplification of a trajectory into a polyline of a subset of its waypoints, bounded only by the distance
+ * of the dropped waypoints from the polyline.
+ * <p>
+ * Waypoints are inserted in time order. From the last kept waypoint (the anchor), every later waypoint further than
+ * tolerance away narrows the sector of directions in which the next kept waypoint must lie so that the waypoint stays
+ * within tolerance of the segment; waypoints within tolerance of the anchor do not narrow it. The previous waypoint is
+ * kept, and becomes the anchor, as soon as a waypoint falls outside the sector or doubles back by more than tolerance
+ * towards the anchor. Every dropped waypoint thus lies within about tolerance of the polyline.
+ * <p>
+ * Unlike {@link TrajectorySimplifier}, the raw path length is not tracked, so that GPS jitter does not keep waypoints:
+ * a stop shorter than tolerance in extent leaves no waypoint, and the polyline shows only where the trajectory went,
+ * not where it slowed down or stopped. Each waypoint costs one projection to the local plane of the anchor, one
+ * arctangent and one arcsine. Kept waypoints are returned by {@link #finish()} as a {@link LocationBlock} without HERE
+ * extra details.
+ */
+
+@Getter
+public class CorridorSimplifier {
+
+    private final double tolerance;
+
+    private int nInserted;
+    private int nKept;
+
+    // Kept waypoints
+    @Getter(AccessLevel.NONE) private double[] ts = new double[16];
+    @Getter(AccessLevel.NONE) private double[] lat = new double[16];
+    @Getter(AccessLevel.NONE) private double[] lon = new double[16];
+    @Getter(AccessLevel.NONE) private double[] acc = new double[16];
+    @Getter(AccessLevel.NONE) private double[] spd = new double[16];
+    @Getter(AccessLevel.NONE) private double[] tz = new double[16];
+
+    // Current window: anchor, sector of directions relative to its first bearing, furthest distance from the anchor
+    @Getter(AccessLevel.NONE) private double aLat, aLon, aCos;
+    @Getter(AccessLevel.NONE) private boolean bounded;
+    @Getter(AccessLevel.NONE) private double bearing, lo, hi;
+    @Getter(AccessLevel.NONE) private double maxDistance;
+    @Getter(AccessLevel.NONE) private double pTs, pLat, pLon, pAcc, pSpd, pTz;
+    @Getter(AccessLevel.NONE) private int nWindow;
+
+    /**
+     * @param tolerance maximum distance in meters of dropped waypoints from the polyline
+     */
+    public CorridorSimplifier(double tolerance) {
+        if (!(tolerance >= 0))
+            throw new IllegalArgumentException("Invalid tolerance " + tolerance + " m");
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Simplify the waypoints of input {@link LocationSource} in a single pass
+     */
+    public static LocationBlock simplify(@NonNull LocationSource source, double tolerance) {
+        CorridorSimplifier s = new CorridorSimplifier(tolerance);
+        if (source instanceof LocationBlock) {
+            LocationBlock b = (LocationBlock) source;
+            for (int i = 0; i < b.size(); i++)
+                s.insert(b.getTimestamp(i), b.getLatitude(i), b.getLongitude(i), b.getAccuracy(i), b.getSpeed(i),
+                        b.getTzOffset_ms(i));
+        } else {
+            for (Location l : source)
+                s.insertLocation(l);
+        }
+        return s.finish();
+    }
+
+    /**
+     * Insert next {@link Location} of the trajectory
+     */
+    public void insertLocation(@NonNull Location l) {
+        insert(l.getTimestamp(), l.getLatitude(), l.getLongitude(), l.getAccuracy(), l.getSpeed(), l.getTzOffset_ms());
+    }
+
+    /**
+     * Insert next waypoint of the trajectory given as primitive values
+     */
+    public void insert(double timestamp, double latitude, double longitude, double accuracy, double speed,
+                       double tzOffset_ms) {
+        nInserted++;
+        if (nInserted == 1) {
+            keep(timestamp, latitude, longitude, accuracy, speed, tzOffset_ms);
+            anchor(latitude, longitude);
+        } else if (!accept(latitude, longitude)) {
+            // The window up to the previous waypoint was within bounds; it becomes the anchor
+            keep(pTs, pLat, pLon, pAcc, pSpd, pTz);
+            anchor(pLat, pLon);
+            accept(latitude, longitude);
+            nWindow = 1;
+        } else {
+            nWindow++;
+        }
+
+        pTs = timestamp;
+        pLat = latitude;
+        pLon = longitude;
+        pAcc = accuracy;
+        pSpd = speed;
+        pTz = tzOffset_ms;
+    }
+
+    /**
+     * Keep the last waypoint
+     *
+     * @return kept waypoints in time order
+     */
+    public LocationBlock finish() {
+        if (nWindow > 0) {
+            keep(pTs, pLat, pLon, pAcc, pSpd, pTz);
+            nWindow = 0;
+        }
+        LocationBlock block = LocationBlock.allocate(nKept);
+        for (int i = 0; i < nKept; i++)
+            block.set(i, ts[i], lat[i], lon[i], acc[i], spd[i], tz[i]);
+        return block;
+    }
+
+    private void anchor(double latitude, double longitude) {
+        aLat = latitude;
+        aLon = longitude;
+        aCos = Math.cos(Math.toRadians(latitude));
+        bounded = false;
+        maxDistance = 0;
+    }
+
+    // Narrow the sector by input waypoint; false if the waypoint does not fit the window
+    private boolean accept(double latitude, double longitude) {
+        double dy = Math.toRadians(latitude - aLat) * DistanceKernel.EARTH_RADIUS;
+        double dx = Math.toRadians(longitude - aLon) * aCos * DistanceKernel.EARTH_RADIUS;
+        double d = Math.sqrt(dx * dx + dy * dy);
+        if (d < maxDistance - tolerance)
+            return false;
+        maxDistance = Math.max(maxDistance, d);
+        if (d <= tolerance)
+            return true;
+
+        double b = Math.atan2(dy, dx);
+        double half = Math.asin(tolerance / d);
+        if (!bounded) {
+            bounded = true;
+            bearing = b;
+            lo = -half;
+            hi = half;
+            return true;
+        }
+        double rel = Math.IEEEremainder(b - bearing, 2 * Math.PI);
+        if (rel < lo || rel > hi)
+            return false;
+        lo = Math.max(lo, rel - half);
+        hi = Math.min(hi, rel + half);
+        return true;
+    }
+
+    private void keep(double timestamp, double latitude, double longitude, double accuracy, double speed,
+                      double tzOffset_ms) {
+        if (nKept == ts.length) {
+            int n = nKept * 2;
+            ts = Arrays.copyOf(ts, n);
+            lat = Arrays.copyOf(lat, n);
+            lon = Arrays.copyOf(lon, n);
+            acc = Arrays.copyOf(acc, n);
+            spd = Arrays.copyOf(spd, n);
+            tz = Arrays.copyOf(tz, n);
+        }
+        ts[nKept] = timestamp;
+        lat[nKept] = latitude;
+        lon[nKept] = longitude;
+        acc[nKept] = accuracy;
+        spd[nKept] = speed;
+        tz[nKept] = tzOffset_ms;
+        nKept++;
+    }
+}
@@ -0,0 +1,103 @@
+package uk.co.travelai_public.tools;
+
+/**
+ * Helper methods for geohash cells.
+ * <p>
+ * Cells are handled as long keys rather than strings: the 5 * precision geohash bits preceded by a single 1 bit, so
+ * that keys of different precisions never collide and the parent of a cell is its key shifted right by 5 bits.
+ */
+
+public class GeoHash {
+
+    public static final int MAX_PRECISION = 12;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private GeoHash() {
+    }
+
+    /**
+     * @return key of the cell of input precision containing input point
+     */
+    public static long encode(double lat, double lon, int precision) {
+        if (precision < 1 || precision > MAX_PRECISION)
+            throw new IllegalArgumentException("Geohash precision must be 1.." + MAX_PRECISION + ": " + precision);
+
+        // Quantise to 30 bits per axis and interleave, longitude bit first, then keep the leading 5 * precision bits
+        long bits = (spread(quantise(lon, 180)) << 1) | spread(quantise(lat, 90));
+        return (1L << (5 * precision)) | (bits >>> (60 - 5 * precision));
+    }
+
+    private static long quantise(double x, double range) {
+        long q = (long) Math.floor((x + range) / (2 * range) * (1L << 30));
+        return Math.min(Math.max(q, 0), (1L << 30) - 1);
+    }
+
+    // Spread the low 32 bits of input to the even bit positions
+    private static long spread(long x) {
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    /**
+     * @return precision of input cell key
+     */
+    public static int precision(long key) {
+        return (63 - Long.numberOfLeadingZeros(key)) / 5;
+    }
+
+    /**
+     * @return key of the ancestor of input cell at input (coarser) precision
+     */
+    public static long ancestor(long key, int precision) {
+        return key >>> (5 * (precision(key) - precision));
+    }
+
+    /**
+     * @return key of the i:th (0..31) child of input cell
+     */
+    public static long child(long key, int i) {
+        return (key << 5) | i;
+    }
+
+    /**
+     * @return bounds of input cell as {minLat, minLon, maxLat, maxLon}
+     */
+    public static double[] bounds(long key) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        int nBits = 5 * precision(key);
+        for (int i = 0; i < nBits; i++) {
+            boolean bit = ((key >>> (nBits - 1 - i)) & 1) != 0;
+            if ((i & 1) == 0) {
+                double mid = (minLon + maxLon) / 2;
+                if (bit)
+                    minLon = mid;
+                else
+                    maxLon = mid;
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (bit)
+                    minLat = mid;
+                else
+                    maxLat = mid;
+            }
+        }
+        return new double[]{minLat, minLon, maxLat, maxLon};
+    }
+
+    /**
+     * @return geohash string of input cell
+     */
+    public static String toString(long key) {
+        int precision = precision(key);
+        char[] c = new char[precision];
+        for (int i = 0; i < precision; i++)
+            c[i] = BASE32[(int) ((key >>> (5 * (precision - 1 - i))) & 31)];
+        return new String(c);
+    }
+}
@@ -1,5 +1,6 @@
 package uk.co.travelai_public.tools;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import uk.co.travelai_public.model.Location;
@@ -9,6 +10,9 @@ import java.util.List;
 
 /**
  * Class containing a set of geometrics derived from a list of {@link EdgeDetails}s
+ * <p>
+ * Streaming instances (see {@link #streaming(boolean)}) only keep the aggregates, so that geometrics of arbitrarily
+ * long {@link Location} sequences can be computed without retaining the edges or their {@link Location}s.
  */
 
 @Getter
@@ -32,10 +36,27 @@ public class GeoMetrics {
     private int minVelocityIndex;
     private double meanVelocity;
 
+    // Number of inserted edges and their sums, used in place of edgeDetails when edges are not retained
+    private int nEdges;
+    private double sumEdgeDistance;
+    private double sumEdgeDuration;
+
+    // Streaming state
+    @Getter(AccessLevel.NONE) private final boolean retainEdges;
+    @Getter(AccessLevel.NONE) private boolean accountForLocAcc;
+    @Getter(AccessLevel.NONE) private Location prevLoc;
+    @Getter(AccessLevel.NONE) private boolean sinuosityDirty;
+    private int nLocations;
+
     /**
      * Empty Constructor initialising variables
      */
     public GeoMetrics() {
+        this(true);
+    }
+
+    private GeoMetrics(boolean retainEdges) {
+        this.retainEdges = retainEdges;
         edgeDetails = new ArrayList<>();
         distance = -1;
         sinuosity = -1;
@@ -50,23 +71,80 @@ public class GeoMetrics {
         minVelocityIndex = -1;
     }
 
+    /**
+     * Return {@link GeoMetrics} to be fed one {@link Location} at a time with {@link #insertLocation(Location)}.
+     * Edges are not retained; call {@link #finish()} after the last {@link Location}.
+     * <p>
+     * Results are identical to {@link Tools#getGeometrics(List, boolean)} over the same {@link Location}s, as both use
+     * {@link DistanceKernel}.
+     */
+    public static GeoMetrics streaming(boolean accountForLocAcc) {
+        GeoMetrics res = new GeoMetrics(false);
+        res.accountForLocAcc = accountForLocAcc;
+        res.insertDistSpeed(new EdgeDetails(null, null, 0, 0, 0));
+        return res;
+    }
+
+    /**
+     * Insert next {@link Location} of a streaming {@link GeoMetrics} and update result variables
+     */
+    public void insertLocation(@NonNull Location loc) {
+        if (prevLoc != null) {
+            double ddist = DistanceKernel.distance(prevLoc.getLatitude(), prevLoc.getLongitude(),
+                    loc.getLatitude(), loc.getLongitude());
+            double v = Tools.getLocSpeed(ddist, prevLoc, loc, accountForLocAcc);
+            double t = Math.abs(prevLoc.getTimestamp() - loc.getTimestamp());
+            insertDistSpeed(new EdgeDetails(prevLoc, loc, ddist, t, v));
+        }
+        prevLoc = loc;
+        nLocations++;
+    }
+
+    /**
+     * Set number of {@link Location}s of {@link GeoMetrics} computed from columns
+     */
+    void setNLocations(int nLocations) {
+        this.nLocations = nLocations;
+    }
+
+    /**
+     * Finish streaming {@link GeoMetrics} after the last {@link Location} has been inserted
+     */
+    public GeoMetrics finish() {
+        if (nLocations >= 2)
+            updateMeanVelocity();
+        prevLoc = null;
+        return this;
+    }
+
     /**
      * Insert {@link EdgeDetails} and update result variables
      * <p>
      * @param ds new {@link EdgeDetails} object
      */
     public void insertDistSpeed(EdgeDetails ds) {
-        edgeDetails.add(ds);
-        int thisIdx = edgeDetails.size() - 1;
+        if (retainEdges)
+            edgeDetails.add(ds);
+        insertEdge(ds.locA, ds.locB, ds.distance, ds.duration, ds.velocity);
+    }
+
+    /**
+     * Update result variables with an edge that is not retained. End point {@link Location}s may be null for all but
+     * the first and last edge.
+     */
+    void insertEdge(Location locA, Location locB, double edgeDistance, double duration, double velocity) {
+        int thisIdx = nEdges++;
+        sumEdgeDistance += edgeDistance;
+        sumEdgeDuration += duration;
 
         // Handle first case
-        if (edgeDetails.size() == 1) {
-            startLoc = ds.locA;
-            endLoc = ds.locB;
-            maxDistance = ds.distance;
-            minDistance = ds.distance;
-            maxVelocity = ds.velocity;
-            minVelocity = ds.velocity;
+        if (nEdges == 1) {
+            startLoc = locA;
+            endLoc = locB;
+            maxDistance = edgeDistance;
+            minDistance = edgeDistance;
+            maxVelocity = velocity;
+            minVelocity = velocity;
             maxDistanceIndex = 0;
             minDistanceIndex = 0;
             maxVelocityIndex = 0;
@@ -74,48 +152,55 @@ public class GeoMetrics {
             return;
         }
 
-        if (ds.distance > maxDistance) {
-            maxDistance = ds.distance;
+        if (edgeDistance > maxDistance) {
+            maxDistance = edgeDistance;
             maxDistanceIndex = thisIdx;
         }
-        if (ds.distance < minDistance) {
-            minDistance = ds.distance;
+        if (edgeDistance < minDistance) {
+            minDistance = edgeDistance;
             minDistanceIndex = thisIdx;
         }
-        if (ds.velocity > maxVelocity) {
-            maxVelocity = ds.velocity;
+        if (velocity > maxVelocity) {
+            maxVelocity = velocity;
             maxVelocityIndex = thisIdx;
         }
-        if (ds.velocity < minVelocity) {
-            minVelocity = ds.velocity;
+        if (velocity < minVelocity) {
+            minVelocity = velocity;
             minVelocityIndex = thisIdx;
         }
 
-        endLoc = ds.locB;
-        distance += ds.distance;
+        endLoc = locB;
+        distance += edgeDistance;
 
-        if (startLoc == null && ds.locA != null)
-            startLoc = ds.locA;
+        if (startLoc == null && locA != null)
+            startLoc = locA;
 
-        if (ds.locB != null)
-            endLoc = ds.locB;
+        if (locB != null)
+            endLoc = locB;
 
+        // Sinuosity only depends on the final distance and end points; resolve it lazily
         if (startLoc != null && endLoc != null)
-            sinuosity = distance / Tools.getDistanceMeters(startLoc, endLoc);
+            sinuosityDirty = true;
+
+    }
 
+    /**
+     * @return ratio of travelled distance to the distance between start and end {@link Location}s
+     */
+    public double getSinuosity() {
+        if (sinuosityDirty) {
+            sinuosity = distance / DistanceKernel.distance(startLoc.getLatitude(), startLoc.getLongitude(),
+                    endLoc.getLatitude(), endLoc.getLongitude());
+            sinuosityDirty = false;
+        }
+        return sinuosity;
     }
 
     /**
      * Get mean velocity of the LDR
      */
     public double updateMeanVelocity() {
-        double sumDist = 0;
-        double sumTime = 0;
-        for (EdgeDetails ds : edgeDetails) {
-            sumDist += ds.distance;
-            sumTime += ds.duration;
-        }
-        meanVelocity = sumDist / sumTime;
+        meanVelocity = sumEdgeDistance / sumEdgeDuration;
         return meanVelocity;
     }
 }
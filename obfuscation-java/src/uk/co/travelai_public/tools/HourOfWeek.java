@@ -0,0 +1,118 @@
+package uk.co.travelai_public.tools;
+
+import uk.co.travelai_public.model.TimeConstants;
+
+/**
+ * Helper methods for hour-of-week bins, numbered 0..167 starting from Monday 00:00 local time.
+ * <p>
+ * Bins are computed with integer arithmetic on epoch milliseconds, giving the same result as
+ * {@link Tools#epoch2ZonedDateTime(double, double)} without creating date objects.
+ */
+
+public class HourOfWeek {
+
+    public static final int N_BINS = TimeConstants.DAYS_PER_WEEK * TimeConstants.HOURS_PER_DAY;
+    public static final long WEEK_MS = TimeConstants.DAYS_PER_WEEK * TimeConstants.DAY_MS;
+
+    // 1.1.1970 was a Thursday, i.e. three days after the start of the week
+    private static final long EPOCH_OFFSET_MS = 3 * TimeConstants.DAY_MS;
+
+    private static final boolean[] NIGHT = new boolean[TimeConstants.HOURS_PER_DAY];
+    private static final boolean[] WORK_HOUR = new boolean[TimeConstants.HOURS_PER_DAY];
+    private static final boolean[] WORK_DAY = new boolean[TimeConstants.DAYS_PER_WEEK];
+    static {
+        for (int h : TimeConstants.NIGHT_HOURS)
+            NIGHT[h] = true;
+        for (int h : TimeConstants.WORK_HOURS)
+            WORK_HOUR[h] = true;
+        // WORK_DAYS are numbered from Sunday = 1
+        for (int d : TimeConstants.WORK_DAYS)
+            WORK_DAY[Tools.sunday2mondayFirstDayOfWeekInt(d) - 1] = true;
+    }
+
+    private HourOfWeek() {
+    }
+
+    /**
+     * @return local time in epoch milliseconds, truncating the offset to seconds like
+     * {@link Tools#epoch2ZonedDateTime(double, double)}
+     */
+    public static long localMillis(double epochTS, double tzOffset) {
+        return (long) epochTS + ((long) (tzOffset / 1000)) * 1000;
+    }
+
+    /**
+     * @return hour-of-week bin of input local time in epoch milliseconds
+     */
+    public static int binOfLocal(long localMs) {
+        return (int) Math.floorMod(Math.floorDiv(localMs + EPOCH_OFFSET_MS, TimeConstants.HOUR_MS), (long) N_BINS);
+    }
+
+    /**
+     * @return hour-of-week bin of input epoch timestamp and timezone offset in milliseconds
+     */
+    public static int bin(double epochTS, double tzOffset) {
+        return binOfLocal(localMillis(epochTS, tzOffset));
+    }
+
+    /**
+     * @return hour of day of input hour-of-week bin
+     */
+    public static int hourOfDay(int bin) {
+        return bin % TimeConstants.HOURS_PER_DAY;
+    }
+
+    /**
+     * @return day of week of input hour-of-week bin, Monday = 0
+     */
+    public static int dayOfWeek(int bin) {
+        return bin / TimeConstants.HOURS_PER_DAY;
+    }
+
+    /**
+     * @return boolean indicating whether input hour-of-week bin is during {@link TimeConstants#NIGHT_HOURS}
+     */
+    public static boolean isNight(int bin) {
+        return NIGHT[hourOfDay(bin)];
+    }
+
+    /**
+     * @return boolean indicating whether input hour-of-week bin is during {@link TimeConstants#WORK_HOURS} of
+     * {@link TimeConstants#WORK_DAYS}
+     */
+    public static boolean isWorkTime(int bin) {
+        return WORK_DAY[dayOfWeek(bin)] && WORK_HOUR[hourOfDay(bin)];
+    }
+
+    /**
+     * Add the time between local start and end, in milliseconds, to the hour-of-week bins it overlaps
+     *
+     * @return boolean indicating whether any of the time falls on {@link TimeConstants#NIGHT_HOURS}
+     */
+    public static boolean addOccupancy(long[] bins, long localStart, long localEnd) {
+        if (localEnd <= localStart)
+            return false;
+
+        boolean night = false;
+
+        // Whole weeks cover every bin equally
+        long weeks = (localEnd - localStart) / WEEK_MS;
+        if (weeks > 0) {
+            for (int b = 0; b < N_BINS; b++)
+                bins[b] += weeks * TimeConstants.HOUR_MS;
+            localStart += weeks * WEEK_MS;
+            night = true;
+        }
+
+        long t = localStart;
+        while (t < localEnd) {
+            long binEnd = (Math.floorDiv(t, TimeConstants.HOUR_MS) + 1) * TimeConstants.HOUR_MS;
+            long end = Math.min(binEnd, localEnd);
+            int b = binOfLocal(t);
+            bins[b] += end - t;
+            night |= NIGHT[hourOfDay(b)];
+            t = end;
+        }
+        return night;
+    }
+}
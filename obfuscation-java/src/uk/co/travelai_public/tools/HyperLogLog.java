@@ -0,0 +1,206 @@
+package uk.co.travelai_public.tools;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog sketch of the number of distinct items added to it.
+ * <p>
+ * Small sets are kept exactly as a sorted array of item hashes, which also takes less memory than the registers; the
+ * sketch switches to 2^precision one-byte registers once the array would outgrow them. The relative standard error
+ * of the register estimate is about 1.04 / sqrt(2^precision), i.e. 3 % at the default precision of 10. Sketches of
+ * equal precision can be merged, giving the sketch of the union of their items. The estimate is cached, so repeated
+ * queries between updates cost O(1). Methods are synchronized.
+ */
+
+public class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 10;
+
+    private final int precision;
+
+    // Sorted hashes while sparse; null once dense
+    private long[] hashes = new long[4];
+    private int nHashes;
+
+    // Registers once dense; null while sparse
+    private byte[] registers;
+
+    private double estimate = 0;
+    private boolean dirty = false;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18)
+            throw new IllegalArgumentException("HyperLogLog precision must be 4..18: " + precision);
+        this.precision = precision;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Add input item
+     */
+    public void add(String item) {
+        addHash(hash(item));
+    }
+
+    /**
+     * Add item with input 64-bit hash; the hash must be uniformly distributed
+     */
+    public synchronized void addHash(long h) {
+        if (registers != null) {
+            insertRegister(h);
+        } else {
+            int i = Arrays.binarySearch(hashes, 0, nHashes, h);
+            if (i >= 0)
+                return;
+            i = -i - 1;
+            if (nHashes == hashes.length) {
+                if (8 * 2 * nHashes > (1 << precision)) {
+                    densify();
+                    insertRegister(h);
+                    dirty = true;
+                    return;
+                }
+                hashes = Arrays.copyOf(hashes, 2 * nHashes);
+            }
+            System.arraycopy(hashes, i, hashes, i + 1, nHashes - i);
+            hashes[i] = h;
+            nHashes++;
+        }
+        dirty = true;
+    }
+
+    /**
+     * Add the items of input sketch to this one
+     */
+    public void merge(HyperLogLog other) {
+        if (other == this)
+            return;
+        if (other.precision != precision)
+            throw new IllegalArgumentException("Cannot merge sketches of precision " + other.precision + " and "
+                    + precision);
+
+        long[] otherHashes;
+        byte[] otherRegisters;
+        int otherN;
+        synchronized (other) {
+            otherHashes = other.hashes != null ? Arrays.copyOf(other.hashes, other.nHashes) : null;
+            otherRegisters = other.registers != null ? other.registers.clone() : null;
+            otherN = other.nHashes;
+        }
+
+        synchronized (this) {
+            if (otherRegisters != null) {
+                if (registers == null)
+                    densify();
+                for (int i = 0; i < registers.length; i++)
+                    registers[i] = (byte) Math.max(registers[i], otherRegisters[i]);
+                dirty = true;
+            } else {
+                for (int i = 0; i < otherN; i++)
+                    addHash(otherHashes[i]);
+            }
+        }
+    }
+
+    /**
+     * @return estimated number of distinct items; exact while the sketch is sparse
+     */
+    public synchronized double estimate() {
+        if (!dirty)
+            return estimate;
+        if (registers == null) {
+            estimate = nHashes;
+        } else {
+            int m = registers.length;
+            double sum = 0;
+            int zeros = 0;
+            for (byte r : registers) {
+                sum += 1.0 / (1L << r);
+                if (r == 0)
+                    zeros++;
+            }
+            double alpha = 0.7213 / (1 + 1.079 / m);
+            estimate = alpha * m * m / sum;
+            // Linear counting for small cardinalities
+            if (estimate <= 2.5 * m && zeros > 0)
+                estimate = m * Math.log(m / (double) zeros);
+        }
+        dirty = false;
+        return estimate;
+    }
+
+    /**
+     * @return boolean indicating whether the sketch has switched to registers
+     */
+    public synchronized boolean isDense() {
+        return registers != null;
+    }
+
+    public synchronized void write(DataOutput out) throws IOException {
+        out.writeByte(precision);
+        out.writeBoolean(registers != null);
+        if (registers != null) {
+            out.write(registers);
+        } else {
+            out.writeInt(nHashes);
+            for (int i = 0; i < nHashes; i++)
+                out.writeLong(hashes[i]);
+        }
+    }
+
+    public static HyperLogLog read(DataInput in) throws IOException {
+        HyperLogLog h = new HyperLogLog(in.readByte());
+        if (in.readBoolean()) {
+            h.registers = new byte[1 << h.precision];
+            in.readFully(h.registers);
+            h.hashes = null;
+        } else {
+            h.nHashes = in.readInt();
+            h.hashes = new long[Math.max(4, h.nHashes)];
+            for (int i = 0; i < h.nHashes; i++)
+                h.hashes[i] = in.readLong();
+        }
+        h.dirty = true;
+        return h;
+    }
+
+    /**
+     * @return 64-bit hash of input string
+     */
+    public static long hash(String s) {
+        // FNV-1a over the chars, finished with the SplitMix64 finaliser for uniform high bits
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    private void densify() {
+        registers = new byte[1 << precision];
+        for (int i = 0; i < nHashes; i++)
+            insertRegister(hashes[i]);
+        hashes = null;
+        nHashes = 0;
+    }
+
+    private void insertRegister(long h) {
+        int index = (int) (h >>> (64 - precision));
+        int rank = Long.numberOfLeadingZeros((h << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index])
+            registers[index] = (byte) rank;
+    }
+}
@@ -0,0 +1,136 @@
+package uk.co.travelai_public.tools;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.travel.PedestrianStop;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming detector of {@link PedestrianStop}s within a pedestrian leg.
+ * <p>
+ * Waypoints are inserted in time order. The detector keeps a window of consecutive waypoints that all lie within
+ * radius meters of the first waypoint of the window, its anchor; a waypoint outside the radius closes the window, and
+ * the window is emitted as a stop, located at its centroid, if it spans at least minDuration seconds. As the anchor
+ * does not move, a walker covers at most twice the radius during a window, so steady walking at pedestrian speeds
+ * closes windows well before minDuration. Each waypoint is compared against the anchor once, so a leg is processed in
+ * O(n) time and O(1) memory besides the emitted stops. Waypoints with accuracy worse than maxAccuracy are ignored.
+ */
+
+@Getter
+public class PedestrianStopDetector {
+
+    public static final double DEFAULT_RADIUS       = 50;   // meters
+    public static final double DEFAULT_MIN_DURATION = 60;   // seconds
+    public static final double DEFAULT_MAX_ACCURACY = 100;  // meters
+
+    private final double radius;
+    private final double minDuration;
+    private final double maxAccuracy;
+
+    private final List<PedestrianStop> stops = new ArrayList<>();
+
+    // Current window
+    @Getter(AccessLevel.NONE) private double sumLat;
+    @Getter(AccessLevel.NONE) private double sumLon;
+    @Getter(AccessLevel.NONE) private double sumAcc;
+    @Getter(AccessLevel.NONE) private int nWindow;
+    @Getter(AccessLevel.NONE) private double anchorLat;
+    @Getter(AccessLevel.NONE) private double anchorLon;
+    @Getter(AccessLevel.NONE) private double windowStart;
+    @Getter(AccessLevel.NONE) private double windowEnd;
+
+    /**
+     * Detector using default radius, minimum duration and accuracy
+     */
+    public PedestrianStopDetector() {
+        this(DEFAULT_RADIUS, DEFAULT_MIN_DURATION, DEFAULT_MAX_ACCURACY);
+    }
+
+    /**
+     * @param radius      maximum distance in meters of stop waypoints from the first waypoint of the stop
+     * @param minDuration minimum stop duration in seconds
+     * @param maxAccuracy maximum accuracy in meters of waypoints taken into account
+     */
+    public PedestrianStopDetector(double radius, double minDuration, double maxAccuracy) {
+        this.radius = radius;
+        this.minDuration = minDuration;
+        this.maxAccuracy = maxAccuracy;
+    }
+
+    /**
+     * Detect stops in input {@link Location}s
+     */
+    public static List<PedestrianStop> detect(@NonNull Iterable<Location> locs) {
+        PedestrianStopDetector detector = new PedestrianStopDetector();
+        for (Location l : locs)
+            detector.insertLocation(l);
+        return detector.finish();
+    }
+
+    /**
+     * Insert next {@link Location} of the leg
+     */
+    public void insertLocation(@NonNull Location l) {
+        insert(l.getTimestamp(), l.getLatitude(), l.getLongitude(), l.getAccuracy());
+    }
+
+    /**
+     * Insert next waypoint of the leg given as primitive values
+     */
+    public void insert(double timestamp, double latitude, double longitude, double accuracy) {
+        if (accuracy > maxAccuracy)
+            return;
+
+        if (nWindow > 0 && DistanceKernel.distance(anchorLat, anchorLon, latitude, longitude) > radius)
+            closeWindow();
+
+        if (nWindow == 0) {
+            windowStart = timestamp;
+            anchorLat = latitude;
+            anchorLon = longitude;
+        }
+        windowEnd = timestamp;
+        sumLat += latitude;
+        sumLon += longitude;
+        sumAcc += accuracy;
+        nWindow++;
+    }
+
+    /**
+     * Close the last window
+     *
+     * @return detected {@link PedestrianStop}s in time order
+     */
+    public List<PedestrianStop> finish() {
+        closeWindow();
+        return stops;
+    }
+
+    private void closeWindow() {
+        // Timestamps are epoch milliseconds, durations seconds
+        double duration = (windowEnd - windowStart) / 1000.0;
+        if (nWindow > 1 && duration >= minDuration) {
+            Location stopLoc = new Location();
+            stopLoc.setTimestamp(windowStart);
+            stopLoc.setLatitude(sumLat / nWindow);
+            stopLoc.setLongitude(sumLon / nWindow);
+            stopLoc.setAccuracy(sumAcc / nWindow);
+
+            PedestrianStop ps = new PedestrianStop();
+            ps.setStartTime(windowStart);
+            ps.setEndTime(windowEnd);
+            ps.setDuration(duration);
+            ps.setStopLoc(stopLoc);
+            stops.add(ps);
+        }
+
+        sumLat = 0;
+        sumLon = 0;
+        sumAcc = 0;
+        nWindow = 0;
+    }
+}
@@ -0,0 +1,138 @@
+package uk.co.travelai_public.tools;
+
+import lombok.Getter;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Polygon in latitude / longitude degrees, made of one or more closed rings. Points are inside if they are inside an
+ * odd number of rings, so holes are given as inner rings.
+ */
+
+@Getter
+public class Polygon {
+
+    public enum Relation {
+        INSIDE,
+        OUTSIDE,
+        BOUNDARY
+    }
+
+    // Ring vertices; the closing edge from the last to the first vertex is implicit
+    private final List<double[]> ringLats = new ArrayList<>();
+    private final List<double[]> ringLons = new ArrayList<>();
+
+    private double minLat = Double.MAX_VALUE;
+    private double minLon = Double.MAX_VALUE;
+    private double maxLat = -Double.MAX_VALUE;
+    private double maxLon = -Double.MAX_VALUE;
+
+    /**
+     * @param lats latitudes of the vertices of the outer ring
+     * @param lons longitudes of the vertices of the outer ring
+     */
+    public Polygon(@NonNull double[] lats, @NonNull double[] lons) {
+        addRing(lats, lons);
+    }
+
+    /**
+     * Add ring, e.g. a hole
+     */
+    public void addRing(@NonNull double[] lats, @NonNull double[] lons) {
+        if (lats.length != lons.length || lats.length < 3)
+            throw new IllegalArgumentException("Ring needs at least 3 vertices with latitude and longitude each");
+        ringLats.add(lats);
+        ringLons.add(lons);
+        for (int i = 0; i < lats.length; i++) {
+            minLat = Math.min(minLat, lats[i]);
+            maxLat = Math.max(maxLat, lats[i]);
+            minLon = Math.min(minLon, lons[i]);
+            maxLon = Math.max(maxLon, lons[i]);
+        }
+    }
+
+    /**
+     * @return boolean indicating whether input point is inside the polygon
+     */
+    public boolean contains(double lat, double lon) {
+        if (lat < minLat || lat > maxLat || lon < minLon || lon > maxLon)
+            return false;
+
+        boolean inside = false;
+        for (int r = 0; r < ringLats.size(); r++) {
+            double[] la = ringLats.get(r);
+            double[] lo = ringLons.get(r);
+            for (int i = 0, j = la.length - 1; i < la.length; j = i++) {
+                if ((la[i] > lat) != (la[j] > lat)
+                        && lon < (lo[j] - lo[i]) * (lat - la[i]) / (la[j] - la[i]) + lo[i])
+                    inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * @return {@link Relation} of input box to the polygon: INSIDE or OUTSIDE if the whole box is, otherwise
+     * BOUNDARY
+     */
+    public Relation relate(double boxMinLat, double boxMinLon, double boxMaxLat, double boxMaxLon) {
+        if (boxMaxLat < minLat || boxMinLat > maxLat || boxMaxLon < minLon || boxMinLon > maxLon)
+            return Relation.OUTSIDE;
+
+        for (int r = 0; r < ringLats.size(); r++) {
+            double[] la = ringLats.get(r);
+            double[] lo = ringLons.get(r);
+            for (int i = 0, j = la.length - 1; i < la.length; j = i++)
+                if (segmentIntersectsBox(la[j], lo[j], la[i], lo[i], boxMinLat, boxMinLon, boxMaxLat, boxMaxLon))
+                    return Relation.BOUNDARY;
+        }
+
+        // No edge crosses the box, so it is wholly inside or outside
+        return contains((boxMinLat + boxMaxLat) / 2, (boxMinLon + boxMaxLon) / 2) ? Relation.INSIDE : Relation.OUTSIDE;
+    }
+
+    /**
+     * @return area-weighted centroid of the outer ring as {lat, lon}
+     */
+    public double[] getCentroid() {
+        double[] la = ringLats.get(0);
+        double[] lo = ringLons.get(0);
+        double a = 0, cLat = 0, cLon = 0;
+        for (int i = 0, j = la.length - 1; i < la.length; j = i++) {
+            double cross = lo[j] * la[i] - lo[i] * la[j];
+            a += cross;
+            cLon += (lo[j] + lo[i]) * cross;
+            cLat += (la[j] + la[i]) * cross;
+        }
+        if (a == 0)
+            return new double[]{(minLat + maxLat) / 2, (minLon + maxLon) / 2};
+        return new double[]{cLat / (3 * a), cLon / (3 * a)};
+    }
+
+    // Liang-Barsky clipping of the segment against the box
+    private static boolean segmentIntersectsBox(double lat1, double lon1, double lat2, double lon2,
+                                                double minLat, double minLon, double maxLat, double maxLon) {
+        double t0 = 0, t1 = 1;
+        double dLon = lon2 - lon1;
+        double dLat = lat2 - lat1;
+        double[] p = {-dLon, dLon, -dLat, dLat};
+        double[] q = {lon1 - minLon, maxLon - lon1, lat1 - minLat, maxLat - lat1};
+        for (int k = 0; k < 4; k++) {
+            if (p[k] == 0) {
+                if (q[k] < 0)
+                    return false;
+            } else {
+                double t = q[k] / p[k];
+                if (p[k] < 0)
+                    t0 = Math.max(t0, t);
+                else
+                    t1 = Math.min(t1, t);
+                if (t0 > t1)
+                    return false;
+            }
+        }
+        return true;
+    }
+}
@@ -6,6 +6,9 @@ import lombok.Setter;
 import uk.co.travelai_public.model.Location;
 import uk.co.travelai_public.model.TimeConstants;
 import uk.co.travelai_public.model.place.POI;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+import uk.co.travelai_public.profiling.GeometricsEvent;
 import org.gavaghan.geodesy.Ellipsoid;
 import org.gavaghan.geodesy.GeodeticCalculator;
 import org.gavaghan.geodesy.GeodeticCurve;
@@ -173,22 +176,103 @@ public class Tools {
      * @return result as {@link GeoMetrics} containing List of {@link EdgeDetails}s and min/max values and indices
      */
     public static GeoMetrics getGeometrics(@NonNull List<Location> locs, boolean accountForLocAcc) {
+        GeometricsEvent event = GeometricsEvent.start();
+        GeoMetrics res = geometricsOfList(locs, accountForLocAcc);
+        GeometricsEvent.finish(event, "list", locs.size());
+        return res;
+    }
+
+    private static GeoMetrics geometricsOfList(List<Location> locs, boolean accountForLocAcc) {
         GeoMetrics res = new GeoMetrics();
         res.insertDistSpeed(new EdgeDetails(null, null, 0, 0, 0));
         if (locs.size() < 2)
             return res;
-        for (int i = 1; i < locs.size(); i++) {
-            Location locA = locs.get(i - 1);
-            Location locB = locs.get(i);
-            double ddist = getDistanceMeters(locA, locB);
-            double v = getLocSpeed(ddist, locA, locB, accountForLocAcc);
-            double t = Math.abs(locA.getTimestamp() - locB.getTimestamp());
-            res.insertDistSpeed(new EdgeDetails(locA, locB, ddist, t, v));
+
+        int n = locs.size();
+        double[] ts = new double[n];
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        double[] acc = new double[n];
+        for (int i = 0; i < n; i++) {
+            Location l = locs.get(i);
+            ts[i] = l.getTimestamp();
+            lat[i] = l.getLatitude();
+            lon[i] = l.getLongitude();
+            acc[i] = l.getAccuracy();
+        }
+
+        double[] dist = new double[n - 1];
+        double[] v = new double[n - 1];
+        DistanceKernel.distances(lat, lon, n, dist);
+        DistanceKernel.speeds(ts, acc, dist, n, accountForLocAcc, v);
+
+        for (int i = 1; i < n; i++) {
+            double t = Math.abs(ts[i - 1] - ts[i]);
+            res.insertDistSpeed(new EdgeDetails(locs.get(i - 1), locs.get(i), dist[i - 1], t, v[i - 1]));
         }
         res.updateMeanVelocity();
         return res;
     }
 
+    /**
+     * Calculate geometrics of a columnar {@link LocationBlock} with the batch {@link DistanceKernel}, without
+     * materialising {@link Location}s other than the end points. Edges are not retained.
+     * <p>
+     * @return result as {@link GeoMetrics} containing min/max values and indices
+     */
+    public static GeoMetrics getGeometrics(@NonNull LocationBlock block, boolean accountForLocAcc) {
+        GeometricsEvent event = GeometricsEvent.start();
+        GeoMetrics res = geometricsOfBlock(block, accountForLocAcc);
+        GeometricsEvent.finish(event, "block", block.size());
+        return res;
+    }
+
+    private static GeoMetrics geometricsOfBlock(LocationBlock block, boolean accountForLocAcc) {
+        GeoMetrics res = GeoMetrics.streaming(accountForLocAcc);
+        int n = block.size();
+        res.setNLocations(n);
+        if (n < 2)
+            return res.finish();
+
+        double[] ts = new double[n];
+        double[] lat = new double[n];
+        double[] lon = new double[n];
+        double[] acc = new double[n];
+        block.getTimestamps(ts);
+        block.getLatitudes(lat);
+        block.getLongitudes(lon);
+        block.getAccuracies(acc);
+
+        double[] dist = new double[n - 1];
+        double[] v = new double[n - 1];
+        DistanceKernel.distances(lat, lon, n, dist);
+        DistanceKernel.speeds(ts, acc, dist, n, accountForLocAcc, v);
+
+        Location first = block.getLocation(0);
+        Location last = block.getLocation(n - 1);
+        for (int i = 0; i < n - 1; i++)
+            res.insertEdge(i == 0 ? first : null, i == n - 2 ? last : null, dist[i], Math.abs(ts[i] - ts[i + 1]), v[i]);
+        return res.finish();
+    }
+
+    /**
+     * Calculate geometrics of the {@link Location}s of input {@link LocationSource} in a single streaming pass.
+     * Edges are not retained, so only one page of the source is held at a time.
+     * <p>
+     * @return result as {@link GeoMetrics} containing min/max values and indices
+     */
+    public static GeoMetrics getGeometrics(@NonNull LocationSource source, boolean accountForLocAcc) {
+        if (source instanceof LocationBlock)
+            return getGeometrics((LocationBlock) source, accountForLocAcc);
+        GeometricsEvent event = GeometricsEvent.start();
+        GeoMetrics res = GeoMetrics.streaming(accountForLocAcc);
+        for (Location l : source)
+            res.insertLocation(l);
+        res = res.finish();
+        GeometricsEvent.finish(event, "stream", res.getNLocations());
+        return res;
+    }
+
     /**
      * Conservative estimate of velocity based on two Location points; takes Accuracy into account
      * <p>
@@ -197,7 +281,7 @@ public class Tools {
      * @param l2 Second {@link Location}
      * @return estimated locSpeed = distance - max(accuracy) / dtime
      */
-    private static double getLocSpeed(double ddist, @NonNull Location l1, @NonNull Location l2, boolean reduceLocAcc) {
+    static double getLocSpeed(double ddist, @NonNull Location l1, @NonNull Location l2, boolean reduceLocAcc) {
 
         double dtime = Math.abs(l1.getTimestamp() - l2.getTimestamp());
         if (dtime == 0) {
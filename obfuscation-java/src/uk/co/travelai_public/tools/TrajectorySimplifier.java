@@ -0,0 +1,195 @@
+package uk.co.travelai_public.tools;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NonNull;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+
+import java.util.Arrays;
+
+/**
+ * Streaming, error-bounded simplification of a trajectory into a polyline of a subset of its waypoints.
+ * <p>
+ * Waypoints are inserted in time order. The simplifier keeps an opening window from the last kept waypoint (the
+ * anchor) and tracks the path length of the raw waypoints in the window together with the straight-line distance from
+ * the anchor to the newest waypoint. The window is closed, and its last waypoint kept, as soon as either
+ * <ul>
+ *     <li>the straight line is shorter than the raw path by more than maxDistanceError of the raw path, or</li>
+ *     <li>the raw path could stray more than tolerance meters from the straight line, i.e. half of
+ *     sqrt(path^2 - line^2) exceeds tolerance; every waypoint of the window lies in the ellipse with the window ends
+ *     as foci and the path length as major axis</li>
+ * </ul>
+ * As every segment of the polyline keeps at least 1 - maxDistanceError of the raw distance it replaces, the distance of
+ * the whole polyline is within maxDistanceError of the raw distance, and it is never longer. The first and last
+ * waypoints are always kept, so sinuosity changes by at most the same fraction.
+ * <p>
+ * Each waypoint costs one conversion to a unit vector and two square roots: lengths are chords of the unit sphere,
+ * as in {@link DistanceKernel}, which differ from arc lengths by less than 1e-6 relative for segments under 10 km.
+ * Kept waypoints are returned by {@link #finish()} as a {@link LocationBlock} without HERE extra details.
+ */
+
+@Getter
+public class TrajectorySimplifier {
+
+    public static final double DEFAULT_MAX_DISTANCE_ERROR = 0.01;  // fraction of raw distance
+    public static final double DEFAULT_TOLERANCE          = 10;    // meters
+
+    private final double maxDistanceError;
+    private final double tolerance;
+
+    private int nInserted;
+    private int nKept;
+
+    // Kept waypoints
+    @Getter(AccessLevel.NONE) private double[] ts = new double[16];
+    @Getter(AccessLevel.NONE) private double[] lat = new double[16];
+    @Getter(AccessLevel.NONE) private double[] lon = new double[16];
+    @Getter(AccessLevel.NONE) private double[] acc = new double[16];
+    @Getter(AccessLevel.NONE) private double[] spd = new double[16];
+    @Getter(AccessLevel.NONE) private double[] tz = new double[16];
+
+    // Current window: anchor and previous waypoint as unit vectors, raw path length on the unit sphere
+    @Getter(AccessLevel.NONE) private final double minLineRatio;
+    @Getter(AccessLevel.NONE) private final double maxSpread2;
+    @Getter(AccessLevel.NONE) private double ax, ay, az;
+    @Getter(AccessLevel.NONE) private double px, py, pz;
+    @Getter(AccessLevel.NONE) private double pTs, pLat, pLon, pAcc, pSpd, pTz;
+    @Getter(AccessLevel.NONE) private double path;
+    @Getter(AccessLevel.NONE) private int nWindow;
+
+    /**
+     * Simplifier using default distance error and tolerance
+     */
+    public TrajectorySimplifier() {
+        this(DEFAULT_MAX_DISTANCE_ERROR, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * @param maxDistanceError maximum fraction [0, 1) of the raw distance lost by the polyline
+     * @param tolerance        maximum distance in meters of raw waypoints from the polyline
+     */
+    public TrajectorySimplifier(double maxDistanceError, double tolerance) {
+        if (!(maxDistanceError >= 0 && maxDistanceError < 1) || !(tolerance >= 0))
+            throw new IllegalArgumentException("Invalid simplification error " + maxDistanceError + ", tolerance "
+                    + tolerance + " m");
+        this.maxDistanceError = maxDistanceError;
+        this.tolerance = tolerance;
+        this.minLineRatio = 1 - maxDistanceError;
+        double spread = 2 * tolerance / DistanceKernel.EARTH_RADIUS;
+        this.maxSpread2 = spread * spread;
+    }
+
+    /**
+     * Simplify the waypoints of input {@link LocationSource} in a single pass
+     */
+    public static LocationBlock simplify(@NonNull LocationSource source, double maxDistanceError, double tolerance) {
+        TrajectorySimplifier s = new TrajectorySimplifier(maxDistanceError, tolerance);
+        if (source instanceof LocationBlock) {
+            LocationBlock b = (LocationBlock) source;
+            for (int i = 0; i < b.size(); i++)
+                s.insert(b.getTimestamp(i), b.getLatitude(i), b.getLongitude(i), b.getAccuracy(i), b.getSpeed(i),
+                        b.getTzOffset_ms(i));
+        } else {
+            for (Location l : source)
+                s.insertLocation(l);
+        }
+        return s.finish();
+    }
+
+    /**
+     * Insert next {@link Location} of the trajectory
+     */
+    public void insertLocation(@NonNull Location l) {
+        insert(l.getTimestamp(), l.getLatitude(), l.getLongitude(), l.getAccuracy(), l.getSpeed(), l.getTzOffset_ms());
+    }
+
+    /**
+     * Insert next waypoint of the trajectory given as primitive values
+     */
+    public void insert(double timestamp, double latitude, double longitude, double accuracy, double speed,
+                       double tzOffset_ms) {
+        double p = Math.toRadians(latitude);
+        double l = Math.toRadians(longitude);
+        double c = Math.cos(p);
+        double x = c * Math.cos(l);
+        double y = c * Math.sin(l);
+        double z = Math.sin(p);
+        nInserted++;
+
+        if (nInserted == 1) {
+            keep(timestamp, latitude, longitude, accuracy, speed, tzOffset_ms);
+            ax = x;
+            ay = y;
+            az = z;
+        } else {
+            double step = norm(x - px, y - py, z - pz);
+            double windowPath = path + step;
+            double line = norm(x - ax, y - ay, z - az);
+            if (nWindow > 0 && (line < minLineRatio * windowPath
+                    || windowPath * windowPath - line * line > maxSpread2)) {
+                // The window up to the previous waypoint was within bounds; it becomes the anchor
+                keep(pTs, pLat, pLon, pAcc, pSpd, pTz);
+                ax = px;
+                ay = py;
+                az = pz;
+                path = step;
+                nWindow = 1;
+            } else {
+                path = windowPath;
+                nWindow++;
+            }
+        }
+
+        px = x;
+        py = y;
+        pz = z;
+        pTs = timestamp;
+        pLat = latitude;
+        pLon = longitude;
+        pAcc = accuracy;
+        pSpd = speed;
+        pTz = tzOffset_ms;
+    }
+
+    /**
+     * Keep the last waypoint
+     *
+     * @return kept waypoints in time order
+     */
+    public LocationBlock finish() {
+        if (nWindow > 0) {
+            keep(pTs, pLat, pLon, pAcc, pSpd, pTz);
+            nWindow = 0;
+        }
+        LocationBlock block = LocationBlock.allocate(nKept);
+        for (int i = 0; i < nKept; i++)
+            block.set(i, ts[i], lat[i], lon[i], acc[i], spd[i], tz[i]);
+        return block;
+    }
+
+    private void keep(double timestamp, double latitude, double longitude, double accuracy, double speed,
+                      double tzOffset_ms) {
+        if (nKept == ts.length) {
+            int n = nKept * 2;
+            ts = Arrays.copyOf(ts, n);
+            lat = Arrays.copyOf(lat, n);
+            lon = Arrays.copyOf(lon, n);
+            acc = Arrays.copyOf(acc, n);
+            spd = Arrays.copyOf(spd, n);
+            tz = Arrays.copyOf(tz, n);
+        }
+        ts[nKept] = timestamp;
+        lat[nKept] = latitude;
+        lon[nKept] = longitude;
+        acc[nKept] = accuracy;
+        spd[nKept] = speed;
+        tz[nKept] = tzOffset_ms;
+        nKept++;
+    }
+
+    private static double norm(double dx, double dy, double dz) {
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
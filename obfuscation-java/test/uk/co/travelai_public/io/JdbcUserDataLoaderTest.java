@@ -0,0 +1,275 @@
+package uk.co.travelai_public.io;
+
+import org.h2.jdbcx.JdbcDataSource;
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.TransportMode;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.travel.Leg;
+import uk.co.travelai_public.model.travel.LocationBlock;
+import uk.co.travelai_public.model.travel.LocationSource;
+import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.pipeline.ObfuscationPipeline;
+import uk.co.travelai_public.pipeline.PrefetchingUserDataLoader;
+import uk.co.travelai_public.pipeline.UserData;
+import uk.co.travelai_public.pipeline.UserDataLoader;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Check of {@link JdbcUserDataLoader} and {@link PrefetchingUserDataLoader} against an in-memory H2 database: loading
+ * of a user's window, on the heap, off heap and with lazy waypoints, prefetch hits, prefetch misses keeping later
+ * hints, and close. Requires the H2 driver on the class path.
+ * <pre>
+ *   JdbcUserDataLoaderTest
+ * </pre>
+ */
+
+public class JdbcUserDataLoaderTest {
+
+    private static final long DAY = 24 * 3600 * 1000L;
+    private static final long T0 = 1672617600000L;
+
+    public static void main(String[] args) throws Exception {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:loader;DB_CLOSE_DELAY=-1");
+        try (Connection conn = ds.getConnection()) {
+            createSchema(conn);
+            insertUser(conn, "a", 1000);
+            insertUser(conn, "b", 2000);
+        }
+
+        JdbcUserDataLoader jdbc = new JdbcUserDataLoader(ds);
+        // Plain coordinate columns instead of PostGIS geometries
+        jdbc.setPlacesSql("SELECT id, lat, lon FROM places WHERE installation_id = ?");
+        jdbc.setDwellsSql("SELECT id, place_id, start_ts, end_ts, lat, lon, timezone_offset FROM dwells "
+                + "WHERE installation_id = ? AND start_ts >= ? AND start_ts < ? ORDER BY start_ts");
+        jdbc.setRoutesSql("SELECT id, start_ts, end_ts, start_place_id, end_place_id FROM routes "
+                + "WHERE installation_id = ? AND start_ts >= ? AND start_ts < ? ORDER BY start_ts");
+        jdbc.setLegsSql("SELECT id, route_id, start_ts, end_ts, transport_mode FROM legs "
+                + "WHERE installation_id = ? AND start_ts >= ? AND start_ts < ? ORDER BY start_ts");
+        jdbc.setWaypointsSql("SELECT timestamp, lat, lon, accuracy, leg_id, route_id FROM waypoints "
+                + "WHERE installation_id = ? AND timestamp >= ? AND timestamp < ? ORDER BY timestamp");
+        jdbc.setFetchSize(2);
+        jdbc.setWaypointFetchSize(3);
+
+        checkLoad(jdbc.load("a", T0, T0 + 2 * DAY), 1000);
+        checkLoad(jdbc.load("b", T0, T0 + 2 * DAY), 2000);
+
+        // A later window holds the routes of the third day only
+        UserData later = jdbc.load("a", T0 + 2 * DAY, T0 + 3 * DAY);
+        check("routes of the later window", 1, later.getRoutes().size());
+
+        jdbc.setOffHeap(true);
+        UserData offHeap = jdbc.load("a", T0, T0 + 2 * DAY);
+        checkLoad(offHeap, 1000);
+        offHeap.releaseWaypoints();
+        jdbc.setOffHeap(false);
+
+        checkLazy(jdbc);
+        checkPrefetch(jdbc);
+        System.out.println("JdbcUserDataLoaderTest: loads and prefetches agree");
+    }
+
+    private static void checkLoad(UserData data, long base) {
+        check("places", 2, data.getPlaces().size());
+        check("dwells", 3, data.getDwells().size());
+        check("routes", 2, data.getRoutes().size());
+        check("legs", 2, data.getLegs().size());
+        check("POIs", 1, data.getPois().size());
+
+        Place home = data.getPlaces().get(0);
+        check("home uid", base + 1, home.getUid());
+        check("home dwells", 2, home.getDwells().size());
+        check("home departing routes", 1, home.getDepartingRoutes().size());
+        check("home arriving routes", 1, home.getArrivingRoutes().size());
+        check("home POIs", 1, home.getNearbyPOIs().size());
+        check("dwell time zone", 3600000.0, home.getDwells().get(0).getDwellLocation().getTzOffset_ms());
+
+        Route first = data.getRoutes().get(0);
+        check("legs of the first route", 2, first.getMatchedLegs().size());
+        Leg walk = first.getMatchedLegs().get(0);
+        Leg bus = first.getMatchedLegs().get(1);
+        check("walk mode", TransportMode.walk, walk.getMode());
+        check("walk waypoints", 4, walk.getLocationSource().size());
+        check("bus waypoints", 5, bus.getLocationSource().size());
+        check("walk waypoint block", true, walk.getLocationSource() instanceof LocationBlock);
+        check("walk end location", 51.003, walk.getEndLoc().getLatitude());
+
+        // The second route has no legs and holds its waypoints itself
+        Route second = data.getRoutes().get(1);
+        check("legs of the second route", 0, second.getMatchedLegs().size());
+        check("second route waypoints", 3, second.getLocationSource().size());
+    }
+
+    // Lazy waypoints are read when iterated, after the load, and are scored as the loaded ones
+    private static void checkLazy(JdbcUserDataLoader jdbc) throws IOException {
+        jdbc.setLegWaypointsSql("SELECT timestamp, lat, lon, accuracy FROM waypoints "
+                + "WHERE installation_id = ? AND leg_id = ? ORDER BY timestamp");
+        jdbc.setRouteWaypointsSql("SELECT timestamp, lat, lon, accuracy FROM waypoints "
+                + "WHERE installation_id = ? AND route_id = ? ORDER BY timestamp");
+        jdbc.setWaypointPageSize(2);
+        jdbc.setLazyWaypoints(true);
+        UserData lazy = jdbc.load("a", T0, T0 + 2 * DAY);
+        jdbc.setLazyWaypoints(false);
+        UserData loaded = jdbc.load("a", T0, T0 + 2 * DAY);
+
+        Route first = lazy.getRoutes().get(0);
+        LocationSource walk = first.getMatchedLegs().get(0).getLocationSource();
+        LocationSource bus = first.getMatchedLegs().get(1).getLocationSource();
+        check("lazy walk source", true, walk instanceof JdbcLocationSource);
+        check("lazy walk size before reading", -1, walk.size());
+        check("lazy walk waypoints", 4, walk.toList().size());
+        check("lazy bus waypoints", 5, bus.toList().size());
+        check("lazy route waypoints", 3, lazy.getRoutes().get(1).getLocationSource().toList().size());
+        check("lazy walk end", 51.003, walk.toList().get(3).getLatitude());
+        check("lazy waypoint accuracy", 10.0, walk.toList().get(0).getAccuracy());
+
+        // An abandoned iterator releases its cursor; the source can be iterated again
+        Iterator<Location> it = bus.iterator();
+        it.next();
+        LocationSource.close(it);
+        check("lazy bus waypoints after an abandoned iteration", 5, bus.toList().size());
+
+        new ObfuscationPipeline().run(lazy);
+        new ObfuscationPipeline().run(loaded);
+        List<Leg> lazyLegs = lazy.getLegs();
+        List<Leg> loadedLegs = loaded.getLegs();
+        for (int i = 0; i < loadedLegs.size(); i++) {
+            check("category of a lazy leg", loadedLegs.get(i).getPrivacyCategory(),
+                    lazyLegs.get(i).getPrivacyCategory());
+            check("hidden lazy leg", loadedLegs.get(i).isHidden(), lazyLegs.get(i).isHidden());
+        }
+    }
+
+    private static void checkPrefetch(JdbcUserDataLoader jdbc) throws IOException {
+        AtomicInteger nLoads = new AtomicInteger();
+        UserDataLoader counting = (id, startTs, endTs) -> {
+            nLoads.incrementAndGet();
+            return jdbc.load(id, startTs, endTs);
+        };
+
+        // Closed explicitly, as part of the check
+        PrefetchingUserDataLoader loader = new PrefetchingUserDataLoader(counting, 3);
+        // Hit
+        loader.prefetch("a", T0, T0 + 2 * DAY);
+        checkLoad(loader.load("a", T0, T0 + 2 * DAY), 1000);
+        check("hits", 1L, loader.getNHits());
+        check("misses", 0L, loader.getNMisses());
+
+        // Miss: the earlier window of the same user is dropped, the later hints are kept
+        loader.prefetch("a", T0 - DAY, T0);
+        loader.prefetch("b", T0, T0 + 2 * DAY);
+        loader.prefetch("a", T0 + 2 * DAY, T0 + 3 * DAY);
+        checkLoad(loader.load("a", T0, T0 + 2 * DAY), 1000);
+        check("misses", 1L, loader.getNMisses());
+        checkLoad(loader.load("b", T0, T0 + 2 * DAY), 2000);
+        check("hits after a miss", 2L, loader.getNHits());
+        check("routes of a later hint", 1, loader.load("a", T0 + 2 * DAY, T0 + 3 * DAY).getRoutes().size());
+        check("hits of later hints", 3L, loader.getNHits());
+        loader.load("a", T0 - DAY, T0);
+        check("miss of a dropped hint", 2L, loader.getNMisses());
+
+        // Hints beyond maxPrefetched are ignored
+        for (int i = 0; i < 5; i++)
+            loader.prefetch("b", T0 + i * DAY, T0 + (i + 1) * DAY);
+        loader.load("b", T0 + 4 * DAY, T0 + 5 * DAY);
+        check("misses beyond maxPrefetched", 3L, loader.getNMisses());
+
+        // Close drops the held hints and ignores new ones; loads are still served directly
+        loader.prefetch("a", T0, T0 + DAY);
+        loader.close();
+        loader.prefetch("b", T0, T0 + DAY);
+        int before = nLoads.get();
+        checkLoad(loader.load("b", T0, T0 + 2 * DAY), 2000);
+        check("loads after close", before + 1, nLoads.get());
+        check("hits after close", 3L, loader.getNHits());
+        check("misses after close", 4L, loader.getNMisses());
+    }
+
+    private static void createSchema(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE places (id BIGINT, installation_id VARCHAR, lat DOUBLE, lon DOUBLE)");
+            st.execute("CREATE TABLE dwells (id BIGINT, installation_id VARCHAR, place_id BIGINT, start_ts BIGINT, "
+                    + "end_ts BIGINT, lat DOUBLE, lon DOUBLE, timezone_offset DOUBLE)");
+            st.execute("CREATE TABLE routes (id BIGINT, installation_id VARCHAR, start_ts BIGINT, end_ts BIGINT, "
+                    + "start_place_id BIGINT, end_place_id BIGINT)");
+            st.execute("CREATE TABLE legs (id BIGINT, installation_id VARCHAR, route_id BIGINT, start_ts BIGINT, "
+                    + "end_ts BIGINT, transport_mode VARCHAR)");
+            st.execute("CREATE TABLE waypoints (installation_id VARCHAR, timestamp BIGINT, lat DOUBLE, lon DOUBLE, "
+                    + "accuracy DOUBLE, leg_id BIGINT, route_id BIGINT)");
+            st.execute("CREATE TABLE reverse_geocode (installation_id VARCHAR, place_id BIGINT, id VARCHAR, "
+                    + "title VARCHAR, category_sensitivity INT, score DOUBLE, lat DOUBLE, lon DOUBLE)");
+        }
+    }
+
+    /**
+     * Insert a user with uids from base: a home and a work place, a dwell at each on the first day and one at home on
+     * the second, a walk and bus route home - work on the first day, a route without legs work - home on the second
+     * day, and one more route on the third day
+     */
+    private static void insertUser(Connection conn, String id, long base) throws SQLException {
+        long home = base + 1;
+        long work = base + 2;
+        exec(conn, "INSERT INTO places VALUES (?, ?, ?, ?)", home, id, 51.0, -1.0);
+        exec(conn, "INSERT INTO places VALUES (?, ?, ?, ?)", work, id, 51.1, -1.1);
+        exec(conn, "INSERT INTO reverse_geocode VALUES (?, ?, ?, ?, ?, ?, ?, ?)", id, home, "poi-" + id, "Residential",
+                3, 0.9, 51.0, -1.0);
+
+        exec(conn, "INSERT INTO dwells VALUES (?, ?, ?, ?, ?, ?, ?, ?)", base + 10, id, home, T0, T0 + 8 * 3600000L,
+                51.0, -1.0, 3600000.0);
+        exec(conn, "INSERT INTO dwells VALUES (?, ?, ?, ?, ?, ?, ?, ?)", base + 11, id, work, T0 + 9 * 3600000L,
+                T0 + 17 * 3600000L, 51.1, -1.1, 3600000.0);
+        exec(conn, "INSERT INTO dwells VALUES (?, ?, ?, ?, ?, ?, ?, ?)", base + 12, id, home, T0 + DAY,
+                T0 + DAY + 3600000L, 51.0, -1.0, 3600000.0);
+        // Outside the window
+        exec(conn, "INSERT INTO dwells VALUES (?, ?, ?, ?, ?, ?, ?, ?)", base + 13, id, home, T0 + 2 * DAY,
+                T0 + 2 * DAY + 3600000L, 51.0, -1.0, 3600000.0);
+
+        long r1 = base + 20;
+        long r2 = base + 21;
+        long r3 = base + 22;
+        long t1 = T0 + 8 * 3600000L;
+        exec(conn, "INSERT INTO routes VALUES (?, ?, ?, ?, ?, ?)", r1, id, t1, t1 + 900000L, home, work);
+        exec(conn, "INSERT INTO legs VALUES (?, ?, ?, ?, ?, ?)", base + 30, id, r1, t1, t1 + 300000L, "walk");
+        exec(conn, "INSERT INTO legs VALUES (?, ?, ?, ?, ?, ?)", base + 31, id, r1, t1 + 300000L, t1 + 900000L, "bus");
+        for (int i = 0; i < 4; i++)
+            exec(conn, "INSERT INTO waypoints VALUES (?, ?, ?, ?, ?, ?, ?)", id, t1 + i * 60000L, 51.0 + i * 0.001,
+                    -1.0, 10.0, base + 30, r1);
+        for (int i = 0; i < 5; i++)
+            exec(conn, "INSERT INTO waypoints VALUES (?, ?, ?, ?, ?, ?, ?)", id, t1 + 300000L + i * 120000L,
+                    51.01 + i * 0.02, -1.0 - i * 0.02, 10.0, base + 31, r1);
+
+        long t2 = T0 + DAY - 3600000L;
+        exec(conn, "INSERT INTO routes VALUES (?, ?, ?, ?, ?, ?)", r2, id, t2, t2 + 1200000L, work, home);
+        for (int i = 0; i < 3; i++)
+            exec(conn, "INSERT INTO waypoints VALUES (?, ?, ?, ?, ?, ?, ?)", id, t2 + i * 600000L, 51.1 - i * 0.05,
+                    -1.1 + i * 0.05, 10.0, null, r2);
+
+        long t3 = T0 + 2 * DAY + 3600000L;
+        exec(conn, "INSERT INTO routes VALUES (?, ?, ?, ?, ?, ?)", r3, id, t3, t3 + 600000L, home, work);
+        exec(conn, "INSERT INTO legs VALUES (?, ?, ?, ?, ?, ?)", base + 32, id, r3, t3, t3 + 600000L, "car");
+        for (int i = 0; i < 2; i++)
+            exec(conn, "INSERT INTO waypoints VALUES (?, ?, ?, ?, ?, ?, ?)", id, t3 + i * 600000L, 51.0 + i * 0.1,
+                    -1.0 - i * 0.1, 10.0, base + 32, r3);
+    }
+
+    private static void exec(Connection conn, String sql, Object... values) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < values.length; i++)
+                stmt.setObject(i + 1, values[i]);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static void check(String what, Object expected, Object actual) {
+        if (!expected.equals(actual))
+            throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+    }
+}
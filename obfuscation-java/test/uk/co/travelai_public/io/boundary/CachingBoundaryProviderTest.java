@@ -0,0 +1,204 @@
+package uk.co.travelai_public.io.boundary;
+
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.OutputArea;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.place.ProtectedArea;
+import uk.co.travelai_public.obfuscation.PlaceSensitivity;
+import uk.co.travelai_public.obfuscation.PrivacyCategory;
+import uk.co.travelai_public.pipeline.ObfuscationPipeline;
+import uk.co.travelai_public.pipeline.UserData;
+import uk.co.travelai_public.tools.GeoHash;
+import uk.co.travelai_public.tools.Polygon;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Check of {@link CachingBoundaryProvider} over a {@link StubBoundaryProvider} with a grid of square areas: lookups
+ * answered by containment in cached areas, coalescing of concurrent misses, batching of bulk misses and persistence of
+ * the cache; and of {@link ProtectedAreaLookup} attaching the areas to places in an {@link ObfuscationPipeline}.
+ * <pre>
+ *   CachingBoundaryProviderTest
+ * </pre>
+ */
+
+public class CachingBoundaryProviderTest {
+
+    // Areas of 0.01 degrees, about 1.1 km by 0.7 km, in a 3 by 3 grid
+    private static final double LAT0 = 51.0;
+    private static final double LON0 = -1.0;
+    private static final double SIZE = 0.01;
+
+    public static void main(String[] args) throws Exception {
+        List<OutputArea> grid = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            for (int j = 0; j < 3; j++)
+                grid.add(square(i, j));
+        Path dir = Files.createTempDirectory("boundaries");
+        Path store = dir.resolve("areas.bin");
+
+        checkContainment(grid);
+        checkCoalescing(grid);
+        checkBatching(grid, store);
+        checkPersistence(store);
+        checkLookup(store);
+
+        System.out.println("CachingBoundaryProviderTest: hits, coalescing, batches, store and lookup agree");
+    }
+
+    // A second point of a cached area, outside the coalescing cell of the first, is answered from the cache
+    private static void checkContainment(List<OutputArea> grid) throws Exception {
+        StubBoundaryProvider stub = new StubBoundaryProvider(grid);
+        CachingBoundaryProvider caching = new CachingBoundaryProvider(stub, null);
+        check("first point", id(0, 0), caching.query(LAT0 + 0.002, LON0 + 0.002).getId());
+        check("second point", id(0, 0), caching.query(LAT0 + 0.008, LON0 + 0.008).getId());
+        check("points sent for a cached area", 1, stub.getNPoints().get());
+        check("cache hits", 1L, caching.getNHits());
+        check("point of another area", id(1, 2), caching.query(LAT0 + 0.015, LON0 + 0.025).getId());
+        check("points sent for a new area", 2, stub.getNPoints().get());
+    }
+
+    // Concurrent misses in one coalescing cell make one query
+    private static void checkCoalescing(List<OutputArea> grid) throws Exception {
+        StubBoundaryProvider stub = new StubBoundaryProvider(grid, 200);
+        CachingBoundaryProvider caching = new CachingBoundaryProvider(stub, null);
+        double lat = LAT0 + 0.0151;
+        double lon = LON0 + 0.0151;
+        int nThreads = 8;
+        for (int t = 0; t < nThreads; t++)
+            if (GeoHash.encode(lat + t * 1e-6, lon, CachingBoundaryProvider.COALESCE_PRECISION)
+                    != GeoHash.encode(lat, lon, CachingBoundaryProvider.COALESCE_PRECISION))
+                throw new AssertionError("Points of the coalescing check are in different cells");
+
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<OutputArea>> results = new ArrayList<>();
+            for (int t = 0; t < nThreads; t++) {
+                double pLat = lat + t * 1e-6;
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return caching.query(pLat, lon);
+                }));
+            }
+            start.countDown();
+            for (Future<OutputArea> f : results)
+                check("coalesced area", id(1, 1), f.get().getId());
+        } finally {
+            pool.shutdown();
+        }
+        check("queries of coalesced misses", 1, stub.getNQueries().get());
+    }
+
+    // Bulk misses go out in batches; points in the areas of a batch are not sent
+    private static void checkBatching(List<OutputArea> grid, Path store) throws Exception {
+        StubBoundaryProvider stub = new StubBoundaryProvider(grid);
+        CachingBoundaryProvider caching = new CachingBoundaryProvider(stub, store);
+        caching.setBatchSize(2);
+
+        // Two points in each of five areas, and a point outside all areas between the first and second ones
+        int[][] cells = {{0, 0}, {0, 1}, {1, 0}, {2, 2}, {2, 1}};
+        int outside = cells.length;
+        double[] lats = new double[2 * cells.length + 1];
+        double[] lons = new double[2 * cells.length + 1];
+        for (int k = 0; k < cells.length; k++) {
+            lats[k] = LAT0 + cells[k][0] * SIZE + 0.002;
+            lons[k] = LON0 + cells[k][1] * SIZE + 0.002;
+            lats[outside + 1 + k] = LAT0 + cells[k][0] * SIZE + 0.008;
+            lons[outside + 1 + k] = LON0 + cells[k][1] * SIZE + 0.008;
+        }
+        lats[outside] = LAT0 - 0.5;
+        lons[outside] = LON0;
+
+        List<OutputArea> areas = caching.queryAll(lats, lons);
+        for (int k = 0; k < cells.length; k++) {
+            check("area of a first point", id(cells[k][0], cells[k][1]), areas.get(k).getId());
+            check("area of a second point", id(cells[k][0], cells[k][1]), areas.get(outside + 1 + k).getId());
+        }
+        check("area of a point outside", null, areas.get(outside));
+        check("batches", 3, stub.getNQueries().get());
+        check("points sent", cells.length + 1, stub.getNPoints().get());
+        caching.close();
+    }
+
+    // A cache loaded from the store answers without the provider
+    private static void checkPersistence(Path store) throws Exception {
+        StubBoundaryProvider empty = new StubBoundaryProvider(List.of());
+        CachingBoundaryProvider caching = new CachingBoundaryProvider(empty, store);
+        check("stored areas", 5, caching.size());
+        check("stored area", id(2, 2), caching.query(LAT0 + 0.025, LON0 + 0.025).getId());
+        check("area not stored", null, caching.query(LAT0 + 0.005, LON0 + 0.025));
+        check("points sent to the provider", 1, empty.getNPoints().get());
+    }
+
+    // Places get the areas containing them; a private place is published at the centroid of its area
+    private static void checkLookup(Path store) throws Exception {
+        CachingBoundaryProvider caching = new CachingBoundaryProvider(new StubBoundaryProvider(List.of()), store);
+        ObfuscationPipeline pipeline = new ObfuscationPipeline();
+        pipeline.setProtectedAreaLookup(new ProtectedAreaLookup(caching));
+        pipeline.setPlaceSensitivity(new PlaceSensitivity() {
+            @Override
+            public void assessPlaceSensitivity(List<Place> places) {
+                for (Place p : places)
+                    p.setPrivacyCategory(PrivacyCategory.PRIVATE);
+            }
+        });
+
+        UserData data = new UserData();
+        data.setInstallationId("a");
+        Place inside = place(1, LAT0 + 0.002, LON0 + 0.003);
+        Place outside = place(2, LAT0 - 0.5, LON0);
+        Place preset = place(3, LAT0 + 0.025, LON0 + 0.025);
+        ProtectedArea own = square(0, 0).toProtectedArea(preset);
+        preset.setProtectedArea(own);
+        data.getPlaces().addAll(List.of(inside, outside, preset));
+        for (Place p : data.getPlaces())
+            data.getDwells().addAll(p.getDwells());
+        pipeline.run(data);
+
+        check("area of a place inside", id(0, 0), inside.getProtectedArea().getId());
+        check("area of a place outside", null, outside.getProtectedArea());
+        check("area set before the lookup", own, preset.getProtectedArea());
+        check("hidden latitude", inside.getProtectedArea().getCentroidLatitude(), inside.getHiddenLatitude());
+        check("hidden longitude", inside.getProtectedArea().getCentroidLongitude(), inside.getHiddenLongitude());
+        check("hidden latitude without an area", true, Double.isNaN(outside.getHiddenLatitude()));
+    }
+
+    private static Place place(long uid, double lat, double lon) {
+        Dwell d = new Dwell();
+        d.setStartTime(1672617600000.0);
+        d.setEndTime(1672617600000.0 + 3600000.0);
+        d.setDuration(3600000.0);
+        d.setParentPlaceID(uid);
+        Place p = new Place();
+        p.setUid(uid);
+        p.setLatitude(lat);
+        p.setLongitude(lon);
+        p.setDwells(List.of(d));
+        return p;
+    }
+
+    private static OutputArea square(int i, int j) {
+        double lat = LAT0 + i * SIZE;
+        double lon = LON0 + j * SIZE;
+        Polygon polygon = new Polygon(new double[]{lat, lat, lat + SIZE, lat + SIZE},
+                new double[]{lon, lon + SIZE, lon + SIZE, lon});
+        return new OutputArea(id(i, j), "Area " + i + j, polygon);
+    }
+
+    private static String id(int i, int j) {
+        return "E0100000" + (3 * i + j);
+    }
+
+    private static void check(String what, Object expected, Object actual) {
+        if (expected == null ? actual != null : !expected.equals(actual))
+            throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+    }
+}
@@ -0,0 +1,95 @@
+package uk.co.travelai_public.model.travel;
+
+import uk.co.travelai_public.model.Location;
+
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Check of {@link WaypointArena}: on close, the waypoints of attached legs and routes are copied to the heap and the
+ * slabs are freed at once; blocks and double columns handed out but not attached stay readable after close, their
+ * slabs being left to the garbage collector.
+ * <pre>
+ *   WaypointArenaTest
+ * </pre>
+ */
+
+public class WaypointArenaTest {
+
+    // Monday 2023-01-02 00:00 UTC
+    private static final double T0 = 1672617600000.0;
+
+    public static void main(String[] args) {
+        checkAttached();
+        checkUnattachedBlock();
+        checkColumn();
+        System.out.println("WaypointArenaTest: attached waypoints are copied, other allocations outlive close");
+    }
+
+    // Only attached waypoints: they are copied and the slabs freed
+    private static void checkAttached() {
+        WaypointArena arena = new WaypointArena(1024);
+        Leg leg = new Leg();
+        leg.setLegLocs(locations(5, 51.0));
+        Route route = new Route();
+        route.setRouteLocs(locations(3, 52.0));
+        arena.attach(leg);
+        arena.attach(route);
+        check("leg waypoints in the arena", true, arena.owns((LocationBlock) leg.getLocationSource()));
+
+        arena.close();
+        check("slabs freed", true, arena.isFreed());
+        LocationBlock legBlock = (LocationBlock) leg.getLocationSource();
+        check("leg waypoints on the heap", false, legBlock.getBuffer().isDirect());
+        check("leg waypoints", 5, legBlock.size());
+        check("last leg latitude", 51.004, legBlock.getLatitude(4));
+        check("route waypoints", 3, route.getLocationSource().size());
+        check("first route latitude", 52.0, ((LocationBlock) route.getLocationSource()).getLatitude(0));
+    }
+
+    // A block that is not attached keeps its slab alive after close
+    private static void checkUnattachedBlock() {
+        WaypointArena arena = new WaypointArena(1024);
+        Leg leg = new Leg();
+        leg.setLegLocs(locations(4, 51.0));
+        arena.attach(leg);
+        LocationBlock kept = arena.copyOf(LocationSource.of(locations(6, 53.0)));
+        LocationBlock slice = kept.slice(2, 3);
+
+        arena.close();
+        check("slabs freed with an unattached block", false, arena.isFreed());
+        check("leg waypoints on the heap", false, ((LocationBlock) leg.getLocationSource()).getBuffer().isDirect());
+        check("unattached block after close", 53.005, kept.getLatitude(5));
+        check("slice of an unattached block after close", 53.002, slice.getLatitude(0));
+    }
+
+    // Double columns are never copied, so they keep their slab alive after close
+    private static void checkColumn() {
+        WaypointArena arena = new WaypointArena(1024);
+        DoubleBuffer column = arena.allocateDoubles(8);
+        for (int i = 0; i < 8; i++)
+            column.put(i, i * 0.5);
+
+        arena.close();
+        check("slabs freed with a double column", false, arena.isFreed());
+        check("double column after close", 3.5, column.get(7));
+    }
+
+    private static List<Location> locations(int n, double lat) {
+        List<Location> locs = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            Location l = new Location();
+            l.setTimestamp(T0 + i * 1000.0);
+            l.setLatitude(lat + i * 0.001);
+            l.setLongitude(-1.0);
+            locs.add(l);
+        }
+        return locs;
+    }
+
+    private static void check(String what, Object expected, Object actual) {
+        if (!expected.equals(actual))
+            throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+    }
+}
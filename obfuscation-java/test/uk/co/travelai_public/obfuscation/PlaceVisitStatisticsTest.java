@@ -0,0 +1,138 @@
+package uk.co.travelai_public.obfuscation;
+
+import uk.co.travelai_public.model.Location;
+import uk.co.travelai_public.model.TimeConstants;
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.DwellDurationType;
+import uk.co.travelai_public.model.place.Place;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Randomised check that {@link PlaceVisitStatistics#run(List)} gives the same statistics as
+ * {@link PlaceVisitStatistics#runReference(Place)}, over several users and observation windows, with time zone
+ * offsets of both signs, a daylight saving change within a user and dwells spanning the boundary of a week.
+ * <pre>
+ *   PlaceVisitStatisticsTest [seed]
+ * </pre>
+ */
+
+public class PlaceVisitStatisticsTest {
+
+    // Monday 2023-01-02 00:00 UTC
+    private static final double MONDAY = 1672617600000.0;
+    private static final double HOUR = TimeConstants.DAY_MS / 24;
+
+    // Offsets of the dwells of a user: winter and summer time of a zone, or a fixed non-whole-hour zone
+    private static final double[][] ZONES = {
+            {0, HOUR}, {HOUR, 2 * HOUR}, {-5 * HOUR, -4 * HOUR}, {5.5 * HOUR, 5.5 * HOUR}, {-9.5 * HOUR, -9.5 * HOUR}};
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+        Random rnd = new Random(seed);
+        int nPlaces = 0;
+
+        for (int user = 0; user < 50; user++) {
+            double[] zone = ZONES[rnd.nextInt(ZONES.length)];
+            double start = MONDAY + rnd.nextInt(52) * 7 * TimeConstants.DAY_MS + rnd.nextInt(7 * 24) * HOUR;
+            double end = start + (1 + rnd.nextInt(90)) * TimeConstants.DAY_MS;
+            // Daylight saving changes halfway through the window
+            double dstChange = (start + end) / 2;
+
+            List<Place> places = new ArrayList<>();
+            for (int i = 0; i < 1 + rnd.nextInt(8); i++)
+                places.add(place(rnd, start, end, zone, dstChange));
+            List<Place> reference = copy(places);
+
+            PlaceVisitStatistics statistics = new PlaceVisitStatistics(start, end);
+            statistics.run(places);
+            for (Place p : reference)
+                statistics.runReference(p);
+
+            for (int i = 0; i < places.size(); i++)
+                assertSame("user " + user + ", place " + i, reference.get(i), places.get(i));
+            nPlaces += places.size();
+        }
+        System.out.println("PlaceVisitStatisticsTest: " + nPlaces + " places agree");
+    }
+
+    private static Place place(Random rnd, double start, double end, double[] zone, double dstChange) {
+        List<Dwell> dwells = new ArrayList<>();
+        int n = rnd.nextInt(40);
+        for (int i = 0; i < n; i++) {
+            double t;
+            if (rnd.nextInt(4) == 0) {
+                // Arrive late on Sunday local time, leave in the next week
+                double week = MONDAY + (1 + rnd.nextInt(52)) * 7 * TimeConstants.DAY_MS;
+                t = week - zone[0] - (1 + rnd.nextInt(6)) * HOUR - rnd.nextInt(3600) * 1000.0;
+            } else {
+                t = start + Math.floor(rnd.nextDouble() * (end - start));
+            }
+            double duration;
+            switch (rnd.nextInt(4)) {
+                case 0:
+                    duration = rnd.nextInt(30 * 60) * 1000.0;
+                    break;
+                case 1:
+                    duration = rnd.nextInt(10 * 3600) * 1000.0;
+                    break;
+                case 2:
+                    duration = rnd.nextInt(3 * 24 * 3600) * 1000.0;
+                    break;
+                default:
+                    // Longer than a week
+                    duration = (7 * 24 * 3600 + rnd.nextInt(7 * 24 * 3600)) * 1000.0;
+            }
+
+            Dwell d = new Dwell();
+            d.setStartTime(t);
+            d.setEndTime(t + duration);
+            d.setDuration(duration);
+            d.setDwellDurationType(DwellDurationType.values()[rnd.nextInt(DwellDurationType.values().length)]);
+            if (rnd.nextInt(10) > 0) {
+                Location l = new Location();
+                l.setTimestamp(t);
+                l.setTzOffset_ms(t < dstChange ? zone[0] : zone[1]);
+                d.setDwellLocation(l);
+            }
+            dwells.add(d);
+        }
+        // Invalid dwells are skipped by both
+        if (rnd.nextInt(5) == 0) {
+            Dwell d = new Dwell();
+            d.setStartTime(start + HOUR);
+            d.setEndTime(start);
+            dwells.add(d);
+        }
+
+        Place p = new Place();
+        p.setDwells(dwells);
+        return p;
+    }
+
+    private static List<Place> copy(List<Place> places) {
+        List<Place> res = new ArrayList<>();
+        for (Place p : places) {
+            Place c = new Place();
+            c.setDwells(p.getDwells());
+            res.add(c);
+        }
+        return res;
+    }
+
+    private static void assertSame(String what, Place expected, Place actual) {
+        check(what + " frequency", expected.getVisitFrequency(), actual.getVisitFrequency());
+        check(what + " regularity", expected.getVisitRegularity(), actual.getVisitRegularity());
+        check(what + " duration", expected.getVisitDuration(), actual.getVisitDuration());
+        if (expected.getNSleepVisits() != actual.getNSleepVisits())
+            throw new AssertionError(what + " sleep visits: expected " + expected.getNSleepVisits() + ", got "
+                    + actual.getNSleepVisits());
+    }
+
+    private static void check(String what, double expected, double actual) {
+        if (Double.compare(expected, actual) != 0)
+            throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+    }
+}
@@ -0,0 +1,193 @@
+package uk.co.travelai_public.pipeline;
+
+import org.h2.jdbcx.JdbcDataSource;
+import uk.co.travelai_public.io.JdbcUserDataLoader;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.model.travel.Route;
+import uk.co.travelai_public.obfuscation.PlaceSensitivity;
+import uk.co.travelai_public.obfuscation.PrivacyCategory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Check of {@link DeltaRunner} over a {@link JdbcUserDataLoader} against an in-memory H2 database: the watermark
+ * advances over complete data, is held back by an open dwell, and routes of a place whose privacy category changes
+ * are loaded again with their legs and waypoints and re-scored. Requires the H2 driver on the class path.
+ * <pre>
+ *   DeltaRunnerTest
+ * </pre>
+ */
+
+public class DeltaRunnerTest {
+
+    private static final long DAY = 24 * 3600 * 1000L;
+    private static final long HOUR = 3600 * 1000L;
+    private static final long T0 = 1672617600000L;
+
+    private static final long HOME = 1;
+    private static final long SHOP = 2;
+    private static final long PARK = 3;
+
+    public static void main(String[] args) throws Exception {
+        JdbcDataSource ds = new JdbcDataSource();
+        ds.setURL("jdbc:h2:mem:delta;DB_CLOSE_DELAY=-1");
+        try (Connection conn = ds.getConnection()) {
+            createSchema(conn);
+            insertUser(conn);
+        }
+
+        JdbcUserDataLoader jdbc = new JdbcUserDataLoader(ds);
+        // Plain coordinate columns instead of PostGIS geometries
+        jdbc.setPlacesSql("SELECT id, lat, lon FROM places WHERE installation_id = ?");
+        jdbc.setDwellsSql("SELECT id, place_id, start_ts, end_ts, lat, lon FROM dwells "
+                + "WHERE installation_id = ? AND start_ts >= ? AND start_ts < ? ORDER BY start_ts");
+        jdbc.setRoutesSql("SELECT id, start_ts, end_ts, start_place_id, end_place_id FROM routes "
+                + "WHERE installation_id = ? AND start_ts >= ? AND start_ts < ? ORDER BY start_ts");
+        jdbc.setLegsSql("SELECT id, route_id, start_ts, end_ts, transport_mode FROM legs "
+                + "WHERE installation_id = ? AND start_ts >= ? AND start_ts < ? ORDER BY start_ts");
+        jdbc.setWaypointsSql("SELECT timestamp, lat, lon, leg_id, route_id FROM waypoints "
+                + "WHERE installation_id = ? AND timestamp >= ? AND timestamp < ? ORDER BY timestamp");
+        jdbc.setOpenDwellsSql("SELECT min(start_ts) AS start_ts FROM dwells "
+                + "WHERE installation_id = ? AND start_ts >= ? AND start_ts < ? AND end_ts IS NULL");
+        jdbc.setOpenRoutesSql("SELECT min(start_ts) AS start_ts FROM routes "
+                + "WHERE installation_id = ? AND start_ts >= ? AND start_ts < ? AND end_ts IS NULL");
+        jdbc.setReverseGeocodesSql(null);
+
+        Path dir = Files.createTempDirectory("delta");
+        DeltaRunner runner = new DeltaRunner(jdbc, data -> { }, dir);
+        runner.setInitialWatermark(T0);
+        // Categories are set by the check, so that a change is seen by the next run
+        Map<Long, PrivacyCategory> categories = new HashMap<>();
+        runner.getPipeline().setPlaceSensitivity(new PlaceSensitivity() {
+            @Override
+            public void assessPlaceSensitivity(List<Place> places) {
+                for (Place p : places)
+                    p.setPrivacyCategory(categories.getOrDefault(p.getUid(), PrivacyCategory.PUBLIC));
+            }
+        });
+
+        // The first day is complete
+        UserData first = runner.runUser("a", T0 + DAY);
+        check("watermark of the first run", (double) (T0 + DAY), DeltaState.read(runner.stateFile("a")).getWatermark());
+        check("routes of the first run", Set.of(20L, 21L, 22L), routeIds(first));
+        check("new routes of the first run", 3, runner.getNRoutesNew());
+
+        // The open dwell at the shop holds the watermark back to its start, and the route after it
+        UserData second = runner.runUser("a", T0 + 2 * DAY);
+        check("watermark held back by the open dwell", (double) (T0 + DAY + 9 * HOUR),
+                DeltaState.read(runner.stateFile("a")).getWatermark());
+        check("routes before the open dwell", Set.of(23L), routeIds(second));
+        check("re-scored routes without a change", 0, runner.getNRoutesRescored());
+
+        // Once the dwell is closed it is loaded; the shop becomes private, so its earlier routes are re-scored
+        try (Connection conn = ds.getConnection()) {
+            exec(conn, "UPDATE dwells SET end_ts = ? WHERE id = ?", T0 + DAY + 17 * HOUR, 14L);
+        }
+        categories.put(SHOP, PrivacyCategory.PRIVATE);
+        UserData third = runner.runUser("a", T0 + 2 * DAY);
+        check("watermark after the dwell closed", (double) (T0 + 2 * DAY),
+                DeltaState.read(runner.stateFile("a")).getWatermark());
+        check("places with new dwells", 1, runner.getNPlacesUpdated());
+        check("places changed", 1, runner.getNPlacesChanged());
+        check("new routes after the dwell closed", 1, runner.getNRoutesNew());
+        check("re-scored routes of the shop", 3, runner.getNRoutesRescored());
+        check("routes of the third run", Set.of(20L, 21L, 23L, 24L), routeIds(third));
+
+        Map<Long, Route> routes = new HashMap<>();
+        for (Route r : third.getRoutes())
+            routes.put(r.getUid(), r);
+        Route toShop = routes.get(20L);
+        check("legs of a re-scored route", 1, toShop.getMatchedLegs().size());
+        check("waypoints of a re-scored leg", 4, toShop.getMatchedLegs().get(0).getLocationSource().size());
+        check("waypoints of a re-scored route without legs", 3, routes.get(21L).getLocationSource().size());
+        check("category of the changed end place", PrivacyCategory.PRIVATE, toShop.getEndPlace().getPrivacyCategory());
+        check("stored category of the start place", PrivacyCategory.PUBLIC,
+                toShop.getStartPlace().getPrivacyCategory());
+        check("legs of new and re-scored routes in the output", 3, third.getLegs().size());
+
+        System.out.println("DeltaRunnerTest: watermarks, hold-back and re-scoring agree");
+    }
+
+    private static Set<Long> routeIds(UserData data) {
+        Set<Long> ids = new TreeSet<>();
+        for (Route r : data.getRoutes())
+            ids.add(r.getUid());
+        return ids;
+    }
+
+    private static void createSchema(Connection conn) throws SQLException {
+        try (Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE places (id BIGINT, installation_id VARCHAR, lat DOUBLE, lon DOUBLE)");
+            st.execute("CREATE TABLE dwells (id BIGINT, installation_id VARCHAR, place_id BIGINT, start_ts BIGINT, "
+                    + "end_ts BIGINT, lat DOUBLE, lon DOUBLE)");
+            st.execute("CREATE TABLE routes (id BIGINT, installation_id VARCHAR, start_ts BIGINT, end_ts BIGINT, "
+                    + "start_place_id BIGINT, end_place_id BIGINT)");
+            st.execute("CREATE TABLE legs (id BIGINT, installation_id VARCHAR, route_id BIGINT, start_ts BIGINT, "
+                    + "end_ts BIGINT, transport_mode VARCHAR)");
+            st.execute("CREATE TABLE waypoints (installation_id VARCHAR, timestamp BIGINT, lat DOUBLE, lon DOUBLE, "
+                    + "leg_id BIGINT, route_id BIGINT)");
+        }
+    }
+
+    /**
+     * Insert user a: on the first day home - shop by a walk, shop - park by a route without legs and park - home by
+     * car; on the second day home - shop by a walk, a dwell at the shop that is still open, and shop - home after it
+     */
+    private static void insertUser(Connection conn) throws SQLException {
+        exec(conn, "INSERT INTO places VALUES (?, 'a', ?, ?)", HOME, 51.0, -1.0);
+        exec(conn, "INSERT INTO places VALUES (?, 'a', ?, ?)", SHOP, 51.1, -1.1);
+        exec(conn, "INSERT INTO places VALUES (?, 'a', ?, ?)", PARK, 51.05, -1.2);
+
+        dwell(conn, 10, HOME, T0, T0 + 8 * HOUR);
+        dwell(conn, 11, SHOP, T0 + 9 * HOUR, T0 + 17 * HOUR);
+        dwell(conn, 12, PARK, T0 + 18 * HOUR, T0 + 19 * HOUR);
+        dwell(conn, 13, HOME, T0 + DAY, T0 + DAY + 8 * HOUR);
+        dwell(conn, 14, SHOP, T0 + DAY + 9 * HOUR, null);
+
+        route(conn, 20, HOME, SHOP, T0 + 8 * HOUR, 30, "walk", 4);
+        route(conn, 21, SHOP, PARK, T0 + 17 * HOUR, -1, null, 3);
+        route(conn, 22, PARK, HOME, T0 + 19 * HOUR, 31, "car", 2);
+        route(conn, 23, HOME, SHOP, T0 + DAY + 8 * HOUR, 32, "walk", 4);
+        route(conn, 24, SHOP, HOME, T0 + DAY + 17 * HOUR, 33, "walk", 4);
+    }
+
+    private static void dwell(Connection conn, long id, long place, long start, Long end) throws SQLException {
+        double lat = place == HOME ? 51.0 : place == SHOP ? 51.1 : 51.05;
+        exec(conn, "INSERT INTO dwells VALUES (?, 'a', ?, ?, ?, ?, ?)", id, place, start, end, lat, -1.0);
+    }
+
+    // Route of 30 minutes with one leg of nWaypoints, or with nWaypoints itself if leg is negative
+    private static void route(Connection conn, long id, long from, long to, long start, long leg, String mode,
+                              int nWaypoints) throws SQLException {
+        long end = start + HOUR / 2;
+        exec(conn, "INSERT INTO routes VALUES (?, 'a', ?, ?, ?, ?)", id, start, end, from, to);
+        if (leg >= 0)
+            exec(conn, "INSERT INTO legs VALUES (?, 'a', ?, ?, ?, ?)", leg, id, start, end, mode);
+        for (int i = 0; i < nWaypoints; i++)
+            exec(conn, "INSERT INTO waypoints VALUES ('a', ?, ?, ?, ?, ?)", start + i * 60000L, 51.0 + i * 0.001,
+                    -1.0, leg >= 0 ? leg : null, id);
+    }
+
+    private static void exec(Connection conn, String sql, Object... values) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < values.length; i++)
+                stmt.setObject(i + 1, values[i]);
+            stmt.executeUpdate();
+        }
+    }
+
+    private static void check(String what, Object expected, Object actual) {
+        if (!expected.equals(actual))
+            throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+    }
+}
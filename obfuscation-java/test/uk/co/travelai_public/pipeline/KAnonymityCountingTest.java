@@ -0,0 +1,128 @@
+package uk.co.travelai_public.pipeline;
+
+import uk.co.travelai_public.model.place.Dwell;
+import uk.co.travelai_public.model.place.Place;
+import uk.co.travelai_public.obfuscation.KAnonymityCounters;
+import uk.co.travelai_public.obfuscation.PlaceSensitivity;
+import uk.co.travelai_public.obfuscation.PrivacyCategory;
+import uk.co.travelai_public.shard.KAnonymityCountingProcessor;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Check of k-anonymity across users in a {@link BackfillRunner}: a public place seen by fewer than k installations
+ * is hidden, one seen by k or more is not, counters persist between runs, and the counters of a sharded counting pass
+ * merge to the same counts.
+ * <pre>
+ *   KAnonymityCountingTest
+ * </pre>
+ */
+
+public class KAnonymityCountingTest {
+
+    // Monday 2023-01-02 00:00 UTC
+    private static final double T0 = 1672617600000.0;
+    private static final double HOUR = 3600 * 1000.0;
+
+    private static final int K = 3;
+    private static final double[] SHARED = {51.5010, -0.1410};
+    private static final double[] RARE = {51.6200, -0.3050};
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("kanonymity");
+        Path file = dir.resolve("counters" + KAnonymityCounting.SUFFIX);
+        UserDataLoader loader = KAnonymityCountingTest::load;
+        double end = T0 + BackfillRunner.WEEK_MS;
+
+        // Five installations share a place, only u0 visits the rare one
+        Map<String, List<Place>> output = new HashMap<>();
+        BackfillRunner runner = runner(loader, output, dir, file);
+        runner.run(List.of("u0", "u1", "u2", "u3", "u4"), T0, end);
+        check("hidden shared place", false, output.get("u1").get(0).isHidden());
+        check("hidden place seen by 1 installation", true, output.get("u0").get(1).isHidden());
+
+        KAnonymityCounters counters = KAnonymityCounters.read(file);
+        check("installations at the shared place", 5, (int) counters.countCell(SHARED[0], SHARED[1]));
+        check("installations at the rare place", 1, (int) counters.countCell(RARE[0], RARE[1]));
+
+        // A later run adds to the stored counts; u0 is done and not counted again
+        output.clear();
+        runner = runner(loader, output, dir, file);
+        runner.run(List.of("u0", "u5"), T0, end);
+        check("hidden place seen by 2 installations", true, output.get("u5").get(1).isHidden());
+        output.clear();
+        runner = runner(loader, output, dir, file);
+        runner.run(List.of("u6"), T0, end);
+        check("hidden place seen by 3 installations", false, output.get("u6").get(1).isHidden());
+        check("installations at the rare place", 3, (int) KAnonymityCounters.read(file).countCell(RARE[0], RARE[1]));
+
+        // Counters of a sharded pass, with one installation counted twice, merge to the same counts
+        Path shard = Files.createDirectories(dir.resolve("shard"));
+        KAnonymityCountingProcessor processor = new KAnonymityCountingProcessor(new KAnonymityCounting(loader),
+                shard, T0, end);
+        for (String id : List.of("u0", "u1", "u2", "u3", "u4", "u5", "u6", "u5"))
+            processor.process(id);
+        KAnonymityCounters merged = KAnonymityCounting.merge(shard);
+        check("merged installations at the shared place", 7, (int) merged.countCell(SHARED[0], SHARED[1]));
+        check("merged installations at the rare place", 3, (int) merged.countCell(RARE[0], RARE[1]));
+
+        System.out.println("KAnonymityCountingTest: rare places are hidden, counters persist and merge");
+    }
+
+    private static BackfillRunner runner(UserDataLoader loader, Map<String, List<Place>> output, Path dir,
+                                         Path file) throws Exception {
+        BackfillRunner runner = new BackfillRunner(loader, data -> output.put(data.getInstallationId(),
+                data.getPlaces()), dir.resolve("checkpoints"));
+        runner.setKAnonymityFile(file);
+        // Places are public by themselves, so only k-anonymity hides them
+        runner.getPipeline().setPlaceSensitivity(new PlaceSensitivity() {
+            @Override
+            public void assessPlaceSensitivity(List<Place> places) {
+                for (Place p : places)
+                    p.setPrivacyCategory(PrivacyCategory.PUBLIC);
+            }
+        });
+        runner.getPipeline().getPlaceObfuscation().setK(K);
+        return runner;
+    }
+
+    // The shared place of every installation, and the rare place of u0, u5 and u6
+    private static UserData load(String installationId, double startTs, double endTs) {
+        int user = Integer.parseInt(installationId.substring(1));
+        UserData data = new UserData();
+        data.setInstallationId(installationId);
+        data.setStartTs(startTs);
+        data.setEndTs(endTs);
+        if (startTs > T0)
+            return data;
+        data.getPlaces().add(place(100L * user, SHARED, user * 1e-4));
+        if (user == 0 || user >= 5)
+            data.getPlaces().add(place(100L * user + 1, RARE, 0));
+        for (Place p : data.getPlaces())
+            data.getDwells().addAll(p.getDwells());
+        return data;
+    }
+
+    private static Place place(long uid, double[] position, double offset) {
+        Dwell d = new Dwell();
+        d.setStartTime(T0 + 10 * HOUR);
+        d.setEndTime(T0 + 11 * HOUR);
+        d.setDuration(HOUR);
+        d.setParentPlaceID(uid);
+        Place p = new Place();
+        p.setUid(uid);
+        p.setLatitude(position[0] + offset);
+        p.setLongitude(position[1]);
+        p.setDwells(List.of(d));
+        return p;
+    }
+
+    private static void check(String what, Object expected, Object actual) {
+        if (!expected.equals(actual))
+            throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+    }
+}
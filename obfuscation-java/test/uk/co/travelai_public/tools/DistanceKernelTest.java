@@ -0,0 +1,103 @@
+package uk.co.travelai_public.tools;
+
+import java.util.Random;
+
+/**
+ * Randomised check of {@link DistanceKernel}: the batch path of {@link DistanceKernel#distances} gives bit-identical
+ * results to {@link DistanceKernel#distance}, and both agree with {@link DistanceKernel#haversine} within
+ * {@link DistanceKernel#TOLERANCE} for distances under 1000 km, near the poles as elsewhere. Over longer distances,
+ * up to nearly antipodal points where both formulas take the asin of a value close to 1, they agree within
+ * LONG_TOLERANCE.
+ * <pre>
+ *   DistanceKernelTest [seed]
+ * </pre>
+ */
+
+public class DistanceKernelTest {
+
+    private static final double LONG_TOLERANCE = 1;  // meters
+    private static final int N = 100_000;
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+        Random rnd = new Random(seed);
+
+        // Points of a path, with the kind of step chosen per point
+        double[] lat = new double[N];
+        double[] lon = new double[N];
+        lat[0] = uniformLatitude(rnd);
+        lon[0] = uniformLongitude(rnd);
+        for (int i = 1; i < N; i++) {
+            switch (rnd.nextInt(5)) {
+                case 0:
+                    // Anywhere
+                    lat[i] = uniformLatitude(rnd);
+                    lon[i] = uniformLongitude(rnd);
+                    break;
+                case 1:
+                    // Nearly antipodal
+                    lat[i] = -lat[i - 1] + (rnd.nextDouble() - 0.5) * 1e-3;
+                    lon[i] = wrap(lon[i - 1] + 180 + (rnd.nextDouble() - 0.5) * 1e-3);
+                    break;
+                case 2:
+                    // Near a pole, at any longitude
+                    lat[i] = (rnd.nextBoolean() ? 1 : -1) * (90 - rnd.nextDouble() * 0.01);
+                    lon[i] = uniformLongitude(rnd);
+                    break;
+                case 3:
+                    // Exactly on a pole or the same point
+                    lat[i] = rnd.nextBoolean() ? (rnd.nextBoolean() ? 90 : -90) : lat[i - 1];
+                    lon[i] = rnd.nextBoolean() ? uniformLongitude(rnd) : lon[i - 1];
+                    break;
+                default:
+                    // A step along a path, meters to kilometres
+                    double step = Math.pow(10, rnd.nextDouble() * 4 - 5);
+                    lat[i] = Math.max(-90, Math.min(90, lat[i - 1] + (rnd.nextDouble() - 0.5) * step));
+                    lon[i] = wrap(lon[i - 1] + (rnd.nextDouble() - 0.5) * step);
+            }
+        }
+
+        double[] batch = new double[N - 1];
+        DistanceKernel.distances(lat, lon, N, batch);
+        if (N < DistanceKernel.BATCH_MIN)
+            throw new AssertionError("Input too short for the batch path");
+
+        double maxShort = 0;
+        double maxLong = 0;
+        for (int i = 0; i < N - 1; i++) {
+            double scalar = DistanceKernel.distance(lat[i], lon[i], lat[i + 1], lon[i + 1]);
+            if (Double.doubleToLongBits(scalar) != Double.doubleToLongBits(batch[i]))
+                throw new AssertionError(pair(lat, lon, i) + ": scalar " + scalar + ", batch " + batch[i]);
+
+            double haversine = DistanceKernel.haversine(lat[i], lon[i], lat[i + 1], lon[i + 1]);
+            double error = Math.abs(scalar - haversine);
+            if (haversine < 1e6) {
+                maxShort = Math.max(maxShort, error);
+                if (error > DistanceKernel.TOLERANCE)
+                    throw new AssertionError(pair(lat, lon, i) + ": kernel " + scalar + ", haversine " + haversine);
+            } else {
+                maxLong = Math.max(maxLong, error);
+                if (error > LONG_TOLERANCE)
+                    throw new AssertionError(pair(lat, lon, i) + ": kernel " + scalar + ", haversine " + haversine);
+            }
+        }
+        System.out.println("DistanceKernelTest: " + (N - 1) + " pairs agree, max difference to haversine "
+                + maxShort + " m under 1000 km, " + maxLong + " m beyond");
+    }
+
+    private static double uniformLatitude(Random rnd) {
+        return Math.toDegrees(Math.asin(2 * rnd.nextDouble() - 1));
+    }
+
+    private static double uniformLongitude(Random rnd) {
+        return rnd.nextDouble() * 360 - 180;
+    }
+
+    private static double wrap(double lon) {
+        return lon >= 180 ? lon - 360 : lon < -180 ? lon + 360 : lon;
+    }
+
+    private static String pair(double[] lat, double[] lon, int i) {
+        return "(" + lat[i] + ", " + lon[i] + ") - (" + lat[i + 1] + ", " + lon[i + 1] + ")";
+    }
+}
@@ -0,0 +1,74 @@
+package uk.co.travelai_public.tools;
+
+import uk.co.travelai_public.model.travel.PedestrianStop;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Check of {@link PedestrianStopDetector}: straight walks at constant walking speeds give no stops, and a walk with
+ * one pause gives exactly that stop, also with position noise.
+ * <pre>
+ *   PedestrianStopDetectorTest [seed]
+ * </pre>
+ */
+
+public class PedestrianStopDetectorTest {
+
+    private static final double T0 = 1672617600000.0;
+    private static final double LAT0 = 51.5;
+    private static final double LON0 = -0.1;
+    private static final double METERS_PER_DEGREE = DistanceKernel.EARTH_RADIUS * Math.PI / 180;
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 42;
+        Random rnd = new Random(seed);
+
+        // Straight 30-minute walks sampled every second, northwards and eastwards
+        for (double speed : new double[]{1.0, 1.2, 1.4, 1.8}) {
+            for (double bearing : new double[]{0, 90, 37}) {
+                PedestrianStopDetector detector = new PedestrianStopDetector();
+                for (int i = 0; i <= 1800; i++)
+                    insert(detector, i, speed * i, bearing, 0, rnd, 10);
+                List<PedestrianStop> stops = detector.finish();
+                if (!stops.isEmpty())
+                    throw new AssertionError("Walk at " + speed + " m/s, bearing " + bearing + ": " + stops.size()
+                            + " stops");
+            }
+        }
+
+        // 10 minutes of walking, a 5-minute pause with 10 m of noise, 10 more minutes of walking
+        for (int run = 0; run < 20; run++) {
+            PedestrianStopDetector detector = new PedestrianStopDetector();
+            double speed = 1.4;
+            double along = 0;
+            for (int i = 0; i <= 1500; i++) {
+                boolean paused = i > 600 && i <= 900;
+                if (!paused && i > 0)
+                    along += speed;
+                insert(detector, i, along, 90, paused ? 10 : 0, rnd, 10);
+            }
+            List<PedestrianStop> stops = detector.finish();
+            if (stops.size() != 1)
+                throw new AssertionError("Walk with a pause: " + stops.size() + " stops");
+            PedestrianStop stop = stops.get(0);
+            if (stop.getDuration() < 240 || stop.getDuration() > 360)
+                throw new AssertionError("Walk with a pause: stop of " + stop.getDuration() + " s");
+            double offset = DistanceKernel.distance(stop.getStopLoc().getLatitude(), stop.getStopLoc().getLongitude(),
+                    LAT0, LON0 + 600 * speed / (METERS_PER_DEGREE * Math.cos(Math.toRadians(LAT0))));
+            if (offset > 25)
+                throw new AssertionError("Walk with a pause: stop " + offset + " m from the pause");
+        }
+        System.out.println("PedestrianStopDetectorTest: walks have no stops, pauses are found");
+    }
+
+    // Insert the waypoint at input distance along a straight line from the origin, with uniform noise up to noise m
+    private static void insert(PedestrianStopDetector detector, int second, double along, double bearing,
+                               double noise, Random rnd, double accuracy) {
+        double north = along * Math.cos(Math.toRadians(bearing)) + (rnd.nextDouble() * 2 - 1) * noise;
+        double east = along * Math.sin(Math.toRadians(bearing)) + (rnd.nextDouble() * 2 - 1) * noise;
+        double lat = LAT0 + north / METERS_PER_DEGREE;
+        double lon = LON0 + east / (METERS_PER_DEGREE * Math.cos(Math.toRadians(LAT0)));
+        detector.insert(T0 + second * 1000.0, lat, lon, accuracy);
+    }
+}